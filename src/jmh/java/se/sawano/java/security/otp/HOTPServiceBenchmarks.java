@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static se.sawano.java.security.otp.HOTP.hotp;
+
+/**
+ * A failed HOTP verification, which checks the whole look-ahead window, with a prepared key compared with computing
+ * each counter from the secret as {@link TOTPService} does for its time steps, and with a {@link HOTPCodeIndex}. The
+ * index is measured both for a lookup alone and for a lookup after the counter has advanced by one, which computes one
+ * code. The secret length follows the algorithm.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.args="HOTPService -prof gc"}.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HOTPServiceBenchmarks {
+
+    @Param({"0", "10", "50", "100", "200"})
+    public int lookAhead;
+
+    @Param({"SHA1", "SHA256", "SHA512"})
+    public ShaAlgorithm algorithm;
+
+    private final TOTPService totpService = new TOTPService();
+    private HOTPService hotpService;
+    private byte[] secret;
+    private HOTP hotp;
+    private HOTPCodeIndex index;
+    private long indexCounter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hotpService = new HOTPService(lookAhead);
+        secret = new byte[algorithm == ShaAlgorithm.SHA1 ? 20 : algorithm == ShaAlgorithm.SHA256 ? 32 : 64];
+        new Random(42).nextBytes(secret);
+
+        // A code that is not in the window, so that every counter is checked
+        long candidate = lookAhead + 1;
+        while (hotpService.verify(hotp = hotpService.create(SharedSecret.from(secret, algorithm), TOTP.Length.SIX, candidate), SharedSecret.from(secret, algorithm), 0)) {
+            ++candidate;
+        }
+        index = hotpService.index(SharedSecret.from(secret, algorithm), TOTP.Length.SIX, 0);
+    }
+
+    @Benchmark
+    public OptionalLong preparedKey() {
+        return hotpService.matchingCounter(hotp, SharedSecret.from(secret, algorithm), 0);
+    }
+
+    @Benchmark
+    public OptionalLong secretPerCounter() {
+        for (long counter = 0; counter <= lookAhead; ++counter) {
+            final TOTP code = totpService.create(SharedSecret.from(secret, algorithm), TOTP.Length.SIX, counter);
+            if (code.value().equals(hotp.value())) {
+                return OptionalLong.of(counter);
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    @Benchmark
+    public OptionalLong codeIndex() {
+        return index.matchingCounter(hotp, index.counter());
+    }
+
+    @Benchmark
+    public OptionalLong codeIndexAdvancedByOne() {
+        return index.matchingCounter(hotp, ++indexCounter);
+    }
+}
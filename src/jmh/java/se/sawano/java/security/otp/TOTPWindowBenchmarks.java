@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static se.sawano.java.security.otp.TOTP.totp;
+import static se.sawano.java.security.otp.WindowSize.windowSize;
+
+/**
+ * A failed TOTP verification, which checks the whole window, on the calling thread compared with split over the common
+ * fork join pool. The parallel evaluation is measured for all window sizes, also those below
+ * {@link TOTPService#PARALLEL_THRESHOLD}, which is where the two should cross.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.args="TOTPWindow"}. Run on the kind of machine that verifies
+ * TOTPs in production, since the crossing depends on the number of cores.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TOTPWindowBenchmarks {
+
+    private static final Clock CLOCK = () -> Instant.ofEpochSecond(1111111111);
+
+    @Param({"3", "9", "15", "21", "41", "81"})
+    public int windowSize;
+
+    @Param({"SHA1", "SHA512"})
+    public ShaAlgorithm algorithm;
+
+    private TOTPService sequential;
+    private TOTPService parallel;
+    private byte[] secret;
+    private TOTP totp;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sequential = new TOTPService(CLOCK, TOTPService.T0_UTC, TOTPService.STEP_SIZE, windowSize(windowSize));
+        parallel = new TOTPService(CLOCK, TOTPService.T0_UTC, TOTPService.STEP_SIZE, windowSize(windowSize), ForkJoinPool.commonPool(), 1);
+        secret = new byte[algorithm == ShaAlgorithm.SHA1 ? 20 : 64];
+        new Random(42).nextBytes(secret);
+
+        // A code that is not in the window, so that every time step is checked
+        int code = 0;
+        while (sequential.verify(totp = totp(code, TOTP.Length.SIX), SharedSecret.from(secret, algorithm))) {
+            ++code;
+        }
+    }
+
+    @Benchmark
+    public boolean sequential() {
+        return sequential.verify(totp, SharedSecret.from(secret, algorithm));
+    }
+
+    @Benchmark
+    public boolean parallel() {
+        return parallel.verify(totp, SharedSecret.from(secret, algorithm));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.codec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base32 and hex over caller owned buffers, compared with commons-codec, for the secret lengths of each HMAC
+ * algorithm. The buffer based methods are expected to report no allocations with the GC profiler.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec}, see
+ * {@link se.sawano.java.security.otp.google.keyuri.KeyUriBenchmarks}.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmarks {
+
+    @Param({"20", "32", "64"})
+    public int secretLength;
+
+    private final org.apache.commons.codec.binary.Base32 commonsBase32 = new org.apache.commons.codec.binary.Base32();
+    private byte[] secret;
+    private char[] base32Chars;
+    private String base32;
+    private char[] hexChars;
+    private byte[] decoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        secret = new byte[secretLength];
+        new Random(42).nextBytes(secret);
+        base32Chars = new char[Base32.encodedLength(secretLength)];
+        Base32.encode(secret, 0, secret.length, base32Chars, 0);
+        base32 = new String(base32Chars);
+        hexChars = new char[2 * secretLength];
+        decoded = new byte[secretLength];
+    }
+
+    @Benchmark
+    public char[] base32EncodeToBuffer() {
+        Base32.encode(secret, 0, secret.length, base32Chars, 0);
+        return base32Chars;
+    }
+
+    @Benchmark
+    public byte[] base32DecodeToBuffer() {
+        Base32.decode(base32, 0, base32.length(), decoded, 0);
+        return decoded;
+    }
+
+    @Benchmark
+    public String commonsCodecBase32Encode() {
+        return commonsBase32.encodeAsString(secret);
+    }
+
+    @Benchmark
+    public byte[] commonsCodecBase32Decode() {
+        return commonsBase32.decode(base32);
+    }
+
+    @Benchmark
+    public char[] hexEncodeToBuffer() {
+        Hex.encode(secret, 0, secret.length, hexChars, 0);
+        return hexChars;
+    }
+
+    @Benchmark
+    public char[] commonsCodecHexEncode() {
+        return org.apache.commons.codec.binary.Hex.encodeHex(secret);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.google.keyuri.parameters.Digits;
+import se.sawano.java.security.otp.google.keyuri.parameters.Issuer;
+import se.sawano.java.security.otp.google.keyuri.parameters.ParametersBuilder;
+import se.sawano.java.security.otp.google.keyuri.parameters.Period;
+import se.sawano.java.security.otp.google.keyuri.parameters.Secret;
+import se.sawano.java.security.otp.google.keyuri.parameters.TOTPParameters;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The enrollment path, from a shared secret to a key URI string, and each of its steps. The account names are plain
+ * ASCII, non-ASCII, or at the maximum length, with an issuer at the maximum length too. The secret length follows the
+ * algorithm, i.e. the output length of its HMAC.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec}, which includes the GC profiler so that allocations per operation
+ * are reported next to the time. See the {@code jmh} profile for how to pass other JMH options.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyUriBenchmarks {
+
+    private static final Period PERIOD = Period.period(Duration.ofSeconds(30));
+
+    @Param({"ascii", "non-ascii", "max-length"})
+    public String accountName;
+
+    @Param({"SHA1", "SHA256", "SHA512"})
+    public ShaAlgorithm algorithm;
+
+    private final PercentEscaper escaper = new PercentEscaper("-._~", false);
+    private final StringBuilder builder = new StringBuilder(1024);
+    private byte[] secret;
+    private Label.AccountName account;
+    private Label.Issuer issuer;
+    private Label label;
+    private TOTPParameters parameters;
+    private KeyUri keyUri;
+    private KeyUriTemplate template;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        secret = new byte[secretLength(algorithm)];
+        new Random(42).nextBytes(secret);
+        account = Label.AccountName.accountName(accountName(accountName));
+        issuer = Label.Issuer.issuer("max-length".equals(accountName) ? repeat("Issuer ", Label.Issuer.MAX_LENGTH - 1) : "Example Company");
+        label = new Label(account, issuer);
+        keyUri = KeyUriFactory.totpKeyUriFrom(SharedSecret.from(secret, algorithm), Digits.SIX, PERIOD, account, issuer);
+        parameters = keyUri.totpParameters().get();
+        template = KeyUriTemplate.totpTemplate(issuer, algorithm, Digits.SIX, PERIOD);
+    }
+
+    /**
+     * The whole enrollment path as done by most callers.
+     */
+    @Benchmark
+    public String keyUriFactory() {
+        return KeyUriFactory.totpKeyUriFrom(SharedSecret.from(secret, algorithm), Digits.SIX, PERIOD, account, issuer)
+                            .toURI()
+                            .toString();
+    }
+
+    @Benchmark
+    public URI keyUriToUri() {
+        return keyUri.toURI();
+    }
+
+    @Benchmark
+    public StringBuilder keyUriTemplate() {
+        builder.setLength(0);
+        return template.appendTo(builder, SharedSecret.from(secret, algorithm), account);
+    }
+
+    @Benchmark
+    public String labelAsUriString() {
+        return label.asUriString();
+    }
+
+    @Benchmark
+    public String parametersAsUriString() {
+        return parameters.asUriString();
+    }
+
+    @Benchmark
+    public TOTPParameters buildParameters() {
+        return ParametersBuilder.totpBuilder()
+                                .withSecret(Secret.secret(secret))
+                                .withAlgorithm(KeyUriFactory.convert(algorithm))
+                                .withDigits(Digits.SIX)
+                                .withIssuer(Issuer.issuer(issuer.value()))
+                                .withPeriod(PERIOD)
+                                .create();
+    }
+
+    @Benchmark
+    public Secret secretBase32() {
+        return Secret.secret(secret);
+    }
+
+    /**
+     * The percent escaper, which copies only once an unsafe character is found.
+     */
+    @Benchmark
+    public String percentEscape() {
+        return escaper.escape(account.value());
+    }
+
+    /**
+     * The generic code point based escaping of {@link UnicodeEscaper}, for comparison with {@link #percentEscape()}.
+     */
+    @Benchmark
+    public String unicodeEscapeSlow() {
+        return escaper.escapeSlow(account.value(), 0);
+    }
+
+    private static int secretLength(final ShaAlgorithm algorithm) {
+        switch (algorithm) {
+            case SHA256:
+                return 32;
+            case SHA512:
+                return 64;
+            default:
+                return 20;
+        }
+    }
+
+    private static String accountName(final String kind) {
+        switch (kind) {
+            case "non-ascii":
+                return "jörg.åström+ümlaut@exämple.com";
+            case "max-length":
+                return repeat("user.name@example.com ", Label.AccountName.MAX_LENGTH);
+            default:
+                return "john.doe@example.com";
+        }
+    }
+
+    private static String repeat(final String value, final int length) {
+        final StringBuilder result = new StringBuilder(length);
+        while (result.length() < length) {
+            result.append(value);
+        }
+        result.setLength(length);
+        return result.toString().trim();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.user.UserId;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+/**
+ * The cost of looking up a secret in a sealed {@link InMemSecretRepository}, which decrypts it, compared with a plain
+ * one, both for the lookup alone and for a lookup followed by a verification with the default window. The secret
+ * length follows the algorithm.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.args="InMemSecretRepository -prof gc"}.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InMemSecretRepositoryBenchmarks {
+
+    @Param({"SHA1", "SHA256", "SHA512"})
+    public ShaAlgorithm algorithm;
+
+    private static final UserId USER = userId("john.doe");
+
+    private final TOTPService totpService = new TOTPService();
+    private final InMemSecretRepository plain = new InMemSecretRepository();
+    private final InMemSecretRepository sealed = InMemSecretRepository.sealed();
+    private TOTP totp;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final byte[] secret = new byte[algorithm == ShaAlgorithm.SHA1 ? 20 : algorithm == ShaAlgorithm.SHA256 ? 32 : 64];
+        new Random(42).nextBytes(secret);
+        plain.save(SharedSecret.from(secret, algorithm), USER);
+        sealed.save(SharedSecret.from(secret, algorithm), USER);
+        totp = totpService.create(SharedSecret.from(secret, algorithm), TOTP.Length.SIX);
+    }
+
+    @Benchmark
+    public SharedSecret plainLookup() {
+        return plain.secretFor(USER).get();
+    }
+
+    @Benchmark
+    public SharedSecret sealedLookup() {
+        return sealed.secretFor(USER).get();
+    }
+
+    @Benchmark
+    public boolean plainVerify() {
+        return totpService.verify(totp, plain.secretFor(USER).get());
+    }
+
+    @Benchmark
+    public boolean sealedVerify() {
+        return totpService.verify(totp, sealed.secretFor(USER).get());
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package se.sawano.java.security.otp.user;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.infrastructure.InMemTOTPRegistry;
+import se.sawano.java.security.otp.user.persistence.SecretRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static se.sawano.java.security.otp.TOTP.totp;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+/**
+ * A burst of verifications through a {@link VerificationExecutor} against a secret repository with simulated latency,
+ * on the default threads of the executor, i.e. virtual threads on Java 21 and later, compared with a fixed pool of
+ * platform threads. Each operation is the whole burst.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.args="VerificationExecutor"}, optionally with e.g.
+ * {@code -p latencyMillis=20} to change the parameters.
+ * </p>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class VerificationExecutorBenchmarks {
+
+    private static final TOTP TOTP_1 = totp(14050471, TOTP.Length.EIGHT);
+    private static final Instant TIME_1 = Instant.ofEpochSecond(1111111111);
+    private static final byte[] SECRET = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"default", "fixed"})
+    public String threads;
+
+    @Param({"20000"})
+    public int requests;
+
+    @Param({"10"})
+    public long latencyMillis;
+
+    @Param({"1000"})
+    public int backendLimit;
+
+    @Param({"200"})
+    public int platformThreads;
+
+    private VerificationExecutor executor;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        final TOTPService totpService = new TOTPService(() -> TIME_1, TOTPService.T0_UTC, TOTPService.STEP_SIZE, TOTPService.DEFAULT_WINDOW_SIZE);
+        final SecretRepository repository = new SlowSecretRepository(latencyMillis);
+        executor = threads.equals("default")
+                   ? new VerificationExecutor(repository, totpService, new InMemTOTPRegistry(), backendLimit)
+                   : new VerificationExecutor(repository, totpService, new InMemTOTPRegistry(), backendLimit,
+                                              Executors.newFixedThreadPool(platformThreads));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Benchmark
+    public Void burst() {
+        final CompletableFuture<?>[] results = new CompletableFuture<?>[requests];
+        for (int i = 0; i < requests; ++i) {
+            results[i] = executor.verify(TOTP_1, userId("user" + i));
+        }
+        return CompletableFuture.allOf(results).join();
+    }
+
+    /**
+     * Hands out the same secret for every user after sleeping for the latency.
+     */
+    private static final class SlowSecretRepository implements SecretRepository {
+
+        private final long latencyMillis;
+
+        private SlowSecretRepository(final long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public void save(final SharedSecret sharedSecret, final UserId userId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Optional<SharedSecret> secretFor(final UserId userId) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Optional.of(SharedSecret.from(SECRET, ShaAlgorithm.SHA1));
+        }
+
+        @Override
+        public void deleteFor(final UserId userId) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.apache.commons.lang3.Validate.exclusiveBetween;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * A window size that is adjusted, between a minimum and a maximum, based on the observed skew between the clocks of the
+ * devices and the server. Use with {@link TOTPService#TOTPService(Clock, java.time.Instant, Duration,
+ * AdaptiveWindowSize)}, which records the offset, in time steps from the center of the window, of each successful
+ * verification.
+ * <p>
+ * Offsets outside of the current window cannot be observed through successful verifications. To detect when the window
+ * needs to grow, every n:th failed verification is probed against the time steps outside of the current window, up to
+ * the maximum window. A probed match does not make the verification succeed, it is only recorded, and it is weighted
+ * by the probe interval when adjusting.
+ * </p>
+ * <p>
+ * {@link #adjust()} sets the current window to the smallest one that covers the configured fraction of the recorded
+ * offsets, and is typically called periodically, see {@link #scheduleAdjustments(ScheduledExecutorService, Duration)}.
+ * This class is thread safe.
+ * </p>
+ */
+public final class AdaptiveWindowSize {
+
+    /**
+     * Default fraction of the recorded offsets that the window must cover (99.9%).
+     */
+    public static final double DEFAULT_COVERAGE = 0.999;
+
+    /**
+     * Default minimum number of recorded offsets before adjusting the window (1000).
+     */
+    public static final long DEFAULT_MINIMUM_SAMPLES = 1000;
+
+    /**
+     * Default interval of failed verifications to probe outside of the current window (every 16th).
+     */
+    public static final int DEFAULT_PROBE_INTERVAL = 16;
+
+    private final WindowSize minimum;
+    private final WindowSize maximum;
+    private final double coverage;
+    private final long minimumSamples;
+    private final int probeInterval;
+    private final int maxOffset;
+    private final AtomicLongArray matches;
+    private final AtomicLongArray probedMatches;
+    private final AtomicLong failures = new AtomicLong();
+    private volatile WindowSize current;
+
+    public AdaptiveWindowSize(final WindowSize minimum, final WindowSize maximum) {
+        this(minimum, maximum, minimum, DEFAULT_COVERAGE, DEFAULT_MINIMUM_SAMPLES, DEFAULT_PROBE_INTERVAL);
+    }
+
+    /**
+     * Creates an adaptive window size.
+     *
+     * @param minimum
+     *         the smallest window to use
+     * @param maximum
+     *         the largest window to use
+     * @param initial
+     *         the window to use until the first adjustment
+     * @param coverage
+     *         the fraction of the recorded offsets that the window must cover, e.g. 0.999
+     * @param minimumSamples
+     *         the number of recorded offsets needed before the window is adjusted
+     * @param probeInterval
+     *         probe every n:th failed verification outside of the current window
+     */
+    public AdaptiveWindowSize(final WindowSize minimum,
+                              final WindowSize maximum,
+                              final WindowSize initial,
+                              final double coverage,
+                              final long minimumSamples,
+                              final int probeInterval) {
+        notNull(minimum);
+        notNull(maximum);
+        notNull(initial);
+        isTrue(minimum.value() <= maximum.value(), "Minimum window size cannot be greater than maximum");
+        isTrue(minimum.value() <= initial.value() && initial.value() <= maximum.value(), "Initial window size must be within the bounds");
+        exclusiveBetween(0.0, 1.0, coverage, "Coverage must be greater than 0 and less than 1");
+        isTrue(minimumSamples > 0, "Minimum number of samples must be greater than 0");
+        isTrue(probeInterval > 0, "Probe interval must be greater than 0");
+
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.current = initial;
+        this.coverage = coverage;
+        this.minimumSamples = minimumSamples;
+        this.probeInterval = probeInterval;
+        this.maxOffset = maximum.value() / 2;
+        this.matches = new AtomicLongArray(maximum.value());
+        this.probedMatches = new AtomicLongArray(maximum.value());
+    }
+
+    public WindowSize current() {
+        return current;
+    }
+
+    public WindowSize minimum() {
+        return minimum;
+    }
+
+    public WindowSize maximum() {
+        return maximum;
+    }
+
+    /**
+     * Returns a snapshot of the offsets recorded since the last adjustment.
+     *
+     * @return the histogram
+     */
+    public Histogram histogram() {
+        return new Histogram(toArray(matches), toArray(probedMatches));
+    }
+
+    void recordMatch(final int offset) {
+        if (Math.abs(offset) <= maxOffset) {
+            matches.incrementAndGet(offset + maxOffset);
+        }
+    }
+
+    void recordProbedMatch(final int offset) {
+        if (Math.abs(offset) <= maxOffset) {
+            probedMatches.incrementAndGet(offset + maxOffset);
+        }
+    }
+
+    boolean shouldProbeFailure() {
+        return current.value() < maximum.value() && failures.incrementAndGet() % probeInterval == 0;
+    }
+
+    /**
+     * Sets the current window to the smallest window, within the bounds, that covers the configured fraction of the
+     * recorded offsets and starts recording anew. Nothing is changed until the minimum number of samples has been
+     * recorded.
+     *
+     * @return the current window size
+     */
+    public WindowSize adjust() {
+        if (histogram().numberOfSamples() < minimumSamples) {
+            return current;
+        }
+
+        final long[] weighted = new long[matches.length()];
+        long total = 0;
+        for (int i = 0; i < weighted.length; ++i) {
+            weighted[i] = matches.getAndSet(i, 0) + probedMatches.getAndSet(i, 0) * probeInterval;
+            total += weighted[i];
+        }
+
+        long covered = weighted[maxOffset];
+        int halfWindow = 0;
+        while (halfWindow < maxOffset && (covered < coverage * total || halfWindow < minimum.value() / 2)) {
+            ++halfWindow;
+            covered += weighted[maxOffset - halfWindow] + weighted[maxOffset + halfWindow];
+        }
+
+        current = WindowSize.windowSize(2 * halfWindow + 1);
+        return current;
+    }
+
+    /**
+     * Schedules periodic adjustments of the window.
+     *
+     * @param scheduler
+     *         the scheduler to run the adjustments on
+     * @param period
+     *         the time between adjustments
+     *
+     * @return the scheduled task, which can be used to stop the adjustments
+     */
+    public ScheduledFuture<?> scheduleAdjustments(final ScheduledExecutorService scheduler, final Duration period) {
+        notNull(scheduler);
+        notNull(period);
+
+        return scheduler.scheduleAtFixedRate(this::adjust, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static long[] toArray(final AtomicLongArray array) {
+        final long[] copy = new long[array.length()];
+        for (int i = 0; i < copy.length; ++i) {
+            copy[i] = array.get(i);
+        }
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveWindowSize{" +
+                "current=" + current +
+                ", minimum=" + minimum +
+                ", maximum=" + maximum +
+                '}';
+    }
+
+    /**
+     * Number of verifications per offset from the center of the window.
+     */
+    public static final class Histogram {
+
+        private final long[] matches;
+        private final long[] probedMatches;
+
+        private Histogram(final long[] matches, final long[] probedMatches) {
+            this.matches = matches;
+            this.probedMatches = probedMatches;
+        }
+
+        /**
+         * Returns the largest offset, in either direction, that is recorded.
+         *
+         * @return the max offset
+         */
+        public int maxOffset() {
+            return matches.length / 2;
+        }
+
+        /**
+         * Returns the number of successful verifications at the given offset.
+         *
+         * @param offset
+         *         the offset, in time steps from the center of the window
+         *
+         * @return the number of verifications
+         */
+        public long matches(final int offset) {
+            return Math.abs(offset) <= maxOffset() ? matches[offset + maxOffset()] : 0;
+        }
+
+        /**
+         * Returns the number of probed failed verifications that would have matched at the given offset.
+         *
+         * @param offset
+         *         the offset, in time steps from the center of the window
+         *
+         * @return the number of probed verifications
+         */
+        public long probedMatches(final int offset) {
+            return Math.abs(offset) <= maxOffset() ? probedMatches[offset + maxOffset()] : 0;
+        }
+
+        public long numberOfSamples() {
+            long sum = 0;
+            for (int i = 0; i < matches.length; ++i) {
+                sum += matches[i] + probedMatches[i];
+            }
+            return sum;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder("Histogram{");
+            for (int offset = -maxOffset(); offset <= maxOffset(); ++offset) {
+                builder.append(offset == -maxOffset() ? "" : ", ")
+                       .append(offset).append('=').append(matches(offset)).append('/').append(probedMatches(offset));
+            }
+            return builder.append('}').toString();
+        }
+    }
+}
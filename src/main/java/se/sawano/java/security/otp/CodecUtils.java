@@ -16,31 +16,29 @@
 
 package se.sawano.java.security.otp;
 
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.binary.Base32;
-import org.apache.commons.codec.binary.Hex;
+import se.sawano.java.security.otp.codec.Base32;
+import se.sawano.java.security.otp.codec.Hex;
 
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 class CodecUtils {
 
     public static byte[] decodeBase32(final byte[] base32Bytes) {
-        return new Base32(false).decode(base32Bytes);
+        final byte[] result = new byte[Base32.decodedLength(base32Bytes.length)];
+        final int length = Base32.decode(base32Bytes, 0, base32Bytes.length, result, 0);
+        return length == result.length ? result : Arrays.copyOf(result, length);
     }
 
     public static byte[] decodeHex(final String hexString) {
-        try {
-            return Hex.decodeHex(hexString.toCharArray());
-        } catch (final DecoderException e) {
-            throw new RuntimeException(e);
-        }
+        return Hex.decode(hexString);
     }
 
     public static String encodeToHexString(final String value, final Charset charset) {
-        return Hex.encodeHexString(value.getBytes(charset));
+        return new String(Hex.encode(value.getBytes(charset)));
     }
 
     public static char[] encodeToHex(final byte[] value) {
-        return Hex.encodeHex(value);
+        return Hex.encode(value);
     }
 }
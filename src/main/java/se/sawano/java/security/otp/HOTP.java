@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Representation of an HOTP. Like {@link TOTP}, this class will throw an {@link UnsupportedOperationException} if
+ * serialized in order to prevent accidental serialization of the HOTP code.
+ */
+public final class HOTP implements Externalizable {
+
+    /**
+     * Creates a new HOTP using the given code. The HOTP code will be left padded with zeros (0) if it's shorter than
+     * the provided length.
+     *
+     * @param code
+     *         the integer value of the code
+     * @param length
+     *         the length of the HOTP code
+     *
+     * @return the newly created HOTP
+     */
+    public static HOTP hotp(final int code, final TOTP.Length length) {
+        return new HOTP(code, length);
+    }
+
+    private final String value;
+    private final TOTP.Length length;
+
+    private HOTP(final int value, final TOTP.Length length) {
+        notNull(length);
+        isTrue(value >= 0, "Value cannot be negative");
+
+        final String paddedString = StringUtils.leftPad(Integer.toString(value), length.value(), '0');
+        isTrue(paddedString.length() == length.value(), "Value must have length: %d. Was: %d", length.value(), paddedString.length());
+
+        this.value = paddedString;
+        this.length = length;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    public TOTP.Length length() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final HOTP hotp = (HOTP) o;
+        return value.equals(hotp.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "HOTP{value=*****}";
+    }
+
+    @Override
+    public void writeExternal(final ObjectOutput out) throws IOException {
+        deny();
+    }
+
+    @Override
+    public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+        deny();
+    }
+
+    private static void deny() {
+        throw new UnsupportedOperationException("Not allowed");
+    }
+
+}
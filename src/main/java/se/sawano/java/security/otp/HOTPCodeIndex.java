@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * The codes of the next counters of one HOTP credential, for large look-ahead windows. The codes are computed once and
+ * kept sorted in an {@code int[]}, together with the offsets of their counters, so that a verification is a binary
+ * search instead of one HMAC per counter in the window. When the counter advances, only the codes of the counters that
+ * enter the window are computed.
+ * <p>
+ * Create with {@link HOTPService#index(SharedSecret, TOTP.Length, long)}. The index keeps the prepared key of the
+ * credential, and must be discarded when the secret is replaced. Instances are thread safe.
+ * </p>
+ */
+public final class HOTPCodeIndex {
+
+    private final PreparedKey key;
+    private final TOTP.Length length;
+    private final int size;
+    private final int[] codes;
+    private final int[] offsets;
+    private final long[] scratch;
+    private long origin;
+    private long counter;
+
+    HOTPCodeIndex(final PreparedKey key, final TOTP.Length length, final long counter, final int size) {
+        notNull(key);
+        notNull(length);
+        isTrue(counter >= 0, "Counter must not be negative");
+        isTrue(size > 0, "Size must be positive");
+
+        this.key = key;
+        this.length = length;
+        this.size = size;
+        this.codes = new int[size];
+        this.offsets = new int[size];
+        this.scratch = new long[size];
+        rebuild(counter);
+    }
+
+    public TOTP.Length length() {
+        return length;
+    }
+
+    /**
+     * @return the number of counters in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the first counter in the index
+     */
+    public synchronized long counter() {
+        return counter;
+    }
+
+    /**
+     * Looks up the HOTP among the counters from the given counter up to, but not including, the counter plus the size
+     * of the index. The index is first moved to the given counter, which computes the codes of the counters that were
+     * not in the index.
+     *
+     * @param hotp
+     *         the HOTP to look up
+     * @param counter
+     *         the expected counter
+     *
+     * @return the lowest matching counter, or empty if the HOTP is not in the window or is of another length
+     */
+    public synchronized OptionalLong matchingCounter(final HOTP hotp, final long counter) {
+        notNull(hotp);
+        isTrue(counter >= 0, "Counter must not be negative");
+
+        if (hotp.length() != length) {
+            return OptionalLong.empty();
+        }
+
+        moveTo(counter);
+
+        final int code = Integer.parseInt(hotp.value());
+        final int index = firstIndexOf(code);
+        return index < size && codes[index] == code ? OptionalLong.of(origin + offsets[index]) : OptionalLong.empty();
+    }
+
+    private void moveTo(final long counter) {
+        final long advance = counter - this.counter;
+        if (advance == 0) {
+            return;
+        }
+        if (advance < 0 || advance >= size || counter - origin + size > Integer.MAX_VALUE || counter > Long.MAX_VALUE - size) {
+            rebuild(counter);
+            return;
+        }
+
+        // Codes that are still in the window keep their order, the new ones are sorted and merged in
+        final int added = (int) advance;
+        final int firstOffset = (int) (counter - origin);
+        final int lastOffset = firstOffset + size;
+        for (int i = 0; i < added; ++i) {
+            final int offset = lastOffset - added + i;
+            scratch[i] = entry(key.code(origin + offset, length), offset);
+        }
+        Arrays.sort(scratch, 0, added);
+
+        int kept = 0;
+        for (int i = 0; i < size; ++i) {
+            if (offsets[i] >= firstOffset) {
+                codes[kept] = codes[i];
+                offsets[kept] = offsets[i];
+                ++kept;
+            }
+        }
+
+        int i = kept - 1;
+        int j = added - 1;
+        for (int k = size - 1; j >= 0; --k) {
+            if (i >= 0 && entry(codes[i], offsets[i]) > scratch[j]) {
+                codes[k] = codes[i];
+                offsets[k] = offsets[i];
+                --i;
+            }
+            else {
+                codes[k] = (int) (scratch[j] >>> 32);
+                offsets[k] = (int) scratch[j];
+                --j;
+            }
+        }
+        this.counter = counter;
+    }
+
+    private void rebuild(final long counter) {
+        this.origin = counter;
+        this.counter = counter;
+        final int count = (int) Math.min(size, Long.MAX_VALUE - counter);
+        for (int offset = 0; offset < size; ++offset) {
+            // Counters past the last one are filled with codes that cannot match
+            scratch[offset] = offset < count ? entry(key.code(counter + offset, length), offset) : entry(-1, offset);
+        }
+        Arrays.sort(scratch);
+        for (int i = 0; i < size; ++i) {
+            codes[i] = (int) (scratch[i] >>> 32);
+            offsets[i] = (int) scratch[i];
+        }
+    }
+
+    /**
+     * Returns the index of the first code that is not less than the given one, so that the lowest counter is found
+     * when several counters have the same code.
+     */
+    private int firstIndexOf(final int code) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (codes[middle] < code) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Sorts by code, then by offset. Codes and offsets are never negative, except for the filler code.
+     */
+    private static long entry(final int code, final int offset) {
+        return ((long) code << 32) | offset;
+    }
+
+    @Override
+    public String toString() {
+        return "HOTPCodeIndex{length=" + length + ", size=" + size + '}';
+    }
+}
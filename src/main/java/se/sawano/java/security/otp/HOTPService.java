@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import java.util.OptionalLong;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+import static se.sawano.java.security.otp.HOTP.hotp;
+
+/**
+ * Creates and verifies HOTPs as described in RFC 4226. Verification checks the expected counter and the counters of a
+ * look-ahead window after it, as described in RFC 4226 section 7.4, for tokens that have been used without reaching
+ * the server. All counters of a verification are computed with the same {@link PreparedKey}.
+ * <p>
+ * This service does not keep track of the counters, see {@link se.sawano.java.security.otp.user.UserHOTPService} for
+ * that.
+ * </p>
+ */
+public class HOTPService {
+
+    /**
+     * Default number of counters to check after the expected counter (10).
+     */
+    public static final int DEFAULT_LOOK_AHEAD = 10;
+
+    private final int lookAhead;
+
+    public HOTPService() {
+        this(DEFAULT_LOOK_AHEAD);
+    }
+
+    /**
+     * Creates a new {@link HOTPService}.
+     *
+     * @param lookAhead
+     *         the number of counters to check after the expected counter, the look-ahead parameter {@code s} of RFC
+     *         4226 section 7.4
+     */
+    public HOTPService(final int lookAhead) {
+        isTrue(lookAhead >= 0, "Look-ahead must not be negative");
+
+        this.lookAhead = lookAhead;
+    }
+
+    public int lookAhead() {
+        return lookAhead;
+    }
+
+    public HOTP create(final SharedSecret secret, final TOTP.Length length, final long counter) {
+        notNull(secret);
+        notNull(length);
+
+        return hotp(PreparedKey.prepare(secret).code(counter, length), length);
+    }
+
+    public boolean verify(final HOTP hotp, final SharedSecret secret, final long counter) {
+        return matchingCounter(hotp, secret, counter).isPresent();
+    }
+
+    /**
+     * Verifies the HOTP and returns the counter that matched. The counters from the expected counter up to and
+     * including the look-ahead are checked in order.
+     *
+     * @param hotp
+     *         the HOTP to verify
+     * @param secret
+     *         the secret to verify the HOTP with
+     * @param counter
+     *         the expected counter, i.e. the counter following the last successfully verified one
+     *
+     * @return the matching counter, or empty if the HOTP is not valid. The counter to expect next is the matching
+     * counter plus one.
+     */
+    public OptionalLong matchingCounter(final HOTP hotp, final SharedSecret secret, final long counter) {
+        notNull(hotp);
+        notNull(secret);
+        isTrue(counter >= 0, "Counter must not be negative");
+
+        return matchingCounter(hotp, PreparedKey.prepare(secret), counter);
+    }
+
+    /**
+     * Same as {@link #matchingCounter(HOTP, SharedSecret, long)}, but with a key that has already been prepared.
+     *
+     * @param hotp
+     *         the HOTP to verify
+     * @param key
+     *         the prepared secret to verify the HOTP with
+     * @param counter
+     *         the expected counter
+     *
+     * @return the matching counter, or empty if the HOTP is not valid
+     */
+    public OptionalLong matchingCounter(final HOTP hotp, final PreparedKey key, final long counter) {
+        notNull(hotp);
+        notNull(key);
+        isTrue(counter >= 0, "Counter must not be negative");
+
+        final int code = Integer.parseInt(hotp.value());
+        final long window = Math.min(lookAhead, Long.MAX_VALUE - counter);
+        for (long i = 0; i <= window; ++i) {
+            if (key.code(counter + i, hotp.length()) == code) {
+                return OptionalLong.of(counter + i);
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    /**
+     * Creates an index of the codes of the expected counter and its look-ahead window, for verifying with a binary
+     * search instead of computing the window. This pays off for large look-ahead windows and credentials that are
+     * verified repeatedly.
+     *
+     * @param secret
+     *         the secret of the credential
+     * @param length
+     *         the length of the HOTPs of the credential
+     * @param counter
+     *         the expected counter
+     *
+     * @return the index
+     */
+    public HOTPCodeIndex index(final SharedSecret secret, final TOTP.Length length, final long counter) {
+        notNull(secret);
+        notNull(length);
+
+        return new HOTPCodeIndex(PreparedKey.prepare(secret), length, counter, lookAhead + 1);
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * HMAC-based key derivation, HKDF, as described in RFC 5869, with the HMACs of the {@link ShaAlgorithm}s.
+ */
+public final class Hkdf {
+
+    private Hkdf() {}
+
+    /**
+     * Derives a key with HKDF-Extract followed by HKDF-Expand.
+     *
+     * @param algorithm
+     *         the algorithm of the HMAC
+     * @param inputKey
+     *         the input keying material, e.g. a master key
+     * @param salt
+     *         the salt, or an empty array for none, which is the same as a salt of zeros
+     * @param info
+     *         the context and application specific information, e.g. a user id
+     * @param length
+     *         the number of bytes to derive, at most 255 times the output length of the HMAC
+     *
+     * @return the derived key
+     */
+    public static byte[] derive(final ShaAlgorithm algorithm, final byte[] inputKey, final byte[] salt, final byte[] info, final int length) {
+        notNull(algorithm);
+        notNull(inputKey);
+        notNull(salt);
+        notNull(info);
+
+        final String macAlgorithm = PreparedKey.macAlgorithm(algorithm);
+        final Mac mac;
+        try {
+            mac = Mac.getInstance(macAlgorithm);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Unsupported algorithm: " + algorithm, e);
+        }
+        final int hashLength = mac.getMacLength();
+        isTrue(length > 0 && length <= 255 * hashLength, "Length must be between 1 and %d", 255 * hashLength);
+
+        final byte[] pseudoRandomKey = hmac(mac, macAlgorithm, salt.length == 0 ? new byte[hashLength] : salt, inputKey);
+        byte[] block = new byte[0];
+        try {
+            final byte[] derived = new byte[length];
+            for (int i = 1, position = 0; position < length; ++i) {
+                init(mac, macAlgorithm, pseudoRandomKey);
+                mac.update(block);
+                mac.update(info);
+                mac.update((byte) i);
+                Arrays.fill(block, (byte) 0);
+                block = mac.doFinal();
+                final int count = Math.min(block.length, length - position);
+                System.arraycopy(block, 0, derived, position, count);
+                position += count;
+            }
+            return derived;
+        } finally {
+            Arrays.fill(pseudoRandomKey, (byte) 0);
+            Arrays.fill(block, (byte) 0);
+        }
+    }
+
+    private static byte[] hmac(final Mac mac, final String macAlgorithm, final byte[] key, final byte[] message) {
+        init(mac, macAlgorithm, key);
+        return mac.doFinal(message);
+    }
+
+    private static void init(final Mac mac, final String macAlgorithm, final byte[] key) {
+        try {
+            mac.init(new SecretKeySpec(key, macAlgorithm));
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * The result of importing secrets in bulk, e.g. from a file of key URIs or a PSKC container. Each item that could not
+ * be imported is reported as a {@link Failure} with its location in the input, e.g. a line number or a file. The items
+ * themselves are not kept since they contain secrets.
+ *
+ * @param <L>
+ *         the type of the location of an item in the input
+ */
+public final class ImportReport<L> {
+
+    private final long imported;
+    private final List<Failure<L>> failures;
+
+    private ImportReport(final long imported, final List<Failure<L>> failures) {
+        this.imported = imported;
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return the number of secrets saved in the repository
+     */
+    public long imported() {
+        return imported;
+    }
+
+    /**
+     * @return the items that could not be imported, in the order of their location in the input
+     */
+    public List<Failure<L>> failures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportReport{" +
+                "imported=" + imported +
+                ", failures=" + failures.size() +
+                '}';
+    }
+
+    /**
+     * An item that could not be imported.
+     *
+     * @param <L>
+     *         the type of the location of the item in the input
+     */
+    public static final class Failure<L> {
+        private final L location;
+        private final String reason;
+
+        private Failure(final L location, final String reason) {
+            this.location = location;
+            this.reason = reason;
+        }
+
+        public L location() {
+            return location;
+        }
+
+        public String reason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "Failure{" +
+                    "location=" + location +
+                    ", reason='" + reason + '\'' +
+                    '}';
+        }
+    }
+
+    /**
+     * Collects the outcome of each item of an import. The items may be imported concurrently.
+     *
+     * @param <L>
+     *         the type of the location of an item in the input
+     */
+    public static final class Collector<L> {
+        private final LongAdder imported = new LongAdder();
+        private final ConcurrentLinkedQueue<Failure<L>> failures = new ConcurrentLinkedQueue<>();
+        private final Comparator<? super L> order;
+
+        /**
+         * @param order
+         *         the order of the locations in the input
+         */
+        public Collector(final Comparator<? super L> order) {
+            notNull(order);
+            this.order = order;
+        }
+
+        /**
+         * Records that an item was saved in the repository.
+         */
+        public void imported() {
+            imported.increment();
+        }
+
+        /**
+         * Records that the item at the given location could not be imported.
+         *
+         * @param location
+         *         the location of the item in the input
+         * @param reason
+         *         why the item could not be imported
+         */
+        public void failed(final L location, final String reason) {
+            notNull(location);
+            failures.add(new Failure<>(location, reason));
+        }
+
+        /**
+         * Records that the item at the given location could not be imported because of the given exception.
+         *
+         * @param location
+         *         the location of the item in the input
+         * @param cause
+         *         the exception, whose message is used as reason, or its type if it has no message
+         */
+        public void failed(final L location, final Exception cause) {
+            failed(location, cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage());
+        }
+
+        /**
+         * @return the report of the items collected so far
+         */
+        public ImportReport<L> report() {
+            final List<Failure<L>> sortedFailures = new ArrayList<>(failures);
+            sortedFailures.sort((a, b) -> order.compare(a.location, b.location));
+            return new ImportReport<>(imported.sum(), sortedFailures);
+        }
+    }
+}
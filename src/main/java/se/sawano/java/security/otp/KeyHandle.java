@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import static org.apache.commons.lang3.Validate.inclusiveBetween;
+import static org.apache.commons.lang3.Validate.notBlank;
+
+/**
+ * Identifies a secret kept in a {@link KeyVault}. The handle carries no key material.
+ */
+public final class KeyHandle {
+
+    public static KeyHandle keyHandle(final String value) {
+        return new KeyHandle(value);
+    }
+
+    public static final int MAX_LENGTH = 400;
+    private final String value;
+
+    private KeyHandle(final String value) {
+        notBlank(value);
+        inclusiveBetween(0, MAX_LENGTH, value.length(), "Key handle must be at most %d characters", MAX_LENGTH);
+
+        this.value = value;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyHandle{" +
+                "value='" + value + '\'' +
+                '}';
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final KeyHandle that = (KeyHandle) o;
+
+        return value.equals(that.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * A store of secrets that computes the codes of the secrets itself, e.g. a hardware security module or a key management
+ * service, so that the secrets never enter application memory.
+ * <p>
+ * The codes are computed in batches, so that a whole verification window, or the windows of a batch of requests, is
+ * a single call. A code is the HMAC of the counter, i.e. the time step or HOTP counter, truncated as described in RFC
+ * 4226 section 5.3 and reduced to the requested number of digits.
+ * </p>
+ * <p>
+ * Implementations must be thread safe. {@link SoftwareKeyVault} is an in-process implementation.
+ * </p>
+ */
+public interface KeyVault {
+
+    /**
+     * Computes the codes of a batch of requests.
+     *
+     * @param requests
+     *         the requests
+     *
+     * @return the codes of each request, in the order of the requests and of their counters
+     *
+     * @throws IllegalArgumentException
+     *         if the vault has no key for a key handle
+     */
+    int[][] codes(List<CodeRequest> requests);
+
+    /**
+     * Computes the codes of several counters with the same key.
+     *
+     * @param key
+     *         the key to compute the codes with
+     * @param counters
+     *         the counters
+     * @param length
+     *         the number of digits of the codes
+     *
+     * @return the codes, in the order of the counters
+     *
+     * @throws IllegalArgumentException
+     *         if the vault has no key for the key handle
+     */
+    default int[] codes(final KeyHandle key, final long[] counters, final TOTP.Length length) {
+        return codes(Collections.singletonList(CodeRequest.codeRequest(key, counters, length)))[0];
+    }
+
+    /**
+     * The counters to compute codes for with one key.
+     */
+    final class CodeRequest {
+
+        public static CodeRequest codeRequest(final KeyHandle key, final long[] counters, final TOTP.Length length) {
+            return new CodeRequest(key, counters, length);
+        }
+
+        private final KeyHandle key;
+        private final long[] counters;
+        private final TOTP.Length length;
+
+        private CodeRequest(final KeyHandle key, final long[] counters, final TOTP.Length length) {
+            notNull(key);
+            notNull(counters);
+            notNull(length);
+            isTrue(counters.length > 0, "At least one counter is required");
+
+            this.key = key;
+            this.counters = counters.clone();
+            this.length = length;
+        }
+
+        public KeyHandle key() {
+            return key;
+        }
+
+        public int numberOfCounters() {
+            return counters.length;
+        }
+
+        public long counter(final int index) {
+            return counters[index];
+        }
+
+        public TOTP.Length length() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return "CodeRequest{" +
+                    "key=" + key +
+                    ", counters=" + counters.length +
+                    ", length=" + length +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import java.util.OptionalInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static se.sawano.java.security.otp.SharedSecret.from;
+
+/**
+ * Searches the time steps of a window on a fork join pool. The offsets are given in the order they would be checked
+ * sequentially and are split into chunks, each checked with its own {@link PreparedKey}. Once a match is found, chunks
+ * further out in the window stop, while chunks closer to the center run to completion, so that the result is the same
+ * as that of a sequential search.
+ */
+final class ParallelWindowSearch {
+
+    static final int OFFSETS_PER_TASK = 8;
+
+    private final ForkJoinPool pool;
+
+    ParallelWindowSearch(final ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the index of the first offset whose time step matches the TOTP, or empty if none matches
+     */
+    OptionalInt search(final TOTP totp, final byte[] secretBytes, final ShaAlgorithm algorithm, final long numberOfSteps, final int[] offsets) {
+        final AtomicInteger firstMatch = new AtomicInteger(Integer.MAX_VALUE);
+        pool.invoke(new SearchTask(Integer.parseInt(totp.value()), totp.length(), secretBytes, algorithm, numberOfSteps, offsets,
+                                   0, offsets.length, firstMatch));
+
+        final int index = firstMatch.get();
+        return index == Integer.MAX_VALUE ? OptionalInt.empty() : OptionalInt.of(index);
+    }
+
+    private static final class SearchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int code;
+        private final TOTP.Length length;
+        private final byte[] secretBytes;
+        private final ShaAlgorithm algorithm;
+        private final long numberOfSteps;
+        private final int[] offsets;
+        private final int start;
+        private final int end;
+        private final AtomicInteger firstMatch;
+
+        SearchTask(final int code,
+                   final TOTP.Length length,
+                   final byte[] secretBytes,
+                   final ShaAlgorithm algorithm,
+                   final long numberOfSteps,
+                   final int[] offsets,
+                   final int start,
+                   final int end,
+                   final AtomicInteger firstMatch) {
+            this.code = code;
+            this.length = length;
+            this.secretBytes = secretBytes;
+            this.algorithm = algorithm;
+            this.numberOfSteps = numberOfSteps;
+            this.offsets = offsets;
+            this.start = start;
+            this.end = end;
+            this.firstMatch = firstMatch;
+        }
+
+        @Override
+        protected void compute() {
+            if (start > firstMatch.get()) {
+                return;
+            }
+            if (end - start <= OFFSETS_PER_TASK) {
+                final PreparedKey key = PreparedKey.prepare(from(secretBytes, algorithm));
+                for (int i = start; i < end && i < firstMatch.get(); ++i) {
+                    if (key.code(numberOfSteps + offsets[i], length) == code) {
+                        firstMatch.accumulateAndGet(i, Math::min);
+                        return;
+                    }
+                }
+                return;
+            }
+            final int middle = (start + end) >>> 1;
+            invokeAll(new SearchTask(code, length, secretBytes, algorithm, numberOfSteps, offsets, start, middle, firstMatch),
+                      new SearchTask(code, length, secretBytes, algorithm, numberOfSteps, offsets, middle, end, firstMatch));
+        }
+    }
+}
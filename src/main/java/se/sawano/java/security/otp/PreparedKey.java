@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * A {@link SharedSecret} prepared for computing the HMACs of several counters, e.g. a look-ahead window. The secret is
+ * read once and a {@link Mac} is initialized with it, so that the key setup is not repeated for each counter and no
+ * arrays are allocated per counter.
+ * <p>
+ * Instances are not thread safe and are meant to be used for a single verification. The key material is held by the
+ * {@link Mac} until the prepared key is garbage collected.
+ * </p>
+ */
+public final class PreparedKey {
+
+    private static final Map<ShaAlgorithm, String> MAC_ALGORITHMS = new EnumMap<>(ShaAlgorithm.class);
+
+    static {
+        MAC_ALGORITHMS.put(ShaAlgorithm.SHA1, "HmacSHA1");
+        MAC_ALGORITHMS.put(ShaAlgorithm.SHA256, "HmacSHA256");
+        MAC_ALGORITHMS.put(ShaAlgorithm.SHA512, "HmacSHA512");
+    }
+
+    private static final int[] DIGITS_POWER_OF_10 = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000, 1_000_000_000};
+
+    /**
+     * Prepares the secret. The secret is consumed.
+     *
+     * @param secret
+     *         the secret to prepare
+     *
+     * @return the prepared key
+     */
+    public static PreparedKey prepare(final SharedSecret secret) {
+        notNull(secret);
+
+        final ShaAlgorithm algorithm = secret.algorithm();
+        final byte[] secretBytes = secret.value();
+        try {
+            return new PreparedKey(secretBytes, 0, secretBytes.length, algorithm);
+        } finally {
+            Arrays.fill(secretBytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Prepares the key in the given range of the array, e.g. a secret that has just been decrypted into a reusable
+     * buffer, without first copying it into a {@link SharedSecret}. The array is not changed, so the caller should
+     * clear it.
+     *
+     * @param key
+     *         the array holding the key
+     * @param offset
+     *         the index of the first byte of the key
+     * @param length
+     *         the length of the key, at least {@link SharedSecret#MINIMUM_NUMBER_OF_BYTES}
+     * @param algorithm
+     *         the algorithm of the key
+     *
+     * @return the prepared key
+     */
+    public static PreparedKey prepare(final byte[] key, final int offset, final int length, final ShaAlgorithm algorithm) {
+        notNull(key);
+        notNull(algorithm);
+        isTrue(offset >= 0 && length >= 0 && offset + length <= key.length, "Invalid range: %d, %d", offset, length);
+        isTrue(length >= SharedSecret.MINIMUM_NUMBER_OF_BYTES, "Minimum length of secret is %d bytes", SharedSecret.MINIMUM_NUMBER_OF_BYTES);
+
+        return new PreparedKey(key, offset, length, algorithm);
+    }
+
+    private final ShaAlgorithm algorithm;
+    private final Mac mac;
+    private final byte[] counterMessage = new byte[8];
+    private final byte[] hash;
+
+    private PreparedKey(final byte[] key, final int offset, final int length, final ShaAlgorithm algorithm) {
+        this.algorithm = algorithm;
+
+        final String macAlgorithm = MAC_ALGORITHMS.get(algorithm);
+        try {
+            this.mac = Mac.getInstance(macAlgorithm);
+            this.mac.init(new SecretKeySpec(key, offset, length, macAlgorithm));
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Unsupported algorithm: " + algorithm, e);
+        }
+        this.hash = new byte[mac.getMacLength()];
+    }
+
+    /**
+     * @return the JCA name of the HMAC of the algorithm
+     */
+    static String macAlgorithm(final ShaAlgorithm algorithm) {
+        return MAC_ALGORITHMS.get(algorithm);
+    }
+
+    public ShaAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Computes the code of the given counter, i.e. the truncated HMAC of the counter as an 8 byte big-endian message,
+     * reduced to the given number of digits. See RFC 4226 section 5.
+     *
+     * @param counter
+     *         the counter, or the time step for a TOTP
+     * @param length
+     *         the number of digits of the code
+     *
+     * @return the code
+     */
+    public int code(final long counter, final TOTP.Length length) {
+        for (int i = 0; i < counterMessage.length; ++i) {
+            counterMessage[i] = (byte) (counter >>> (56 - 8 * i));
+        }
+        return code(counterMessage, 0, counterMessage.length, length);
+    }
+
+    /**
+     * Computes the code of the given message, i.e. its truncated HMAC reduced to the given number of digits. Used for
+     * messages other than a counter, such as the data input of OCRA (RFC 6287).
+     *
+     * @param message
+     *         the buffer holding the message
+     * @param offset
+     *         the start of the message in the buffer
+     * @param messageLength
+     *         the number of bytes of the message
+     * @param length
+     *         the number of digits of the code
+     *
+     * @return the code
+     */
+    public int code(final byte[] message, final int offset, final int messageLength, final TOTP.Length length) {
+        mac.update(message, offset, messageLength);
+        try {
+            mac.doFinal(hash, 0);
+        } catch (final ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        return TOTPService.truncate(hash) % DIGITS_POWER_OF_10[length.value()];
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedKey{algorithm=" + algorithm + '}';
+    }
+}
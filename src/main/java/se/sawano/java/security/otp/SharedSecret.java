@@ -64,6 +64,17 @@ public final class SharedSecret implements Externalizable {
         return copy;
     }
 
+    /**
+     * Creates a copy of this secret, which can be read once independently of this secret. This is intended for
+     * repositories that need to hand out the same secret more than once.
+     *
+     * @return a copy of this secret
+     */
+    public SharedSecret copy() {
+        validState(!consumed, "Value has already been consumed");
+        return new SharedSecret(value, algorithm);
+    }
+
     /**
      * Returns the length of the secret, in number of bytes.
      *
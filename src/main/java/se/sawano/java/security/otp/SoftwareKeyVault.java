@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * A {@link KeyVault} that keeps the secrets in process memory. Used as the reference implementation and as a stand-in
+ * for a real vault in development and tests.
+ * <p>
+ * Each request of a batch prepares the key once and computes all of its counters with it.
+ * </p>
+ */
+public final class SoftwareKeyVault implements KeyVault {
+
+    private final ConcurrentHashMap<KeyHandle, SharedSecret> keys = new ConcurrentHashMap<>();
+
+    /**
+     * Stores a copy of the secret under the given handle, replacing any previous secret.
+     *
+     * @param key
+     *         the handle to store the secret under
+     * @param secret
+     *         the secret, which is not read
+     */
+    public void store(final KeyHandle key, final SharedSecret secret) {
+        notNull(key);
+        notNull(secret);
+
+        keys.put(key, secret.copy());
+    }
+
+    public void delete(final KeyHandle key) {
+        notNull(key);
+
+        keys.remove(key);
+    }
+
+    @Override
+    public int[][] codes(final List<CodeRequest> requests) {
+        noNullElements(requests);
+
+        final int[][] codes = new int[requests.size()][];
+        for (int i = 0; i < codes.length; ++i) {
+            codes[i] = codes(requests.get(i));
+        }
+        return codes;
+    }
+
+    private int[] codes(final CodeRequest request) {
+        final SharedSecret secret = keys.get(request.key());
+        isTrue(secret != null, "Unknown key: %s", request.key());
+
+        final PreparedKey preparedKey = PreparedKey.prepare(secret.copy());
+        final int[] codes = new int[request.numberOfCounters()];
+        for (int i = 0; i < codes.length; ++i) {
+            codes[i] = preparedKey.code(request.counter(i), request.length());
+        }
+        return codes;
+    }
+}
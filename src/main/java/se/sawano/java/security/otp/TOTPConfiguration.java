@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * The TOTP parameters of a credential: {@code T0}, the time step and the number of digits, as in the key URI
+ * {@code period} and {@code digits} parameters. Credentials migrated from other systems may use e.g. 60 second time
+ * steps or eight digits, and each credential is verified with its own configuration rather than by trying several.
+ * <p>
+ * Configurations are interned, so there is one instance per distinct configuration no matter how many credentials use
+ * it, and the values needed for computing the time step are precomputed in that instance.
+ * </p>
+ */
+public final class TOTPConfiguration {
+
+    private static final ConcurrentHashMap<TOTPConfiguration, TOTPConfiguration> INTERNED = new ConcurrentHashMap<>();
+
+    /**
+     * The default configuration: Unix epoch as {@code T0}, 30 second time steps and six digits.
+     */
+    public static final TOTPConfiguration DEFAULT = configuration(TOTPService.T0_UTC, TOTPService.STEP_SIZE, TOTP.Length.SIX);
+
+    /**
+     * Returns the configuration with the given parameters.
+     *
+     * @param t0
+     *         the Unix time to start counting time steps
+     * @param stepSize
+     *         the size of the time step, in whole milliseconds
+     * @param length
+     *         the length of the TOTPs
+     *
+     * @return the interned configuration
+     */
+    public static TOTPConfiguration configuration(final Instant t0, final Duration stepSize, final TOTP.Length length) {
+        final TOTPConfiguration configuration = new TOTPConfiguration(t0, stepSize, length);
+        final TOTPConfiguration interned = INTERNED.putIfAbsent(configuration, configuration);
+        return interned != null ? interned : configuration;
+    }
+
+    private final Instant t0;
+    private final Duration stepSize;
+    private final TOTP.Length length;
+    private final long t0Millis;
+    private final long stepMillis;
+
+    private TOTPConfiguration(final Instant t0, final Duration stepSize, final TOTP.Length length) {
+        notNull(t0);
+        notNull(stepSize);
+        notNull(length);
+        isTrue(!stepSize.isNegative() && !stepSize.isZero(), "Time step must be positive");
+
+        this.t0 = t0;
+        this.stepSize = stepSize;
+        this.length = length;
+        this.t0Millis = t0.toEpochMilli();
+        this.stepMillis = stepSize.toMillis();
+        isTrue(stepMillis > 0 && Duration.ofMillis(stepMillis).equals(stepSize), "Time step must be in whole milliseconds");
+    }
+
+    public Instant t0() {
+        return t0;
+    }
+
+    public Duration stepSize() {
+        return stepSize;
+    }
+
+    public TOTP.Length length() {
+        return length;
+    }
+
+    /**
+     * Returns the time step at the given time, i.e. the number of time steps since {@code T0}.
+     *
+     * @param now
+     *         the current time
+     *
+     * @return the time step
+     */
+    public long timeStep(final Instant now) {
+        return (now.toEpochMilli() - t0Millis) / stepMillis;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final TOTPConfiguration that = (TOTPConfiguration) o;
+        return t0Millis == that.t0Millis && stepMillis == that.stepMillis && length == that.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(t0Millis, stepMillis, length);
+    }
+
+    @Override
+    public String toString() {
+        return "TOTPConfiguration{" +
+                "t0=" + t0 +
+                ", stepSize=" + stepSize +
+                ", length=" + length +
+                '}';
+    }
+}
@@ -17,7 +17,6 @@
 package se.sawano.java.security.otp;
 
 import org.apache.commons.codec.digest.HmacUtils;
-import org.apache.commons.lang3.StringUtils;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -25,13 +24,13 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
-import java.util.stream.LongStream;
 
 import static org.apache.commons.lang3.Validate.notNull;
 import static se.sawano.java.security.otp.SharedSecret.from;
 import static se.sawano.java.security.otp.TOTP.totp;
-import static se.sawano.java.security.otp.WindowSize.windowSize;
 
 // TODO keep track of used TOTP codes (only successful) (as per RFC)
 public class TOTPService {
@@ -49,7 +48,16 @@ public class TOTPService {
     /**
      * Default window size (3).
      */
-    public static final WindowSize DEFAULT_WINDOW_SIZE = windowSize(3);
+    public static final WindowSize DEFAULT_WINDOW_SIZE = WindowSize.windowSize(3);
+
+    /**
+     * Smallest window, in number of time steps, that is evaluated in parallel by a service created with a
+     * {@link ForkJoinPool} (21). Below this, handing the window over to the pool costs about as much as the HMACs that
+     * are spread out, see {@code TOTPWindowBenchmarks}, and the window is evaluated on the calling thread.
+     */
+    public static final int PARALLEL_THRESHOLD = 21;
+
+    private static final WindowSize CURRENT_STEP_ONLY = WindowSize.windowSize(1);
 
     private static final Map<ShaAlgorithm, BiFunction<SharedSecret, byte[], byte[]>> HMAC_SUPPLIERS = new HashMap<>();
 
@@ -70,6 +78,9 @@ public class TOTPService {
     private final Instant t0;
     private final Duration stepSize;
     private final WindowSize windowSize;
+    private final Optional<AdaptiveWindowSize> adaptiveWindowSize;
+    private final Optional<ParallelWindowSearch> parallelSearch;
+    private final int parallelThreshold;
 
     /**
      * Creates a {@link TOTPService}. The created service will use default TOTP values, which are: UTC time, Unix epoch
@@ -102,6 +113,92 @@ public class TOTPService {
         this.t0 = t0;
         this.stepSize = stepSize;
         this.windowSize = windowSize;
+        this.adaptiveWindowSize = Optional.empty();
+        this.parallelSearch = Optional.empty();
+        this.parallelThreshold = PARALLEL_THRESHOLD;
+    }
+
+    /**
+     * Creates a new {@link TOTPService} that evaluates large windows in parallel, for windows of
+     * {@link #PARALLEL_THRESHOLD} time steps or more. The window is split into chunks that are evaluated on the given
+     * pool, and the chunks further out in the window are cancelled once a time step matches. The result is the same as
+     * that of a sequential evaluation.
+     *
+     * @param clock
+     *         The {@link Clock} to use for getting the current time.
+     * @param t0
+     *         The Unix time to start counting time steps.
+     * @param stepSize
+     *         The size of the time step to use.
+     * @param windowSize
+     *         The window size to use.
+     * @param pool
+     *         The pool to evaluate large windows on.
+     */
+    public TOTPService(final Clock clock, final Instant t0, final Duration stepSize, final WindowSize windowSize, final ForkJoinPool pool) {
+        this(clock, t0, stepSize, windowSize, pool, PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Allows for benchmarking and testing the parallel evaluation of windows of any size.
+     */
+    TOTPService(final Clock clock,
+                final Instant t0,
+                final Duration stepSize,
+                final WindowSize windowSize,
+                final ForkJoinPool pool,
+                final int parallelThreshold) {
+        notNull(clock);
+        notNull(t0);
+        notNull(stepSize);
+        notNull(windowSize);
+        notNull(pool);
+
+        this.clock = clock;
+        this.t0 = t0;
+        this.stepSize = stepSize;
+        this.windowSize = windowSize;
+        this.adaptiveWindowSize = Optional.empty();
+        this.parallelSearch = Optional.of(new ParallelWindowSearch(pool));
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Creates a new {@link TOTPService} whose window is adjusted by the given {@link AdaptiveWindowSize}. The service
+     * records the offset of each successful verification in the adaptive window size.
+     *
+     * @param clock
+     *         The {@link Clock} to use for getting the current time.
+     * @param t0
+     *         The Unix time to start counting time steps.
+     * @param stepSize
+     *         The size of the time step to use.
+     * @param adaptiveWindowSize
+     *         The window size to use and record offsets in.
+     */
+    public TOTPService(final Clock clock, final Instant t0, final Duration stepSize, final AdaptiveWindowSize adaptiveWindowSize) {
+        notNull(clock);
+        notNull(t0);
+        notNull(stepSize);
+        notNull(adaptiveWindowSize);
+
+        this.clock = clock;
+        this.t0 = t0;
+        this.stepSize = stepSize;
+        this.windowSize = adaptiveWindowSize.maximum();
+        this.adaptiveWindowSize = Optional.of(adaptiveWindowSize);
+        this.parallelSearch = Optional.empty();
+        this.parallelThreshold = PARALLEL_THRESHOLD;
+    }
+
+    /**
+     * Returns the number of time steps, centered on the matching time step, that are currently checked when verifying
+     * a TOTP.
+     *
+     * @return the window size
+     */
+    public WindowSize windowSize() {
+        return adaptiveWindowSize.map(AdaptiveWindowSize::current).orElse(windowSize);
     }
 
     public TOTP create(final SharedSecret secret, final TOTP.Length length) {
@@ -111,13 +208,25 @@ public class TOTPService {
         return create(secret, length, numberOfSteps());
     }
 
-    private long numberOfSteps() {
-        final long now = clock.now().toEpochMilli();
-        return (now - t0.toEpochMilli()) / stepSize.toMillis();
-    }
+    /**
+     * Creates the TOTP for the given time step, e.g. to precompute the TOTP of an upcoming time step.
+     *
+     * @param secret
+     *         the secret to create the TOTP with
+     * @param length
+     *         the length of the TOTP
+     * @param timeStep
+     *         the number of time steps since {@code T0}
+     *
+     * @return the TOTP
+     *
+     * @see #currentTimeStep()
+     */
+    public TOTP create(final SharedSecret secret, final TOTP.Length length, final long timeStep) {
+        notNull(secret);
+        notNull(length);
 
-    private TOTP create(final SharedSecret secret, final TOTP.Length length, final long numberOfSteps) {
-        final byte[] numberOfStepsBytes = toHexBytes(numberOfSteps);
+        final byte[] numberOfStepsBytes = toBigEndianBytes(timeStep);
 
         final byte[] hashBytes = getHmacFunction(secret.algorithm()).apply(secret, numberOfStepsBytes);
 
@@ -128,9 +237,85 @@ public class TOTPService {
         return totp(totp, length);
     }
 
+    /**
+     * Returns the current time step, i.e. the number of time steps since {@code T0}.
+     *
+     * @return the current time step
+     */
+    public long currentTimeStep() {
+        return numberOfSteps();
+    }
+
+    /**
+     * Returns the time at which the given time step starts.
+     *
+     * @param timeStep
+     *         the number of time steps since {@code T0}
+     *
+     * @return the start of the time step
+     */
+    public Instant startOf(final long timeStep) {
+        return t0.plus(stepSize.multipliedBy(timeStep));
+    }
+
+    public Duration stepSize() {
+        return stepSize;
+    }
+
+    public Clock clock() {
+        return clock;
+    }
+
+    private long numberOfSteps() {
+        final long now = clock.now().toEpochMilli();
+        return (now - t0.toEpochMilli()) / stepSize.toMillis();
+    }
+
     public boolean verify(final TOTP totp, final SharedSecret secret) {
+        return matchingOffset(totp, secret).isPresent();
+    }
+
+    /**
+     * Verifies the TOTP and returns the offset of the time step that matched, relative to the current time step. The
+     * time steps in the window are checked starting with the current one and then moving outwards. E.g. an offset of
+     * {@code 1} means that the TOTP was created with a clock that is one time step ahead.
+     *
+     * @param totp
+     *         the TOTP to verify
+     * @param secret
+     *         the secret to verify the TOTP with
+     *
+     * @return the offset of the matching time step, or empty if the TOTP is not valid
+     */
+    public OptionalInt matchingOffset(final TOTP totp, final SharedSecret secret) {
+        return matchingOffset(totp, secret, 0, CURRENT_STEP_ONLY);
+    }
+
+    /**
+     * Verifies the TOTP with the window centered on an expected offset, e.g. the clock drift of the user's device as
+     * described in RFC 6238 section 6. If no time step in that window matches, the time steps of the fallback window
+     * centered on the current time step are checked, skipping those already checked. This allows for a small window
+     * around the predicted time step and a larger one only when resynchronizing.
+     *
+     * @param totp
+     *         the TOTP to verify
+     * @param secret
+     *         the secret to verify the TOTP with
+     * @param expectedOffset
+     *         the offset, in number of time steps from the current time step, to center the window on
+     * @param fallbackWindowSize
+     *         the window to check around the current time step if the TOTP did not match around the expected offset
+     *
+     * @return the offset of the matching time step relative to the current time step, or empty if the TOTP is not
+     * valid
+     */
+    public OptionalInt matchingOffset(final TOTP totp,
+                                      final SharedSecret secret,
+                                      final int expectedOffset,
+                                      final WindowSize fallbackWindowSize) {
         notNull(totp);
         notNull(secret);
+        notNull(fallbackWindowSize);
 
         final long numberOfSteps = numberOfSteps();
 
@@ -138,14 +323,233 @@ public class TOTPService {
         final ShaAlgorithm algorithm = secret.algorithm();
         final byte[] secretBytes = secret.value();
 
-        final boolean isOk = LongStream.rangeClosed(-windowSize.value() / 2, windowSize.value() / 2)
-                                       .map(i -> numberOfSteps + i)
-                                       .mapToObj(steps -> verify(totp, from(secretBytes, algorithm), steps))
-                                       .anyMatch(Boolean.TRUE::equals);
+        try {
+            final WindowSize window = windowSize();
+            final int halfWindow = window.value() / 2;
+            if (isParallel(window.value())) {
+                final int[] offsets = new int[window.value()];
+                for (int i = 0; i < offsets.length; ++i) {
+                    offsets[i] = expectedOffset + nthClosestOffset(i);
+                }
+                final OptionalInt offset = searchInParallel(totp, secretBytes, algorithm, numberOfSteps, offsets);
+                if (offset.isPresent()) {
+                    return matched(offset.getAsInt(), expectedOffset);
+                }
+            }
+            else {
+                for (int i = 0; i < window.value(); ++i) {
+                    final int offset = expectedOffset + nthClosestOffset(i);
+                    if (verify(totp, from(secretBytes, algorithm), numberOfSteps + offset)) {
+                        return matched(offset, expectedOffset);
+                    }
+                }
+            }
+
+            final int halfFallbackWindow = fallbackWindowSize.value() / 2;
+            if (isParallel(fallbackWindowSize.value())) {
+                final int[] offsets = new int[fallbackWindowSize.value()];
+                int count = 0;
+                for (int i = 0; i < offsets.length; ++i) {
+                    final int offset = nthClosestOffset(i);
+                    if (Math.abs(offset - expectedOffset) > halfWindow) {
+                        offsets[count++] = offset;
+                    }
+                }
+                final OptionalInt offset = searchInParallel(totp, secretBytes, algorithm, numberOfSteps, Arrays.copyOf(offsets, count));
+                if (offset.isPresent()) {
+                    return matched(offset.getAsInt(), expectedOffset);
+                }
+            }
+            else {
+                for (int i = 0; i < fallbackWindowSize.value(); ++i) {
+                    final int offset = nthClosestOffset(i);
+                    final boolean alreadyChecked = Math.abs(offset - expectedOffset) <= halfWindow;
+                    if (!alreadyChecked && verify(totp, from(secretBytes, algorithm), numberOfSteps + offset)) {
+                        return matched(offset, expectedOffset);
+                    }
+                }
+            }
+
+            adaptiveWindowSize.filter(AdaptiveWindowSize::shouldProbeFailure)
+                              .ifPresent(adaptive -> probe(adaptive, totp, secretBytes, algorithm, numberOfSteps, expectedOffset,
+                                                           halfWindow, halfFallbackWindow));
+
+            return OptionalInt.empty();
+        } finally {
+            Arrays.fill(secretBytes, (byte) 0);
+        }
+    }
 
-        Arrays.fill(secretBytes, (byte) 0);
+    /**
+     * Same as {@link #matchingOffset(TOTP, SharedSecret, int, WindowSize)}, but with a key that has already been
+     * prepared and relative to a given time step, e.g. for checking several credentials against the same time step.
+     * The windows are evaluated on the calling thread.
+     *
+     * @param totp
+     *         the TOTP to verify
+     * @param key
+     *         the prepared secret to verify the TOTP with
+     * @param timeStep
+     *         the time step that the offsets are relative to, normally {@link #currentTimeStep()}
+     * @param expectedOffset
+     *         the offset, in number of time steps from the time step, to center the window on
+     * @param fallbackWindowSize
+     *         the window to check around the time step if the TOTP did not match around the expected offset
+     *
+     * @return the offset of the matching time step relative to the given time step, or empty if the TOTP is not valid
+     */
+    public OptionalInt matchingOffset(final TOTP totp,
+                                      final PreparedKey key,
+                                      final long timeStep,
+                                      final int expectedOffset,
+                                      final WindowSize fallbackWindowSize) {
+        notNull(totp);
+        notNull(key);
+        notNull(fallbackWindowSize);
+
+        final int code = Integer.parseInt(totp.value());
+        final WindowSize window = windowSize();
+        final int halfWindow = window.value() / 2;
+        for (int i = 0; i < window.value(); ++i) {
+            final int offset = expectedOffset + nthClosestOffset(i);
+            if (key.code(timeStep + offset, totp.length()) == code) {
+                return matched(offset, expectedOffset);
+            }
+        }
+
+        for (int i = 0; i < fallbackWindowSize.value(); ++i) {
+            final int offset = nthClosestOffset(i);
+            final boolean alreadyChecked = Math.abs(offset - expectedOffset) <= halfWindow;
+            if (!alreadyChecked && key.code(timeStep + offset, totp.length()) == code) {
+                return matched(offset, expectedOffset);
+            }
+        }
+        return OptionalInt.empty();
+    }
 
-        return isOk;
+    /**
+     * Verifies the TOTP with a key kept in a {@link KeyVault}.
+     *
+     * @param totp
+     *         the TOTP to verify
+     * @param vault
+     *         the vault that computes the codes
+     * @param key
+     *         the handle of the secret in the vault
+     *
+     * @return {@code true} if the TOTP is valid
+     */
+    public boolean verify(final TOTP totp, final KeyVault vault, final KeyHandle key) {
+        return matchingOffset(totp, vault, key, 0, CURRENT_STEP_ONLY).isPresent();
+    }
+
+    /**
+     * Same as {@link #matchingOffset(TOTP, SharedSecret, int, WindowSize)}, but with a key kept in a {@link KeyVault}.
+     * The codes of the whole window and of the fallback window are computed in a single call to the vault, so the
+     * secret never enters this process. Failed verifications are not probed by an {@link AdaptiveWindowSize}.
+     *
+     * @param totp
+     *         the TOTP to verify
+     * @param vault
+     *         the vault that computes the codes
+     * @param key
+     *         the handle of the secret in the vault
+     * @param expectedOffset
+     *         the offset, in number of time steps from the current time step, to center the window on
+     * @param fallbackWindowSize
+     *         the window to check around the current time step if the TOTP did not match around the expected offset
+     *
+     * @return the offset of the matching time step relative to the current time step, or empty if the TOTP is not
+     * valid
+     */
+    public OptionalInt matchingOffset(final TOTP totp,
+                                      final KeyVault vault,
+                                      final KeyHandle key,
+                                      final int expectedOffset,
+                                      final WindowSize fallbackWindowSize) {
+        notNull(totp);
+        notNull(vault);
+        notNull(key);
+        notNull(fallbackWindowSize);
+
+        final long numberOfSteps = numberOfSteps();
+        final WindowSize window = windowSize();
+        final int halfWindow = window.value() / 2;
+
+        final int[] offsets = new int[window.value() + fallbackWindowSize.value()];
+        int count = 0;
+        for (int i = 0; i < window.value(); ++i) {
+            offsets[count++] = expectedOffset + nthClosestOffset(i);
+        }
+        for (int i = 0; i < fallbackWindowSize.value(); ++i) {
+            final int offset = nthClosestOffset(i);
+            if (Math.abs(offset - expectedOffset) > halfWindow) {
+                offsets[count++] = offset;
+            }
+        }
+        final long[] counters = new long[count];
+        for (int i = 0; i < count; ++i) {
+            counters[i] = numberOfSteps + offsets[i];
+        }
+
+        final int code = Integer.parseInt(totp.value());
+        final int[] codes = vault.codes(key, counters, totp.length());
+        for (int i = 0; i < count; ++i) {
+            if (codes[i] == code) {
+                return matched(offsets[i], expectedOffset);
+            }
+        }
+        return OptionalInt.empty();
+    }
+
+    private boolean isParallel(final int windowSize) {
+        return parallelSearch.isPresent() && windowSize >= parallelThreshold;
+    }
+
+    /**
+     * Returns the first of the offsets, in the given order, whose time step matches the TOTP.
+     */
+    private OptionalInt searchInParallel(final TOTP totp,
+                                         final byte[] secretBytes,
+                                         final ShaAlgorithm algorithm,
+                                         final long numberOfSteps,
+                                         final int[] offsets) {
+        final OptionalInt index = parallelSearch.get().search(totp, secretBytes, algorithm, numberOfSteps, offsets);
+        return index.isPresent() ? OptionalInt.of(offsets[index.getAsInt()]) : OptionalInt.empty();
+    }
+
+    private OptionalInt matched(final int offset, final int expectedOffset) {
+        adaptiveWindowSize.ifPresent(adaptive -> adaptive.recordMatch(offset - expectedOffset));
+        return OptionalInt.of(offset);
+    }
+
+    /**
+     * Checks the time steps outside of the current window, up to the maximum window, and records a match. The TOTP is
+     * still rejected. Time steps already checked by the fallback window are skipped.
+     */
+    private void probe(final AdaptiveWindowSize adaptive,
+                       final TOTP totp,
+                       final byte[] secretBytes,
+                       final ShaAlgorithm algorithm,
+                       final long numberOfSteps,
+                       final int expectedOffset,
+                       final int halfWindow,
+                       final int halfFallbackWindow) {
+        for (int i = 2 * halfWindow + 1; i < adaptive.maximum().value(); ++i) {
+            final int relativeOffset = nthClosestOffset(i);
+            final int offset = expectedOffset + relativeOffset;
+            if (Math.abs(offset) > halfFallbackWindow && verify(totp, from(secretBytes, algorithm), numberOfSteps + offset)) {
+                adaptive.recordProbedMatch(relativeOffset);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the n:th offset when moving outwards from the center of a window, i.e. 0, 1, -1, 2, -2, etc.
+     */
+    private static int nthClosestOffset(final int n) {
+        return n % 2 == 1 ? (n + 1) / 2 : -(n / 2);
     }
 
     private boolean verify(final TOTP totp, final SharedSecret secret, final long steps) {
@@ -159,16 +563,22 @@ public class TOTPService {
                        .orElseThrow(() -> new IllegalArgumentException("Unsupported algorithm: " + shaAlgorithm));
     }
 
-    private static byte[] toHexBytes(final long value) {
-        final String hexValue = StringUtils.leftPad(Long.toHexString(value), 16, '0');
-        return CodecUtils.decodeHex(hexValue);
+    /**
+     * The time step as the 8 byte big-endian message of the HMAC.
+     */
+    private static byte[] toBigEndianBytes(final long value) {
+        final byte[] bytes = new byte[8];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) (value >>> (56 - 8 * i));
+        }
+        return bytes;
     }
 
     /**
      * Truncates the hash. I.e. converts it to binary code, which is a 31-bit, unsigned,
      * big-endian integer; the first byte is masked with a 0x7f. (see RFC4226)
      */
-    private static int truncate(final byte[] hash) {
+    static int truncate(final byte[] hash) {
         final int offset = hash[hash.length - 1] & 0xf;
 
         return ((hash[offset] & 0x7f) << 24) |
@@ -36,6 +36,20 @@ public final class WindowSize {
         return value;
     }
 
+    /**
+     * Limits an offset to this window centered on the current time step, e.g. to bound an estimated clock drift so
+     * that it cannot move further away from the current time step with every accepted TOTP.
+     *
+     * @param offset
+     *         the offset, in number of time steps
+     *
+     * @return the offset, limited to between minus and plus half of this window
+     */
+    public int clamp(final int offset) {
+        final int halfWindow = value / 2;
+        return Math.max(-halfWindow, Math.min(halfWindow, offset));
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) {
@@ -0,0 +1,560 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.application;
+
+import se.sawano.java.security.otp.ImportReport;
+import se.sawano.java.security.otp.SecretService;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.google.keyuri.KeyUriTemplate;
+import se.sawano.java.security.otp.google.keyuri.Label;
+import se.sawano.java.security.otp.google.keyuri.qr.QrCodeRenderer;
+import se.sawano.java.security.otp.user.UserId;
+import se.sawano.java.security.otp.user.persistence.SecretRepository;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.util.Comparator.naturalOrder;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+import static org.apache.commons.lang3.Validate.validState;
+
+/**
+ * Provisions TOTP secrets for a list of accounts, e.g. when onboarding a new customer, and writes a ZIP archive with
+ * one QR code image per account.
+ * <p>
+ * The accounts are read in batches and each batch passes through the stages: generating the secrets, saving them in
+ * the repository, building the key URIs, rendering the QR codes and finally writing the images to the archive. The
+ * stages of different batches run in parallel. At most a fixed number of batches are in flight, so reading stops
+ * while the later stages catch up and the images are never all held in memory.
+ * </p>
+ * <p>
+ * Each line of the account list, without leading and trailing whitespace, is used both as user id and as account name.
+ * An account that is listed more than once, that already has a secret, or that fails in one of the stages, is reported
+ * in the {@link Report} and left out of the archive. Repeated accounts are found while reading, before the batches are
+ * handed to the stages, so that two batches never store secrets for the same user. An account that fails after its
+ * secret was stored has the secret deleted again, so that it can be provisioned by a later run. If writing the archive
+ * fails the run is aborted, and the secrets stored so far are kept.
+ * </p>
+ */
+public final class ProvisioningPipeline {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private SecretService secretService;
+        private SecretRepository secretRepository;
+        private KeyUriTemplate keyUriTemplate;
+        private QrCodeRenderer qrCodeRenderer = new QrCodeRenderer();
+        private Executor computeExecutor = ForkJoinPool.commonPool();
+        private Executor persistenceExecutor = ForkJoinPool.commonPool();
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private int maxBatchesInFlight = 2 * Runtime.getRuntime().availableProcessors();
+
+        private Builder() {}
+
+        public Builder withSecretService(final SecretService secretService) {
+            this.secretService = secretService;
+            return this;
+        }
+
+        public Builder withSecretRepository(final SecretRepository secretRepository) {
+            this.secretRepository = secretRepository;
+            return this;
+        }
+
+        /**
+         * Sets the template for the key URIs, which also decides the algorithm of the generated secrets.
+         *
+         * @param keyUriTemplate
+         *         the template
+         *
+         * @return this builder
+         */
+        public Builder withKeyUriTemplate(final KeyUriTemplate keyUriTemplate) {
+            this.keyUriTemplate = keyUriTemplate;
+            return this;
+        }
+
+        public Builder withQrCodeRenderer(final QrCodeRenderer qrCodeRenderer) {
+            this.qrCodeRenderer = qrCodeRenderer;
+            return this;
+        }
+
+        /**
+         * Sets the executor for generating secrets, building URIs and rendering. Default is the common fork-join pool.
+         *
+         * @param computeExecutor
+         *         the executor for the CPU bound stages
+         *
+         * @return this builder
+         */
+        public Builder withComputeExecutor(final Executor computeExecutor) {
+            this.computeExecutor = computeExecutor;
+            return this;
+        }
+
+        /**
+         * Sets the executor that the secret repository is called on. Default is the common fork-join pool, but a
+         * blocking repository should be given a pool of its own.
+         *
+         * @param persistenceExecutor
+         *         the executor for the persistence stage
+         *
+         * @return this builder
+         */
+        public Builder withPersistenceExecutor(final Executor persistenceExecutor) {
+            this.persistenceExecutor = persistenceExecutor;
+            return this;
+        }
+
+        public Builder withBatchSize(final int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder withMaxBatchesInFlight(final int maxBatchesInFlight) {
+            this.maxBatchesInFlight = maxBatchesInFlight;
+            return this;
+        }
+
+        public ProvisioningPipeline create() {
+            validState(secretService != null, "A secret service is required");
+            validState(secretRepository != null, "A secret repository is required");
+            validState(keyUriTemplate != null, "A key URI template is required");
+            notNull(qrCodeRenderer);
+            notNull(computeExecutor);
+            notNull(persistenceExecutor);
+            isTrue(batchSize > 0, "Batch size must be positive");
+            isTrue(maxBatchesInFlight > 0, "Max batches in flight must be positive");
+
+            return new ProvisioningPipeline(this);
+        }
+    }
+
+    /**
+     * The stages of the pipeline, in order.
+     */
+    public enum Stage {
+        GENERATE, STORE, BUILD_URI, RENDER, ARCHIVE
+    }
+
+    private final SecretService secretService;
+    private final SecretRepository secretRepository;
+    private final KeyUriTemplate keyUriTemplate;
+    private final QrCodeRenderer qrCodeRenderer;
+    private final Executor computeExecutor;
+    private final Executor persistenceExecutor;
+    private final int batchSize;
+    private final int maxBatchesInFlight;
+
+    private ProvisioningPipeline(final Builder builder) {
+        this.secretService = builder.secretService;
+        this.secretRepository = builder.secretRepository;
+        this.keyUriTemplate = builder.keyUriTemplate;
+        this.qrCodeRenderer = builder.qrCodeRenderer;
+        this.computeExecutor = builder.computeExecutor;
+        this.persistenceExecutor = builder.persistenceExecutor;
+        this.batchSize = builder.batchSize;
+        this.maxBatchesInFlight = builder.maxBatchesInFlight;
+    }
+
+    /**
+     * Provisions the accounts in the given UTF-8 file, one per line, and writes the QR codes to a new ZIP file.
+     *
+     * @param accounts
+     *         the file with the accounts
+     * @param archive
+     *         the ZIP file to create
+     *
+     * @return the result of the provisioning
+     *
+     * @throws IOException
+     *         if reading the accounts or writing the archive fails
+     */
+    public Report run(final Path accounts, final Path archive) throws IOException {
+        notNull(accounts);
+        notNull(archive);
+
+        try (BufferedReader reader = Files.newBufferedReader(accounts, StandardCharsets.UTF_8);
+             OutputStream out = Files.newOutputStream(archive)) {
+            return run(reader, out);
+        }
+    }
+
+    /**
+     * Provisions the accounts read from the given reader, one per line, and writes the QR codes as a ZIP archive to
+     * the given stream. Neither the reader nor the stream is closed. Blank lines are skipped.
+     *
+     * @param accounts
+     *         the reader with the accounts
+     * @param archive
+     *         the stream to write the ZIP archive to
+     *
+     * @return the result of the provisioning
+     *
+     * @throws IOException
+     *         if reading the accounts or writing the archive fails
+     */
+    public Report run(final BufferedReader accounts, final OutputStream archive) throws IOException {
+        notNull(accounts);
+        notNull(archive);
+
+        final Run run = new Run(new ZipOutputStream(archive));
+        final ExecutorService archiveExecutor = Executors.newSingleThreadExecutor();
+        try {
+            long lineNumber = 0;
+            List<Item> batch = new ArrayList<>(batchSize);
+            final Set<String> seen = new HashSet<>();
+            String line;
+            while (run.fatalFailure == null && (line = accounts.readLine()) != null) {
+                ++lineNumber;
+                final String account = line.trim();
+                if (account.isEmpty()) {
+                    continue;
+                }
+                if (seen.add(account)) {
+                    batch.add(new Item(lineNumber, account));
+                }
+                else {
+                    run.results.failed(lineNumber, "Duplicate account");
+                }
+                if (batch.size() == batchSize) {
+                    run.submit(batch, archiveExecutor);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                run.submit(batch, archiveExecutor);
+            }
+            run.awaitCompletion();
+            run.zip.finish();
+        } finally {
+            archiveExecutor.shutdown();
+        }
+        return run.report();
+    }
+
+    /**
+     * The state of one invocation of the pipeline.
+     */
+    private final class Run {
+        final ZipOutputStream zip;
+        final CRC32 crc = new CRC32();
+        final Semaphore batchesInFlight = new Semaphore(maxBatchesInFlight);
+        final List<CompletableFuture<Void>> batches = new ArrayList<>();
+        final ImportReport.Collector<Long> results = new ImportReport.Collector<>(naturalOrder());
+        final LongAdder[] items = new LongAdder[Stage.values().length];
+        final LongAdder[] nanos = new LongAdder[Stage.values().length];
+        final long start = System.nanoTime();
+        volatile Throwable fatalFailure;
+
+        Run(final ZipOutputStream zip) {
+            this.zip = zip;
+            for (int i = 0; i < items.length; ++i) {
+                items[i] = new LongAdder();
+                nanos[i] = new LongAdder();
+            }
+        }
+
+        void submit(final List<Item> batch, final Executor archiveExecutor) throws InterruptedIOException {
+            try {
+                batchesInFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a batch to complete");
+            }
+            batches.add(CompletableFuture.supplyAsync(() -> stage(Stage.GENERATE, batch, this::generate), computeExecutor)
+                                         .thenApplyAsync(b -> stage(Stage.STORE, b, this::store), persistenceExecutor)
+                                         .thenApplyAsync(b -> stage(Stage.BUILD_URI, b, this::buildUri), computeExecutor)
+                                         .thenApplyAsync(b -> stage(Stage.RENDER, b, this::render), computeExecutor)
+                                         .thenCompose(this::removeFailedSecrets)
+                                         .thenAcceptAsync(this::archive, archiveExecutor)
+                                         .whenComplete((r, t) -> {
+                                             if (t != null) {
+                                                 fatalFailure = t;
+                                             }
+                                             batchesInFlight.release();
+                                         }));
+        }
+
+        List<Item> stage(final Stage stage, final List<Item> batch, final Consumer<Item> step) {
+            final long stageStart = System.nanoTime();
+            for (final Item item : batch) {
+                if (item.failure == null) {
+                    try {
+                        step.accept(item);
+                        items[stage.ordinal()].increment();
+                    } catch (RuntimeException e) {
+                        item.failure = stage + ": " + e.getMessage();
+                        item.clear();
+                    }
+                }
+            }
+            nanos[stage.ordinal()].add(System.nanoTime() - stageStart);
+            return batch;
+        }
+
+        void generate(final Item item) {
+            item.userId = UserId.userId(item.account);
+            item.accountName = Label.AccountName.accountName(item.account);
+            item.secret = secretService.generateSharedSecret(keyUriTemplate.algorithm());
+        }
+
+        void store(final Item item) {
+            isTrue(!secretRepository.secretFor(item.userId).isPresent(), "Secret already exists");
+            secretRepository.save(item.secret.copy(), item.userId);
+            item.stored = true;
+        }
+
+        void buildUri(final Item item) {
+            item.uri = keyUriTemplate.uriStringFor(item.secret, item.accountName);
+            item.secret = null;
+        }
+
+        void render(final Item item) {
+            item.png = qrCodeRenderer.png(item.uri);
+            item.uri = null;
+        }
+
+        /**
+         * Removes the secrets of the accounts that failed after their secret was stored, since no QR code will be
+         * issued for them. Only hands the batch to the persistence executor if there is such an account.
+         */
+        CompletableFuture<List<Item>> removeFailedSecrets(final List<Item> batch) {
+            if (batch.stream().noneMatch(item -> item.stored && item.failure != null)) {
+                return CompletableFuture.completedFuture(batch);
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                for (final Item item : batch) {
+                    if (item.stored && item.failure != null) {
+                        try {
+                            secretRepository.deleteFor(item.userId);
+                            item.stored = false;
+                        } catch (RuntimeException e) {
+                            item.failure += ", secret not removed: " + e.getMessage();
+                        }
+                    }
+                }
+                return batch;
+            }, persistenceExecutor);
+        }
+
+        void archive(final List<Item> batch) {
+            final long stageStart = System.nanoTime();
+            try {
+                for (final Item item : batch) {
+                    if (item.failure != null) {
+                        results.failed(item.lineNumber, item.failure);
+                        continue;
+                    }
+                    zip.putNextEntry(entry(item));
+                    zip.write(item.png);
+                    zip.closeEntry();
+                    item.clear();
+                    results.imported();
+                    items[Stage.ARCHIVE.ordinal()].increment();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            nanos[Stage.ARCHIVE.ordinal()].add(System.nanoTime() - stageStart);
+        }
+
+        /**
+         * PNG images do not compress, so they are stored as is.
+         */
+        ZipEntry entry(final Item item) {
+            final ZipEntry entry = new ZipEntry(item.lineNumber + "_" + item.account.replaceAll("[^A-Za-z0-9._@-]", "_") + ".png");
+            crc.reset();
+            crc.update(item.png);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(item.png.length);
+            entry.setCompressedSize(item.png.length);
+            entry.setCrc(crc.getValue());
+            return entry;
+        }
+
+        void awaitCompletion() throws IOException {
+            try {
+                CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw e;
+            }
+        }
+
+        Report report() {
+            final List<StageStatistics> statistics = new ArrayList<>();
+            for (final Stage stage : Stage.values()) {
+                statistics.add(new StageStatistics(stage, items[stage.ordinal()].sum(), Duration.ofNanos(nanos[stage.ordinal()].sum())));
+            }
+            return new Report(results.report(), statistics, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * One account on its way through the pipeline. Each stage clears what the next stages do not need.
+     */
+    private static final class Item {
+        final long lineNumber;
+        final String account;
+        UserId userId;
+        Label.AccountName accountName;
+        SharedSecret secret;
+        String uri;
+        byte[] png;
+        String failure;
+        boolean stored;
+
+        Item(final long lineNumber, final String account) {
+            this.lineNumber = lineNumber;
+            this.account = account;
+        }
+
+        void clear() {
+            secret = null;
+            uri = null;
+            if (png != null) {
+                Arrays.fill(png, (byte) 0);
+                png = null;
+            }
+        }
+    }
+
+    /**
+     * The result of a run of the pipeline.
+     */
+    public static final class Report {
+        private final ImportReport<Long> accounts;
+        private final List<StageStatistics> stages;
+        private final Duration elapsed;
+
+        private Report(final ImportReport<Long> accounts, final List<StageStatistics> stages, final Duration elapsed) {
+            this.accounts = accounts;
+            this.stages = Collections.unmodifiableList(stages);
+            this.elapsed = elapsed;
+        }
+
+        /**
+         * @return the number of accounts that were given a secret and written to the archive
+         */
+        public long provisioned() {
+            return accounts.imported();
+        }
+
+        /**
+         * @return the accounts that were not provisioned, ordered by line number
+         */
+        public List<ImportReport.Failure<Long>> failures() {
+            return accounts.failures();
+        }
+
+        /**
+         * @return the statistics of each stage, in pipeline order
+         */
+        public List<StageStatistics> stages() {
+            return stages;
+        }
+
+        /**
+         * @return the wall clock time of the run
+         */
+        public Duration elapsed() {
+            return elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{" +
+                    "provisioned=" + provisioned() +
+                    ", failures=" + failures().size() +
+                    ", stages=" + stages +
+                    ", elapsed=" + elapsed +
+                    '}';
+        }
+    }
+
+    /**
+     * The throughput of one stage. The busy time is summed over all threads the stage ran on, so the throughput is
+     * per thread.
+     */
+    public static final class StageStatistics {
+        private final Stage stage;
+        private final long items;
+        private final Duration busyTime;
+
+        private StageStatistics(final Stage stage, final long items, final Duration busyTime) {
+            this.stage = stage;
+            this.items = items;
+            this.busyTime = busyTime;
+        }
+
+        public Stage stage() {
+            return stage;
+        }
+
+        public long items() {
+            return items;
+        }
+
+        public Duration busyTime() {
+            return busyTime;
+        }
+
+        public double itemsPerSecond() {
+            return busyTime.isZero() ? 0 : items / (busyTime.toNanos() / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d items, %.0f/s", stage, items, itemsPerSecond());
+        }
+    }
+}
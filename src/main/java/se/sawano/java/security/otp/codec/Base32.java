@@ -0,0 +1,277 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Base32 according to RFC 4648, without padding, between regions of arrays or buffers owned by the caller. Nothing is
+ * allocated, so the caller can wipe every copy of a secret when done with it. Decoding accepts upper and lower case
+ * and ignores trailing padding. Invalid input is rejected with an {@link IllegalArgumentException}.
+ * <p>
+ * Internal to this library and not part of its API.
+ * </p>
+ */
+public final class Base32 {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+    private static final char PADDING = '=';
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; ++i) {
+            VALUES[ALPHABET[i]] = (byte) i;
+            VALUES[Character.toLowerCase(ALPHABET[i])] = (byte) i;
+        }
+    }
+
+    private Base32() {}
+
+    /**
+     * @return the number of characters needed to encode the given number of bytes
+     */
+    public static int encodedLength(final int numberOfBytes) {
+        isTrue(numberOfBytes >= 0, "Number of bytes must not be negative");
+        return (int) ((numberOfBytes * 8L + 4) / 5);
+    }
+
+    /**
+     * @return the number of bytes that the given number of characters, excluding padding, decode to
+     */
+    public static int decodedLength(final int numberOfCharacters) {
+        isTrue(numberOfCharacters >= 0, "Number of characters must not be negative");
+        return (int) (numberOfCharacters * 5L / 8);
+    }
+
+    /**
+     * Encodes the given bytes.
+     *
+     * @return the number of characters written
+     */
+    public static int encode(final byte[] src, final int srcOffset, final int length, final char[] dst, final int dstOffset) {
+        notNull(src);
+        notNull(dst);
+        checkRegion(src.length, srcOffset, length);
+        checkRegion(dst.length, dstOffset, encodedLength(length));
+
+        int buffer = 0;
+        int bits = 0;
+        int index = dstOffset;
+        for (int i = srcOffset; i < srcOffset + length; ++i) {
+            buffer = (buffer << 8) | (src[i] & 0xFF);
+            bits += 8;
+            while (bits >= 5) {
+                bits -= 5;
+                dst[index++] = ALPHABET[(buffer >>> bits) & 0x1F];
+            }
+        }
+        if (bits > 0) {
+            dst[index++] = ALPHABET[(buffer << (5 - bits)) & 0x1F];
+        }
+        return index - dstOffset;
+    }
+
+    /**
+     * Encodes the remaining bytes of the given buffer, whose position is moved to its limit.
+     *
+     * @return the number of characters written
+     */
+    public static int encode(final ByteBuffer src, final char[] dst, final int dstOffset) {
+        notNull(src);
+        notNull(dst);
+        checkRegion(dst.length, dstOffset, encodedLength(src.remaining()));
+
+        int buffer = 0;
+        int bits = 0;
+        int index = dstOffset;
+        while (src.hasRemaining()) {
+            buffer = (buffer << 8) | (src.get() & 0xFF);
+            bits += 8;
+            while (bits >= 5) {
+                bits -= 5;
+                dst[index++] = ALPHABET[(buffer >>> bits) & 0x1F];
+            }
+        }
+        if (bits > 0) {
+            dst[index++] = ALPHABET[(buffer << (5 - bits)) & 0x1F];
+        }
+        return index - dstOffset;
+    }
+
+    /**
+     * Encodes the given bytes and appends the characters one by one, so no string of the encoded value is created
+     * unless the appendable creates it.
+     */
+    public static void encode(final byte[] src, final int srcOffset, final int length, final Appendable out) throws IOException {
+        notNull(src);
+        notNull(out);
+        checkRegion(src.length, srcOffset, length);
+
+        int buffer = 0;
+        int bits = 0;
+        for (int i = srcOffset; i < srcOffset + length; ++i) {
+            buffer = (buffer << 8) | (src[i] & 0xFF);
+            bits += 8;
+            while (bits >= 5) {
+                bits -= 5;
+                out.append(ALPHABET[(buffer >>> bits) & 0x1F]);
+            }
+        }
+        if (bits > 0) {
+            out.append(ALPHABET[(buffer << (5 - bits)) & 0x1F]);
+        }
+    }
+
+    /**
+     * Decodes the characters in the given range.
+     *
+     * @return the number of bytes written
+     */
+    public static int decode(final CharSequence src, final int start, final int end, final byte[] dst, final int dstOffset) {
+        notNull(src);
+        notNull(dst);
+        checkRegion(src.length(), start, end - start);
+        final int length = unpaddedLength(src, start, end);
+        checkRegion(dst.length, dstOffset, decodedLength(length));
+
+        int buffer = 0;
+        int bits = 0;
+        int index = dstOffset;
+        for (int i = start; i < start + length; ++i) {
+            buffer = (buffer << 5) | value(src.charAt(i));
+            bits += 5;
+            if (bits >= 8) {
+                bits -= 8;
+                dst[index++] = (byte) (buffer >>> bits);
+            }
+        }
+        return index - dstOffset;
+    }
+
+    /**
+     * Decodes the characters in the given region.
+     *
+     * @return the number of bytes written
+     */
+    public static int decode(final char[] src, final int srcOffset, final int length, final byte[] dst, final int dstOffset) {
+        notNull(src);
+        checkRegion(src.length, srcOffset, length);
+        return decode(CharBuffer.wrap(src), srcOffset, srcOffset + length, dst, dstOffset);
+    }
+
+    /**
+     * Decodes the characters in the given range into the given buffer, whose position is moved past the bytes written.
+     *
+     * @return the number of bytes written
+     */
+    public static int decode(final CharSequence src, final int start, final int end, final ByteBuffer dst) {
+        notNull(src);
+        notNull(dst);
+        checkRegion(src.length(), start, end - start);
+        final int length = unpaddedLength(src, start, end);
+        isTrue(dst.remaining() >= decodedLength(length), "Buffer too small");
+
+        int buffer = 0;
+        int bits = 0;
+        int written = 0;
+        for (int i = start; i < start + length; ++i) {
+            buffer = (buffer << 5) | value(src.charAt(i));
+            bits += 5;
+            if (bits >= 8) {
+                bits -= 8;
+                dst.put((byte) (buffer >>> bits));
+                ++written;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Decodes the ASCII characters in the given range.
+     *
+     * @return the number of bytes written
+     */
+    public static int decode(final byte[] src, final int srcOffset, final int length, final byte[] dst, final int dstOffset) {
+        notNull(src);
+        notNull(dst);
+        checkRegion(src.length, srcOffset, length);
+        int end = srcOffset + length;
+        while (end > srcOffset && src[end - 1] == PADDING) {
+            --end;
+        }
+        checkUnpaddedLength(end - srcOffset);
+        checkRegion(dst.length, dstOffset, decodedLength(end - srcOffset));
+
+        int buffer = 0;
+        int bits = 0;
+        int index = dstOffset;
+        for (int i = srcOffset; i < end; ++i) {
+            buffer = (buffer << 5) | value((char) (src[i] & 0xFF));
+            bits += 5;
+            if (bits >= 8) {
+                bits -= 8;
+                dst[index++] = (byte) (buffer >>> bits);
+            }
+        }
+        return index - dstOffset;
+    }
+
+    /**
+     * Decodes the given value into a new array.
+     *
+     * @return the decoded bytes
+     */
+    public static byte[] decode(final CharSequence src) {
+        notNull(src);
+        final byte[] result = new byte[decodedLength(unpaddedLength(src, 0, src.length()))];
+        decode(src, 0, src.length(), result, 0);
+        return result;
+    }
+
+    private static int unpaddedLength(final CharSequence src, final int start, int end) {
+        while (end > start && src.charAt(end - 1) == PADDING) {
+            --end;
+        }
+        checkUnpaddedLength(end - start);
+        return end - start;
+    }
+
+    /**
+     * A valid encoding ends with 0, 2, 4, 5 or 7 characters of a five byte group.
+     */
+    private static void checkUnpaddedLength(final int length) {
+        final int remainder = length % 8;
+        isTrue(remainder != 1 && remainder != 3 && remainder != 6, "Invalid length of Base32 value");
+    }
+
+    private static int value(final char c) {
+        final int value = c < VALUES.length ? VALUES[c] : -1;
+        isTrue(value >= 0, "Invalid Base32 character");
+        return value;
+    }
+
+    static void checkRegion(final int arrayLength, final int offset, final int length) {
+        isTrue(offset >= 0 && length >= 0 && offset <= arrayLength - length, "Invalid region");
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.codec;
+
+import java.util.Arrays;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+import static se.sawano.java.security.otp.codec.Base32.checkRegion;
+
+/**
+ * Hexadecimal encoding between regions of arrays owned by the caller. Encodes to lower case and decodes either case.
+ * Invalid input is rejected with an {@link IllegalArgumentException}.
+ * <p>
+ * Internal to this library and not part of its API.
+ * </p>
+ */
+public final class Hex {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < 16; ++i) {
+            VALUES[DIGITS[i]] = (byte) i;
+            VALUES[Character.toUpperCase(DIGITS[i])] = (byte) i;
+        }
+    }
+
+    private Hex() {}
+
+    /**
+     * Encodes the given bytes.
+     *
+     * @return the number of characters written
+     */
+    public static int encode(final byte[] src, final int srcOffset, final int length, final char[] dst, final int dstOffset) {
+        notNull(src);
+        notNull(dst);
+        checkRegion(src.length, srcOffset, length);
+        checkRegion(dst.length, dstOffset, 2 * length);
+
+        int index = dstOffset;
+        for (int i = srcOffset; i < srcOffset + length; ++i) {
+            dst[index++] = DIGITS[(src[i] >>> 4) & 0xF];
+            dst[index++] = DIGITS[src[i] & 0xF];
+        }
+        return index - dstOffset;
+    }
+
+    /**
+     * Encodes the given bytes into a new array.
+     *
+     * @return the encoded characters
+     */
+    public static char[] encode(final byte[] src) {
+        notNull(src);
+        final char[] result = new char[2 * src.length];
+        encode(src, 0, src.length, result, 0);
+        return result;
+    }
+
+    /**
+     * Decodes the characters in the given range.
+     *
+     * @return the number of bytes written
+     */
+    public static int decode(final CharSequence src, final int start, final int end, final byte[] dst, final int dstOffset) {
+        notNull(src);
+        notNull(dst);
+        checkRegion(src.length(), start, end - start);
+        isTrue((end - start) % 2 == 0, "Hex value must have an even number of characters");
+        checkRegion(dst.length, dstOffset, (end - start) / 2);
+
+        int index = dstOffset;
+        for (int i = start; i < end; i += 2) {
+            dst[index++] = (byte) (value(src.charAt(i)) << 4 | value(src.charAt(i + 1)));
+        }
+        return index - dstOffset;
+    }
+
+    /**
+     * Decodes the given value into a new array.
+     *
+     * @return the decoded bytes
+     */
+    public static byte[] decode(final CharSequence src) {
+        notNull(src);
+        final byte[] result = new byte[src.length() / 2];
+        decode(src, 0, src.length(), result, 0);
+        return result;
+    }
+
+    private static int value(final char c) {
+        final int value = c < VALUES.length ? VALUES[c] : -1;
+        isTrue(value >= 0, "Invalid hex character");
+        return value;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.envelope;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * An AES-256 key-encryption key, KEK, that wraps the data keys of {@link SecretRecord}s. The id is stored in each
+ * record, so that records wrapped by different versions of the KEK can be told apart during a rotation.
+ */
+public final class KeyEncryptionKey {
+
+    public static final int KEY_LENGTH = 32;
+
+    /**
+     * @param id
+     *         the id of this version of the key
+     * @param key
+     *         the key, which is copied
+     */
+    public static KeyEncryptionKey keyEncryptionKey(final int id, final byte[] key) {
+        notNull(key);
+        isTrue(key.length == KEY_LENGTH, "A key-encryption key must be %d bytes", KEY_LENGTH);
+
+        return new KeyEncryptionKey(id, new SecretKeySpec(key, "AES"));
+    }
+
+    public static KeyEncryptionKey generate(final int id) {
+        try {
+            final KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(KEY_LENGTH * 8, new SecureRandom());
+            return new KeyEncryptionKey(id, generator.generateKey());
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final int id;
+    private final SecretKey key;
+
+    private KeyEncryptionKey(final int id, final SecretKey key) {
+        this.id = id;
+        this.key = key;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    SecretKey key() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyEncryptionKey{" +
+                "id=" + id +
+                ", key=****" +
+                '}';
+    }
+}
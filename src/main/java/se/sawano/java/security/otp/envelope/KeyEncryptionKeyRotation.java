@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.envelope;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notNull;
+import static se.sawano.java.security.otp.envelope.KeyEncryptionKey.keyEncryptionKey;
+
+/**
+ * Rotates the key-encryption key of a file of {@link SecretRecord}s by re-wrapping the data keys. The secrets
+ * themselves are neither decrypted nor re-encrypted; only the fixed length KEK section of each record changes.
+ * <p>
+ * All records are re-wrapped in memory and written to a temporary file next to the records file, which is synced and
+ * then atomically moved over the records file. A record that cannot be unwrapped, or a rotation that is interrupted,
+ * therefore leaves the records file as it was, and the rotation can be run again. Records already wrapped by the new
+ * key are skipped. Keep the previous keys until the rotation has completed.
+ * </p>
+ * <p>
+ * Can be run stand-alone with:
+ * </p>
+ * <pre>
+ * java se.sawano.java.security.otp.envelope.KeyEncryptionKeyRotation \
+ *     &lt;records file&gt; &lt;new key id&gt; &lt;new key file&gt; [&lt;key id&gt;=&lt;key file&gt;...]
+ * </pre>
+ * <p>
+ * where the key files contain the raw 32 byte keys.
+ * </p>
+ */
+public final class KeyEncryptionKeyRotation {
+
+    private KeyEncryptionKeyRotation() {}
+
+    /**
+     * Re-wraps the data keys of the records in the given file with the next key-encryption key.
+     *
+     * @param file
+     *         the file of records
+     * @param currentKeys
+     *         the keys that the data keys are currently wrapped by
+     * @param nextKey
+     *         the key to wrap the data keys with
+     *
+     * @return the number of records that were re-wrapped
+     *
+     * @throws IOException
+     *         if the file cannot be read or written, in which case the file is not changed
+     * @throws IllegalStateException
+     *         if a data key cannot be unwrapped, in which case the file is not changed
+     */
+    public static long rewrap(final Path file, final Collection<KeyEncryptionKey> currentKeys, final KeyEncryptionKey nextKey) throws IOException {
+        notNull(file);
+        noNullElements(currentKeys);
+        notNull(nextKey);
+
+        final Map<Integer, KeyEncryptionKey> keys = new HashMap<>();
+        for (final KeyEncryptionKey key : currentKeys) {
+            keys.put(key.id(), key);
+        }
+
+        final byte[] records = Files.readAllBytes(file);
+        final int[] offsets = SecretRecordLoader.offsetsOf(records);
+        int rewrapped = 0;
+        for (int i = 0; i < offsets.length; ++i) {
+            final int keyId = SecretRecord.keyEncryptionKeyId(records, offsets[i]);
+            if (keyId == nextKey.id()) {
+                continue;
+            }
+            final KeyEncryptionKey key = keys.get(keyId);
+            isTrue(key != null, "Unknown key-encryption key id %d of record %d", keyId, i);
+            try {
+                SecretRecord.rewrap(records, offsets[i], key, nextKey);
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException("Could not unwrap the data key of record " + i, e);
+            }
+            ++rewrapped;
+        }
+
+        if (rewrapped > 0) {
+            replace(file, records);
+        }
+        return rewrapped;
+    }
+
+    /**
+     * Writes the records to a temporary file, syncs it and moves it over the file, so that the file is either the old
+     * or the new one, never a partially written one. A temporary file left by an interrupted rotation is overwritten.
+     */
+    private static void replace(final Path file, final byte[] records) throws IOException {
+        final Path temporary = temporaryFileOf(file);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(records);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(file.toAbsolutePath().getParent());
+    }
+
+    static Path temporaryFileOf(final Path file) {
+        return file.resolveSibling(file.getFileName() + ".rotating");
+    }
+
+    /**
+     * Makes the move durable on file systems that support syncing a directory.
+     */
+    private static void syncDirectory(final Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (final IOException e) {
+            // Not supported on all platforms, e.g. Windows
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: KeyEncryptionKeyRotation <records file> <new key id> <new key file> [<key id>=<key file>...]");
+            System.exit(2);
+        }
+
+        final KeyEncryptionKey nextKey = readKey(Integer.parseInt(args[1]), Paths.get(args[2]));
+        final List<KeyEncryptionKey> currentKeys = new ArrayList<>();
+        for (int i = 3; i < args.length; ++i) {
+            final int separator = args[i].indexOf('=');
+            isTrue(separator > 0, "Expected <key id>=<key file>: %s", args[i]);
+            currentKeys.add(readKey(Integer.parseInt(args[i].substring(0, separator)), Paths.get(args[i].substring(separator + 1))));
+        }
+
+        final long rewrapped = rewrap(Paths.get(args[0]), currentKeys, nextKey);
+        System.out.println("Re-wrapped " + rewrapped + " record(s) with key-encryption key " + nextKey.id());
+    }
+
+    private static KeyEncryptionKey readKey(final int id, final Path file) throws IOException {
+        final byte[] key = Files.readAllBytes(file);
+        try {
+            return keyEncryptionKey(id, key);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+}
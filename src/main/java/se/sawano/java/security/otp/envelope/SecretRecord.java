@@ -0,0 +1,360 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.envelope;
+
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPConfiguration;
+import se.sawano.java.security.otp.user.UserId;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+/**
+ * The binary format of an envelope-encrypted secret. Each secret is encrypted with a data key of its own, and the data
+ * key is wrapped by a {@link KeyEncryptionKey}. A record also carries the {@link TOTPConfiguration} that the TOTPs of
+ * the secret are verified with. A file of records is the records one after another.
+ * <p>
+ * A record of format version 1 is, with all integers big-endian:
+ * </p>
+ * <pre>
+ * magic "OTPS"            4 bytes
+ * format version          1 byte, 1
+ * cipher suite            1 byte, 1 for AES-256-GCM with 12 byte nonces and 16 byte tags
+ * algorithm               1 byte, the ShaAlgorithm of the secret: 1 SHA1, 2 SHA256, 3 SHA512
+ * T0                      8 bytes, the Unix time in milliseconds to start counting time steps
+ * time step               8 bytes, in milliseconds
+ * digits                  1 byte, the length of the TOTPs
+ * KEK id                  4 bytes
+ * wrap nonce              12 bytes
+ * wrapped data key        48 bytes, the encrypted key and the tag
+ * data nonce              12 bytes
+ * user id length          2 bytes
+ * user id                 UTF-8
+ * encrypted secret length 2 bytes
+ * encrypted secret        the encrypted secret and the tag
+ * </pre>
+ * <p>
+ * The wrapped data key is authenticated together with the header up to and including the KEK id. The secret is
+ * authenticated together with the header up to the KEK id, which includes the algorithm and the TOTP parameters, and
+ * the user id, but not with the KEK section, so that a data key can be re-wrapped in place by overwriting the fixed
+ * length section from the KEK id to the data nonce.
+ * </p>
+ * <p>
+ * Each thread reuses its own {@link Cipher} and scratch buffers.
+ * </p>
+ */
+public final class SecretRecord {
+
+    static final int FORMAT_VERSION = 1;
+    static final int AES_256_GCM = 1;
+
+    private static final byte[] MAGIC = {'O', 'T', 'P', 'S'};
+    private static final int DATA_KEY_LENGTH = 32;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int MAX_LENGTH = 0xffff;
+
+    private static final int VERSION_OFFSET = 4;
+    private static final int SUITE_OFFSET = 5;
+    private static final int ALGORITHM_OFFSET = 6;
+    private static final int T0_OFFSET = 7;
+    private static final int STEP_SIZE_OFFSET = 15;
+    private static final int DIGITS_OFFSET = 23;
+    private static final int KEK_ID_OFFSET = 24;
+    private static final int WRAP_NONCE_OFFSET = 28;
+    private static final int WRAPPED_KEY_OFFSET = 40;
+    private static final int DATA_NONCE_OFFSET = WRAPPED_KEY_OFFSET + DATA_KEY_LENGTH + TAG_LENGTH;
+    private static final int USER_ID_LENGTH_OFFSET = DATA_NONCE_OFFSET + NONCE_LENGTH;
+    private static final int USER_ID_OFFSET = USER_ID_LENGTH_OFFSET + 2;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<Workspace> WORKSPACES = ThreadLocal.withInitial(Workspace::new);
+
+    private SecretRecord() {}
+
+    /**
+     * Encrypts a secret into a record with a new data key and the {@link TOTPConfiguration#DEFAULT default} TOTP
+     * configuration.
+     *
+     * @param userId
+     *         the user of the secret
+     * @param secret
+     *         the secret, which is read
+     * @param keyEncryptionKey
+     *         the key to wrap the data key with
+     *
+     * @return the record
+     */
+    public static byte[] seal(final UserId userId, final SharedSecret secret, final KeyEncryptionKey keyEncryptionKey) {
+        return seal(userId, secret, TOTPConfiguration.DEFAULT, keyEncryptionKey);
+    }
+
+    /**
+     * Encrypts a secret into a record with a new data key.
+     *
+     * @param userId
+     *         the user of the secret
+     * @param secret
+     *         the secret, which is read
+     * @param configuration
+     *         the TOTP configuration that the TOTPs of the secret are verified with
+     * @param keyEncryptionKey
+     *         the key to wrap the data key with
+     *
+     * @return the record
+     */
+    public static byte[] seal(final UserId userId,
+                              final SharedSecret secret,
+                              final TOTPConfiguration configuration,
+                              final KeyEncryptionKey keyEncryptionKey) {
+        notNull(userId);
+        notNull(secret);
+        notNull(configuration);
+        notNull(keyEncryptionKey);
+
+        final ShaAlgorithm algorithm = secret.algorithm();
+        final byte[] userIdBytes = userId.value().getBytes(UTF_8);
+        final byte[] plaintext = secret.value();
+        final Workspace workspace = WORKSPACES.get();
+        try {
+            isTrue(userIdBytes.length <= MAX_LENGTH && plaintext.length + TAG_LENGTH <= MAX_LENGTH, "User id or secret is too long");
+
+            final int secretOffset = USER_ID_OFFSET + userIdBytes.length + 2;
+            final byte[] record = new byte[secretOffset + plaintext.length + TAG_LENGTH];
+            final ByteBuffer buffer = ByteBuffer.wrap(record)
+                                                .put(MAGIC)
+                                                .put((byte) FORMAT_VERSION)
+                                                .put((byte) AES_256_GCM)
+                                                .put(algorithmTag(algorithm))
+                                                .putLong(configuration.t0().toEpochMilli())
+                                                .putLong(configuration.stepSize().toMillis())
+                                                .put((byte) configuration.length().value());
+            buffer.position(USER_ID_LENGTH_OFFSET);
+            buffer.putShort((short) userIdBytes.length)
+                  .put(userIdBytes)
+                  .putShort((short) (plaintext.length + TAG_LENGTH));
+
+            RANDOM.nextBytes(workspace.dataKey);
+            wrap(record, 0, keyEncryptionKey, workspace);
+
+            final Cipher cipher = workspace.cipher;
+            System.arraycopy(randomNonce(), 0, record, DATA_NONCE_OFFSET, NONCE_LENGTH);
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(workspace.dataKey, "AES"), new GCMParameterSpec(TAG_LENGTH * 8, record, DATA_NONCE_OFFSET, NONCE_LENGTH));
+            updateDataAad(cipher, record, 0, userIdBytes.length);
+            cipher.doFinal(plaintext, 0, plaintext.length, record, secretOffset);
+            return record;
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Could not seal secret", e);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+            Arrays.fill(workspace.dataKey, (byte) 0);
+        }
+    }
+
+    /**
+     * Returns the length of the record at the given offset, after checking its structure but not its authenticity.
+     *
+     * @throws IllegalArgumentException
+     *         if there is no record of a supported version at the offset
+     */
+    static int recordLength(final byte[] bytes, final int offset) {
+        isTrue(bytes.length - offset >= USER_ID_OFFSET, "Truncated record at offset %d", offset);
+        for (int i = 0; i < MAGIC.length; ++i) {
+            isTrue(bytes[offset + i] == MAGIC[i], "Not a secret record at offset %d", offset);
+        }
+        isTrue(bytes[offset + VERSION_OFFSET] == FORMAT_VERSION, "Unsupported format version %d at offset %d", bytes[offset + VERSION_OFFSET], offset);
+        isTrue(bytes[offset + SUITE_OFFSET] == AES_256_GCM, "Unsupported cipher suite %d at offset %d", bytes[offset + SUITE_OFFSET], offset);
+
+        final int secretLengthOffset = offset + USER_ID_OFFSET + unsignedShort(bytes, offset + USER_ID_LENGTH_OFFSET);
+        isTrue(bytes.length - secretLengthOffset >= 2, "Truncated record at offset %d", offset);
+        final int secretLength = unsignedShort(bytes, secretLengthOffset);
+        isTrue(secretLength > TAG_LENGTH, "Empty secret in record at offset %d", offset);
+        isTrue(bytes.length - secretLengthOffset - 2 >= secretLength, "Truncated record at offset %d", offset);
+
+        return secretLengthOffset + 2 + secretLength - offset;
+    }
+
+    static int keyEncryptionKeyId(final byte[] bytes, final int offset) {
+        return ByteBuffer.wrap(bytes).getInt(offset + KEK_ID_OFFSET);
+    }
+
+    /**
+     * Returns the TOTP configuration of the record at the given offset, which is authenticated when the record is
+     * {@link #open(byte[], int, KeyEncryptionKey) opened}.
+     *
+     * @throws IllegalArgumentException
+     *         if the configuration is not valid
+     */
+    static TOTPConfiguration configurationOf(final byte[] bytes, final int offset) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final int digits = bytes[offset + DIGITS_OFFSET];
+        isTrue(digits >= 1 && digits <= TOTP.Length.values().length, "Unsupported number of digits: %d", digits);
+
+        return TOTPConfiguration.configuration(Instant.ofEpochMilli(buffer.getLong(offset + T0_OFFSET)),
+                                               Duration.ofMillis(buffer.getLong(offset + STEP_SIZE_OFFSET)),
+                                               TOTP.Length.values()[digits - 1]);
+    }
+
+    static UserId userIdOf(final byte[] bytes, final int offset) {
+        return userId(new String(bytes, offset + USER_ID_OFFSET, unsignedShort(bytes, offset + USER_ID_LENGTH_OFFSET), UTF_8));
+    }
+
+    /**
+     * Decrypts the secret of the record at the given offset.
+     *
+     * @throws GeneralSecurityException
+     *         if the record cannot be authenticated with the given key
+     */
+    static SharedSecret open(final byte[] bytes, final int offset, final KeyEncryptionKey keyEncryptionKey) throws GeneralSecurityException {
+        final Workspace workspace = WORKSPACES.get();
+        final int userIdLength = unsignedShort(bytes, offset + USER_ID_LENGTH_OFFSET);
+        final int secretOffset = offset + USER_ID_OFFSET + userIdLength + 2;
+        final int encryptedLength = unsignedShort(bytes, secretOffset - 2);
+        final byte[] secret = workspace.secret(encryptedLength - TAG_LENGTH);
+        try {
+            unwrap(bytes, offset, keyEncryptionKey, workspace);
+
+            final Cipher cipher = workspace.cipher;
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(workspace.dataKey, "AES"), new GCMParameterSpec(TAG_LENGTH * 8, bytes, offset + DATA_NONCE_OFFSET, NONCE_LENGTH));
+            updateDataAad(cipher, bytes, offset, userIdLength);
+            cipher.doFinal(bytes, secretOffset, encryptedLength, secret, 0);
+            return SharedSecret.from(secret, algorithm(bytes[offset + ALGORITHM_OFFSET]));
+        } finally {
+            Arrays.fill(workspace.dataKey, (byte) 0);
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    /**
+     * Re-wraps the data key of the record at the given offset with another key-encryption key. Only the section from
+     * {@link #KEK_ID_OFFSET} to {@link #DATA_NONCE_OFFSET} is changed.
+     *
+     * @throws GeneralSecurityException
+     *         if the data key cannot be unwrapped with the current key
+     */
+    static void rewrap(final byte[] bytes, final int offset, final KeyEncryptionKey current, final KeyEncryptionKey next) throws GeneralSecurityException {
+        final Workspace workspace = WORKSPACES.get();
+        try {
+            unwrap(bytes, offset, current, workspace);
+            wrap(bytes, offset, next, workspace);
+        } finally {
+            Arrays.fill(workspace.dataKey, (byte) 0);
+        }
+    }
+
+    /**
+     * Writes the KEK id, a new wrap nonce and the data key of the workspace wrapped by the given key.
+     */
+    private static void wrap(final byte[] bytes, final int offset, final KeyEncryptionKey keyEncryptionKey, final Workspace workspace) throws GeneralSecurityException {
+        ByteBuffer.wrap(bytes).putInt(offset + KEK_ID_OFFSET, keyEncryptionKey.id());
+        System.arraycopy(randomNonce(), 0, bytes, offset + WRAP_NONCE_OFFSET, NONCE_LENGTH);
+
+        final Cipher cipher = workspace.cipher;
+        cipher.init(Cipher.ENCRYPT_MODE, keyEncryptionKey.key(), new GCMParameterSpec(TAG_LENGTH * 8, bytes, offset + WRAP_NONCE_OFFSET, NONCE_LENGTH));
+        cipher.updateAAD(bytes, offset, WRAP_NONCE_OFFSET);
+        cipher.doFinal(workspace.dataKey, 0, DATA_KEY_LENGTH, bytes, offset + WRAPPED_KEY_OFFSET);
+    }
+
+    /**
+     * Unwraps the data key into the workspace.
+     */
+    private static void unwrap(final byte[] bytes, final int offset, final KeyEncryptionKey keyEncryptionKey, final Workspace workspace) throws GeneralSecurityException {
+        final Cipher cipher = workspace.cipher;
+        cipher.init(Cipher.DECRYPT_MODE, keyEncryptionKey.key(), new GCMParameterSpec(TAG_LENGTH * 8, bytes, offset + WRAP_NONCE_OFFSET, NONCE_LENGTH));
+        cipher.updateAAD(bytes, offset, WRAP_NONCE_OFFSET);
+        cipher.doFinal(bytes, offset + WRAPPED_KEY_OFFSET, DATA_KEY_LENGTH + TAG_LENGTH, workspace.dataKey, 0);
+    }
+
+    private static void updateDataAad(final Cipher cipher, final byte[] bytes, final int offset, final int userIdLength) {
+        cipher.updateAAD(bytes, offset, KEK_ID_OFFSET);
+        cipher.updateAAD(bytes, offset + USER_ID_OFFSET, userIdLength);
+    }
+
+    private static byte[] randomNonce() {
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    private static int unsignedShort(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) << 8 | bytes[offset + 1] & 0xff;
+    }
+
+    private static byte algorithmTag(final ShaAlgorithm algorithm) {
+        switch (algorithm) {
+            case SHA1:
+                return 1;
+            case SHA256:
+                return 2;
+            case SHA512:
+                return 3;
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm: " + algorithm);
+        }
+    }
+
+    private static ShaAlgorithm algorithm(final byte tag) {
+        switch (tag) {
+            case 1:
+                return ShaAlgorithm.SHA1;
+            case 2:
+                return ShaAlgorithm.SHA256;
+            case 3:
+                return ShaAlgorithm.SHA512;
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm tag: " + tag);
+        }
+    }
+
+    private static final class Workspace {
+        private final Cipher cipher;
+        private final byte[] dataKey = new byte[DATA_KEY_LENGTH];
+        private byte[] secret = new byte[0];
+
+        Workspace() {
+            try {
+                cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Returns a buffer of exactly the given length, reusing the previous one when the length is the same.
+         */
+        byte[] secret(final int length) {
+            if (secret.length != length) {
+                secret = new byte[length];
+            }
+            return secret;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.envelope;
+
+import se.sawano.java.security.otp.ImportReport;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTPConfiguration;
+import se.sawano.java.security.otp.user.Credential;
+import se.sawano.java.security.otp.user.CredentialId;
+import se.sawano.java.security.otp.user.UserId;
+import se.sawano.java.security.otp.user.persistence.CredentialRepository;
+import se.sawano.java.security.otp.user.persistence.SecretRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+import static java.util.Comparator.naturalOrder;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notEmpty;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Loads a file of {@link SecretRecord}s into a {@link SecretRepository}, e.g. a sealed in-memory repository at
+ * startup, or into a {@link CredentialRepository}.
+ * <p>
+ * A secret repository does not keep the {@link TOTPConfiguration} of each secret, so a record whose configuration
+ * differs from the one that the secrets of the repository are verified with is reported rather than saved. A
+ * credential repository keeps the configuration of each record in its {@link Credential}.
+ * </p>
+ * <p>
+ * The records are decrypted and saved in parallel on a fork join pool, in batches of records. Each worker thread reuses
+ * its own ciphers. A record that cannot be decrypted, e.g. because its key-encryption key is not given, is reported,
+ * by its index in the file starting at 0, in the {@link ImportReport} and does not stop the load. A file whose
+ * structure is broken is rejected before anything is saved.
+ * </p>
+ */
+public final class SecretRecordLoader {
+
+    private static final int RECORDS_PER_TASK = 64;
+
+    private final Map<Integer, KeyEncryptionKey> keyEncryptionKeys = new HashMap<>();
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a loader that runs on the common fork join pool.
+     *
+     * @param keyEncryptionKeys
+     *         the keys that the data keys of the records may be wrapped by
+     */
+    public SecretRecordLoader(final Collection<KeyEncryptionKey> keyEncryptionKeys) {
+        this(keyEncryptionKeys, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a loader.
+     *
+     * @param keyEncryptionKeys
+     *         the keys that the data keys of the records may be wrapped by
+     * @param pool
+     *         the pool to decrypt on
+     */
+    public SecretRecordLoader(final Collection<KeyEncryptionKey> keyEncryptionKeys, final ForkJoinPool pool) {
+        notEmpty(keyEncryptionKeys);
+        noNullElements(keyEncryptionKeys);
+        notNull(pool);
+
+        for (final KeyEncryptionKey key : keyEncryptionKeys) {
+            isTrue(this.keyEncryptionKeys.put(key.id(), key) == null, "Duplicate key-encryption key id: %d", key.id());
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Loads the records of the given file into a secret repository whose secrets are verified with the
+     * {@link TOTPConfiguration#DEFAULT default} TOTP configuration.
+     *
+     * @param file
+     *         the file of records
+     * @param repository
+     *         the repository to save the secrets in
+     *
+     * @return the result of the load
+     *
+     * @throws IOException
+     *         if the file cannot be read
+     */
+    public ImportReport<Integer> load(final Path file, final SecretRepository repository) throws IOException {
+        notNull(file);
+
+        return load(Files.readAllBytes(file), repository);
+    }
+
+    /**
+     * Loads the given records into a secret repository whose secrets are verified with the
+     * {@link TOTPConfiguration#DEFAULT default} TOTP configuration.
+     *
+     * @param records
+     *         the records, one after another
+     * @param repository
+     *         the repository to save the secrets in
+     *
+     * @return the result of the load
+     *
+     * @throws IllegalArgumentException
+     *         if the structure of the records is broken
+     */
+    public ImportReport<Integer> load(final byte[] records, final SecretRepository repository) {
+        return load(records, repository, TOTPConfiguration.DEFAULT);
+    }
+
+    /**
+     * Loads the given records into a secret repository. A record of another TOTP configuration is reported.
+     *
+     * @param records
+     *         the records, one after another
+     * @param repository
+     *         the repository to save the secrets in
+     * @param configuration
+     *         the TOTP configuration that the secrets of the repository are verified with
+     *
+     * @return the result of the load
+     *
+     * @throws IllegalArgumentException
+     *         if the structure of the records is broken
+     */
+    public ImportReport<Integer> load(final byte[] records, final SecretRepository repository, final TOTPConfiguration configuration) {
+        notNull(repository);
+        notNull(configuration);
+
+        return load(records, (userId, secret, recordConfiguration) -> {
+            isTrue(recordConfiguration.equals(configuration), "TOTP configuration %s differs from the %s of the repository", recordConfiguration, configuration);
+            repository.save(secret, userId);
+        });
+    }
+
+    /**
+     * Loads the given records into a credential repository, each as a credential with the TOTP configuration of the
+     * record.
+     *
+     * @param records
+     *         the records, one after another
+     * @param repository
+     *         the repository to save the credentials in
+     * @param credentialIdMapper
+     *         the id of the credential of each user
+     *
+     * @return the result of the load
+     *
+     * @throws IllegalArgumentException
+     *         if the structure of the records is broken
+     */
+    public ImportReport<Integer> load(final byte[] records,
+                                      final CredentialRepository repository,
+                                      final Function<UserId, CredentialId> credentialIdMapper) {
+        notNull(repository);
+        notNull(credentialIdMapper);
+
+        return load(records, (userId, secret, configuration) -> repository.save(Credential.credential(credentialIdMapper.apply(userId), secret, configuration), userId));
+    }
+
+    private ImportReport<Integer> load(final byte[] records, final Target target) {
+        notNull(records);
+
+        final int[] offsets = offsetsOf(records);
+        final ImportReport.Collector<Integer> results = new ImportReport.Collector<>(naturalOrder());
+        pool.invoke(new LoadTask(records, offsets, 0, offsets.length, target, results));
+        return results.report();
+    }
+
+    static int[] offsetsOf(final byte[] records) {
+        int[] offsets = new int[16];
+        int count = 0;
+        for (int offset = 0; offset < records.length; offset += SecretRecord.recordLength(records, offset)) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * count);
+            }
+            offsets[count++] = offset;
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    private void loadRecord(final byte[] records, final int offset, final Target target) throws GeneralSecurityException {
+        final int keyId = SecretRecord.keyEncryptionKeyId(records, offset);
+        final KeyEncryptionKey key = keyEncryptionKeys.get(keyId);
+        isTrue(key != null, "Unknown key-encryption key id: %d", keyId);
+
+        final SharedSecret secret = SecretRecord.open(records, offset, key);
+        target.save(SecretRecord.userIdOf(records, offset), secret, SecretRecord.configurationOf(records, offset));
+    }
+
+    /**
+     * Saves the secret of an opened record.
+     */
+    @FunctionalInterface
+    private interface Target {
+        void save(UserId userId, SharedSecret secret, TOTPConfiguration configuration);
+    }
+
+    /**
+     * Loads a range of records, splitting it in halves until it is small enough to load directly.
+     */
+    private final class LoadTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] records;
+        private final int[] offsets;
+        private final int start;
+        private final int end;
+        private final Target target;
+        private final ImportReport.Collector<Integer> results;
+
+        LoadTask(final byte[] records,
+                 final int[] offsets,
+                 final int start,
+                 final int end,
+                 final Target target,
+                 final ImportReport.Collector<Integer> results) {
+            this.records = records;
+            this.offsets = offsets;
+            this.start = start;
+            this.end = end;
+            this.target = target;
+            this.results = results;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= RECORDS_PER_TASK) {
+                for (int i = start; i < end; ++i) {
+                    try {
+                        loadRecord(records, offsets[i], target);
+                        results.imported();
+                    } catch (GeneralSecurityException | RuntimeException e) {
+                        results.failed(i, e);
+                    }
+                }
+                return;
+            }
+            final int middle = (start + end) >>> 1;
+            invokeAll(new LoadTask(records, offsets, start, middle, target, results),
+                      new LoadTask(records, offsets, middle, end, target, results));
+        }
+    }
+}
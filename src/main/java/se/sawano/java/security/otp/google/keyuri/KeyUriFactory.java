@@ -84,7 +84,7 @@ public class KeyUriFactory {
         return new KeyUri(new Label(accountName, issuer), parameters);
     }
 
-    private static Algorithm convert(final ShaAlgorithm algorithm) {
+    static Algorithm convert(final ShaAlgorithm algorithm) {
         return Optional.ofNullable(ALGORITHM_MAP.get(algorithm))
                        .orElseThrow(() -> new IllegalArgumentException("Unsupported algorithm: " + algorithm));
     }
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri;
+
+import se.sawano.java.security.otp.ImportReport;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.user.UserId;
+import se.sawano.java.security.otp.user.persistence.SecretRepository;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import static java.util.Comparator.naturalOrder;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Imports key URIs, one per line, into a {@link SecretRepository}. Used when migrating users from another provider.
+ * <p>
+ * The lines are read in batches on the calling thread and parsed and saved on the given executor. At most a fixed
+ * number of batches are in flight at once, so a large file is never read into memory as a whole. Blank lines and
+ * lines starting with '#' are skipped. A line that cannot be imported is reported, by line number, in the
+ * {@link ImportReport} and does not stop the import.
+ * </p>
+ */
+public final class KeyUriImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final SecretRepository secretRepository;
+    private final Function<KeyUri, UserId> userIdMapper;
+    private final Executor executor;
+    private final int batchSize;
+    private final int maxBatchesInFlight;
+
+    /**
+     * Creates an importer that runs on the common fork join pool.
+     *
+     * @param secretRepository
+     *         the repository to save the secrets in
+     * @param userIdMapper
+     *         maps each key URI to the user it belongs to, e.g. by account name
+     */
+    public KeyUriImporter(final SecretRepository secretRepository, final Function<KeyUri, UserId> userIdMapper) {
+        this(secretRepository, userIdMapper, ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates an importer.
+     *
+     * @param secretRepository
+     *         the repository to save the secrets in
+     * @param userIdMapper
+     *         maps each key URI to the user it belongs to, e.g. by account name
+     * @param executor
+     *         the executor to parse and save on
+     * @param batchSize
+     *         the number of lines per batch
+     */
+    public KeyUriImporter(final SecretRepository secretRepository,
+                          final Function<KeyUri, UserId> userIdMapper,
+                          final Executor executor,
+                          final int batchSize) {
+        notNull(secretRepository);
+        notNull(userIdMapper);
+        notNull(executor);
+        isTrue(batchSize > 0, "Batch size must be positive");
+
+        this.secretRepository = secretRepository;
+        this.userIdMapper = userIdMapper;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.maxBatchesInFlight = 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Imports the key URIs in the given UTF-8 file.
+     *
+     * @param file
+     *         the file with one key URI per line
+     *
+     * @return the result of the import
+     *
+     * @throws IOException
+     *         if the file cannot be read
+     */
+    public ImportReport<Long> importFrom(final Path file) throws IOException {
+        notNull(file);
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importFrom(reader);
+        }
+    }
+
+    /**
+     * Imports the key URIs read from the given reader, which is not closed.
+     *
+     * @param reader
+     *         the reader with one key URI per line
+     *
+     * @return the result of the import
+     *
+     * @throws IOException
+     *         if the reader fails
+     */
+    public ImportReport<Long> importFrom(final BufferedReader reader) throws IOException {
+        notNull(reader);
+
+        final ImportReport.Collector<Long> results = new ImportReport.Collector<>(naturalOrder());
+        final Semaphore batchesInFlight = new Semaphore(maxBatchesInFlight);
+        final List<CompletableFuture<Void>> batches = new ArrayList<>();
+
+        long lineNumber = 0;
+        long firstLineNumber = 1;
+        List<String> batch = new ArrayList<>(batchSize);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            ++lineNumber;
+            batch.add(line);
+            if (batch.size() == batchSize) {
+                batches.add(submit(batch, firstLineNumber, batchesInFlight, results));
+                batch = new ArrayList<>(batchSize);
+                firstLineNumber = lineNumber + 1;
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(submit(batch, firstLineNumber, batchesInFlight, results));
+        }
+        CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).join();
+        return results.report();
+    }
+
+    private CompletableFuture<Void> submit(final List<String> lines,
+                                           final long firstLineNumber,
+                                           final Semaphore batchesInFlight,
+                                           final ImportReport.Collector<Long> results) throws InterruptedIOException {
+        try {
+            batchesInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a batch to complete");
+        }
+        return CompletableFuture.runAsync(() -> importBatch(lines, firstLineNumber, results), executor)
+                                .whenComplete((r, t) -> batchesInFlight.release());
+    }
+
+    private void importBatch(final List<String> lines,
+                             final long firstLineNumber,
+                             final ImportReport.Collector<Long> results) {
+        for (int i = 0; i < lines.size(); ++i) {
+            final String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                importUri(line, userIdMapper, secretRepository);
+                results.imported();
+            } catch (RuntimeException e) {
+                results.failed(firstLineNumber + i, e);
+            }
+        }
+    }
+
+    /**
+     * Parses a key URI and saves its secret for the user it is mapped to. The decoded secret is wiped afterwards.
+     */
+    static void importUri(final String uri, final Function<KeyUri, UserId> userIdMapper, final SecretRepository secretRepository) {
+        final KeyUriParser.Parsed parsed = KeyUriParser.parseWithSecret(uri);
+        try {
+            final UserId userId = userIdMapper.apply(parsed.keyUri);
+            notNull(userId, "No user id for key URI");
+            secretRepository.save(SharedSecret.from(parsed.secret, parsed.algorithm), userId);
+        } finally {
+            Arrays.fill(parsed.secret, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri;
+
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.codec.Base32;
+import se.sawano.java.security.otp.google.keyuri.parameters.Algorithm;
+import se.sawano.java.security.otp.google.keyuri.parameters.Counter;
+import se.sawano.java.security.otp.google.keyuri.parameters.Digits;
+import se.sawano.java.security.otp.google.keyuri.parameters.Issuer;
+import se.sawano.java.security.otp.google.keyuri.parameters.ParametersBuilder;
+import se.sawano.java.security.otp.google.keyuri.parameters.Period;
+import se.sawano.java.security.otp.google.keyuri.parameters.Secret;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Parses key URIs, i.e. {@code otpauth://TYPE/LABEL?PARAMETERS}, back into {@link KeyUri}s.
+ * <p>
+ * The parser is strict: the URI must be plain ASCII, percent escapes must be valid UTF-8, the secret must be valid
+ * Base32 and no parameter may occur more than once. Parameters that are not part of the key URI format, e.g. {@code
+ * image}, are ignored. The period defaults to 30 seconds for TOTP, as in the format.
+ * </p>
+ * <p>
+ * The label is expected to be {@code ISSUER:ACCOUNT} as in the format. Since {@link Label#asUriString()} writes {@code
+ * ACCOUNT:ISSUER}, that order is accepted when the issuer parameter equals the second part of the label but not the
+ * first.
+ * </p>
+ * <p>
+ * The parser works on the characters of the input directly. Only the account name, the issuer and the secret are
+ * decoded into new objects.
+ * </p>
+ */
+public final class KeyUriParser {
+
+    private static final String SCHEME = "otpauth://";
+    private static final Duration DEFAULT_PERIOD = Duration.ofSeconds(30);
+
+    private KeyUriParser() {}
+
+    /**
+     * Parses a key URI.
+     *
+     * @param uri
+     *         the key URI
+     *
+     * @return the key URI
+     *
+     * @throws IllegalArgumentException
+     *         if the key URI is not valid
+     */
+    public static KeyUri parse(final CharSequence uri) {
+        final Parsed parsed = parseWithSecret(uri);
+        Arrays.fill(parsed.secret, (byte) 0);
+        return parsed.keyUri;
+    }
+
+    /**
+     * Parses a key URI and also returns the raw secret, which the caller must clear when done with it.
+     */
+    static Parsed parseWithSecret(final CharSequence uri) {
+        notNull(uri);
+        final int end = uri.length();
+        isTrue(regionEquals(uri, 0, Math.min(end, SCHEME.length()), SCHEME), "Not an otpauth URI");
+        for (int i = 0; i < end; ++i) {
+            isTrue(uri.charAt(i) > ' ' && uri.charAt(i) < 0x7F, "Key URI may only contain printable ASCII characters");
+        }
+
+        final int typeEnd = indexOf(uri, '/', SCHEME.length(), end);
+        isTrue(typeEnd >= 0, "Key URI has no label");
+        final Type type = type(uri, SCHEME.length(), typeEnd);
+        final int labelEnd = indexOf(uri, '?', typeEnd + 1, end);
+        isTrue(labelEnd >= 0, "Key URI has no parameters");
+        final String label = percentDecode(uri, typeEnd + 1, labelEnd);
+
+        final RawParameters parameters = new RawParameters();
+        try {
+            int pairStart = labelEnd + 1;
+            while (pairStart <= end) {
+                int pairEnd = indexOf(uri, '&', pairStart, end);
+                pairEnd = pairEnd < 0 ? end : pairEnd;
+                parameters.add(uri, pairStart, pairEnd);
+                pairStart = pairEnd + 1;
+            }
+            isTrue(parameters.secret != null, "Key URI has no secret");
+
+            return new Parsed(keyUri(type, label, parameters), parameters.secret, shaAlgorithm(parameters.algorithm));
+        } catch (RuntimeException e) {
+            // The secret may have been decoded before a later parameter turned out to be invalid
+            if (parameters.secret != null) {
+                Arrays.fill(parameters.secret, (byte) 0);
+            }
+            throw e;
+        }
+    }
+
+    private static KeyUri keyUri(final Type type, final String label, final RawParameters parameters) {
+        final Label parsedLabel = label(label, parameters.issuer);
+        final Secret secret = Secret.secret(parameters.secret);
+        final Issuer issuer = parameters.issuer == null ? null : Issuer.issuer(parameters.issuer);
+
+        if (type == Type.TOTP) {
+            isTrue(parameters.counter == null, "'Counter' is not allowed for type TOTP");
+            return new KeyUri(parsedLabel, ParametersBuilder.totpBuilder()
+                                                            .withSecret(secret)
+                                                            .withAlgorithm(parameters.algorithm)
+                                                            .withDigits(parameters.digits)
+                                                            .withIssuer(issuer)
+                                                            .withPeriod(parameters.period == null ? Period.period(DEFAULT_PERIOD) : parameters.period)
+                                                            .create());
+        }
+        isTrue(parameters.period == null, "'Period' is not allowed for type HOTP");
+        return new KeyUri(parsedLabel, ParametersBuilder.hotpBuilder()
+                                                        .withSecret(secret)
+                                                        .withAlgorithm(parameters.algorithm)
+                                                        .withDigits(parameters.digits)
+                                                        .withIssuer(issuer)
+                                                        .withCounter(parameters.counter)
+                                                        .create());
+    }
+
+    private static Label label(final String value, final String issuerParameter) {
+        final int colon = value.indexOf(':');
+        if (colon < 0) {
+            return new Label(Label.AccountName.accountName(value));
+        }
+        final String first = value.substring(0, colon).trim();
+        final String second = value.substring(colon + 1).trim();
+        if (issuerParameter != null && !issuerParameter.trim().equals(first) && issuerParameter.trim().equals(second)) {
+            return new Label(Label.AccountName.accountName(first), Label.Issuer.issuer(second));
+        }
+        return new Label(Label.AccountName.accountName(second), Label.Issuer.issuer(first));
+    }
+
+    private static Type type(final CharSequence uri, final int start, final int end) {
+        for (final Type type : Type.values()) {
+            if (regionEquals(uri, start, end, type.value())) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown type: " + uri.subSequence(start, end));
+    }
+
+    private static ShaAlgorithm shaAlgorithm(final Algorithm algorithm) {
+        if (algorithm == null) {
+            return ShaAlgorithm.SHA1;
+        }
+        switch (algorithm) {
+            case SHA1:
+                return ShaAlgorithm.SHA1;
+            case SHA256:
+                return ShaAlgorithm.SHA256;
+            case SHA512:
+                return ShaAlgorithm.SHA512;
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm: " + algorithm);
+        }
+    }
+
+    /**
+     * The parameters as read from the URI, before being turned into the parameter value objects.
+     */
+    private static final class RawParameters {
+        byte[] secret;
+        String issuer;
+        Algorithm algorithm;
+        Digits digits;
+        Period period;
+        Counter counter;
+
+        void add(final CharSequence uri, final int start, final int end) {
+            final int eq = indexOf(uri, '=', start, end);
+            isTrue(eq > start, "Malformed parameter at index %d", start);
+            final int valueStart = eq + 1;
+
+            if (regionEquals(uri, start, eq, "secret")) {
+                isTrue(secret == null, "Duplicate parameter: secret");
+                secret = decodeSecret(uri, valueStart, end);
+            }
+            else if (regionEquals(uri, start, eq, "issuer")) {
+                isTrue(issuer == null, "Duplicate parameter: issuer");
+                issuer = percentDecode(uri, valueStart, end);
+            }
+            else if (regionEquals(uri, start, eq, "algorithm")) {
+                isTrue(algorithm == null, "Duplicate parameter: algorithm");
+                algorithm = algorithm(uri, valueStart, end);
+            }
+            else if (regionEquals(uri, start, eq, "digits")) {
+                isTrue(digits == null, "Duplicate parameter: digits");
+                digits = digits(uri, valueStart, end);
+            }
+            else if (regionEquals(uri, start, eq, "period")) {
+                isTrue(period == null, "Duplicate parameter: period");
+                final long seconds = parseNonNegativeLong(uri, valueStart, end, "period");
+                isTrue(seconds > 0, "Period must be positive");
+                period = Period.period(Duration.ofSeconds(seconds));
+            }
+            else if (regionEquals(uri, start, eq, "counter")) {
+                isTrue(counter == null, "Duplicate parameter: counter");
+                counter = Counter.counter(parseNonNegativeLong(uri, valueStart, end, "counter"));
+            }
+        }
+
+        private static Algorithm algorithm(final CharSequence uri, final int start, final int end) {
+            for (final Algorithm algorithm : Algorithm.values()) {
+                if (regionEquals(uri, start, end, algorithm.value())) {
+                    return algorithm;
+                }
+            }
+            throw new IllegalArgumentException("Unknown algorithm: " + uri.subSequence(start, end));
+        }
+
+        private static Digits digits(final CharSequence uri, final int start, final int end) {
+            final long value = parseNonNegativeLong(uri, start, end, "digits");
+            for (final Digits digits : Digits.values()) {
+                if (digits.value() == value) {
+                    return digits;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported number of digits: " + value);
+        }
+    }
+
+    static final class Parsed {
+        final KeyUri keyUri;
+        final byte[] secret;
+        final ShaAlgorithm algorithm;
+
+        private Parsed(final KeyUri keyUri, final byte[] secret, final ShaAlgorithm algorithm) {
+            this.keyUri = keyUri;
+            this.secret = secret;
+            this.algorithm = algorithm;
+        }
+    }
+
+    /**
+     * Decodes the percent escapes in the given range, which must be UTF-8 once decoded.
+     */
+    private static String percentDecode(final CharSequence uri, final int start, final int end) {
+        final byte[] bytes = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; ++i) {
+            final char c = uri.charAt(i);
+            if (c == '%') {
+                isTrue(i + 2 < end, "Incomplete percent escape");
+                bytes[length++] = (byte) ((hexValue(uri.charAt(i + 1)) << 4) | hexValue(uri.charAt(i + 2)));
+                i += 2;
+            }
+            else {
+                bytes[length++] = (byte) c;
+            }
+        }
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                                         .onMalformedInput(CodingErrorAction.REPORT)
+                                         .onUnmappableCharacter(CodingErrorAction.REPORT)
+                                         .decode(ByteBuffer.wrap(bytes, 0, length))
+                                         .toString();
+        } catch (CharacterCodingException e) {
+            throw new IllegalArgumentException("Percent escapes are not valid UTF-8", e);
+        }
+    }
+
+    private static byte[] decodeSecret(final CharSequence uri, final int start, final int end) {
+        final byte[] buffer = new byte[Base32.decodedLength(end - start)];
+        int length = 0;
+        try {
+            length = Base32.decode(uri, start, end, buffer, 0);
+            isTrue(length > 0, "Secret must not be empty");
+            return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+        } finally {
+            // Unless the buffer itself is returned, also when decoding fails half way
+            if (length != buffer.length) {
+                Arrays.fill(buffer, (byte) 0);
+            }
+        }
+    }
+
+    private static int hexValue(final char c) {
+        final int value = Character.digit(c, 16);
+        isTrue(value >= 0, "Invalid percent escape");
+        return value;
+    }
+
+    private static long parseNonNegativeLong(final CharSequence uri, final int start, final int end, final String name) {
+        isTrue(start < end && end - start <= 18, "Invalid %s", name);
+        long value = 0;
+        for (int i = start; i < end; ++i) {
+            final char c = uri.charAt(i);
+            isTrue(c >= '0' && c <= '9', "Invalid %s", name);
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int indexOf(final CharSequence s, final char c, final int start, final int end) {
+        for (int i = start; i < end; ++i) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(final CharSequence s, final int start, final int end, final String expected) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); ++i) {
+            if (s.charAt(start + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri;
+
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.codec.Base32;
+import se.sawano.java.security.otp.google.keyuri.parameters.Digits;
+import se.sawano.java.security.otp.google.keyuri.parameters.Issuer;
+import se.sawano.java.security.otp.google.keyuri.parameters.Period;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * A precompiled TOTP key URI for one issuer. Everything except the account name and the secret is encoded once, when
+ * the template is created, and each URI is then written straight to an {@link Appendable}.
+ * <p>
+ * The result is the same string as {@code KeyUriFactory.totpKeyUriFrom(...).toURI().toString()} but without sorting
+ * the parameters, creating the intermediate objects or parsing the result as a {@link java.net.URI}. Meant for bulk
+ * enrollment where many URIs are created for the same tenant. Instances are immutable and thread safe.
+ * </p>
+ */
+public final class KeyUriTemplate {
+
+    private static final String PREFIX = "otpauth://" + Type.TOTP.value() + "/";
+
+    /**
+     * Creates a template for TOTP key URIs.
+     *
+     * @param issuer
+     *         the issuer, used both in the label and as the issuer parameter
+     * @param algorithm
+     *         the algorithm of the secrets the template will be used with
+     * @param digits
+     *         the number of digits
+     * @param period
+     *         the period
+     *
+     * @return a new template
+     */
+    public static KeyUriTemplate totpTemplate(final Label.Issuer issuer,
+                                              final ShaAlgorithm algorithm,
+                                              final Digits digits,
+                                              final Period period) {
+        return new KeyUriTemplate(issuer, algorithm, digits, period);
+    }
+
+    private final ShaAlgorithm algorithm;
+    private final String labelSuffixAndParameters;
+
+    private KeyUriTemplate(final Label.Issuer issuer, final ShaAlgorithm algorithm, final Digits digits, final Period period) {
+        notNull(issuer);
+        notNull(algorithm);
+        notNull(digits);
+        notNull(period);
+
+        this.algorithm = algorithm;
+        // Parameters in the same alphabetical order as GenericParameters.asUriString(), with the secret last
+        this.labelSuffixAndParameters = UriEncoder.encode(":" + issuer.value())
+                + "?" + KeyUriFactory.convert(algorithm).parameterPair()
+                + "&" + digits.parameterPair()
+                + "&" + Issuer.issuer(issuer.value()).parameterPair()
+                + "&" + period.parameterPair()
+                + "&secret=";
+    }
+
+    /**
+     * @return the algorithm of the secrets the template can be used with
+     */
+    public ShaAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Creates the key URI for the given account.
+     *
+     * @param secret
+     *         the secret, which will be consumed
+     * @param accountName
+     *         the account name
+     *
+     * @return the key URI as a string
+     */
+    public String uriStringFor(final SharedSecret secret, final Label.AccountName accountName) {
+        return appendTo(new StringBuilder(128), secret, accountName).toString();
+    }
+
+    /**
+     * Appends the key URI for the given account.
+     *
+     * @param builder
+     *         the builder to append to
+     * @param secret
+     *         the secret, which will be consumed
+     * @param accountName
+     *         the account name
+     *
+     * @return the given builder
+     */
+    public StringBuilder appendTo(final StringBuilder builder, final SharedSecret secret, final Label.AccountName accountName) {
+        try {
+            appendTo((Appendable) builder, secret, accountName);
+            return builder;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends the key URI for the given account.
+     *
+     * @param out
+     *         the target to append to
+     * @param secret
+     *         the secret, which will be consumed
+     * @param accountName
+     *         the account name
+     * @param <A>
+     *         the type of appendable
+     *
+     * @return the given appendable
+     *
+     * @throws IOException
+     *         if the appendable fails
+     */
+    public <A extends Appendable> A appendTo(final A out, final SharedSecret secret, final Label.AccountName accountName) throws IOException {
+        notNull(out);
+        notNull(secret);
+        notNull(accountName);
+        isTrue(secret.algorithm() == algorithm, "Secret must use algorithm %s", algorithm);
+
+        out.append(PREFIX)
+           .append(UriEncoder.encode(accountName.value()))
+           .append(labelSuffixAndParameters);
+        final byte[] value = secret.value();
+        try {
+            Base32.encode(value, 0, value.length, out);
+        } finally {
+            Arrays.fill(value, (byte) 0);
+        }
+        return out;
+    }
+}
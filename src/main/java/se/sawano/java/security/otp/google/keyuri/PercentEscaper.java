@@ -60,6 +60,9 @@ final class PercentEscaper extends UnicodeEscaper {
     // Percent escapers output upper case hex digits (uri escapers require this).
     private static final char[] UPPER_HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
+    // A char in the BMP is at most three UTF-8 bytes, i.e. "%XX%XX%XX". A surrogate pair is four bytes for two chars.
+    private static final int MAX_ESCAPED_LENGTH_PER_CHAR = 9;
+
     /**
      * If true we should convert space to the {@code +} character.
      */
@@ -151,12 +154,65 @@ final class PercentEscaper extends UnicodeEscaper {
         for (int index = 0; index < slen; index++) {
             char c = s.charAt(index);
             if (c >= safeOctets.length || !safeOctets[c]) {
-                return escapeSlow(s, index);
+                return escapeInPlace(s, index);
             }
         }
         return s;
     }
 
+    /**
+     * Escapes the string in a single pass, starting at the first character that needs escaping. Unlike {@link
+     * #escapeSlow(String, int)} the escaped characters are written straight into one output buffer, sized for the worst
+     * case, instead of being returned as a new array per character.
+     */
+    private String escapeInPlace(String s, int index) {
+        int end = s.length();
+        char[] dest = new char[index + (end - index) * MAX_ESCAPED_LENGTH_PER_CHAR];
+        s.getChars(0, index, dest, 0);
+        int destIndex = index;
+
+        while (index < end) {
+            int cp = codePointAt(s, index, end);
+            if (cp < 0) {
+                throw new IllegalArgumentException("Trailing high surrogate at end of input");
+            }
+            index += Character.isSupplementaryCodePoint(cp) ? 2 : 1;
+
+            if (cp < safeOctets.length && safeOctets[cp]) {
+                dest[destIndex++] = (char) cp;
+            }
+            else if (cp == ' ' && plusForSpace) {
+                dest[destIndex++] = '+';
+            }
+            else if (cp <= 0x7F) {
+                destIndex = writeEscapedByte(cp, dest, destIndex);
+            }
+            else if (cp <= 0x7ff) {
+                destIndex = writeEscapedByte(0xC0 | (cp >>> 6), dest, destIndex);
+                destIndex = writeEscapedByte(0x80 | (cp & 0x3F), dest, destIndex);
+            }
+            else if (cp <= 0xffff) {
+                destIndex = writeEscapedByte(0xE0 | (cp >>> 12), dest, destIndex);
+                destIndex = writeEscapedByte(0x80 | ((cp >>> 6) & 0x3F), dest, destIndex);
+                destIndex = writeEscapedByte(0x80 | (cp & 0x3F), dest, destIndex);
+            }
+            else {
+                destIndex = writeEscapedByte(0xF0 | (cp >>> 18), dest, destIndex);
+                destIndex = writeEscapedByte(0x80 | ((cp >>> 12) & 0x3F), dest, destIndex);
+                destIndex = writeEscapedByte(0x80 | ((cp >>> 6) & 0x3F), dest, destIndex);
+                destIndex = writeEscapedByte(0x80 | (cp & 0x3F), dest, destIndex);
+            }
+        }
+        return new String(dest, 0, destIndex);
+    }
+
+    private static int writeEscapedByte(int b, char[] dest, int destIndex) {
+        dest[destIndex] = '%';
+        dest[destIndex + 1] = UPPER_HEX_DIGITS[(b >>> 4) & 0xF];
+        dest[destIndex + 2] = UPPER_HEX_DIGITS[b & 0xF];
+        return destIndex + 3;
+    }
+
     /**
      * Escapes the given Unicode code point in UTF-8.
      */
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri;
+
+import se.sawano.java.security.otp.ImportReport;
+import se.sawano.java.security.otp.google.keyuri.qr.QrCodeReader;
+import se.sawano.java.security.otp.user.UserId;
+import se.sawano.java.security.otp.user.persistence.SecretRepository;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+import static java.util.Comparator.naturalOrder;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Imports the key URIs of QR code images into a {@link SecretRepository}. Used for tenants where only the enrollment
+ * images are left, see {@link QrCodeReader} for which images can be read.
+ * <p>
+ * The images are decoded, parsed and saved in parallel on a fork join pool, split into tasks of a few files each. Each
+ * worker thread reuses its own image buffers. An image that cannot be imported is reported, by file, in the
+ * {@link ImportReport} and does not stop the import.
+ * </p>
+ */
+public final class QrImageImporter {
+
+    public static final String DEFAULT_GLOB = "*.png";
+
+    private static final int FILES_PER_TASK = 4;
+
+    private final SecretRepository secretRepository;
+    private final Function<KeyUri, UserId> userIdMapper;
+    private final ForkJoinPool pool;
+    private final QrCodeReader reader = new QrCodeReader();
+
+    /**
+     * Creates an importer that runs on the common fork join pool.
+     *
+     * @param secretRepository
+     *         the repository to save the secrets in
+     * @param userIdMapper
+     *         maps each key URI to the user it belongs to, e.g. by account name
+     */
+    public QrImageImporter(final SecretRepository secretRepository, final Function<KeyUri, UserId> userIdMapper) {
+        this(secretRepository, userIdMapper, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an importer.
+     *
+     * @param secretRepository
+     *         the repository to save the secrets in
+     * @param userIdMapper
+     *         maps each key URI to the user it belongs to, e.g. by account name
+     * @param pool
+     *         the pool to decode and save on
+     */
+    public QrImageImporter(final SecretRepository secretRepository, final Function<KeyUri, UserId> userIdMapper, final ForkJoinPool pool) {
+        notNull(secretRepository);
+        notNull(userIdMapper);
+        notNull(pool);
+
+        this.secretRepository = secretRepository;
+        this.userIdMapper = userIdMapper;
+        this.pool = pool;
+    }
+
+    /**
+     * Imports the PNG images in the given directory, not including sub directories.
+     *
+     * @param directory
+     *         the directory with the images
+     *
+     * @return the result of the import
+     *
+     * @throws IOException
+     *         if the directory cannot be listed
+     */
+    public ImportReport<Path> importFrom(final Path directory) throws IOException {
+        return importFrom(directory, DEFAULT_GLOB);
+    }
+
+    /**
+     * Imports the images in the given directory whose names match the given glob, not including sub directories.
+     *
+     * @param directory
+     *         the directory with the images
+     * @param glob
+     *         the pattern of the file names, e.g. {@code *.png}
+     *
+     * @return the result of the import
+     *
+     * @throws IOException
+     *         if the directory cannot be listed
+     */
+    public ImportReport<Path> importFrom(final Path directory, final String glob) throws IOException {
+        notNull(directory);
+        notNull(glob);
+        isTrue(Files.isDirectory(directory), "Not a directory: %s", directory);
+
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (final Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        return importFrom(files);
+    }
+
+    /**
+     * Imports the given images.
+     *
+     * @param files
+     *         the image files
+     *
+     * @return the result of the import
+     */
+    public ImportReport<Path> importFrom(final List<Path> files) {
+        noNullElements(files);
+
+        final ImportReport.Collector<Path> results = new ImportReport.Collector<>(naturalOrder());
+        pool.invoke(new ImportTask(files.toArray(new Path[0]), 0, files.size(), results));
+        return results.report();
+    }
+
+    /**
+     * Imports a range of files, splitting it in halves until it is small enough to import directly.
+     */
+    private final class ImportTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path[] files;
+        private final int start;
+        private final int end;
+        private final ImportReport.Collector<Path> results;
+
+        ImportTask(final Path[] files, final int start, final int end, final ImportReport.Collector<Path> results) {
+            this.files = files;
+            this.start = start;
+            this.end = end;
+            this.results = results;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= FILES_PER_TASK) {
+                for (int i = start; i < end; ++i) {
+                    try {
+                        KeyUriImporter.importUri(reader.read(files[i]), userIdMapper, secretRepository);
+                        results.imported();
+                    } catch (IOException | RuntimeException e) {
+                        results.failed(files[i], e);
+                    }
+                }
+                return;
+            }
+            final int middle = (start + end) >>> 1;
+            invokeAll(new ImportTask(files, start, middle, results),
+                      new ImportTask(files, middle, end, results));
+        }
+    }
+}
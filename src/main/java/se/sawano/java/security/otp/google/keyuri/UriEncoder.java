@@ -30,7 +30,13 @@ public class UriEncoder {
     private static final String UNRESERVED_CHARACTERS = "-._~";
 
     /**
-     * Encodes the given string.
+     * The escaper is immutable and thread safe, so one instance is shared by all callers.
+     */
+    private static final PercentEscaper ESCAPER = new PercentEscaper(UNRESERVED_CHARACTERS, false);
+
+    /**
+     * Encodes the given string. If the string contains nothing but unreserved characters, the same string is returned
+     * without copying.
      *
      * @param value
      *         the string to encode
@@ -40,6 +46,6 @@ public class UriEncoder {
     public static String encode(final String value) {
         notNull(value);
 
-        return new PercentEscaper(UNRESERVED_CHARACTERS, false).escape(value);
+        return ESCAPER.escape(value);
     }
 }
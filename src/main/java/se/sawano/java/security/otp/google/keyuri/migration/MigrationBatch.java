@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.migration;
+
+import se.sawano.java.security.otp.google.keyuri.KeyUri;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One batch of a migration export, i.e. the content of one {@code otpauth-migration} URI.
+ */
+public final class MigrationBatch {
+
+    private final List<KeyUri> keyUris;
+    private final int batchId;
+    private final int batchIndex;
+    private final int batchSize;
+
+    MigrationBatch(final List<KeyUri> keyUris, final int batchId, final int batchIndex, final int batchSize) {
+        this.keyUris = Collections.unmodifiableList(keyUris);
+        this.batchId = batchId;
+        this.batchIndex = batchIndex;
+        this.batchSize = batchSize;
+    }
+
+    public List<KeyUri> keyUris() {
+        return keyUris;
+    }
+
+    /**
+     * @return the id shared by all batches of the same export
+     */
+    public int batchId() {
+        return batchId;
+    }
+
+    /**
+     * @return the index of this batch in the export, starting at 0
+     */
+    public int batchIndex() {
+        return batchIndex;
+    }
+
+    /**
+     * @return the number of batches in the export
+     */
+    public int batchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public String toString() {
+        return "MigrationBatch{" +
+                "keyUris=" + keyUris.size() +
+                ", batchId=" + batchId +
+                ", batchIndex=" + batchIndex +
+                ", batchSize=" + batchSize +
+                '}';
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.migration;
+
+import se.sawano.java.security.otp.google.keyuri.KeyUri;
+import se.sawano.java.security.otp.google.keyuri.Label;
+import se.sawano.java.security.otp.google.keyuri.parameters.Algorithm;
+import se.sawano.java.security.otp.google.keyuri.parameters.Counter;
+import se.sawano.java.security.otp.google.keyuri.parameters.Digits;
+import se.sawano.java.security.otp.google.keyuri.parameters.Issuer;
+import se.sawano.java.security.otp.google.keyuri.parameters.ParametersBuilder;
+import se.sawano.java.security.otp.google.keyuri.parameters.Period;
+import se.sawano.java.security.otp.google.keyuri.parameters.Secret;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+import static se.sawano.java.security.otp.google.keyuri.migration.MigrationPayload.*;
+
+/**
+ * Decodes {@code otpauth-migration://offline?data=...} URIs, as exported by Google Authenticator or by {@link
+ * MigrationEncoder}, back into key URIs.
+ * <p>
+ * Unknown protobuf fields are skipped. Missing algorithm, digits and type default to SHA1, six digits and TOTP, as in
+ * Google Authenticator. A name of the form {@code ISSUER:ACCOUNT} is split into issuer and account name. MD5 and any
+ * other unknown algorithm are rejected.
+ * </p>
+ */
+public final class MigrationDecoder {
+
+    private static final Period PERIOD = Period.period(Duration.ofSeconds(30));
+
+    private MigrationDecoder() {}
+
+    /**
+     * Decodes a migration URI.
+     *
+     * @param uri
+     *         the migration URI
+     *
+     * @return the batch
+     *
+     * @throws IllegalArgumentException
+     *         if the URI is not a valid migration URI
+     */
+    public static MigrationBatch decode(final CharSequence uri) {
+        notNull(uri);
+        isTrue(uri.length() > URI_PREFIX.length() && URI_PREFIX.contentEquals(uri.subSequence(0, URI_PREFIX.length())), "Not an otpauth-migration URI");
+
+        final byte[] payload = decodeData(uri);
+        try {
+            return readPayload(new Reader(payload, 0, payload.length));
+        } finally {
+            Arrays.fill(payload, (byte) 0);
+        }
+    }
+
+    private static byte[] decodeData(final CharSequence uri) {
+        final byte[] base64 = new byte[uri.length() - URI_PREFIX.length()];
+        int length = 0;
+        for (int i = URI_PREFIX.length(); i < uri.length(); ++i) {
+            final char c = uri.charAt(i);
+            if (c == '&') {
+                break;
+            }
+            if (c == '%') {
+                isTrue(i + 2 < uri.length(), "Incomplete percent escape");
+                final int value = Character.digit(uri.charAt(i + 1), 16) << 4 | Character.digit(uri.charAt(i + 2), 16);
+                isTrue(value >= 0 && value < 0x80, "Invalid percent escape");
+                base64[length++] = (byte) value;
+                i += 2;
+            }
+            else {
+                isTrue(c < 0x80, "Invalid character in data");
+                base64[length++] = (byte) c;
+            }
+        }
+        try {
+            final ByteBuffer decoded = Base64.getDecoder().decode(ByteBuffer.wrap(base64, 0, length));
+            final byte[] payload = new byte[decoded.remaining()];
+            decoded.get(payload);
+            Arrays.fill(decoded.array(), (byte) 0);
+            return payload;
+        } finally {
+            Arrays.fill(base64, (byte) 0);
+        }
+    }
+
+    private static MigrationBatch readPayload(final Reader reader) {
+        final List<KeyUri> keyUris = new ArrayList<>();
+        int batchId = 0;
+        int batchIndex = 0;
+        int batchSize = 1;
+        while (reader.hasRemaining()) {
+            final int tag = (int) reader.readVarint();
+            final int field = tag >>> 3;
+            final int wireType = tag & 0x7;
+            if (field == PAYLOAD_OTP_PARAMETERS && wireType == WIRE_LENGTH_DELIMITED) {
+                keyUris.add(readOtpParameters(reader.readMessage()));
+            }
+            else if (field == PAYLOAD_VERSION && wireType == WIRE_VARINT) {
+                final long version = reader.readVarint();
+                isTrue(version <= VERSION, "Unsupported migration version: %d", version);
+            }
+            else if (field == PAYLOAD_BATCH_SIZE && wireType == WIRE_VARINT) {
+                batchSize = (int) reader.readVarint();
+            }
+            else if (field == PAYLOAD_BATCH_INDEX && wireType == WIRE_VARINT) {
+                batchIndex = (int) reader.readVarint();
+            }
+            else if (field == PAYLOAD_BATCH_ID && wireType == WIRE_VARINT) {
+                batchId = (int) reader.readVarint();
+            }
+            else {
+                reader.skip(wireType);
+            }
+        }
+        isTrue(batchSize > 0 && batchIndex >= 0 && batchIndex < batchSize, "Invalid batch index %d of %d", batchIndex, batchSize);
+        return new MigrationBatch(keyUris, batchId, batchIndex, batchSize);
+    }
+
+    private static KeyUri readOtpParameters(final Reader reader) {
+        byte[] secret = null;
+        String name = null;
+        String issuer = null;
+        int algorithm = 0;
+        int digits = 0;
+        int type = 0;
+        long counter = 0;
+        try {
+            while (reader.hasRemaining()) {
+                final int tag = (int) reader.readVarint();
+                final int field = tag >>> 3;
+                final int wireType = tag & 0x7;
+                if (field == OTP_SECRET && wireType == WIRE_LENGTH_DELIMITED) {
+                    secret = reader.readBytes();
+                }
+                else if (field == OTP_NAME && wireType == WIRE_LENGTH_DELIMITED) {
+                    name = reader.readString();
+                }
+                else if (field == OTP_ISSUER && wireType == WIRE_LENGTH_DELIMITED) {
+                    issuer = reader.readString();
+                }
+                else if (field == OTP_ALGORITHM && wireType == WIRE_VARINT) {
+                    algorithm = (int) reader.readVarint();
+                }
+                else if (field == OTP_DIGITS && wireType == WIRE_VARINT) {
+                    digits = (int) reader.readVarint();
+                }
+                else if (field == OTP_TYPE && wireType == WIRE_VARINT) {
+                    type = (int) reader.readVarint();
+                }
+                else if (field == OTP_COUNTER && wireType == WIRE_VARINT) {
+                    counter = reader.readVarint();
+                }
+                else {
+                    reader.skip(wireType);
+                }
+            }
+            isTrue(secret != null && secret.length > 0, "Entry has no secret");
+            isTrue(name != null, "Entry has no name");
+            return keyUri(secret, name, issuer, algorithm, digits, type, counter);
+        } finally {
+            if (secret != null) {
+                Arrays.fill(secret, (byte) 0);
+            }
+        }
+    }
+
+    private static KeyUri keyUri(final byte[] secret,
+                                 final String name,
+                                 final String issuerField,
+                                 final int algorithm,
+                                 final int digits,
+                                 final int type,
+                                 final long counter) {
+        String accountName = name.trim();
+        String issuer = issuerField == null || issuerField.trim().isEmpty() ? null : issuerField.trim();
+        final int colon = accountName.indexOf(':');
+        if (colon >= 0) {
+            final String prefix = accountName.substring(0, colon).trim();
+            isTrue(issuer == null || issuer.equals(prefix), "Name '%s' does not match issuer '%s'", name, issuer);
+            issuer = prefix;
+            accountName = accountName.substring(colon + 1).trim();
+        }
+        final Label label = issuer == null ? new Label(Label.AccountName.accountName(accountName))
+                                           : new Label(Label.AccountName.accountName(accountName), Label.Issuer.issuer(issuer));
+        final Issuer issuerParameter = issuer == null ? null : Issuer.issuer(issuer);
+
+        if (type == TYPE_HOTP) {
+            return new KeyUri(label, ParametersBuilder.hotpBuilder()
+                                                      .withSecret(Secret.secret(secret))
+                                                      .withAlgorithm(algorithm(algorithm))
+                                                      .withDigits(digits(digits))
+                                                      .withIssuer(issuerParameter)
+                                                      .withCounter(Counter.counter(counter))
+                                                      .create());
+        }
+        isTrue(type == 0 || type == TYPE_TOTP, "Unknown OTP type: %d", type);
+        return new KeyUri(label, ParametersBuilder.totpBuilder()
+                                                  .withSecret(Secret.secret(secret))
+                                                  .withAlgorithm(algorithm(algorithm))
+                                                  .withDigits(digits(digits))
+                                                  .withIssuer(issuerParameter)
+                                                  .withPeriod(PERIOD)
+                                                  .create());
+    }
+
+    private static Algorithm algorithm(final int value) {
+        switch (value) {
+            case 0:
+            case ALGORITHM_SHA1:
+                return Algorithm.SHA1;
+            case ALGORITHM_SHA256:
+                return Algorithm.SHA256;
+            case ALGORITHM_SHA512:
+                return Algorithm.SHA512;
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm: " + value);
+        }
+    }
+
+    private static Digits digits(final int value) {
+        switch (value) {
+            case 0:
+            case DIGITS_SIX:
+                return Digits.SIX;
+            case DIGITS_EIGHT:
+                return Digits.EIGHT;
+            default:
+                throw new IllegalArgumentException("Unsupported number of digits: " + value);
+        }
+    }
+
+    /**
+     * Reads protobuf fields from a region of an array.
+     */
+    private static final class Reader {
+        final byte[] buffer;
+        final int end;
+        int position;
+
+        Reader(final byte[] buffer, final int start, final int end) {
+            this.buffer = buffer;
+            this.position = start;
+            this.end = end;
+        }
+
+        boolean hasRemaining() {
+            return position < end;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                isTrue(position < end, "Truncated payload");
+                final byte b = buffer[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        Reader readMessage() {
+            final int length = readLength();
+            final Reader message = new Reader(buffer, position, position + length);
+            position += length;
+            return message;
+        }
+
+        byte[] readBytes() {
+            final int length = readLength();
+            final byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        String readString() {
+            final int length = readLength();
+            try {
+                final String value = StandardCharsets.UTF_8.newDecoder()
+                                                           .onMalformedInput(CodingErrorAction.REPORT)
+                                                           .onUnmappableCharacter(CodingErrorAction.REPORT)
+                                                           .decode(ByteBuffer.wrap(buffer, position, length))
+                                                           .toString();
+                position += length;
+                return value;
+            } catch (CharacterCodingException e) {
+                throw new IllegalArgumentException("String is not valid UTF-8", e);
+            }
+        }
+
+        void skip(final int wireType) {
+            switch (wireType) {
+                case WIRE_VARINT:
+                    readVarint();
+                    break;
+                case WIRE_FIXED64:
+                    advance(8);
+                    break;
+                case WIRE_LENGTH_DELIMITED:
+                    advance(readLength());
+                    break;
+                case WIRE_FIXED32:
+                    advance(4);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported wire type: " + wireType);
+            }
+        }
+
+        private int readLength() {
+            final long length = readVarint();
+            isTrue(length >= 0 && length <= end - position, "Truncated payload");
+            return (int) length;
+        }
+
+        private void advance(final int length) {
+            isTrue(length <= end - position, "Truncated payload");
+            position += length;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.migration;
+
+import se.sawano.java.security.otp.codec.Base32;
+import se.sawano.java.security.otp.google.keyuri.KeyUri;
+import se.sawano.java.security.otp.google.keyuri.Label;
+import se.sawano.java.security.otp.google.keyuri.Type;
+import se.sawano.java.security.otp.google.keyuri.parameters.Algorithm;
+import se.sawano.java.security.otp.google.keyuri.parameters.Counter;
+import se.sawano.java.security.otp.google.keyuri.parameters.Digits;
+import se.sawano.java.security.otp.google.keyuri.parameters.Issuer;
+import se.sawano.java.security.otp.google.keyuri.parameters.Period;
+import se.sawano.java.security.otp.google.keyuri.parameters.Secret;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notEmpty;
+import static se.sawano.java.security.otp.google.keyuri.migration.MigrationPayload.*;
+
+/**
+ * Packs many key URIs into a few {@code otpauth-migration://offline?data=...} URIs, the batch format that Google
+ * Authenticator exports and imports, so a user can move all their accounts by scanning a handful of QR codes.
+ * <p>
+ * The key URIs are split into batches whose protobuf payload does not exceed a maximum length, which bounds the size of
+ * the QR codes. The payloads are written with a hand-written protobuf encoder into a single array per batch and Base64
+ * encoded and percent escaped directly into the resulting string.
+ * </p>
+ * <p>
+ * The format has no period, so only TOTP key URIs with the default period of 30 seconds can be exported. The account
+ * name is exported as the name and the issuer as the issuer.
+ * </p>
+ * <p>
+ * An encoder is immutable and thread safe.
+ * </p>
+ */
+public final class MigrationEncoder {
+
+    /**
+     * The default maximum length of the payload of a batch, which gives URIs of about 700 characters. That fits in a
+     * version 22 QR code at error correction level M, around ten accounts per code.
+     */
+    public static final int DEFAULT_MAX_PAYLOAD_LENGTH = 512;
+
+    private static final Duration SUPPORTED_PERIOD = Duration.ofSeconds(30);
+    // version, batch size, batch index and batch id, each a tag and an up to five byte varint
+    private static final int MAX_HEADER_LENGTH = 4 * 6;
+
+    private final int maxPayloadLength;
+
+    public MigrationEncoder() {
+        this(DEFAULT_MAX_PAYLOAD_LENGTH);
+    }
+
+    /**
+     * @param maxPayloadLength
+     *         the maximum length, in bytes, of the payload of a batch. A key URI that does not fit on its own is put in
+     *         a batch of its own.
+     */
+    public MigrationEncoder(final int maxPayloadLength) {
+        isTrue(maxPayloadLength > MAX_HEADER_LENGTH, "Max payload length must be larger than %d", MAX_HEADER_LENGTH);
+        this.maxPayloadLength = maxPayloadLength;
+    }
+
+    /**
+     * Encodes the given key URIs with a random batch id.
+     *
+     * @param keyUris
+     *         the key URIs to export
+     *
+     * @return the migration URIs, one per QR code, in batch order
+     *
+     * @throws IllegalArgumentException
+     *         if a key URI cannot be represented in the migration format
+     */
+    public List<String> encode(final List<KeyUri> keyUris) {
+        return encode(keyUris, ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Encodes the given key URIs.
+     *
+     * @param keyUris
+     *         the key URIs to export
+     * @param batchId
+     *         the id shared by all batches of the export
+     *
+     * @return the migration URIs, one per QR code, in batch order
+     *
+     * @throws IllegalArgumentException
+     *         if a key URI cannot be represented in the migration format
+     */
+    public List<String> encode(final List<KeyUri> keyUris, final int batchId) {
+        notEmpty(keyUris);
+        noNullElements(keyUris);
+        isTrue(batchId >= 0, "Batch id must not be negative");
+
+        final Entry[] entries = new Entry[keyUris.size()];
+        final int[] batchStarts = new int[entries.length + 1];
+        int numberOfBatches = 0;
+        int batchLength = MAX_HEADER_LENGTH;
+        for (int i = 0; i < entries.length; ++i) {
+            entries[i] = new Entry(keyUris.get(i));
+            final int length = entries[i].fieldLength();
+            if (i == 0 || batchLength + length > maxPayloadLength) {
+                batchStarts[numberOfBatches++] = i;
+                batchLength = MAX_HEADER_LENGTH;
+            }
+            batchLength += length;
+        }
+        batchStarts[numberOfBatches] = entries.length;
+
+        final List<String> uris = new ArrayList<>(numberOfBatches);
+        for (int batch = 0; batch < numberOfBatches; ++batch) {
+            final Writer writer = new Writer(payloadLength(entries, batchStarts[batch], batchStarts[batch + 1], numberOfBatches, batch, batchId));
+            try {
+                for (int i = batchStarts[batch]; i < batchStarts[batch + 1]; ++i) {
+                    entries[i].writeTo(writer);
+                }
+                writer.writeVarintField(PAYLOAD_VERSION, VERSION);
+                writer.writeVarintField(PAYLOAD_BATCH_SIZE, numberOfBatches);
+                writer.writeVarintField(PAYLOAD_BATCH_INDEX, batch);
+                writer.writeVarintField(PAYLOAD_BATCH_ID, batchId);
+                uris.add(writer.toUri());
+            } finally {
+                writer.clear();
+            }
+        }
+        return uris;
+    }
+
+    private static int payloadLength(final Entry[] entries, final int start, final int end, final int batchSize, final int batchIndex, final int batchId) {
+        int length = 4 + varintSize(VERSION) + varintSize(batchSize) + varintSize(batchIndex) + varintSize(batchId);
+        for (int i = start; i < end; ++i) {
+            length += entries[i].fieldLength();
+        }
+        return length;
+    }
+
+    /**
+     * A key URI prepared for encoding. The secret is not decoded until it is written.
+     */
+    private static final class Entry {
+        final Secret secret;
+        final int secretLength;
+        final String name;
+        final Optional<String> issuer;
+        final int algorithm;
+        final int digits;
+        final int type;
+        final long counter;
+        final int messageLength;
+
+        Entry(final KeyUri keyUri) {
+            final Label label = keyUri.label();
+            this.name = label.accountName().value();
+            final Optional<Issuer> issuerParameter;
+            final Optional<Algorithm> algorithmParameter;
+            final Optional<Digits> digitsParameter;
+            if (keyUri.type() == Type.TOTP) {
+                final Optional<Period> period = keyUri.totpParameters().get().period();
+                isTrue(!period.isPresent() || period.get().value() == SUPPORTED_PERIOD.getSeconds(),
+                       "The migration format only supports a period of 30 seconds");
+                this.secret = keyUri.totpParameters().get().secret();
+                issuerParameter = keyUri.totpParameters().get().issuer();
+                algorithmParameter = keyUri.totpParameters().get().algorithm();
+                digitsParameter = keyUri.totpParameters().get().digits();
+                this.type = TYPE_TOTP;
+                this.counter = 0;
+            }
+            else {
+                this.secret = keyUri.hotpParameters().get().secret();
+                issuerParameter = keyUri.hotpParameters().get().issuer();
+                algorithmParameter = keyUri.hotpParameters().get().algorithm();
+                digitsParameter = keyUri.hotpParameters().get().digits();
+                this.type = TYPE_HOTP;
+                this.counter = keyUri.hotpParameters().get().counter().map(Counter::value).orElse(0L);
+            }
+            this.issuer = issuerParameter.map(Issuer::value)
+                                         .map(Optional::of)
+                                         .orElseGet(() -> label.issuer().map(Label.Issuer::value));
+            this.algorithm = algorithm(algorithmParameter.orElse(Algorithm.SHA1));
+            this.digits = digitsParameter.orElse(Digits.SIX) == Digits.EIGHT ? DIGITS_EIGHT : DIGITS_SIX;
+            this.secretLength = Base32.decodedLength(secret.value().length());
+
+            int length = 1 + varintSize(secretLength) + secretLength
+                    + 1 + lengthDelimitedSize(utf8Length(name))
+                    + 2 + 2 + 2;
+            if (issuer.isPresent()) {
+                length += 1 + lengthDelimitedSize(utf8Length(issuer.get()));
+            }
+            if (type == TYPE_HOTP) {
+                length += 1 + varintSize(counter);
+            }
+            this.messageLength = length;
+        }
+
+        int fieldLength() {
+            return 1 + lengthDelimitedSize(messageLength);
+        }
+
+        void writeTo(final Writer writer) {
+            writer.writeTag(PAYLOAD_OTP_PARAMETERS, WIRE_LENGTH_DELIMITED);
+            writer.writeVarint(messageLength);
+            writer.writeSecret(secret, secretLength);
+            writer.writeStringField(OTP_NAME, name);
+            if (issuer.isPresent()) {
+                writer.writeStringField(OTP_ISSUER, issuer.get());
+            }
+            writer.writeVarintField(OTP_ALGORITHM, algorithm);
+            writer.writeVarintField(OTP_DIGITS, digits);
+            writer.writeVarintField(OTP_TYPE, type);
+            if (type == TYPE_HOTP) {
+                writer.writeVarintField(OTP_COUNTER, counter);
+            }
+        }
+
+        private static int lengthDelimitedSize(final int length) {
+            return varintSize(length) + length;
+        }
+
+        private static int algorithm(final Algorithm algorithm) {
+            switch (algorithm) {
+                case SHA256:
+                    return ALGORITHM_SHA256;
+                case SHA512:
+                    return ALGORITHM_SHA512;
+                default:
+                    return ALGORITHM_SHA1;
+            }
+        }
+    }
+
+    /**
+     * Writes a payload of known length into a single array.
+     */
+    private static final class Writer {
+        final byte[] buffer;
+        int position;
+
+        Writer(final int length) {
+            this.buffer = new byte[length];
+        }
+
+        void writeTag(final int field, final int wireType) {
+            writeVarint(tag(field, wireType));
+        }
+
+        void writeVarint(final long value) {
+            long remaining = value;
+            while ((remaining & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((remaining & 0x7F) | 0x80);
+                remaining >>>= 7;
+            }
+            buffer[position++] = (byte) remaining;
+        }
+
+        void writeVarintField(final int field, final long value) {
+            writeTag(field, WIRE_VARINT);
+            writeVarint(value);
+        }
+
+        void writeSecret(final Secret secret, final int length) {
+            writeTag(OTP_SECRET, WIRE_LENGTH_DELIMITED);
+            writeVarint(length);
+            final String value = secret.value();
+            position += Base32.decode(value, 0, value.length(), buffer, position);
+        }
+
+        void writeStringField(final int field, final String value) {
+            writeTag(field, WIRE_LENGTH_DELIMITED);
+            writeVarint(utf8Length(value));
+            for (int i = 0; i < value.length(); ++i) {
+                final int c = value.codePointAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                }
+                else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | c >> 6);
+                    buffer[position++] = (byte) (0x80 | c & 0x3F);
+                }
+                else if (c < 0x10000) {
+                    buffer[position++] = (byte) (0xE0 | c >> 12);
+                    buffer[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buffer[position++] = (byte) (0x80 | c & 0x3F);
+                }
+                else {
+                    buffer[position++] = (byte) (0xF0 | c >> 18);
+                    buffer[position++] = (byte) (0x80 | c >> 12 & 0x3F);
+                    buffer[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buffer[position++] = (byte) (0x80 | c & 0x3F);
+                    ++i;
+                }
+            }
+        }
+
+        /**
+         * Base64 encodes the payload, with padding, and percent escapes the characters that are not allowed unescaped
+         * in a query.
+         */
+        String toUri() {
+            isTrue(position == buffer.length, "Payload length mismatch");
+            final StringBuilder uri = new StringBuilder(URI_PREFIX.length() + (buffer.length + 2) / 3 * 4 * 5 / 4);
+            uri.append(URI_PREFIX);
+            int i = 0;
+            for (; i + 3 <= buffer.length; i += 3) {
+                final int bits = (buffer[i] & 0xFF) << 16 | (buffer[i + 1] & 0xFF) << 8 | buffer[i + 2] & 0xFF;
+                appendEscaped(uri, BASE64[bits >>> 18]);
+                appendEscaped(uri, BASE64[bits >>> 12 & 0x3F]);
+                appendEscaped(uri, BASE64[bits >>> 6 & 0x3F]);
+                appendEscaped(uri, BASE64[bits & 0x3F]);
+            }
+            final int remaining = buffer.length - i;
+            if (remaining > 0) {
+                final int bits = (buffer[i] & 0xFF) << 16 | (remaining == 2 ? (buffer[i + 1] & 0xFF) << 8 : 0);
+                appendEscaped(uri, BASE64[bits >>> 18]);
+                appendEscaped(uri, BASE64[bits >>> 12 & 0x3F]);
+                if (remaining == 2) {
+                    appendEscaped(uri, BASE64[bits >>> 6 & 0x3F]);
+                }
+                else {
+                    uri.append("%3D");
+                }
+                uri.append("%3D");
+            }
+            return uri.toString();
+        }
+
+        void clear() {
+            Arrays.fill(buffer, (byte) 0);
+        }
+
+        private static void appendEscaped(final StringBuilder uri, final char c) {
+            if (c == '+') {
+                uri.append("%2B");
+            }
+            else if (c == '/') {
+                uri.append("%2F");
+            }
+            else {
+                uri.append(c);
+            }
+        }
+    }
+
+    private static int utf8Length(final String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                ++i;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.migration;
+
+/**
+ * The protobuf message numbers and enum values of the Google Authenticator migration payload:
+ *
+ * <pre>
+ * message MigrationPayload {
+ *   repeated OtpParameters otp_parameters = 1;
+ *   int32 version = 2;
+ *   int32 batch_size = 3;
+ *   int32 batch_index = 4;
+ *   int32 batch_id = 5;
+ * }
+ * message OtpParameters {
+ *   bytes secret = 1;
+ *   string name = 2;
+ *   string issuer = 3;
+ *   Algorithm algorithm = 4;   // UNSPECIFIED = 0, SHA1 = 1, SHA256 = 2, SHA512 = 3, MD5 = 4
+ *   DigitCount digits = 5;     // UNSPECIFIED = 0, SIX = 1, EIGHT = 2
+ *   OtpType type = 6;          // UNSPECIFIED = 0, HOTP = 1, TOTP = 2
+ *   int64 counter = 7;
+ * }
+ * </pre>
+ */
+final class MigrationPayload {
+
+    static final String URI_PREFIX = "otpauth-migration://offline?data=";
+    static final int VERSION = 1;
+
+    static final int WIRE_VARINT = 0;
+    static final int WIRE_FIXED64 = 1;
+    static final int WIRE_LENGTH_DELIMITED = 2;
+    static final int WIRE_FIXED32 = 5;
+
+    static final int PAYLOAD_OTP_PARAMETERS = 1;
+    static final int PAYLOAD_VERSION = 2;
+    static final int PAYLOAD_BATCH_SIZE = 3;
+    static final int PAYLOAD_BATCH_INDEX = 4;
+    static final int PAYLOAD_BATCH_ID = 5;
+
+    static final int OTP_SECRET = 1;
+    static final int OTP_NAME = 2;
+    static final int OTP_ISSUER = 3;
+    static final int OTP_ALGORITHM = 4;
+    static final int OTP_DIGITS = 5;
+    static final int OTP_TYPE = 6;
+    static final int OTP_COUNTER = 7;
+
+    static final int ALGORITHM_SHA1 = 1;
+    static final int ALGORITHM_SHA256 = 2;
+    static final int ALGORITHM_SHA512 = 3;
+
+    static final int DIGITS_SIX = 1;
+    static final int DIGITS_EIGHT = 2;
+
+    static final int TYPE_HOTP = 1;
+    static final int TYPE_TOTP = 2;
+
+    static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private MigrationPayload() {}
+
+    static int tag(final int field, final int wireType) {
+        return field << 3 | wireType;
+    }
+
+    static int varintSize(final long value) {
+        int size = 1;
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            remaining >>>= 7;
+            ++size;
+        }
+        return size;
+    }
+}
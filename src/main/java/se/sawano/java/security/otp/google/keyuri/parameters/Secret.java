@@ -16,12 +16,13 @@
 
 package se.sawano.java.security.otp.google.keyuri.parameters;
 
-import org.apache.commons.codec.binary.Base32;
+import se.sawano.java.security.otp.codec.Base32;
 
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.Arrays;
 
 import static org.apache.commons.lang3.Validate.notNull;
 
@@ -43,15 +44,20 @@ public final class Secret implements Parameter, Externalizable {
     private Secret(final byte[] value) {
         notNull(value);
 
-        this.value = removePadding(base32Encode(value));
+        this.value = base32Encode(value);
     }
 
+    /**
+     * Encodes without padding. The intermediate characters are wiped, leaving the returned string as the only copy.
+     */
     private static String base32Encode(final byte[] value) {
-        return new Base32(BASE32_PADDING.getBytes()[0]).encodeToString(value);
-    }
-
-    private static String removePadding(final String base32Value) {
-        return base32Value.replace(BASE32_PADDING, "");
+        final char[] chars = new char[Base32.encodedLength(value.length)];
+        try {
+            Base32.encode(value, 0, value.length, chars, 0);
+            return new String(chars);
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
     }
 
     public String value() {
@@ -16,6 +16,11 @@
 
 package se.sawano.java.security.otp.google.keyuri.parameters;
 
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPConfiguration;
+import se.sawano.java.security.otp.TOTPService;
+
+import java.time.Duration;
 import java.util.Optional;
 
 import static org.apache.commons.lang3.Validate.isTrue;
@@ -58,6 +63,18 @@ public class TOTPParameters {
         return get(Digits.class);
     }
 
+    /**
+     * Returns the configuration to verify the TOTPs of this key with, i.e. the period and digits of the key, or their
+     * defaults, with Unix epoch as {@code T0}.
+     *
+     * @return the interned configuration
+     */
+    public TOTPConfiguration configuration() {
+        final Duration stepSize = period().map(period -> Duration.ofSeconds(period.value())).orElse(TOTPService.STEP_SIZE);
+        final TOTP.Length length = digits().map(d -> d == Digits.EIGHT ? TOTP.Length.EIGHT : TOTP.Length.SIX).orElse(TOTP.Length.SIX);
+        return TOTPConfiguration.configuration(TOTPService.T0_UTC, stepSize, length);
+    }
+
     public String asUriString() {
         return parameters.asUriString();
     }
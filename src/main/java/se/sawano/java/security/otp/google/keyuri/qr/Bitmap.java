@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.qr;
+
+import java.util.Arrays;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+
+/**
+ * A black and white image, one bit per pixel. The pixel array only grows, so a bitmap can be reused for images of
+ * different sizes. A bitmap is not thread safe.
+ */
+final class Bitmap {
+
+    private long[] bits = new long[0];
+    private int width;
+    private int height;
+
+    /**
+     * Resizes this bitmap and clears it to all light.
+     */
+    void reset(final int width, final int height) {
+        isTrue(width > 0 && height > 0, "Invalid image size: %dx%d", width, height);
+        final long words = ((long) width * height + 63) >>> 6;
+        isTrue(words <= Integer.MAX_VALUE, "Image is too large: %dx%d", width, height);
+        if (bits.length < words) {
+            bits = new long[(int) words];
+        }
+        else {
+            Arrays.fill(bits, 0, (int) words, 0L);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    int width() {
+        return width;
+    }
+
+    int height() {
+        return height;
+    }
+
+    void setDark(final int x, final int y) {
+        final int index = y * width + x;
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    boolean isDark(final int x, final int y) {
+        final int index = y * width + x;
+        return (bits[index >>> 6] & 1L << index) != 0;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.qr;
+
+/**
+ * The error correction level of a QR code, i.e. how large part of the code can be damaged and still be read.
+ */
+public enum ErrorCorrectionLevel {
+    /**
+     * About 7% of the code words can be restored.
+     */
+    L(1),
+    /**
+     * About 15% of the code words can be restored.
+     */
+    M(0),
+    /**
+     * About 25% of the code words can be restored.
+     */
+    Q(3),
+    /**
+     * About 30% of the code words can be restored.
+     */
+    H(2);
+
+    private final int formatBits;
+
+    ErrorCorrectionLevel(final int formatBits) {
+        this.formatBits = formatBits;
+    }
+
+    /**
+     * @return the two bits that identify the level in the format information of a QR code
+     */
+    int formatBits() {
+        return formatBits;
+    }
+}
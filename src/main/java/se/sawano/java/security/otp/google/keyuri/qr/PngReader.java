@@ -0,0 +1,293 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.qr;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+
+/**
+ * Reads a PNG into a {@link Bitmap}, where a pixel is dark if its luminance, composited over white, is below half.
+ * <p>
+ * All standard colour types and bit depths are supported, but not interlaced images. Chunks other than the header, the
+ * palette and the image data are skipped and checksums are not verified. The image data is inflated in pieces of a
+ * fixed size, so the memory used does not depend on the chunk lengths given in the file. A reader keeps its buffers
+ * between invocations and is not thread safe. Each image is inflated with its own inflater, which is ended afterwards.
+ * </p>
+ */
+final class PngReader {
+
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int IHDR = 0x49484452;
+    private static final int PLTE = 0x504C5445;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454E44;
+    private static final int MAX_SIDE = 1 << 14;
+    private static final int HEADER_LENGTH = 13;
+    private static final int MAX_PALETTE_LENGTH = 3 * 256;
+
+    private static final int GRAYSCALE = 0;
+    private static final int TRUECOLOR = 2;
+    private static final int INDEXED = 3;
+    private static final int GRAYSCALE_ALPHA = 4;
+    private static final int TRUECOLOR_ALPHA = 6;
+
+    private final boolean[] paletteDark = new boolean[256];
+    private final byte[] chunk = new byte[8192];
+    private byte[] current = new byte[0];
+    private byte[] previous = new byte[0];
+
+    private int width;
+    private int height;
+    private int bitDepth;
+    private int colorType;
+    private int bytesPerPixel;
+    private int rowLength;
+
+    void read(final InputStream input, final Bitmap bitmap) throws IOException {
+        final DataInputStream in = new DataInputStream(input);
+        final Inflater inflater = new Inflater();
+        width = 0;
+        int row = 0;
+        int rowPosition = 0;
+        try {
+            isTrue(in.readLong() == SIGNATURE, "Not a PNG image");
+            while (true) {
+                final int length = in.readInt();
+                final int type = in.readInt();
+                isTrue(length >= 0, "Invalid chunk length");
+                if (type == IEND) {
+                    break;
+                }
+                if (type == IHDR) {
+                    isTrue(length == HEADER_LENGTH, "Invalid header length: %d", length);
+                    readHeader(readChunk(in, length), bitmap);
+                }
+                else if (type == PLTE) {
+                    isTrue(length <= MAX_PALETTE_LENGTH, "Invalid palette length: %d", length);
+                    readPalette(readChunk(in, length), length);
+                }
+                else if (type == IDAT) {
+                    isTrue(width > 0, "Image data before header");
+                    for (int remaining = length; remaining > 0; ) {
+                        final int piece = Math.min(remaining, chunk.length);
+                        inflater.setInput(readChunk(in, piece), 0, piece);
+                        remaining -= piece;
+                        while (row < height) {
+                            final int read = inflater.inflate(current, rowPosition, rowLength - rowPosition);
+                            rowPosition += read;
+                            if (rowPosition < rowLength) {
+                                break;
+                            }
+                            unfilter();
+                            writeRow(row++, bitmap);
+                            final byte[] swap = previous;
+                            previous = current;
+                            current = swap;
+                            rowPosition = 0;
+                        }
+                    }
+                }
+                else {
+                    skipFully(in, length);
+                }
+                skipFully(in, 4); // CRC
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt PNG image data", e);
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Truncated PNG image", e);
+        } finally {
+            inflater.end();
+        }
+        isTrue(width > 0 && row == height, "Incomplete PNG image");
+    }
+
+    private void readHeader(final byte[] header, final Bitmap bitmap) {
+        width = readInt(header, 0);
+        height = readInt(header, 4);
+        bitDepth = header[8];
+        colorType = header[9];
+        isTrue(width > 0 && width <= MAX_SIDE && height > 0 && height <= MAX_SIDE, "Unsupported image size: %dx%d", width, height);
+        isTrue(header[10] == 0 && header[11] == 0, "Unsupported compression or filter method");
+        isTrue(header[12] == 0, "Interlaced images are not supported");
+        isTrue(bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8 || bitDepth == 16, "Unsupported bit depth: %d", bitDepth);
+
+        final int channels;
+        switch (colorType) {
+            case GRAYSCALE:
+            case INDEXED:
+                channels = 1;
+                break;
+            case TRUECOLOR:
+                channels = 3;
+                break;
+            case GRAYSCALE_ALPHA:
+                channels = 2;
+                break;
+            case TRUECOLOR_ALPHA:
+                channels = 4;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported colour type: " + colorType);
+        }
+        final int bitsPerPixel = channels * bitDepth;
+        bytesPerPixel = Math.max(1, bitsPerPixel / 8);
+        rowLength = 1 + (int) (((long) width * bitsPerPixel + 7) / 8);
+        if (current.length < rowLength) {
+            current = new byte[rowLength];
+            previous = new byte[rowLength];
+        }
+        Arrays.fill(previous, 0, rowLength, (byte) 0);
+        bitmap.reset(width, height);
+    }
+
+    private void readPalette(final byte[] palette, final int length) {
+        Arrays.fill(paletteDark, false);
+        for (int i = 0; i + 2 < length && i / 3 < paletteDark.length; i += 3) {
+            paletteDark[i / 3] = isDark(palette[i] & 0xFF, palette[i + 1] & 0xFF, palette[i + 2] & 0xFF, 255);
+        }
+    }
+
+    private void unfilter() {
+        final int filter = current[0];
+        for (int i = 1; i < rowLength; ++i) {
+            final int left = i > bytesPerPixel ? current[i - bytesPerPixel] & 0xFF : 0;
+            final int up = previous[i] & 0xFF;
+            final int upLeft = i > bytesPerPixel ? previous[i - bytesPerPixel] & 0xFF : 0;
+            final int value;
+            switch (filter) {
+                case 0:
+                    value = 0;
+                    break;
+                case 1:
+                    value = left;
+                    break;
+                case 2:
+                    value = up;
+                    break;
+                case 3:
+                    value = (left + up) >>> 1;
+                    break;
+                case 4:
+                    value = paeth(left, up, upLeft);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid filter type: " + filter);
+            }
+            current[i] = (byte) (current[i] + value);
+        }
+    }
+
+    private void writeRow(final int y, final Bitmap bitmap) {
+        for (int x = 0; x < width; ++x) {
+            if (isDarkPixel(x)) {
+                bitmap.setDark(x, y);
+            }
+        }
+    }
+
+    private boolean isDarkPixel(final int x) {
+        switch (colorType) {
+            case GRAYSCALE: {
+                final int gray = sample(x);
+                return isDark(gray, gray, gray, 255);
+            }
+            case INDEXED:
+                return paletteDark[sample(x)];
+            case TRUECOLOR:
+                return isDark(channel(x, 0, 3), channel(x, 1, 3), channel(x, 2, 3), 255);
+            case GRAYSCALE_ALPHA: {
+                final int gray = channel(x, 0, 2);
+                return isDark(gray, gray, gray, channel(x, 1, 2));
+            }
+            default:
+                return isDark(channel(x, 0, 4), channel(x, 1, 4), channel(x, 2, 4), channel(x, 3, 4));
+        }
+    }
+
+    /**
+     * A sample of a single channel image with a bit depth of up to 8, scaled to 0-255 unless indexed.
+     */
+    private int sample(final int x) {
+        if (bitDepth == 16) {
+            return current[1 + 2 * x] & 0xFF;
+        }
+        if (bitDepth == 8) {
+            return current[1 + x] & 0xFF;
+        }
+        final int bitIndex = x * bitDepth;
+        final int mask = (1 << bitDepth) - 1;
+        final int value = (current[1 + (bitIndex >>> 3)] >>> (8 - bitDepth - (bitIndex & 7))) & mask;
+        return colorType == INDEXED ? value : value * 255 / mask;
+    }
+
+    /**
+     * The most significant byte of a channel of a multi channel image.
+     */
+    private int channel(final int x, final int channel, final int channels) {
+        final int bytesPerSample = bitDepth / 8;
+        return current[1 + (x * channels + channel) * bytesPerSample] & 0xFF;
+    }
+
+    private static boolean isDark(final int red, final int green, final int blue, final int alpha) {
+        final int luminance = (red * 299 + green * 587 + blue * 114) / 1000;
+        // Composite over a white background
+        final int composited = (luminance * alpha + 255 * (255 - alpha)) / 255;
+        return composited < 128;
+    }
+
+    private static int paeth(final int a, final int b, final int c) {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a);
+        final int pb = Math.abs(p - b);
+        final int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private byte[] readChunk(final DataInputStream in, final int length) throws IOException {
+        in.readFully(chunk, 0, length);
+        return chunk;
+    }
+
+    private static void skipFully(final DataInputStream in, final int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            final int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                in.readByte();
+                --remaining;
+            }
+            else {
+                remaining -= skipped;
+            }
+        }
+    }
+
+    private static int readInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.qr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a QR code as a black and white PNG with one bit per pixel. A writer keeps its image buffers between
+ * invocations and is not thread safe. Each image is compressed with its own deflater, which is ended afterwards so
+ * that no native memory is held by idle writers.
+ */
+final class PngWriter {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+    private static final int BIT_DEPTH = 1;
+    private static final int COLOR_TYPE_GRAYSCALE = 0;
+
+    private final CRC32 crc = new CRC32();
+    private final byte[] header = new byte[13];
+    private byte[] image = new byte[0];
+    private byte[] compressed = new byte[0];
+
+    /**
+     * Zeroes the image and the compressed image of the last written QR code.
+     */
+    void clear() {
+        Arrays.fill(image, (byte) 0);
+        Arrays.fill(compressed, (byte) 0);
+    }
+
+    void write(final QrEncoder qr, final int moduleSize, final int quietZone, final OutputStream out) throws IOException {
+        final int modules = qr.size() + 2 * quietZone;
+        final int side = modules * moduleSize;
+        final int rowLength = 1 + (side + 7) / 8;
+        final int imageLength = rowLength * side;
+        if (image.length < imageLength) {
+            image = new byte[imageLength];
+        }
+
+        for (int moduleY = 0; moduleY < modules; ++moduleY) {
+            final int firstRow = moduleY * moduleSize * rowLength;
+            writeRow(qr, moduleY - quietZone, moduleSize, quietZone, firstRow, rowLength);
+            for (int i = 1; i < moduleSize; ++i) {
+                System.arraycopy(image, firstRow, image, firstRow + i * rowLength, rowLength);
+            }
+        }
+        final int compressedLength = deflate(imageLength);
+
+        out.write(SIGNATURE);
+        writeInt(side, header, 0);
+        writeInt(side, header, 4);
+        header[8] = BIT_DEPTH;
+        header[9] = COLOR_TYPE_GRAYSCALE;
+        header[10] = 0; // Deflate
+        header[11] = 0; // Adaptive filtering, only filter type None is used
+        header[12] = 0; // No interlace
+        writeChunk(IHDR, header, header.length, out);
+        writeChunk(IDAT, compressed, compressedLength, out);
+        writeChunk(IEND, header, 0, out);
+    }
+
+    /**
+     * Writes one row of pixels, preceded by the filter type, where a set bit is a light pixel.
+     */
+    private void writeRow(final QrEncoder qr, final int y, final int moduleSize, final int quietZone, final int offset, final int rowLength) {
+        image[offset] = 0;
+        for (int i = offset + 1; i < offset + rowLength; ++i) {
+            image[i] = (byte) 0xFF;
+        }
+        if (y < 0 || y >= qr.size()) {
+            return;
+        }
+        for (int x = 0; x < qr.size(); ++x) {
+            if (qr.isDark(x, y)) {
+                final int firstPixel = (x + quietZone) * moduleSize;
+                for (int pixel = firstPixel; pixel < firstPixel + moduleSize; ++pixel) {
+                    image[offset + 1 + (pixel >>> 3)] &= ~(0x80 >>> (pixel & 7));
+                }
+            }
+        }
+    }
+
+    private int deflate(final int length) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(image, 0, length);
+            deflater.finish();
+            if (compressed.length < 64) {
+                compressed = new byte[Math.max(64, length / 4)];
+            }
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    final byte[] larger = new byte[compressed.length * 2];
+                    System.arraycopy(compressed, 0, larger, 0, compressedLength);
+                    Arrays.fill(compressed, (byte) 0);
+                    compressed = larger;
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            return compressedLength;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeChunk(final byte[] type, final byte[] data, final int length, final OutputStream out) throws IOException {
+        writeInt(length, out);
+        out.write(type);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(type);
+        crc.update(data, 0, length);
+        writeInt((int) crc.getValue(), out);
+    }
+
+    private static void writeInt(final int value, final OutputStream out) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(final int value, final byte[] target, final int offset) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+}
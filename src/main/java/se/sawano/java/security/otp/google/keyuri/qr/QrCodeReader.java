@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.qr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Reads the text, e.g. a key URI, of a QR code in a PNG image. Used to import enrollment images when the secrets are
+ * not available in any other form.
+ * <p>
+ * The image must contain a single upright QR code on a light background, as rendered by {@link QrCodeRenderer} or
+ * most other generators, possibly scaled. Photos of QR codes are not supported. The text is decoded as UTF-8, or as
+ * ISO-8859-1 if it is not valid UTF-8.
+ * </p>
+ * <p>
+ * The image and QR code buffers are kept per thread and reused, so reading many images, e.g. on a fork join pool,
+ * allocates little more than the returned text. The buffers holding the decoded text are cleared after each read. A
+ * reader is immutable and thread safe.
+ * </p>
+ */
+public final class QrCodeReader {
+
+    private static final ThreadLocal<Workspace> WORKSPACES = ThreadLocal.withInitial(Workspace::new);
+
+    /**
+     * Reads the QR code in a PNG image.
+     *
+     * @param png
+     *         the image
+     *
+     * @return the text of the QR code
+     *
+     * @throws IllegalArgumentException
+     *         if the image is not a supported PNG or does not contain a readable QR code
+     */
+    public String read(final byte[] png) {
+        notNull(png);
+        try {
+            return read(new ByteArrayInputStream(png));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the QR code in a PNG file.
+     *
+     * @param file
+     *         the image file
+     *
+     * @return the text of the QR code
+     *
+     * @throws IOException
+     *         if the file cannot be read
+     * @throws IllegalArgumentException
+     *         if the image is not a supported PNG or does not contain a readable QR code
+     */
+    public String read(final Path file) throws IOException {
+        notNull(file);
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads the QR code in a PNG image. The stream is not closed.
+     *
+     * @param png
+     *         the image
+     *
+     * @return the text of the QR code
+     *
+     * @throws IOException
+     *         if the stream fails
+     * @throws IllegalArgumentException
+     *         if the image is not a supported PNG or does not contain a readable QR code
+     */
+    public String read(final InputStream png) throws IOException {
+        notNull(png);
+
+        final Workspace workspace = WORKSPACES.get();
+        workspace.png.read(png, workspace.bitmap);
+        try {
+            final int length = workspace.decoder.decode(workspace.bitmap);
+            return text(workspace.decoder.text(), length);
+        } finally {
+            workspace.decoder.clear();
+        }
+    }
+
+    private static String text(final byte[] bytes, final int length) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                                         .onMalformedInput(CodingErrorAction.REPORT)
+                                         .onUnmappableCharacter(CodingErrorAction.REPORT)
+                                         .decode(ByteBuffer.wrap(bytes, 0, length))
+                                         .toString();
+        } catch (CharacterCodingException e) {
+            return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * The buffers of one thread.
+     */
+    private static final class Workspace {
+        final PngReader png = new PngReader();
+        final Bitmap bitmap = new Bitmap();
+        final QrDecoder decoder = new QrDecoder();
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.qr;
+
+import se.sawano.java.security.otp.google.keyuri.KeyUri;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.apache.commons.lang3.Validate.inclusiveBetween;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Renders key URIs, or any other text, as QR codes in PNG or SVG format.
+ * <p>
+ * The smallest QR code version that fits the text is used, with the highest error correction level that still fits in
+ * that version but not lower than the configured minimum.
+ * </p>
+ * <p>
+ * The QR code matrix and the image buffers are kept per thread and reused, so rendering many codes, e.g. in a bulk
+ * provisioning job, allocates little more than the returned result. Prefer the methods that write to a stream or an
+ * {@link Appendable}, which do not allocate a result at all. A renderer is immutable and thread safe.
+ * </p>
+ * <p>
+ * Since a key URI contains the secret, the buffers are zeroed after each rendering.
+ * </p>
+ */
+public final class QrCodeRenderer {
+
+    public static final ErrorCorrectionLevel DEFAULT_MINIMUM_ERROR_CORRECTION_LEVEL = ErrorCorrectionLevel.M;
+    public static final int DEFAULT_MODULE_SIZE = 4;
+    /**
+     * The light border, in modules, required around a QR code.
+     */
+    public static final int DEFAULT_QUIET_ZONE = 4;
+
+    private static final int MAX_MODULE_SIZE = 64;
+    private static final ThreadLocal<Workspace> WORKSPACES = ThreadLocal.withInitial(Workspace::new);
+
+    private final ErrorCorrectionLevel minimumLevel;
+    private final int moduleSize;
+    private final int quietZone;
+
+    public QrCodeRenderer() {
+        this(DEFAULT_MINIMUM_ERROR_CORRECTION_LEVEL, DEFAULT_MODULE_SIZE, DEFAULT_QUIET_ZONE);
+    }
+
+    /**
+     * Creates a renderer.
+     *
+     * @param minimumLevel
+     *         the lowest acceptable error correction level
+     * @param moduleSize
+     *         the size of each module in pixels, or in user units for SVG
+     * @param quietZone
+     *         the width of the light border, in modules
+     */
+    public QrCodeRenderer(final ErrorCorrectionLevel minimumLevel, final int moduleSize, final int quietZone) {
+        notNull(minimumLevel);
+        inclusiveBetween(1, MAX_MODULE_SIZE, moduleSize, "Module size must be between 1 and %d", MAX_MODULE_SIZE);
+        inclusiveBetween(0, 16, quietZone, "Quiet zone must be between 0 and 16");
+
+        this.minimumLevel = minimumLevel;
+        this.moduleSize = moduleSize;
+        this.quietZone = quietZone;
+    }
+
+    public byte[] png(final KeyUri keyUri) {
+        return png(text(keyUri));
+    }
+
+    public byte[] png(final String text) {
+        final Workspace workspace = encode(text);
+        try {
+            workspace.png.write(workspace.encoder, moduleSize, quietZone, workspace.output);
+            return workspace.output.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            workspace.clear();
+        }
+    }
+
+    public void writePng(final KeyUri keyUri, final OutputStream out) throws IOException {
+        writePng(text(keyUri), out);
+    }
+
+    public void writePng(final String text, final OutputStream out) throws IOException {
+        notNull(out);
+
+        final Workspace workspace = encode(text);
+        try {
+            workspace.png.write(workspace.encoder, moduleSize, quietZone, out);
+        } finally {
+            workspace.clear();
+        }
+    }
+
+    public String svg(final KeyUri keyUri) {
+        return svg(text(keyUri));
+    }
+
+    public String svg(final String text) {
+        try {
+            return writeSvg(text, new StringBuilder(8192)).toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public <A extends Appendable> A writeSvg(final KeyUri keyUri, final A out) throws IOException {
+        return writeSvg(text(keyUri), out);
+    }
+
+    /**
+     * Writes the QR code as an SVG document where each horizontal run of dark modules is one path segment.
+     *
+     * @param text
+     *         the text to encode
+     * @param out
+     *         the target to write to
+     * @param <A>
+     *         the type of appendable
+     *
+     * @return the given appendable
+     *
+     * @throws IOException
+     *         if the appendable fails
+     */
+    public <A extends Appendable> A writeSvg(final String text, final A out) throws IOException {
+        notNull(out);
+
+        final Workspace workspace = encode(text);
+        try {
+            return writeSvg(workspace.encoder, out);
+        } finally {
+            workspace.clear();
+        }
+    }
+
+    private <A extends Appendable> A writeSvg(final QrEncoder qr, final A out) throws IOException {
+        final int side = (qr.size() + 2 * quietZone) * moduleSize;
+        out.append("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\"").append(Integer.toString(side))
+           .append("\" height=\"").append(Integer.toString(side))
+           .append("\" viewBox=\"0 0 ").append(Integer.toString(side)).append(' ').append(Integer.toString(side))
+           .append("\" shape-rendering=\"crispEdges\">")
+           .append("<rect width=\"100%\" height=\"100%\" fill=\"#FFFFFF\"/><path fill=\"#000000\" d=\"");
+        for (int y = 0; y < qr.size(); ++y) {
+            int x = 0;
+            while (x < qr.size()) {
+                if (!qr.isDark(x, y)) {
+                    ++x;
+                    continue;
+                }
+                final int start = x;
+                while (x < qr.size() && qr.isDark(x, y)) {
+                    ++x;
+                }
+                out.append('M').append(Integer.toString((start + quietZone) * moduleSize))
+                   .append(',').append(Integer.toString((y + quietZone) * moduleSize))
+                   .append('h').append(Integer.toString((x - start) * moduleSize))
+                   .append('v').append(Integer.toString(moduleSize))
+                   .append('h').append(Integer.toString(-(x - start) * moduleSize))
+                   .append('z');
+            }
+        }
+        out.append("\"/></svg>");
+        return out;
+    }
+
+    private Workspace encode(final String text) {
+        notNull(text);
+
+        final Workspace workspace = WORKSPACES.get();
+        try {
+            final int length = workspace.setText(text);
+            workspace.encoder.encode(workspace.text, length, minimumLevel);
+            return workspace;
+        } catch (RuntimeException e) {
+            workspace.clear();
+            throw e;
+        }
+    }
+
+    private static String text(final KeyUri keyUri) {
+        notNull(keyUri);
+        return keyUri.toURI().toASCIIString();
+    }
+
+    /**
+     * The buffers of one thread.
+     */
+    private static final class Workspace {
+        final QrEncoder encoder = new QrEncoder();
+        final PngWriter png = new PngWriter();
+        final ClearableOutputStream output = new ClearableOutputStream();
+        byte[] text = new byte[512];
+
+        void clear() {
+            Arrays.fill(text, (byte) 0);
+            encoder.clear();
+            png.clear();
+            output.clear();
+        }
+
+        /**
+         * Copies the text as UTF-8 to the text buffer without creating an intermediate array for ASCII text.
+         *
+         * @return the number of bytes
+         */
+        int setText(final String value) {
+            final int length = value.length();
+            if (text.length < length) {
+                Arrays.fill(text, (byte) 0);
+                text = new byte[length];
+            }
+            for (int i = 0; i < length; ++i) {
+                final char c = value.charAt(i);
+                if (c >= 0x80) {
+                    Arrays.fill(text, (byte) 0);
+                    text = value.getBytes(StandardCharsets.UTF_8);
+                    return text.length;
+                }
+                text[i] = (byte) c;
+            }
+            return length;
+        }
+    }
+
+    /**
+     * A reusable output buffer that can be zeroed, which a plain {@link ByteArrayOutputStream} does not allow. The
+     * previous buffer is also zeroed when the buffer grows.
+     */
+    private static final class ClearableOutputStream extends ByteArrayOutputStream {
+
+        ClearableOutputStream() {
+            super(4096);
+        }
+
+        @Override
+        public synchronized void write(final int b) {
+            ensureCapacity(count + 1);
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) {
+            ensureCapacity(count + len);
+            super.write(b, off, len);
+        }
+
+        void clear() {
+            Arrays.fill(buf, (byte) 0);
+            reset();
+        }
+
+        private void ensureCapacity(final int capacity) {
+            if (capacity > buf.length) {
+                final byte[] larger = Arrays.copyOf(buf, Math.max(capacity, 2 * buf.length));
+                Arrays.fill(buf, (byte) 0);
+                buf = larger;
+            }
+        }
+    }
+}
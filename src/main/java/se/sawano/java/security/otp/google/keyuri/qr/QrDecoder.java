@@ -0,0 +1,489 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.qr;
+
+import java.util.Arrays;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+import static se.sawano.java.security.otp.google.keyuri.qr.QrEncoder.MAX_SIZE;
+import static se.sawano.java.security.otp.google.keyuri.qr.QrEncoder.MAX_VERSION;
+import static se.sawano.java.security.otp.google.keyuri.qr.QrEncoder.alignmentPatternPositions;
+import static se.sawano.java.security.otp.google.keyuri.qr.QrEncoder.eccCodewordsPerBlock;
+import static se.sawano.java.security.otp.google.keyuri.qr.QrEncoder.formatBits;
+import static se.sawano.java.security.otp.google.keyuri.qr.QrEncoder.maskBit;
+import static se.sawano.java.security.otp.google.keyuri.qr.QrEncoder.numberOfBlocks;
+import static se.sawano.java.security.otp.google.keyuri.qr.QrEncoder.numberOfDataCodewords;
+import static se.sawano.java.security.otp.google.keyuri.qr.QrEncoder.numberOfRawDataModules;
+import static se.sawano.java.security.otp.google.keyuri.qr.QrEncoder.size;
+import static se.sawano.java.security.otp.google.keyuri.qr.QrEncoder.versionBits;
+
+/**
+ * Decodes a QR code (ISO/IEC 18004) in a {@link Bitmap}, correcting errors with Reed-Solomon.
+ * <p>
+ * The QR code must be upright and not skewed, as in a rendered or scanned enrollment image, with a light background.
+ * It is located by the bounding box of its dark pixels, so the image must not contain anything else, and the module
+ * size is measured on the top left finder pattern. Numeric, alphanumeric and byte segments are supported, ECI
+ * designators are skipped and Kanji is not supported.
+ * </p>
+ * <p>
+ * A decoder keeps all its buffers, sized for the largest QR code, between invocations. It is not thread safe.
+ * </p>
+ */
+final class QrDecoder {
+
+    private static final int MAX_CODEWORDS = numberOfRawDataModules(MAX_VERSION) / 8;
+    private static final int MAX_BIT_ERRORS = 3;
+    private static final String ALPHANUMERIC = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:";
+
+    private final boolean[] modules = new boolean[MAX_SIZE * MAX_SIZE];
+    private final boolean[] function = new boolean[MAX_SIZE * MAX_SIZE];
+    private final byte[] codewords = new byte[MAX_CODEWORDS];
+    private final byte[] blocks = new byte[MAX_CODEWORDS];
+    private final byte[] dataCodewords = new byte[MAX_CODEWORDS];
+    private final byte[] text = new byte[MAX_CODEWORDS * 2];
+    private final int[] alignmentPositions = new int[7];
+
+    private int version;
+    private int size;
+    private ErrorCorrectionLevel errorCorrectionLevel;
+    private int mask;
+    private int bitPosition;
+    private int bitLength;
+
+    /**
+     * Decodes the QR code in the given bitmap.
+     *
+     * @param bitmap
+     *         the image
+     *
+     * @return the number of decoded bytes, see {@link #text()}
+     *
+     * @throws IllegalArgumentException
+     *         if no QR code could be decoded
+     */
+    int decode(final Bitmap bitmap) {
+        notNull(bitmap);
+
+        sample(bitmap);
+        readFormat();
+        markFunctionModules();
+        readCodewords();
+        correctErrors();
+        return readSegments();
+    }
+
+    /**
+     * @return the buffer holding the decoded bytes. It is overwritten by the next invocation and should be cleared by
+     * the caller when done with it.
+     */
+    byte[] text() {
+        return text;
+    }
+
+    int version() {
+        return version;
+    }
+
+    ErrorCorrectionLevel errorCorrectionLevel() {
+        return errorCorrectionLevel;
+    }
+
+    int mask() {
+        return mask;
+    }
+
+    /**
+     * Clears the buffers that hold decoded data.
+     */
+    void clear() {
+        Arrays.fill(codewords, (byte) 0);
+        Arrays.fill(blocks, (byte) 0);
+        Arrays.fill(dataCodewords, (byte) 0);
+        Arrays.fill(text, (byte) 0);
+        Arrays.fill(modules, false);
+    }
+
+    private void sample(final Bitmap bitmap) {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = -1;
+        int maxY = -1;
+        for (int y = 0; y < bitmap.height(); ++y) {
+            for (int x = 0; x < bitmap.width(); ++x) {
+                if (bitmap.isDark(x, y)) {
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                    minY = Math.min(minY, y);
+                    maxY = y;
+                }
+            }
+        }
+        isTrue(maxX >= 0, "No QR code found");
+
+        // Along the diagonal of the top left finder pattern the modules are dark, light, dark, dark, dark, light, dark
+        int finderWidth = 0;
+        boolean dark = true;
+        int transitions = 0;
+        while (minX + finderWidth <= maxX && minY + finderWidth <= maxY) {
+            if (bitmap.isDark(minX + finderWidth, minY + finderWidth) != dark) {
+                dark = !dark;
+                if (++transitions == 5) {
+                    break;
+                }
+            }
+            ++finderWidth;
+        }
+        isTrue(transitions == 4 || transitions == 5, "No finder pattern found");
+        if (transitions == 4) {
+            // The last dark ring ran to the end of the diagonal
+            finderWidth = Math.min(maxX - minX, maxY - minY) + 1;
+        }
+        final double moduleSize = finderWidth / 7.0;
+        final int width = maxX - minX + 1;
+        final int height = maxY - minY + 1;
+        isTrue(Math.abs(width - height) <= 2 * moduleSize, "QR code is not square");
+
+        version = (int) Math.round((width / moduleSize - 17) / 4);
+        isTrue(version >= 1 && version <= MAX_VERSION, "No QR code found");
+        sampleModules(bitmap, minX, minY, width, height);
+        if (version >= 7) {
+            final int decodedVersion = readVersion();
+            if (decodedVersion != version) {
+                version = decodedVersion;
+                sampleModules(bitmap, minX, minY, width, height);
+            }
+        }
+    }
+
+    private void sampleModules(final Bitmap bitmap, final int minX, final int minY, final int width, final int height) {
+        size = size(version);
+        final double pitchX = (double) width / size;
+        final double pitchY = (double) height / size;
+        for (int y = 0; y < size; ++y) {
+            final int pixelY = minY + (int) ((y + 0.5) * pitchY);
+            for (int x = 0; x < size; ++x) {
+                modules[y * size + x] = bitmap.isDark(minX + (int) ((x + 0.5) * pitchX), pixelY);
+            }
+        }
+    }
+
+    private int readVersion() {
+        int topRight = 0;
+        int bottomLeft = 0;
+        for (int i = 17; i >= 0; --i) {
+            final int a = size - 11 + i % 3;
+            final int b = i / 3;
+            topRight = topRight << 1 | (module(a, b) ? 1 : 0);
+            bottomLeft = bottomLeft << 1 | (module(b, a) ? 1 : 0);
+        }
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int candidate = 7; candidate <= MAX_VERSION; ++candidate) {
+            final int bits = versionBits(candidate);
+            final int distance = Math.min(Integer.bitCount(bits ^ topRight), Integer.bitCount(bits ^ bottomLeft));
+            if (distance < bestDistance) {
+                best = candidate;
+                bestDistance = distance;
+            }
+        }
+        isTrue(bestDistance <= MAX_BIT_ERRORS, "Unreadable version information");
+        return best;
+    }
+
+    private void readFormat() {
+        int first = 0;
+        int second = 0;
+        for (int i = 14; i >= 0; --i) {
+            first = first << 1 | (module(firstFormatX(i), firstFormatY(i)) ? 1 : 0);
+            second = second << 1 | ((i < 8 ? module(size - 1 - i, 8) : module(8, size - 15 + i)) ? 1 : 0);
+        }
+        int bestDistance = Integer.MAX_VALUE;
+        for (final ErrorCorrectionLevel level : ErrorCorrectionLevel.values()) {
+            for (int candidate = 0; candidate < 8; ++candidate) {
+                final int bits = formatBits(level, candidate);
+                final int distance = Math.min(Integer.bitCount(bits ^ first), Integer.bitCount(bits ^ second));
+                if (distance < bestDistance) {
+                    errorCorrectionLevel = level;
+                    mask = candidate;
+                    bestDistance = distance;
+                }
+            }
+        }
+        isTrue(bestDistance <= MAX_BIT_ERRORS, "Unreadable format information");
+    }
+
+    private static int firstFormatX(final int i) {
+        if (i <= 7) {
+            return 8;
+        }
+        return i == 8 ? 7 : 14 - i;
+    }
+
+    private static int firstFormatY(final int i) {
+        if (i <= 5) {
+            return i;
+        }
+        return i <= 7 ? i + 1 : 8;
+    }
+
+    private void markFunctionModules() {
+        Arrays.fill(function, 0, size * size, false);
+        for (int i = 0; i < size; ++i) {
+            markFunction(6, i);
+            markFunction(i, 6);
+        }
+        markSquare(3, 3, 4);
+        markSquare(size - 4, 3, 4);
+        markSquare(3, size - 4, 4);
+
+        final int numberOfPositions = alignmentPatternPositions(version, alignmentPositions);
+        for (int i = 0; i < numberOfPositions; ++i) {
+            for (int j = 0; j < numberOfPositions; ++j) {
+                final boolean overlapsFinder = (i == 0 && j == 0)
+                        || (i == 0 && j == numberOfPositions - 1)
+                        || (i == numberOfPositions - 1 && j == 0);
+                if (!overlapsFinder) {
+                    markSquare(alignmentPositions[i], alignmentPositions[j], 2);
+                }
+            }
+        }
+
+        for (int i = 0; i < 15; ++i) {
+            markFunction(firstFormatX(i), firstFormatY(i));
+            if (i < 8) {
+                markFunction(size - 1 - i, 8);
+            }
+            else {
+                markFunction(8, size - 15 + i);
+            }
+        }
+        markFunction(8, size - 8);
+
+        if (version >= 7) {
+            for (int i = 0; i < 18; ++i) {
+                markFunction(size - 11 + i % 3, i / 3);
+                markFunction(i / 3, size - 11 + i % 3);
+            }
+        }
+    }
+
+    private void markSquare(final int centerX, final int centerY, final int radius) {
+        for (int y = centerY - radius; y <= centerY + radius; ++y) {
+            for (int x = centerX - radius; x <= centerX + radius; ++x) {
+                if (0 <= x && x < size && 0 <= y && y < size) {
+                    markFunction(x, y);
+                }
+            }
+        }
+    }
+
+    private void markFunction(final int x, final int y) {
+        function[y * size + x] = true;
+    }
+
+    private boolean module(final int x, final int y) {
+        return modules[y * size + x];
+    }
+
+    /**
+     * Reads the code words in the same zigzag order as they are drawn, removing the mask.
+     */
+    private void readCodewords() {
+        final int totalBits = numberOfRawDataModules(version) / 8 * 8;
+        Arrays.fill(codewords, 0, totalBits / 8, (byte) 0);
+        int i = 0;
+        for (int right = size - 1; right >= 1; right -= 2) {
+            if (right == 6) {
+                right = 5;
+            }
+            for (int vertical = 0; vertical < size; ++vertical) {
+                for (int j = 0; j < 2; ++j) {
+                    final int x = right - j;
+                    final boolean upward = ((right + 1) & 2) == 0;
+                    final int y = upward ? size - 1 - vertical : vertical;
+                    final int index = y * size + x;
+                    if (!function[index] && i < totalBits) {
+                        if (modules[index] ^ maskBit(mask, x, y)) {
+                            codewords[i >>> 3] |= 1 << (7 - (i & 7));
+                        }
+                        ++i;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Deinterleaves the code words into blocks, corrects each block and concatenates the data code words.
+     */
+    private void correctErrors() {
+        final int numberOfBlocks = numberOfBlocks(version, errorCorrectionLevel);
+        final int eccLength = eccCodewordsPerBlock(version, errorCorrectionLevel);
+        final int rawCodewords = numberOfRawDataModules(version) / 8;
+        final int numberOfShortBlocks = numberOfBlocks - rawCodewords % numberOfBlocks;
+        final int shortBlockDataLength = rawCodewords / numberOfBlocks - eccLength;
+
+        int index = 0;
+        for (int i = 0; i <= shortBlockDataLength; ++i) {
+            for (int block = 0; block < numberOfBlocks; ++block) {
+                if (i < dataLength(block, numberOfShortBlocks, shortBlockDataLength)) {
+                    blocks[blockStart(block, numberOfShortBlocks, shortBlockDataLength + eccLength) + i] = codewords[index++];
+                }
+            }
+        }
+        for (int i = 0; i < eccLength; ++i) {
+            for (int block = 0; block < numberOfBlocks; ++block) {
+                final int dataLength = dataLength(block, numberOfShortBlocks, shortBlockDataLength);
+                blocks[blockStart(block, numberOfShortBlocks, shortBlockDataLength + eccLength) + dataLength + i] = codewords[index++];
+            }
+        }
+
+        int dataOffset = 0;
+        for (int block = 0; block < numberOfBlocks; ++block) {
+            final int start = blockStart(block, numberOfShortBlocks, shortBlockDataLength + eccLength);
+            final int dataLength = dataLength(block, numberOfShortBlocks, shortBlockDataLength);
+            ReedSolomon.correct(blocks, start, dataLength + eccLength, eccLength);
+            System.arraycopy(blocks, start, dataCodewords, dataOffset, dataLength);
+            dataOffset += dataLength;
+        }
+        bitLength = numberOfDataCodewords(version, errorCorrectionLevel) * 8;
+        bitPosition = 0;
+    }
+
+    private static int dataLength(final int block, final int numberOfShortBlocks, final int shortBlockDataLength) {
+        return shortBlockDataLength + (block < numberOfShortBlocks ? 0 : 1);
+    }
+
+    private static int blockStart(final int block, final int numberOfShortBlocks, final int shortBlockLength) {
+        return block * shortBlockLength + Math.max(0, block - numberOfShortBlocks);
+    }
+
+    private int readSegments() {
+        int length = 0;
+        while (bitLength - bitPosition >= 4) {
+            final int mode = readBits(4);
+            switch (mode) {
+                case 0x0:
+                    return length;
+                case 0x1:
+                    length = readNumeric(length);
+                    break;
+                case 0x2:
+                    length = readAlphanumeric(length);
+                    break;
+                case 0x4:
+                    length = readBytes(length);
+                    break;
+                case 0x7:
+                    skipEci();
+                    break;
+                case 0x3:
+                    readBits(16); // Structured append, each symbol is decoded on its own
+                    break;
+                case 0x5:
+                    break; // FNC1 in first position
+                case 0x9:
+                    readBits(8); // FNC1 in second position
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported segment mode: " + mode);
+            }
+        }
+        return length;
+    }
+
+    private int readNumeric(final int start) {
+        int count = readBits(version <= 9 ? 10 : version <= 26 ? 12 : 14);
+        int length = start;
+        while (count >= 3) {
+            final int value = readBits(10);
+            isTrue(value < 1000, "Invalid numeric segment");
+            length = appendDigits(value, 3, length);
+            count -= 3;
+        }
+        if (count == 2) {
+            final int value = readBits(7);
+            isTrue(value < 100, "Invalid numeric segment");
+            length = appendDigits(value, 2, length);
+        }
+        else if (count == 1) {
+            final int value = readBits(4);
+            isTrue(value < 10, "Invalid numeric segment");
+            length = appendDigits(value, 1, length);
+        }
+        return length;
+    }
+
+    private int appendDigits(final int value, final int digits, final int start) {
+        int remaining = value;
+        for (int i = digits - 1; i >= 0; --i) {
+            text[start + i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        return start + digits;
+    }
+
+    private int readAlphanumeric(final int start) {
+        int count = readBits(version <= 9 ? 9 : version <= 26 ? 11 : 13);
+        int length = start;
+        while (count >= 2) {
+            final int value = readBits(11);
+            isTrue(value < 45 * 45, "Invalid alphanumeric segment");
+            text[length++] = (byte) ALPHANUMERIC.charAt(value / 45);
+            text[length++] = (byte) ALPHANUMERIC.charAt(value % 45);
+            count -= 2;
+        }
+        if (count == 1) {
+            final int value = readBits(6);
+            isTrue(value < 45, "Invalid alphanumeric segment");
+            text[length++] = (byte) ALPHANUMERIC.charAt(value);
+        }
+        return length;
+    }
+
+    private int readBytes(final int start) {
+        final int count = readBits(version <= 9 ? 8 : 16);
+        isTrue(start + count <= text.length, "Invalid byte segment");
+        for (int i = 0; i < count; ++i) {
+            text[start + i] = (byte) readBits(8);
+        }
+        return start + count;
+    }
+
+    private void skipEci() {
+        final int first = readBits(8);
+        if ((first & 0x80) == 0) {
+            return;
+        }
+        if ((first & 0xC0) == 0x80) {
+            readBits(8);
+            return;
+        }
+        isTrue((first & 0xE0) == 0xC0, "Invalid ECI designator");
+        readBits(16);
+    }
+
+    private int readBits(final int count) {
+        isTrue(bitLength - bitPosition >= count, "Truncated segment");
+        int value = 0;
+        for (int i = 0; i < count; ++i, ++bitPosition) {
+            value = value << 1 | (dataCodewords[bitPosition >>> 3] >>> (7 - (bitPosition & 7))) & 1;
+        }
+        return value;
+    }
+}
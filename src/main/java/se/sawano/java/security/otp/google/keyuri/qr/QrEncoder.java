@@ -0,0 +1,530 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.qr;
+
+import java.util.Arrays;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Encodes bytes as a QR code (ISO/IEC 18004) in byte mode. The smallest version that fits the data is used, and the
+ * error correction level is then raised as long as the data still fits in that version.
+ * <p>
+ * An encoder keeps all its buffers, sized for the largest QR code, between invocations. It is not thread safe.
+ * </p>
+ */
+final class QrEncoder {
+
+    static final int MIN_VERSION = 1;
+    static final int MAX_VERSION = 40;
+    static final int MAX_SIZE = size(MAX_VERSION);
+
+    private static final int MODE_BYTE = 0x4;
+    private static final int MAX_CODEWORDS = numberOfRawDataModules(MAX_VERSION) / 8;
+
+    // Indexed by error correction level ordinal and version, see table 9 of ISO/IEC 18004
+    private static final byte[][] ECC_CODEWORDS_PER_BLOCK = {
+            {-1, 7, 10, 15, 20, 26, 18, 20, 24, 30, 18, 20, 24, 26, 30, 22, 24, 28, 30, 28, 28, 28, 28, 30, 30, 26, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+            {-1, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26, 26, 26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28},
+            {-1, 13, 22, 18, 26, 18, 24, 18, 22, 20, 24, 28, 26, 24, 20, 30, 24, 28, 28, 26, 30, 28, 30, 30, 30, 30, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+            {-1, 17, 28, 22, 16, 22, 28, 26, 26, 24, 28, 24, 28, 22, 24, 24, 30, 28, 28, 26, 28, 30, 24, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30}};
+    private static final byte[][] NUMBER_OF_BLOCKS = {
+            {-1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 4, 4, 4, 4, 4, 6, 6, 6, 6, 7, 8, 8, 9, 9, 10, 12, 12, 12, 13, 14, 15, 16, 17, 18, 19, 19, 20, 21, 22, 24, 25},
+            {-1, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5, 5, 8, 9, 9, 10, 10, 11, 13, 14, 16, 17, 17, 18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49},
+            {-1, 1, 1, 2, 2, 4, 4, 6, 6, 8, 8, 8, 10, 12, 16, 12, 17, 16, 18, 21, 20, 23, 23, 25, 27, 29, 34, 34, 35, 38, 40, 43, 45, 48, 51, 53, 56, 59, 62, 65, 68},
+            {-1, 1, 1, 2, 4, 4, 4, 5, 6, 8, 8, 11, 11, 16, 16, 18, 16, 19, 21, 25, 25, 25, 34, 30, 32, 35, 37, 40, 42, 45, 48, 51, 54, 57, 60, 63, 66, 70, 74, 77, 81}};
+
+    private static final int PENALTY_N1 = 3;
+    private static final int PENALTY_N2 = 3;
+    private static final int PENALTY_N3 = 40;
+    private static final int PENALTY_N4 = 10;
+
+    private final byte[] modules = new byte[MAX_SIZE * MAX_SIZE];
+    private final boolean[] function = new boolean[MAX_SIZE * MAX_SIZE];
+    private final byte[] dataCodewords = new byte[MAX_CODEWORDS];
+    private final byte[] codewords = new byte[MAX_CODEWORDS];
+    private final byte[] eccCodewords = new byte[MAX_CODEWORDS];
+    private final int[] alignmentPositions = new int[7];
+
+    private int version;
+    private int size;
+    private ErrorCorrectionLevel errorCorrectionLevel;
+    private int mask;
+    private int bitLength;
+
+    /**
+     * Zeroes the codewords and the matrix of the last encoded data, e.g. when the data was a key URI with a secret.
+     */
+    void clear() {
+        Arrays.fill(modules, 0, size * size, (byte) 0);
+        Arrays.fill(dataCodewords, (byte) 0);
+        Arrays.fill(codewords, (byte) 0);
+        Arrays.fill(eccCodewords, (byte) 0);
+    }
+
+    /**
+     * Encodes the given data.
+     *
+     * @param data
+     *         the array holding the data
+     * @param length
+     *         the number of bytes to encode, starting at index 0
+     * @param minimumLevel
+     *         the lowest acceptable error correction level
+     *
+     * @throws IllegalArgumentException
+     *         if the data does not fit in a QR code
+     */
+    void encode(final byte[] data, final int length, final ErrorCorrectionLevel minimumLevel) {
+        notNull(data);
+        notNull(minimumLevel);
+        isTrue(length >= 0 && length <= data.length, "Invalid length: %d", length);
+
+        version = smallestVersion(length, minimumLevel);
+        errorCorrectionLevel = minimumLevel;
+        for (final ErrorCorrectionLevel level : ErrorCorrectionLevel.values()) {
+            if (level.ordinal() > errorCorrectionLevel.ordinal() && fits(length, version, level)) {
+                errorCorrectionLevel = level;
+            }
+        }
+        size = size(version);
+
+        Arrays.fill(modules, 0, size * size, (byte) 0);
+        Arrays.fill(function, 0, size * size, false);
+        writeDataCodewords(data, length);
+        addErrorCorrectionAndInterleave();
+        drawFunctionPatterns();
+        drawCodewords();
+        mask = bestMask();
+        applyMask(mask);
+        drawFormatBits(mask);
+    }
+
+    int version() {
+        return version;
+    }
+
+    int size() {
+        return size;
+    }
+
+    ErrorCorrectionLevel errorCorrectionLevel() {
+        return errorCorrectionLevel;
+    }
+
+    int mask() {
+        return mask;
+    }
+
+    boolean isDark(final int x, final int y) {
+        return modules[y * size + x] != 0;
+    }
+
+    static int size(final int version) {
+        return version * 4 + 17;
+    }
+
+    /**
+     * The number of data code words, i.e. excluding error correction, of the given version and level.
+     */
+    static int numberOfDataCodewords(final int version, final ErrorCorrectionLevel level) {
+        return numberOfRawDataModules(version) / 8
+                - ECC_CODEWORDS_PER_BLOCK[level.ordinal()][version] * NUMBER_OF_BLOCKS[level.ordinal()][version];
+    }
+
+    /**
+     * The number of modules available for data and error correction, i.e. all modules except the function patterns
+     * and the format and version information.
+     */
+    static int numberOfRawDataModules(final int version) {
+        int result = (16 * version + 128) * version + 64;
+        if (version >= 2) {
+            final int numberOfAlignmentPatterns = version / 7 + 2;
+            result -= (25 * numberOfAlignmentPatterns - 10) * numberOfAlignmentPatterns - 55;
+            if (version >= 7) {
+                result -= 36;
+            }
+        }
+        return result;
+    }
+
+    static int numberOfBlocks(final int version, final ErrorCorrectionLevel level) {
+        return NUMBER_OF_BLOCKS[level.ordinal()][version];
+    }
+
+    static int eccCodewordsPerBlock(final int version, final ErrorCorrectionLevel level) {
+        return ECC_CODEWORDS_PER_BLOCK[level.ordinal()][version];
+    }
+
+    static int characterCountBits(final int version) {
+        return version <= 9 ? 8 : 16;
+    }
+
+    private static int smallestVersion(final int length, final ErrorCorrectionLevel level) {
+        for (int version = MIN_VERSION; version <= MAX_VERSION; ++version) {
+            if (fits(length, version, level)) {
+                return version;
+            }
+        }
+        throw new IllegalArgumentException("Data is too long for a QR code: " + length + " bytes");
+    }
+
+    private static boolean fits(final int length, final int version, final ErrorCorrectionLevel level) {
+        final long bits = 4L + characterCountBits(version) + 8L * length;
+        return bits <= numberOfDataCodewords(version, level) * 8L;
+    }
+
+    private void writeDataCodewords(final byte[] data, final int length) {
+        final int capacity = numberOfDataCodewords(version, errorCorrectionLevel);
+        Arrays.fill(dataCodewords, 0, capacity, (byte) 0);
+        bitLength = 0;
+
+        appendBits(MODE_BYTE, 4);
+        appendBits(length, characterCountBits(version));
+        for (int i = 0; i < length; ++i) {
+            appendBits(data[i] & 0xFF, 8);
+        }
+        // Terminator of up to four bits, then pad to a whole byte. The array is already zeroed.
+        bitLength = Math.min(bitLength + 4, capacity * 8);
+        bitLength = (bitLength + 7) & ~7;
+        for (int pad = 0xEC; bitLength < capacity * 8; pad ^= 0xEC ^ 0x11) {
+            appendBits(pad, 8);
+        }
+    }
+
+    private void appendBits(final int value, final int count) {
+        for (int i = count - 1; i >= 0; --i, ++bitLength) {
+            dataCodewords[bitLength >>> 3] |= ((value >>> i) & 1) << (7 - (bitLength & 7));
+        }
+    }
+
+    private void addErrorCorrectionAndInterleave() {
+        final int numberOfBlocks = numberOfBlocks(version, errorCorrectionLevel);
+        final int eccLength = eccCodewordsPerBlock(version, errorCorrectionLevel);
+        final int rawCodewords = numberOfRawDataModules(version) / 8;
+        final int numberOfShortBlocks = numberOfBlocks - rawCodewords % numberOfBlocks;
+        final int shortBlockDataLength = rawCodewords / numberOfBlocks - eccLength;
+
+        int offset = 0;
+        for (int block = 0; block < numberOfBlocks; ++block) {
+            final int dataLength = shortBlockDataLength + (block < numberOfShortBlocks ? 0 : 1);
+            ReedSolomon.remainder(dataCodewords, offset, dataLength, eccLength, eccCodewords, block * eccLength);
+            offset += dataLength;
+        }
+
+        int index = 0;
+        for (int i = 0; i <= shortBlockDataLength; ++i) {
+            int blockOffset = 0;
+            for (int block = 0; block < numberOfBlocks; ++block) {
+                final int dataLength = shortBlockDataLength + (block < numberOfShortBlocks ? 0 : 1);
+                if (i < dataLength) {
+                    codewords[index++] = dataCodewords[blockOffset + i];
+                }
+                blockOffset += dataLength;
+            }
+        }
+        for (int i = 0; i < eccLength; ++i) {
+            for (int block = 0; block < numberOfBlocks; ++block) {
+                codewords[index++] = eccCodewords[block * eccLength + i];
+            }
+        }
+    }
+
+    private void drawFunctionPatterns() {
+        for (int i = 0; i < size; ++i) {
+            setFunctionModule(6, i, i % 2 == 0);
+            setFunctionModule(i, 6, i % 2 == 0);
+        }
+        drawFinderPattern(3, 3);
+        drawFinderPattern(size - 4, 3);
+        drawFinderPattern(3, size - 4);
+
+        final int numberOfPositions = alignmentPatternPositions(version, alignmentPositions);
+        for (int i = 0; i < numberOfPositions; ++i) {
+            for (int j = 0; j < numberOfPositions; ++j) {
+                final boolean overlapsFinder = (i == 0 && j == 0)
+                        || (i == 0 && j == numberOfPositions - 1)
+                        || (i == numberOfPositions - 1 && j == 0);
+                if (!overlapsFinder) {
+                    drawAlignmentPattern(alignmentPositions[i], alignmentPositions[j]);
+                }
+            }
+        }
+        // Reserve the format areas, the real bits are drawn once the mask is chosen
+        drawFormatBits(0);
+        drawVersion();
+    }
+
+    /**
+     * Writes the centre coordinates of the alignment patterns, used for both x and y, to the given array.
+     *
+     * @return the number of positions
+     */
+    static int alignmentPatternPositions(final int version, final int[] result) {
+        if (version == 1) {
+            return 0;
+        }
+        final int count = version / 7 + 2;
+        final int step = (version * 8 + count * 3 + 5) / (count * 4 - 4) * 2;
+        result[0] = 6;
+        for (int i = count - 1, position = size(version) - 7; i >= 1; --i, position -= step) {
+            result[i] = position;
+        }
+        return count;
+    }
+
+    private void drawFinderPattern(final int x, final int y) {
+        for (int dy = -4; dy <= 4; ++dy) {
+            for (int dx = -4; dx <= 4; ++dx) {
+                final int distance = Math.max(Math.abs(dx), Math.abs(dy));
+                final int xx = x + dx;
+                final int yy = y + dy;
+                if (0 <= xx && xx < size && 0 <= yy && yy < size) {
+                    setFunctionModule(xx, yy, distance != 2 && distance != 4);
+                }
+            }
+        }
+    }
+
+    private void drawAlignmentPattern(final int x, final int y) {
+        for (int dy = -2; dy <= 2; ++dy) {
+            for (int dx = -2; dx <= 2; ++dx) {
+                setFunctionModule(x + dx, y + dy, Math.max(Math.abs(dx), Math.abs(dy)) != 1);
+            }
+        }
+    }
+
+    /**
+     * The 15 bit format information, i.e. level and mask with BCH error correction, masked as in the standard.
+     */
+    static int formatBits(final ErrorCorrectionLevel level, final int mask) {
+        final int data = level.formatBits() << 3 | mask;
+        int remainder = data;
+        for (int i = 0; i < 10; ++i) {
+            remainder = (remainder << 1) ^ ((remainder >>> 9) * 0x537);
+        }
+        return (data << 10 | remainder) ^ 0x5412;
+    }
+
+    /**
+     * The 18 bit version information, i.e. the version with BCH error correction. Only used for version 7 and up.
+     */
+    static int versionBits(final int version) {
+        int remainder = version;
+        for (int i = 0; i < 12; ++i) {
+            remainder = (remainder << 1) ^ ((remainder >>> 11) * 0x1F25);
+        }
+        return version << 12 | remainder;
+    }
+
+    private void drawFormatBits(final int mask) {
+        final int bits = formatBits(errorCorrectionLevel, mask);
+
+        for (int i = 0; i <= 5; ++i) {
+            setFunctionModule(8, i, bit(bits, i));
+        }
+        setFunctionModule(8, 7, bit(bits, 6));
+        setFunctionModule(8, 8, bit(bits, 7));
+        setFunctionModule(7, 8, bit(bits, 8));
+        for (int i = 9; i < 15; ++i) {
+            setFunctionModule(14 - i, 8, bit(bits, i));
+        }
+
+        for (int i = 0; i < 8; ++i) {
+            setFunctionModule(size - 1 - i, 8, bit(bits, i));
+        }
+        for (int i = 8; i < 15; ++i) {
+            setFunctionModule(8, size - 15 + i, bit(bits, i));
+        }
+        setFunctionModule(8, size - 8, true);
+    }
+
+    private void drawVersion() {
+        if (version < 7) {
+            return;
+        }
+        final int bits = versionBits(version);
+        for (int i = 0; i < 18; ++i) {
+            final boolean dark = bit(bits, i);
+            final int a = size - 11 + i % 3;
+            final int b = i / 3;
+            setFunctionModule(a, b, dark);
+            setFunctionModule(b, a, dark);
+        }
+    }
+
+    private void drawCodewords() {
+        final int totalBits = numberOfRawDataModules(version) / 8 * 8;
+        int i = 0;
+        for (int right = size - 1; right >= 1; right -= 2) {
+            if (right == 6) {
+                right = 5;
+            }
+            for (int vertical = 0; vertical < size; ++vertical) {
+                for (int j = 0; j < 2; ++j) {
+                    final int x = right - j;
+                    final boolean upward = ((right + 1) & 2) == 0;
+                    final int y = upward ? size - 1 - vertical : vertical;
+                    final int index = y * size + x;
+                    if (!function[index] && i < totalBits) {
+                        modules[index] = (byte) ((codewords[i >>> 3] >>> (7 - (i & 7))) & 1);
+                        ++i;
+                    }
+                }
+            }
+        }
+    }
+
+    static boolean maskBit(final int mask, final int x, final int y) {
+        switch (mask) {
+            case 0:
+                return (x + y) % 2 == 0;
+            case 1:
+                return y % 2 == 0;
+            case 2:
+                return x % 3 == 0;
+            case 3:
+                return (x + y) % 3 == 0;
+            case 4:
+                return (x / 3 + y / 2) % 2 == 0;
+            case 5:
+                return x * y % 2 + x * y % 3 == 0;
+            case 6:
+                return (x * y % 2 + x * y % 3) % 2 == 0;
+            case 7:
+                return ((x + y) % 2 + x * y % 3) % 2 == 0;
+            default:
+                throw new IllegalArgumentException("Invalid mask: " + mask);
+        }
+    }
+
+    private void applyMask(final int mask) {
+        for (int y = 0; y < size; ++y) {
+            for (int x = 0; x < size; ++x) {
+                final int index = y * size + x;
+                if (!function[index] && maskBit(mask, x, y)) {
+                    modules[index] ^= 1;
+                }
+            }
+        }
+    }
+
+    private int bestMask() {
+        int best = 0;
+        int minimumPenalty = Integer.MAX_VALUE;
+        for (int candidate = 0; candidate < 8; ++candidate) {
+            applyMask(candidate);
+            drawFormatBits(candidate);
+            final int penalty = penalty();
+            if (penalty < minimumPenalty) {
+                best = candidate;
+                minimumPenalty = penalty;
+            }
+            applyMask(candidate);
+        }
+        return best;
+    }
+
+    private int penalty() {
+        int penalty = 0;
+        int dark = 0;
+        for (int a = 0; a < size; ++a) {
+            penalty += runPenalty(a, true) + runPenalty(a, false);
+            for (int b = 0; b < size; ++b) {
+                final int module = modules[a * size + b];
+                dark += module;
+                if (a + 1 < size && b + 1 < size
+                        && module == modules[a * size + b + 1]
+                        && module == modules[(a + 1) * size + b]
+                        && module == modules[(a + 1) * size + b + 1]) {
+                    penalty += PENALTY_N2;
+                }
+                if (b + 6 < size && isFinderLike(a, b, true)) {
+                    penalty += PENALTY_N3;
+                }
+                if (b + 6 < size && isFinderLike(a, b, false)) {
+                    penalty += PENALTY_N3;
+                }
+            }
+        }
+        final int total = size * size;
+        penalty += Math.abs(dark * 2 - total) * 10 / total * PENALTY_N4;
+        return penalty;
+    }
+
+    private int module(final int line, final int position, final boolean horizontal) {
+        return horizontal ? modules[line * size + position] : modules[position * size + line];
+    }
+
+    private int runPenalty(final int line, final boolean horizontal) {
+        int penalty = 0;
+        int run = 0;
+        int previous = -1;
+        for (int i = 0; i < size; ++i) {
+            final int module = module(line, i, horizontal);
+            if (module == previous) {
+                ++run;
+            }
+            else {
+                if (run >= 5) {
+                    penalty += PENALTY_N1 + run - 5;
+                }
+                run = 1;
+                previous = module;
+            }
+        }
+        if (run >= 5) {
+            penalty += PENALTY_N1 + run - 5;
+        }
+        return penalty;
+    }
+
+    /**
+     * Whether the modules starting at the given position are 1:1:3:1:1 with four light modules, or the edge of the
+     * code, on either side.
+     */
+    private boolean isFinderLike(final int line, final int start, final boolean horizontal) {
+        final boolean pattern = module(line, start, horizontal) == 1
+                && module(line, start + 1, horizontal) == 0
+                && module(line, start + 2, horizontal) == 1
+                && module(line, start + 3, horizontal) == 1
+                && module(line, start + 4, horizontal) == 1
+                && module(line, start + 5, horizontal) == 0
+                && module(line, start + 6, horizontal) == 1;
+        return pattern && (isLight(line, start - 4, start, horizontal) || isLight(line, start + 7, start + 11, horizontal));
+    }
+
+    private boolean isLight(final int line, final int from, final int to, final boolean horizontal) {
+        for (int i = Math.max(from, 0); i < Math.min(to, size); ++i) {
+            if (module(line, i, horizontal) == 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setFunctionModule(final int x, final int y, final boolean dark) {
+        final int index = y * size + x;
+        modules[index] = (byte) (dark ? 1 : 0);
+        function[index] = true;
+    }
+
+    private static boolean bit(final int value, final int index) {
+        return ((value >>> index) & 1) != 0;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.qr;
+
+import static org.apache.commons.lang3.Validate.inclusiveBetween;
+import static org.apache.commons.lang3.Validate.isTrue;
+
+/**
+ * Reed-Solomon error correction over GF(2^8) with the QR code polynomial x^8 + x^4 + x^3 + x^2 + 1.
+ */
+final class ReedSolomon {
+
+    static final int MAX_DEGREE = 30;
+
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+    private static final byte[][] DIVISORS = new byte[MAX_DEGREE + 1][];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; ++i) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if ((x & 0x100) != 0) {
+                x ^= 0x11D;
+            }
+        }
+        for (int i = 255; i < EXP.length; ++i) {
+            EXP[i] = EXP[i - 255];
+        }
+        for (int degree = 1; degree <= MAX_DEGREE; ++degree) {
+            DIVISORS[degree] = divisor(degree);
+        }
+    }
+
+    private ReedSolomon() {}
+
+    static int multiply(final int a, final int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    /**
+     * Computes the error correction code words for the given data code words.
+     *
+     * @param data
+     *         the array with the data code words
+     * @param offset
+     *         the offset of the first data code word
+     * @param length
+     *         the number of data code words
+     * @param degree
+     *         the number of error correction code words
+     * @param result
+     *         the array to write the error correction code words to
+     * @param resultOffset
+     *         the offset of the first error correction code word
+     */
+    static void remainder(final byte[] data, final int offset, final int length, final int degree, final byte[] result, final int resultOffset) {
+        inclusiveBetween(1, MAX_DEGREE, degree);
+        final byte[] divisor = DIVISORS[degree];
+        final int last = resultOffset + degree - 1;
+
+        for (int i = resultOffset; i <= last; ++i) {
+            result[i] = 0;
+        }
+        for (int i = offset; i < offset + length; ++i) {
+            final int factor = (data[i] ^ result[resultOffset]) & 0xFF;
+            System.arraycopy(result, resultOffset + 1, result, resultOffset, degree - 1);
+            result[last] = 0;
+            for (int j = 0; j < degree; ++j) {
+                result[resultOffset + j] ^= multiply(divisor[j] & 0xFF, factor);
+            }
+        }
+    }
+
+    /**
+     * Corrects up to half as many errors as there are error correction code words in the given block, in place.
+     *
+     * @param block
+     *         the array with the block, data code words followed by error correction code words
+     * @param offset
+     *         the offset of the first code word of the block
+     * @param length
+     *         the number of code words in the block
+     * @param degree
+     *         the number of error correction code words
+     *
+     * @return the number of corrected code words
+     *
+     * @throws IllegalArgumentException
+     *         if the block has too many errors to be corrected
+     */
+    static int correct(final byte[] block, final int offset, final int length, final int degree) {
+        inclusiveBetween(1, MAX_DEGREE, degree);
+        inclusiveBetween(degree + 1, 255, length);
+
+        // The syndromes are the block, as a polynomial with the first code word as the highest power, evaluated at the
+        // roots of the generator polynomial, i.e. a^0 to a^(degree - 1)
+        final int[] syndromes = new int[degree];
+        boolean hasErrors = false;
+        for (int i = 0; i < degree; ++i) {
+            int value = 0;
+            for (int j = offset; j < offset + length; ++j) {
+                value = multiply(value, EXP[i]) ^ (block[j] & 0xFF);
+            }
+            syndromes[i] = value;
+            hasErrors |= value != 0;
+        }
+        if (!hasErrors) {
+            return 0;
+        }
+
+        final int[] locator = errorLocator(syndromes);
+        final int numberOfErrors = degree(locator);
+        isTrue(2 * numberOfErrors <= degree, "Too many errors to correct");
+
+        // The evaluator is syndromes * locator mod x^degree, lowest power first like the locator
+        final int[] evaluator = new int[degree];
+        for (int i = 0; i < degree; ++i) {
+            for (int j = 0; j <= i && j < locator.length; ++j) {
+                evaluator[i] ^= multiply(locator[j], syndromes[i - j]);
+            }
+        }
+
+        int corrected = 0;
+        for (int position = 0; position < length; ++position) {
+            // Chien search: the code word at distance 'position' from the end is in error if the locator has the
+            // inverse of a^position as a root
+            final int inverse = EXP[(255 - position) % 255];
+            if (evaluate(locator, inverse) != 0) {
+                continue;
+            }
+            // Forney: the magnitude is X * evaluator(X^-1) / locator'(X^-1), with X = a^position
+            int derivative = 0;
+            for (int i = 1; i < locator.length; i += 2) {
+                derivative ^= multiply(locator[i], power(inverse, i - 1));
+            }
+            isTrue(derivative != 0, "Too many errors to correct");
+            final int magnitude = multiply(multiply(EXP[position], evaluate(evaluator, inverse)), EXP[255 - LOG[derivative]]);
+            block[offset + length - 1 - position] ^= magnitude;
+            ++corrected;
+        }
+        isTrue(corrected == numberOfErrors, "Too many errors to correct");
+        return corrected;
+    }
+
+    /**
+     * Berlekamp-Massey. Returns the error locator polynomial with the lowest power first.
+     */
+    private static int[] errorLocator(final int[] syndromes) {
+        final int n = syndromes.length;
+        int[] locator = new int[n + 1];
+        int[] previous = new int[n + 1];
+        locator[0] = 1;
+        previous[0] = 1;
+        int errors = 0;
+        int shift = 1;
+        int previousDiscrepancy = 1;
+        for (int i = 0; i < n; ++i) {
+            int discrepancy = syndromes[i];
+            for (int j = 1; j <= errors; ++j) {
+                discrepancy ^= multiply(locator[j], syndromes[i - j]);
+            }
+            if (discrepancy == 0) {
+                ++shift;
+                continue;
+            }
+            final int factor = multiply(discrepancy, EXP[255 - LOG[previousDiscrepancy]]);
+            if (2 * errors <= i) {
+                final int[] copy = locator.clone();
+                for (int j = shift; j <= n; ++j) {
+                    locator[j] ^= multiply(factor, previous[j - shift]);
+                }
+                errors = i + 1 - errors;
+                previous = copy;
+                previousDiscrepancy = discrepancy;
+                shift = 1;
+            }
+            else {
+                for (int j = shift; j <= n; ++j) {
+                    locator[j] ^= multiply(factor, previous[j - shift]);
+                }
+                ++shift;
+            }
+        }
+        return locator;
+    }
+
+    private static int degree(final int[] polynomial) {
+        for (int i = polynomial.length - 1; i > 0; --i) {
+            if (polynomial[i] != 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Evaluates a polynomial, with the lowest power first, at the given point.
+     */
+    private static int evaluate(final int[] polynomial, final int x) {
+        int value = 0;
+        for (int i = polynomial.length - 1; i >= 0; --i) {
+            value = multiply(value, x) ^ polynomial[i];
+        }
+        return value;
+    }
+
+    private static int power(final int x, final int exponent) {
+        if (exponent == 0) {
+            return 1;
+        }
+        if (x == 0) {
+            return 0;
+        }
+        return EXP[LOG[x] * exponent % 255];
+    }
+
+    /**
+     * The generator polynomial of the given degree, without the leading term, with the highest power first.
+     */
+    private static byte[] divisor(final int degree) {
+        final byte[] result = new byte[degree];
+        result[degree - 1] = 1;
+        int root = 1;
+        for (int i = 0; i < degree; ++i) {
+            for (int j = 0; j < degree; ++j) {
+                result[j] = (byte) multiply(result[j] & 0xFF, root);
+                if (j + 1 < degree) {
+                    result[j] ^= result[j + 1];
+                }
+            }
+            root = multiply(root, 0x02);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * A bounded least recently used cache. The entries are spread over a number of segments with a lock each, so that
+ * concurrent lookups of different keys seldom wait for each other. Each segment evicts its own least recently used
+ * entry, which makes the eviction order approximate across segments.
+ */
+final class BoundedCache<K, V> {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+
+    @SuppressWarnings("unchecked")
+    BoundedCache(final int maximumSize) {
+        isTrue(maximumSize > 0, "Maximum size must be positive");
+
+        final int segmentCount = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maximumSize));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; ++i) {
+            segments[i] = new Segment<>(maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0));
+        }
+    }
+
+    /**
+     * Returns the value of the given key, computing and caching it if it is not cached. The computation holds the lock
+     * of the segment of the key.
+     */
+    V computeIfAbsent(final K key, final Function<? super K, ? extends V> function) {
+        notNull(key);
+
+        final Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            V value = segment.get(key);
+            if (value == null) {
+                value = notNull(function.apply(key));
+                segment.put(key, value);
+            }
+            return value;
+        }
+    }
+
+    void remove(final K key) {
+        final Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    void clear() {
+        for (final Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (final Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<K, V> segmentFor(final Object key) {
+        final int hash = key.hashCode();
+        return segments[(hash ^ hash >>> 16) & segments.length - 1];
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maximumSize;
+
+        Segment(final int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+            return size() > maximumSize;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import se.sawano.java.security.otp.Hkdf;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.user.UserId;
+import se.sawano.java.security.otp.user.persistence.SecretSource;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+import static org.apache.commons.lang3.Validate.validState;
+
+/**
+ * A {@link SecretSource} that derives the secret of each user from a master key and the {@link UserId} with HKDF
+ * (RFC 5869), instead of storing it. Verification therefore needs no storage at all.
+ * <p>
+ * The master keys are versioned by a key id, which is part of the derivation. New users are enrolled with the secret of
+ * the current key. A key id resolver tells which key each user was enrolled with, and which users have a secret at all.
+ * When the master key is rotated, the previous keys are kept until all users have been enrolled again.
+ * </p>
+ * <p>
+ * The derived secrets are cached in a bounded least recently used cache and a new copy is handed out on every lookup.
+ * The secrets cannot be saved or deleted, since they are derived; a user that should not have a secret must be
+ * resolved to no key id.
+ * </p>
+ */
+public final class DerivedSecretSource implements SecretSource {
+
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+    public static final int MINIMUM_MASTER_KEY_LENGTH = 32;
+
+    private static final byte[] INFO_PREFIX = "otp-secret".getBytes(UTF_8);
+
+    public static Builder builder(final ShaAlgorithm algorithm) {
+        return new Builder(algorithm);
+    }
+
+    public static final class Builder {
+        private final ShaAlgorithm algorithm;
+        private final Map<Integer, byte[]> masterKeys = new TreeMap<>();
+        private Integer currentKeyId;
+        private Function<UserId, OptionalInt> keyIdResolver;
+        private byte[] salt = new byte[0];
+        private int cacheSize = DEFAULT_CACHE_SIZE;
+
+        private Builder(final ShaAlgorithm algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        /**
+         * Adds a master key. The key is copied.
+         */
+        public Builder withMasterKey(final int keyId, final byte[] masterKey) {
+            notNull(masterKey);
+            isTrue(masterKey.length >= MINIMUM_MASTER_KEY_LENGTH, "A master key must be at least %d bytes", MINIMUM_MASTER_KEY_LENGTH);
+            isTrue(!masterKeys.containsKey(keyId), "Duplicate key id: %d", keyId);
+
+            masterKeys.put(keyId, masterKey.clone());
+            return this;
+        }
+
+        /**
+         * @param currentKeyId
+         *         the key id that new users are enrolled with, the highest key id if not given
+         */
+        public Builder withCurrentKeyId(final int currentKeyId) {
+            this.currentKeyId = currentKeyId;
+            return this;
+        }
+
+        /**
+         * @param keyIdResolver
+         *         gives the key id that each user was enrolled with, or empty for users that are not enrolled
+         */
+        public Builder withKeyIdResolver(final Function<UserId, OptionalInt> keyIdResolver) {
+            this.keyIdResolver = keyIdResolver;
+            return this;
+        }
+
+        public Builder withSalt(final byte[] salt) {
+            notNull(salt);
+
+            this.salt = salt.clone();
+            return this;
+        }
+
+        public Builder withCacheSize(final int cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        public DerivedSecretSource create() {
+            return new DerivedSecretSource(this);
+        }
+    }
+
+    private final ShaAlgorithm algorithm;
+    private final Map<Integer, byte[]> masterKeys;
+    private final int currentKeyId;
+    private final Function<UserId, OptionalInt> keyIdResolver;
+    private final byte[] salt;
+    private final BoundedCache<CacheKey, SharedSecret> cache;
+
+    private DerivedSecretSource(final Builder builder) {
+        notNull(builder.algorithm);
+        validState(!builder.masterKeys.isEmpty(), "At least one master key is required");
+        validState(builder.currentKeyId == null || builder.masterKeys.containsKey(builder.currentKeyId), "No master key with the current key id: %s", builder.currentKeyId);
+        validState(builder.keyIdResolver != null, "A key id resolver is required");
+        validState(builder.cacheSize > 0, "Cache size must be positive");
+
+        this.algorithm = builder.algorithm;
+        this.masterKeys = new TreeMap<>(builder.masterKeys);
+        this.currentKeyId = builder.currentKeyId == null ? Collections.max(masterKeys.keySet()) : builder.currentKeyId;
+        this.keyIdResolver = builder.keyIdResolver;
+        this.salt = builder.salt;
+        this.cache = new BoundedCache<>(builder.cacheSize);
+    }
+
+    /**
+     * @return the key id that new users are enrolled with
+     */
+    public int currentKeyId() {
+        return currentKeyId;
+    }
+
+    /**
+     * Returns the secret of the given user derived with the key id given by the key id resolver.
+     *
+     * @return the secret, or empty if the user is not enrolled or there is no master key with the key id of the user
+     */
+    @Override
+    public Optional<SharedSecret> secretFor(final UserId userId) {
+        notNull(userId);
+
+        final OptionalInt keyId = keyIdResolver.apply(userId);
+        return keyId.isPresent() ? secretFor(userId, keyId.getAsInt()) : Optional.empty();
+    }
+
+    /**
+     * Returns the secret of the given user derived with the given key id, e.g. the
+     * {@link #currentKeyId() current key id} when enrolling the user again after a rotation.
+     *
+     * @return the secret, or empty if there is no master key with the key id
+     */
+    public Optional<SharedSecret> secretFor(final UserId userId, final int keyId) {
+        notNull(userId);
+
+        if (!masterKeys.containsKey(keyId)) {
+            return Optional.empty();
+        }
+        return Optional.of(cache.computeIfAbsent(new CacheKey(keyId, userId), this::derive).copy());
+    }
+
+    int cacheSize() {
+        return cache.size();
+    }
+
+    private SharedSecret derive(final CacheKey key) {
+        final byte[] secret = Hkdf.derive(algorithm, masterKeys.get(key.keyId), salt, info(key), secretLength(algorithm));
+        try {
+            return SharedSecret.from(secret, algorithm);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    /**
+     * @return the output length of the hash of the algorithm, which is the recommended length of its secrets
+     */
+    private static int secretLength(final ShaAlgorithm algorithm) {
+        switch (algorithm) {
+            case SHA1:
+                return 20;
+            case SHA256:
+                return 32;
+            case SHA512:
+                return 64;
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm: " + algorithm);
+        }
+    }
+
+    /**
+     * The info of the derivation: the prefix, a zero byte, the key id and the UTF-8 bytes of the user id.
+     */
+    private static byte[] info(final CacheKey key) {
+        final byte[] userId = key.userId.value().getBytes(UTF_8);
+        return ByteBuffer.allocate(INFO_PREFIX.length + 1 + Integer.BYTES + userId.length)
+                         .put(INFO_PREFIX)
+                         .put((byte) 0)
+                         .putInt(key.keyId)
+                         .put(userId)
+                         .array();
+    }
+
+    private static final class CacheKey {
+        private final int keyId;
+        private final UserId userId;
+
+        private CacheKey(final int keyId, final UserId userId) {
+            this.keyId = keyId;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) o;
+            return keyId == other.keyId && userId.equals(other.userId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(keyId, userId);
+        }
+    }
+}
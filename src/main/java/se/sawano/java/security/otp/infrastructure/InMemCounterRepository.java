@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import se.sawano.java.security.otp.user.UserId;
+import se.sawano.java.security.otp.user.persistence.CounterRepository;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * In-memory implementation of a {@link CounterRepository}. Each user's counter is an {@link AtomicLong}, so that
+ * verifications advance it with a single compare-and-set and without locking. Counters are never removed.
+ */
+public class InMemCounterRepository implements CounterRepository {
+
+    private final ConcurrentHashMap<UserId, AtomicLong> store = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(final long counter, final UserId userId) {
+        notNull(userId);
+        isTrue(counter >= 0, "Counter must not be negative");
+
+        counterOf(userId).set(counter);
+    }
+
+    @Override
+    public long counterFor(final UserId userId) {
+        notNull(userId);
+
+        final AtomicLong counter = store.get(userId);
+        return counter == null ? 0 : counter.get();
+    }
+
+    @Override
+    public boolean compareAndAdvance(final UserId userId, final long expected, final long next) {
+        notNull(userId);
+        isTrue(next > expected, "Next counter must be greater than the expected counter");
+
+        return counterOf(userId).compareAndSet(expected, next);
+    }
+
+    private AtomicLong counterOf(final UserId userId) {
+        final AtomicLong counter = store.get(userId);
+        return counter != null ? counter : store.computeIfAbsent(userId, ignored -> new AtomicLong());
+    }
+
+}
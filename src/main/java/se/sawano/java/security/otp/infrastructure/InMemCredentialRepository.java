@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTPConfiguration;
+import se.sawano.java.security.otp.user.Credential;
+import se.sawano.java.security.otp.user.CredentialId;
+import se.sawano.java.security.otp.user.UserId;
+import se.sawano.java.security.otp.user.persistence.CredentialRepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.stream.Collectors.toList;
+import static org.apache.commons.lang3.Validate.notNull;
+import static se.sawano.java.security.otp.user.Credential.credential;
+
+/**
+ * In-memory implementation of a {@link CredentialRepository}. This is not intended for production use.
+ * <p>
+ * The credentials of a user are kept in an immutable list that is replaced on each change, and the state of each
+ * credential is updated with a compare-and-set. Saving a credential that already exists keeps its state, so that
+ * replacing e.g. the configuration of a credential does not allow its last TOTP to be replayed. Like
+ * {@link InMemSecretRepository}, the repository keeps its own copy of each secret and hands out a new copy on every
+ * lookup.
+ * </p>
+ */
+public class InMemCredentialRepository implements CredentialRepository {
+
+    private final ConcurrentHashMap<UserId, List<Entry>> store = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(final Credential credential, final UserId userId) {
+        notNull(credential);
+        notNull(userId);
+
+        final SharedSecret secret = credential.secret().copy();
+        store.compute(userId, (id, entries) -> {
+            final List<Entry> updated = new ArrayList<>(entries == null ? Collections.emptyList() : entries);
+            final int index = indexOf(updated, credential.id());
+            final AtomicReference<State> state = index >= 0 ? updated.get(index).state : new AtomicReference<>();
+            if (credential.lastTimeStep().isPresent()) {
+                advance(state, new State(credential.drift(), credential.lastTimeStep().getAsLong()));
+            }
+
+            final Entry saved = new Entry(credential.id(), secret, credential.configuration(), state);
+            if (index >= 0) {
+                updated.set(index, saved);
+            }
+            else {
+                updated.add(saved);
+            }
+            return Collections.unmodifiableList(updated);
+        });
+    }
+
+    @Override
+    public List<Credential> credentialsFor(final UserId userId) {
+        notNull(userId);
+
+        return store.getOrDefault(userId, Collections.emptyList())
+                    .stream()
+                    .map(Entry::toCredential)
+                    .collect(toList());
+    }
+
+    @Override
+    public void deleteFor(final UserId userId, final CredentialId credentialId) {
+        notNull(userId);
+        notNull(credentialId);
+
+        store.computeIfPresent(userId, (id, entries) -> {
+            final List<Entry> updated = new ArrayList<>(entries);
+            updated.removeIf(entry -> entry.id.equals(credentialId));
+            return updated.isEmpty() ? null : Collections.unmodifiableList(updated);
+        });
+    }
+
+    @Override
+    public boolean recordUse(final UserId userId, final CredentialId credentialId, final long timeStep, final int drift) {
+        notNull(userId);
+        notNull(credentialId);
+
+        final List<Entry> entries = store.getOrDefault(userId, Collections.emptyList());
+        final int index = indexOf(entries, credentialId);
+        if (index < 0) {
+            return false;
+        }
+
+        return advance(entries.get(index).state, new State(drift, timeStep));
+    }
+
+    /**
+     * @return {@code true} if the state was replaced, {@code false} if it already was for the same or a later time step
+     */
+    private static boolean advance(final AtomicReference<State> state, final State used) {
+        State current;
+        do {
+            current = state.get();
+            if (current != null && current.lastTimeStep >= used.lastTimeStep) {
+                return false;
+            }
+        } while (!state.compareAndSet(current, used));
+        return true;
+    }
+
+    private static int indexOf(final List<Entry> entries, final CredentialId credentialId) {
+        for (int i = 0; i < entries.size(); ++i) {
+            if (entries.get(i).id.equals(credentialId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Entry {
+        private final CredentialId id;
+        private final SharedSecret secret;
+        private final TOTPConfiguration configuration;
+        private final AtomicReference<State> state;
+
+        private Entry(final CredentialId id, final SharedSecret secret, final TOTPConfiguration configuration, final AtomicReference<State> state) {
+            this.id = id;
+            this.secret = secret;
+            this.configuration = configuration;
+            this.state = state;
+        }
+
+        private Credential toCredential() {
+            final Credential credential = credential(id, secret.copy(), configuration);
+            final State current = state.get();
+            return current == null ? credential : credential.withUse(current.drift, current.lastTimeStep);
+        }
+    }
+
+    private static final class State {
+        private final int drift;
+        private final long lastTimeStep;
+
+        private State(final int drift, final long lastTimeStep) {
+            this.drift = drift;
+            this.lastTimeStep = lastTimeStep;
+        }
+    }
+
+}
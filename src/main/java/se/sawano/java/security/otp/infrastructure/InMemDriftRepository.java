@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import se.sawano.java.security.otp.user.UserId;
+import se.sawano.java.security.otp.user.persistence.DriftRepository;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * In-memory implementation of a {@link DriftRepository}. Users without drift are not stored at all, and the drift of
+ * the others is typically a few time steps, which is served from the {@link Integer} cache without allocating.
+ */
+public class InMemDriftRepository implements DriftRepository {
+
+    private final ConcurrentHashMap<UserId, Integer> store = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(final int drift, final UserId userId) {
+        notNull(userId);
+
+        if (drift == 0) {
+            store.remove(userId);
+        }
+        else {
+            store.put(userId, drift);
+        }
+    }
+
+    @Override
+    public int driftFor(final UserId userId) {
+        notNull(userId);
+
+        return store.getOrDefault(userId, 0);
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import se.sawano.java.security.otp.KeyHandle;
+import se.sawano.java.security.otp.user.UserId;
+import se.sawano.java.security.otp.user.persistence.KeyHandleRepository;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Optional.ofNullable;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * In-memory implementation of a {@link KeyHandleRepository}. This is not intended for production use.
+ */
+public class InMemKeyHandleRepository implements KeyHandleRepository {
+
+    private final ConcurrentHashMap<UserId, KeyHandle> store = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(final KeyHandle keyHandle, final UserId userId) {
+        notNull(keyHandle);
+        notNull(userId);
+
+        store.put(userId, keyHandle);
+    }
+
+    @Override
+    public Optional<KeyHandle> keyHandleFor(final UserId userId) {
+        notNull(userId);
+
+        return ofNullable(store.get(userId));
+    }
+
+    @Override
+    public void deleteFor(final UserId userId) {
+        notNull(userId);
+
+        store.remove(userId);
+    }
+
+}
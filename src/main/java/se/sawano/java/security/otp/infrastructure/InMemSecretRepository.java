@@ -16,6 +16,7 @@
 
 package se.sawano.java.security.otp.infrastructure;
 
+import se.sawano.java.security.otp.PreparedKey;
 import se.sawano.java.security.otp.SharedSecret;
 import se.sawano.java.security.otp.user.UserId;
 import se.sawano.java.security.otp.user.persistence.SecretRepository;
@@ -28,24 +29,72 @@ import static org.apache.commons.lang3.Validate.notNull;
 
 /**
  * In-memory implementation of a {@link SecretRepository}. This is not intended for production use.
+ * <p>
+ * The repository keeps its own copy of each secret and hands out a new copy on every lookup, so the read-once secrets
+ * can be looked up more than once. A {@link #sealed() sealed} repository keeps the secrets encrypted with AES-GCM under
+ * a key of this process and only decrypts a secret when it is looked up. Use {@link #preparedKeyFor(UserId)} to decrypt
+ * a sealed secret straight into a {@link PreparedKey} without a plaintext {@link SharedSecret} in between.
+ * </p>
  */
 public class InMemSecretRepository implements SecretRepository {
 
+    /**
+     * @return a repository that keeps the secrets encrypted in memory
+     */
+    public static InMemSecretRepository sealed() {
+        return new InMemSecretRepository(SecretSealer.processSealer());
+    }
+
     private final ConcurrentHashMap<UserId, SharedSecret> store = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UserId, SecretSealer.Sealed> sealedStore = new ConcurrentHashMap<>();
+    private final Optional<SecretSealer> sealer;
+
+    public InMemSecretRepository() {
+        this.sealer = Optional.empty();
+    }
+
+    InMemSecretRepository(final SecretSealer sealer) {
+        this.sealer = Optional.of(notNull(sealer));
+    }
 
     @Override
     public void save(final SharedSecret sharedSecret, final UserId userId) {
         notNull(sharedSecret);
         notNull(userId);
 
-        store.put(userId, sharedSecret);
+        if (sealer.isPresent()) {
+            sealedStore.put(userId, sealer.get().seal(sharedSecret.copy(), userId));
+        }
+        else {
+            store.put(userId, sharedSecret.copy());
+        }
     }
 
     @Override
     public Optional<SharedSecret> secretFor(final UserId userId) {
         notNull(userId);
 
-        return ofNullable(store.get(userId));
+        if (sealer.isPresent()) {
+            return ofNullable(sealedStore.get(userId)).map(sealed -> sealer.get().open(sealed, userId));
+        }
+        return ofNullable(store.get(userId)).map(SharedSecret::copy);
+    }
+
+    /**
+     * Looks up the user's secret as a key prepared for computing codes.
+     *
+     * @param userId
+     *         the user
+     *
+     * @return the prepared key, or empty if the user has no secret
+     */
+    public Optional<PreparedKey> preparedKeyFor(final UserId userId) {
+        notNull(userId);
+
+        if (sealer.isPresent()) {
+            return ofNullable(sealedStore.get(userId)).map(sealed -> sealer.get().openPrepared(sealed, userId));
+        }
+        return ofNullable(store.get(userId)).map(secret -> PreparedKey.prepare(secret.copy()));
     }
 
     @Override
@@ -53,6 +102,7 @@ public class InMemSecretRepository implements SecretRepository {
         notNull(userId);
 
         store.remove(userId);
+        sealedStore.remove(userId);
     }
 
 }
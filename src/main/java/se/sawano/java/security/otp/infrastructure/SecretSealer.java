@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import se.sawano.java.security.otp.PreparedKey;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.user.UserId;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Seals secrets with AES-GCM under a key that only lives in this process, so that the secrets are not readable in e.g.
+ * a heap dump. The user id is authenticated along with each secret, so a sealed secret cannot be moved to another user.
+ * <p>
+ * The nonces are a random prefix followed by a counter, which never repeats under the same key. Each thread reuses its
+ * own {@link Cipher} and decrypts into its own scratch buffer, which is cleared before returning.
+ * </p>
+ * <p>
+ * {@link #open(Sealed, UserId)} returns the secret as a {@link SharedSecret}, which holds a plaintext copy until it is
+ * read. {@link #openPrepared(Sealed, UserId)} initializes a {@link PreparedKey} straight from the scratch buffer
+ * instead, so the key is only held by its {@link javax.crypto.Mac} and the key specification it was initialized with.
+ * </p>
+ */
+final class SecretSealer {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int KEY_BITS = 256;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+
+    private static final ThreadLocal<Workspace> WORKSPACES = ThreadLocal.withInitial(Workspace::new);
+
+    /**
+     * @return the sealer with the key of this process
+     */
+    static SecretSealer processSealer() {
+        return ProcessSealer.INSTANCE;
+    }
+
+    private final SecretKey key;
+    private final int noncePrefix;
+    private final AtomicLong nonceCounter = new AtomicLong();
+
+    SecretSealer(final SecureRandom random) {
+        try {
+            final KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(KEY_BITS, random);
+            this.key = generator.generateKey();
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        this.noncePrefix = random.nextInt();
+    }
+
+    /**
+     * Seals the secret, which is read.
+     */
+    Sealed seal(final SharedSecret secret, final UserId userId) {
+        final ShaAlgorithm algorithm = secret.algorithm();
+        final byte[] plaintext = secret.value();
+        try {
+            final Workspace workspace = WORKSPACES.get();
+            final byte[] sealed = new byte[NONCE_LENGTH + plaintext.length + TAG_LENGTH];
+            writeNonce(sealed);
+
+            final Cipher cipher = workspace.cipher;
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, sealed, 0, NONCE_LENGTH));
+            cipher.updateAAD(userId.value().getBytes(UTF_8));
+            cipher.doFinal(plaintext, 0, plaintext.length, sealed, NONCE_LENGTH);
+            return new Sealed(sealed, algorithm);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Could not seal secret", e);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+
+    /**
+     * Opens a sealed secret.
+     *
+     * @throws IllegalStateException
+     *         if the secret was not sealed by this sealer for the given user, or has been modified
+     */
+    SharedSecret open(final Sealed sealed, final UserId userId) {
+        final byte[] scratch = decrypt(sealed, userId);
+        try {
+            return SharedSecret.from(scratch, sealed.algorithm);
+        } finally {
+            Arrays.fill(scratch, (byte) 0);
+        }
+    }
+
+    /**
+     * Opens a sealed secret straight into a prepared key.
+     *
+     * @throws IllegalStateException
+     *         if the secret was not sealed by this sealer for the given user, or has been modified
+     */
+    PreparedKey openPrepared(final Sealed sealed, final UserId userId) {
+        final byte[] scratch = decrypt(sealed, userId);
+        try {
+            return PreparedKey.prepare(scratch, 0, scratch.length, sealed.algorithm);
+        } finally {
+            Arrays.fill(scratch, (byte) 0);
+        }
+    }
+
+    /**
+     * @return the scratch buffer of this thread, holding the secret, which the caller must clear
+     */
+    private byte[] decrypt(final Sealed sealed, final UserId userId) {
+        final Workspace workspace = WORKSPACES.get();
+        final byte[] scratch = workspace.scratch(sealed.bytes.length - NONCE_LENGTH - TAG_LENGTH);
+        try {
+            final Cipher cipher = workspace.cipher;
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, sealed.bytes, 0, NONCE_LENGTH));
+            cipher.updateAAD(userId.value().getBytes(UTF_8));
+            cipher.doFinal(sealed.bytes, NONCE_LENGTH, sealed.bytes.length - NONCE_LENGTH, scratch, 0);
+            return scratch;
+        } catch (final AEADBadTagException e) {
+            Arrays.fill(scratch, (byte) 0);
+            throw new IllegalStateException("Sealed secret could not be authenticated", e);
+        } catch (final GeneralSecurityException e) {
+            Arrays.fill(scratch, (byte) 0);
+            throw new IllegalStateException("Could not open sealed secret", e);
+        }
+    }
+
+    private void writeNonce(final byte[] destination) {
+        final long counter = nonceCounter.getAndIncrement();
+        for (int i = 0; i < 4; ++i) {
+            destination[i] = (byte) (noncePrefix >>> (24 - 8 * i));
+        }
+        for (int i = 0; i < 8; ++i) {
+            destination[4 + i] = (byte) (counter >>> (56 - 8 * i));
+        }
+    }
+
+    /**
+     * A secret sealed by a {@link SecretSealer}: the nonce, the ciphertext and the tag.
+     */
+    static final class Sealed {
+        private final byte[] bytes;
+        private final ShaAlgorithm algorithm;
+
+        private Sealed(final byte[] bytes, final ShaAlgorithm algorithm) {
+            this.bytes = bytes;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public String toString() {
+            return "Sealed{" +
+                    "algorithm=" + algorithm +
+                    '}';
+        }
+    }
+
+    private static final class ProcessSealer {
+        private static final SecretSealer INSTANCE = new SecretSealer(new SecureRandom());
+    }
+
+    private static final class Workspace {
+        private final Cipher cipher;
+        private byte[] scratch = new byte[0];
+
+        Workspace() {
+            try {
+                cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Returns a buffer of exactly the given length, reusing the previous one when the length is the same, which it
+         * normally is for the secrets of one repository.
+         */
+        byte[] scratch(final int length) {
+            if (scratch.length != length) {
+                scratch = new byte[length];
+            }
+            return scratch;
+        }
+    }
+}
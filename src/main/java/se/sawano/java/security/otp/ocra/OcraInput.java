@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.ocra;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * The values of the data input of an OCRA computation. Which values are needed depends on the {@link OcraSuite}; values
+ * the suite does not use are ignored.
+ */
+public final class OcraInput {
+
+    /**
+     * Creates a builder for an input with the given challenge.
+     *
+     * @param challenge
+     *         the challenge, in the format of the suite. For mutual challenge-response this is the concatenation of the
+     *         client's and the server's challenges.
+     *
+     * @return the builder
+     */
+    public static Builder builder(final String challenge) {
+        return new Builder(challenge);
+    }
+
+    public static final class Builder {
+        private final String challenge;
+        private Long counter;
+        private byte[] passwordHash;
+        private byte[] sessionInformation;
+        private Instant time;
+
+        private Builder(final String challenge) {
+            this.challenge = challenge;
+        }
+
+        public Builder withCounter(final long counter) {
+            this.counter = counter;
+            return this;
+        }
+
+        /**
+         * @param passwordHash
+         *         the hash of the user's PIN or password, with the algorithm of the suite
+         *
+         * @return this builder
+         */
+        public Builder withPasswordHash(final byte[] passwordHash) {
+            this.passwordHash = notNull(passwordHash).clone();
+            return this;
+        }
+
+        /**
+         * @param sessionInformation
+         *         the session information, at most as long as the suite's {@code Snnn}. Shorter values are padded with
+         *         leading zeros.
+         *
+         * @return this builder
+         */
+        public Builder withSessionInformation(final byte[] sessionInformation) {
+            this.sessionInformation = notNull(sessionInformation).clone();
+            return this;
+        }
+
+        /**
+         * @param time
+         *         the time, which is converted to the time step of the suite
+         *
+         * @return this builder
+         */
+        public Builder withTime(final Instant time) {
+            this.time = time;
+            return this;
+        }
+
+        public OcraInput create() {
+            return new OcraInput(this);
+        }
+    }
+
+    private final String challenge;
+    private final OptionalLong counter;
+    private final byte[] passwordHash;
+    private final byte[] sessionInformation;
+    private final Optional<Instant> time;
+
+    private OcraInput(final Builder builder) {
+        notNull(builder.challenge, "A challenge is required");
+        isTrue(builder.counter == null || builder.counter >= 0, "Counter must not be negative");
+
+        this.challenge = builder.challenge;
+        this.counter = builder.counter == null ? OptionalLong.empty() : OptionalLong.of(builder.counter);
+        this.passwordHash = builder.passwordHash;
+        this.sessionInformation = builder.sessionInformation;
+        this.time = Optional.ofNullable(builder.time);
+    }
+
+    public String challenge() {
+        return challenge;
+    }
+
+    public OptionalLong counter() {
+        return counter;
+    }
+
+    /**
+     * @return the password hash, or {@code null}. Not copied, since it is only read when writing the data input.
+     */
+    byte[] passwordHash() {
+        return passwordHash;
+    }
+
+    /**
+     * @return the session information, or {@code null}
+     */
+    byte[] sessionInformation() {
+        return sessionInformation;
+    }
+
+    public Optional<Instant> time() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return "OcraInput{" +
+                "challenge='" + challenge + '\'' +
+                ", counter=" + counter +
+                ", passwordHash=" + (passwordHash == null ? "none" : "*****") +
+                ", time=" + time +
+                '}';
+    }
+}
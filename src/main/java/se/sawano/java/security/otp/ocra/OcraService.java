@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.ocra;
+
+import se.sawano.java.security.otp.HOTP;
+import se.sawano.java.security.otp.PreparedKey;
+import se.sawano.java.security.otp.SharedSecret;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.noNullElements;
+import static org.apache.commons.lang3.Validate.notNull;
+import static se.sawano.java.security.otp.HOTP.hotp;
+
+/**
+ * Creates and verifies OCRA responses as described in RFC 6287, e.g. for challenge-response authentication and
+ * transaction signing. The HMAC is computed with a {@link PreparedKey}, like the HOTPs and TOTPs, over a data input
+ * that is assembled in a buffer reused by each thread. The buffer is zeroed after each computation.
+ * <p>
+ * The secret must have the algorithm of the suite.
+ * </p>
+ */
+public class OcraService {
+
+    private static final ThreadLocal<Workspace> WORKSPACES = ThreadLocal.withInitial(Workspace::new);
+
+    public HOTP create(final SharedSecret secret, final OcraSuite suite, final OcraInput input) {
+        notNull(secret);
+        notNull(suite);
+        notNull(input);
+        isTrue(secret.algorithm() == suite.algorithm(), "The secret must have the algorithm of the suite: %s", suite.algorithm());
+
+        return hotp(code(PreparedKey.prepare(secret), suite, input), suite.length());
+    }
+
+    public boolean verify(final HOTP response, final SharedSecret secret, final OcraSuite suite, final OcraInput input) {
+        notNull(response);
+
+        return response.length() == suite.length() && create(secret, suite, input).equals(response);
+    }
+
+    /**
+     * Verifies a batch of responses of the same secret and suite, e.g. the queued transaction signatures of one user.
+     * The secret is prepared once for the whole batch. A response that cannot be verified, e.g. because its input lacks
+     * a value of the suite, is reported as not valid without failing the batch.
+     *
+     * @param secret
+     *         the secret to verify the responses with
+     * @param suite
+     *         the suite of the responses
+     * @param inputs
+     *         the input of each response
+     * @param responses
+     *         the responses, in the same order as the inputs
+     *
+     * @return whether each response is valid, in the order of the responses
+     */
+    public boolean[] verifyAll(final SharedSecret secret, final OcraSuite suite, final List<OcraInput> inputs, final List<HOTP> responses) {
+        notNull(secret);
+        notNull(suite);
+        noNullElements(inputs);
+        noNullElements(responses);
+        isTrue(inputs.size() == responses.size(), "There must be one input per response");
+        isTrue(secret.algorithm() == suite.algorithm(), "The secret must have the algorithm of the suite: %s", suite.algorithm());
+
+        final PreparedKey key = PreparedKey.prepare(secret);
+        final boolean[] verified = new boolean[responses.size()];
+        for (int i = 0; i < verified.length; ++i) {
+            final HOTP response = responses.get(i);
+            try {
+                verified[i] = response.length() == suite.length() && hotp(code(key, suite, inputs.get(i)), suite.length()).equals(response);
+            } catch (final IllegalArgumentException e) {
+                verified[i] = false;
+            }
+        }
+        return verified;
+    }
+
+    private static int code(final PreparedKey key, final OcraSuite suite, final OcraInput input) {
+        final byte[] message = WORKSPACES.get().message(suite.bufferLength());
+        try {
+            suite.write(input, message);
+            return key.code(message, 0, suite.messageLength(), suite.length());
+        } finally {
+            // The data input holds the challenge, the password hash and the session information
+            Arrays.fill(message, 0, suite.bufferLength(), (byte) 0);
+        }
+    }
+
+    private static final class Workspace {
+        private byte[] message = new byte[512];
+
+        byte[] message(final int length) {
+            if (message.length < length) {
+                Arrays.fill(message, (byte) 0);
+                message = new byte[length];
+            }
+            return message;
+        }
+    }
+}
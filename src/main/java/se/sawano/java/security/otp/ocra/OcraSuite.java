@@ -0,0 +1,442 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.ocra;
+
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.TOTP;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * An OCRA suite (RFC 6287 section 6), e.g. {@code OCRA-1:HOTP-SHA256-8:QN08-T1M}, parsed once into the layout of its
+ * data input. The position of each field in the message is computed when parsing, so that creating a response only
+ * copies the values of an {@link OcraInput} into place.
+ * <p>
+ * The number of digits must be between 4 and 9. Suites without truncation ({@code HOTP-SHA1-0}) or with 10 digits are
+ * not supported.
+ * </p>
+ */
+public final class OcraSuite {
+
+    /**
+     * The format of the challenge, the {@code F} of {@code QFxx}.
+     */
+    public enum ChallengeFormat {
+        /**
+         * Alphanumeric, encoded as its ASCII bytes.
+         */
+        ALPHANUMERIC('A'),
+        /**
+         * Numeric, encoded as the hex digits of the number.
+         */
+        NUMERIC('N'),
+        /**
+         * Hexadecimal, encoded as the hex digits.
+         */
+        HEX('H');
+
+        private final char code;
+
+        ChallengeFormat(final char code) {
+            this.code = code;
+        }
+
+        private static ChallengeFormat fromCode(final char code) {
+            for (final ChallengeFormat format : values()) {
+                if (format.code == code) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported challenge format: " + code);
+        }
+    }
+
+    static final int COUNTER_LENGTH = 8;
+    static final int CHALLENGE_LENGTH = 128;
+    static final int TIME_LENGTH = 8;
+    static final int DEFAULT_SESSION_INFORMATION_LENGTH = 64;
+
+    /**
+     * Room for converting a numeric challenge of up to 256 decimal digits to base 256.
+     */
+    private static final int NUMERIC_SCRATCH_LENGTH = 107;
+
+    private static final String VERSION = "OCRA-1";
+
+    /**
+     * Parses the suite.
+     *
+     * @param suite
+     *         the suite, e.g. {@code OCRA-1:HOTP-SHA1-6:QN08}
+     *
+     * @return the parsed suite
+     *
+     * @throws IllegalArgumentException
+     *         if the suite is not valid or not supported
+     */
+    public static OcraSuite parse(final String suite) {
+        notNull(suite);
+
+        return new OcraSuite(suite);
+    }
+
+    private final String value;
+    private final ShaAlgorithm algorithm;
+    private final TOTP.Length length;
+    private final boolean counter;
+    private final ChallengeFormat challengeFormat;
+    private final int challengeLength;
+    private final Optional<ShaAlgorithm> passwordAlgorithm;
+    private final int passwordLength;
+    private final int sessionInformationLength;
+    private final Optional<Duration> timeStep;
+
+    private final byte[] prefix;
+    private final int counterOffset;
+    private final int challengeOffset;
+    private final int passwordOffset;
+    private final int sessionInformationOffset;
+    private final int timeOffset;
+    private final int messageLength;
+
+    private OcraSuite(final String value) {
+        final String[] parts = value.split(":", -1);
+        isTrue(parts.length == 3, "Invalid OCRA suite: %s", value);
+        isTrue(VERSION.equals(parts[0]), "Unsupported OCRA version: %s", parts[0]);
+
+        final String[] cryptoFunction = parts[1].split("-", -1);
+        isTrue(cryptoFunction.length == 3 && "HOTP".equals(cryptoFunction[0]), "Invalid crypto function: %s", parts[1]);
+        this.value = value;
+        this.algorithm = shaAlgorithm(cryptoFunction[1]);
+        this.length = length(cryptoFunction[2]);
+
+        final String[] dataInput = parts[2].split("-", -1);
+        int i = 0;
+        this.counter = "C".equals(dataInput[i]);
+        if (counter) {
+            ++i;
+        }
+
+        isTrue(i < dataInput.length && dataInput[i].length() == 4 && dataInput[i].charAt(0) == 'Q', "Invalid challenge: %s", parts[2]);
+        this.challengeFormat = ChallengeFormat.fromCode(dataInput[i].charAt(1));
+        this.challengeLength = number(dataInput[i].substring(2), 4, 64, "challenge length");
+        ++i;
+
+        if (i < dataInput.length && dataInput[i].startsWith("P")) {
+            this.passwordAlgorithm = Optional.of(shaAlgorithm(dataInput[i].substring(1)));
+            ++i;
+        }
+        else {
+            this.passwordAlgorithm = Optional.empty();
+        }
+        this.passwordLength = passwordAlgorithm.map(OcraSuite::hashLength).orElse(0);
+
+        if (i < dataInput.length && dataInput[i].startsWith("S")) {
+            this.sessionInformationLength = dataInput[i].length() == 1 ? DEFAULT_SESSION_INFORMATION_LENGTH
+                                                                       : sessionInformationLength(dataInput[i].substring(1));
+            ++i;
+        }
+        else {
+            this.sessionInformationLength = 0;
+        }
+
+        if (i < dataInput.length && dataInput[i].startsWith("T")) {
+            this.timeStep = Optional.of(timeStep(dataInput[i].substring(1)));
+            ++i;
+        }
+        else {
+            this.timeStep = Optional.empty();
+        }
+        isTrue(i == dataInput.length, "Invalid data input: %s", parts[2]);
+
+        final byte[] suiteBytes = value.getBytes(StandardCharsets.US_ASCII);
+        this.prefix = Arrays.copyOf(suiteBytes, suiteBytes.length + 1);
+        this.counterOffset = prefix.length;
+        this.challengeOffset = counterOffset + (counter ? COUNTER_LENGTH : 0);
+        this.passwordOffset = challengeOffset + CHALLENGE_LENGTH;
+        this.sessionInformationOffset = passwordOffset + passwordLength;
+        this.timeOffset = sessionInformationOffset + sessionInformationLength;
+        this.messageLength = timeOffset + (timeStep.isPresent() ? TIME_LENGTH : 0);
+    }
+
+    private static ShaAlgorithm shaAlgorithm(final String value) {
+        switch (value) {
+            case "SHA1":
+                return ShaAlgorithm.SHA1;
+            case "SHA256":
+                return ShaAlgorithm.SHA256;
+            case "SHA512":
+                return ShaAlgorithm.SHA512;
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm: " + value);
+        }
+    }
+
+    private static int hashLength(final ShaAlgorithm algorithm) {
+        return algorithm == ShaAlgorithm.SHA1 ? 20 : algorithm == ShaAlgorithm.SHA256 ? 32 : 64;
+    }
+
+    private static TOTP.Length length(final String value) {
+        final int digits = number(value, 0, 10, "number of digits");
+        isTrue(digits >= 4 && digits <= 9, "Unsupported number of digits: %d", digits);
+        return TOTP.Length.values()[digits - 1];
+    }
+
+    private static int sessionInformationLength(final String value) {
+        isTrue(value.length() == 3, "Invalid session information length: %s", value);
+        return number(value, 1, 512, "session information length");
+    }
+
+    private static Duration timeStep(final String value) {
+        isTrue(value.length() >= 2, "Invalid time step: %s", value);
+        final String amount = value.substring(0, value.length() - 1);
+        switch (value.charAt(value.length() - 1)) {
+            case 'S':
+                return Duration.ofSeconds(number(amount, 1, 59, "time step"));
+            case 'M':
+                return Duration.ofMinutes(number(amount, 1, 59, "time step"));
+            case 'H':
+                return Duration.ofHours(number(amount, 1, 48, "time step"));
+            default:
+                throw new IllegalArgumentException("Invalid time step: " + value);
+        }
+    }
+
+    private static int number(final String value, final int min, final int max, final String name) {
+        isTrue(!value.isEmpty() && value.length() <= 3 && value.chars().allMatch(c -> c >= '0' && c <= '9'), "Invalid %s: %s", name, value);
+        final int number = Integer.parseInt(value);
+        isTrue(number >= min && number <= max, "Invalid %s: %s", name, value);
+        return number;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    /**
+     * @return the algorithm of the HMAC, which is also the algorithm of the secret
+     */
+    public ShaAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    public TOTP.Length length() {
+        return length;
+    }
+
+    /**
+     * @return {@code true} if the data input includes a counter ({@code C})
+     */
+    public boolean hasCounter() {
+        return counter;
+    }
+
+    public ChallengeFormat challengeFormat() {
+        return challengeFormat;
+    }
+
+    /**
+     * @return the length of the challenge, the {@code xx} of {@code QFxx}
+     */
+    public int challengeLength() {
+        return challengeLength;
+    }
+
+    /**
+     * @return the algorithm of the password hash ({@code PH}), if the data input includes a password
+     */
+    public Optional<ShaAlgorithm> passwordAlgorithm() {
+        return passwordAlgorithm;
+    }
+
+    /**
+     * @return the number of bytes of session information ({@code Snnn}), or {@code 0} if not included
+     */
+    public int sessionInformationLength() {
+        return sessionInformationLength;
+    }
+
+    /**
+     * @return the time step ({@code TG}), if the data input includes a timestamp
+     */
+    public Optional<Duration> timeStep() {
+        return timeStep;
+    }
+
+    /**
+     * @return the number of bytes of the data input
+     */
+    int messageLength() {
+        return messageLength;
+    }
+
+    /**
+     * @return the number of bytes needed for writing the data input, which includes room for converting a numeric
+     * challenge after the message
+     */
+    int bufferLength() {
+        return messageLength + (challengeFormat == ChallengeFormat.NUMERIC ? NUMERIC_SCRATCH_LENGTH : 0);
+    }
+
+    /**
+     * Writes the data input for the given values into the start of the buffer, which must be at least
+     * {@link #bufferLength()} bytes.
+     *
+     * @throws IllegalArgumentException
+     *         if the input lacks a value of the suite, or has a value that does not fit
+     */
+    void write(final OcraInput input, final byte[] message) {
+        System.arraycopy(prefix, 0, message, 0, prefix.length);
+        Arrays.fill(message, prefix.length, messageLength, (byte) 0);
+
+        if (counter) {
+            isTrue(input.counter().isPresent(), "The suite requires a counter");
+            writeLong(input.counter().getAsLong(), message, counterOffset);
+        }
+
+        writeChallenge(input.challenge(), message);
+
+        if (passwordLength > 0) {
+            final byte[] passwordHash = input.passwordHash();
+            isTrue(passwordHash != null && passwordHash.length == passwordLength, "The suite requires a password hash of %d bytes", passwordLength);
+            System.arraycopy(passwordHash, 0, message, passwordOffset, passwordLength);
+        }
+
+        if (sessionInformationLength > 0) {
+            final byte[] sessionInformation = input.sessionInformation();
+            isTrue(sessionInformation != null && sessionInformation.length <= sessionInformationLength,
+                   "The suite requires session information of at most %d bytes", sessionInformationLength);
+            // Right-aligned, i.e. padded with leading zeros
+            System.arraycopy(sessionInformation, 0, message, timeOffset - sessionInformation.length, sessionInformation.length);
+        }
+
+        if (timeStep.isPresent()) {
+            isTrue(input.time().isPresent(), "The suite requires a timestamp");
+            writeLong(timeSteps(input.time().get()), message, timeOffset);
+        }
+    }
+
+    private long timeSteps(final Instant time) {
+        return Math.floorDiv(time.getEpochSecond(), timeStep.get().getSeconds());
+    }
+
+    /**
+     * Writes the challenge left-aligned into its 128 bytes. Numeric challenges are converted to hexadecimal first, and
+     * an odd number of hex digits leaves the low half of the last byte zero.
+     */
+    private void writeChallenge(final String challenge, final byte[] message) {
+        switch (challengeFormat) {
+            case ALPHANUMERIC:
+                isTrue(challenge.length() <= CHALLENGE_LENGTH, "Challenge is too long");
+                for (int i = 0; i < challenge.length(); ++i) {
+                    final char c = challenge.charAt(i);
+                    isTrue(c > 0x20 && c < 0x7f, "Invalid alphanumeric challenge");
+                    message[challengeOffset + i] = (byte) c;
+                }
+                return;
+            case HEX:
+                isTrue(challenge.length() <= 2 * CHALLENGE_LENGTH, "Challenge is too long");
+                for (int i = 0; i < challenge.length(); ++i) {
+                    final int nibble = Character.digit(challenge.charAt(i), 16);
+                    isTrue(nibble >= 0, "Invalid hexadecimal challenge");
+                    writeNibble(nibble, i, message);
+                }
+                return;
+            case NUMERIC:
+                writeNumericChallenge(challenge, message);
+                return;
+            default:
+                throw new IllegalStateException("Unknown challenge format: " + challengeFormat);
+        }
+    }
+
+    /**
+     * Converts the decimal digits to base 256 in the scratch space after the message, and writes the hex digits
+     * without leading zeros.
+     */
+    private void writeNumericChallenge(final String challenge, final byte[] message) {
+        isTrue(!challenge.isEmpty() && challenge.length() <= 2 * CHALLENGE_LENGTH, "Invalid numeric challenge");
+
+        final int start = messageLength;
+        final int end = messageLength + NUMERIC_SCRATCH_LENGTH;
+        Arrays.fill(message, start, end, (byte) 0);
+        for (int i = 0; i < challenge.length(); ++i) {
+            final char c = challenge.charAt(i);
+            isTrue(c >= '0' && c <= '9', "Invalid numeric challenge");
+            int carry = c - '0';
+            for (int j = end - 1; j >= start; --j) {
+                final int product = (message[j] & 0xff) * 10 + carry;
+                message[j] = (byte) product;
+                carry = product >>> 8;
+            }
+        }
+
+        int firstNibble = 2 * start;
+        while (firstNibble < 2 * end - 1 && nibble(message, firstNibble) == 0) {
+            ++firstNibble;
+        }
+        final int nibbles = 2 * end - firstNibble;
+        isTrue(nibbles <= 2 * CHALLENGE_LENGTH, "Challenge is too long");
+        for (int i = 0; i < nibbles; ++i) {
+            writeNibble(nibble(message, firstNibble + i), i, message);
+        }
+    }
+
+    private static int nibble(final byte[] bytes, final int index) {
+        final int b = bytes[index >>> 1];
+        return (index & 1) == 0 ? (b >>> 4) & 0xf : b & 0xf;
+    }
+
+    private void writeNibble(final int nibble, final int index, final byte[] message) {
+        final int position = challengeOffset + (index >>> 1);
+        message[position] |= (byte) ((index & 1) == 0 ? nibble << 4 : nibble);
+    }
+
+    private static void writeLong(final long value, final byte[] message, final int offset) {
+        for (int i = 0; i < 8; ++i) {
+            message[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return value.equals(((OcraSuite) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
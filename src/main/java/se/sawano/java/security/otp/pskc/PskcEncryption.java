@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.pskc;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notBlank;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * A pre-shared AES key protecting the secrets of a PSKC key container, see section 6.1 of RFC 6030. Each encrypted
+ * value is the IV followed by the AES-CBC cipher text, and is authenticated with an HMAC whose key is itself
+ * encrypted in the container.
+ * <p>
+ * Keys derived from a passphrase (section 6.2) or protected by a public key (section 6.3) are not supported.
+ * </p>
+ */
+public final class PskcEncryption {
+
+    static final String HMAC_SHA1 = "http://www.w3.org/2000/09/xmldsig#hmac-sha1";
+    static final String HMAC_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#hmac-sha256";
+
+    private static final int IV_LENGTH = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Creates an encryption with the given pre-shared key.
+     *
+     * @param keyName
+     *         the name of the key, written to and matched against {@code EncryptionKey/KeyName} of the container
+     * @param key
+     *         the AES key, 16, 24 or 32 bytes
+     *
+     * @return a new encryption
+     */
+    public static PskcEncryption preSharedKey(final String keyName, final byte[] key) {
+        return new PskcEncryption(keyName, key);
+    }
+
+    private final String keyName;
+    private final byte[] key;
+    private final String algorithm;
+
+    private PskcEncryption(final String keyName, final byte[] key) {
+        notBlank(keyName);
+        notNull(key);
+        isTrue(key.length == 16 || key.length == 24 || key.length == 32, "AES key must be 16, 24 or 32 bytes");
+
+        this.keyName = keyName;
+        this.key = key.clone();
+        this.algorithm = "http://www.w3.org/2001/04/xmlenc#aes" + key.length * 8 + "-cbc";
+    }
+
+    public String keyName() {
+        return keyName;
+    }
+
+    /**
+     * @return the XML encryption algorithm URI of the key, e.g. {@code http://www.w3.org/2001/04/xmlenc#aes128-cbc}
+     */
+    String algorithm() {
+        return algorithm;
+    }
+
+    byte[] decrypt(final String algorithm, final byte[] ivAndCipherText) {
+        isTrue(this.algorithm.equals(algorithm), "Unsupported encryption method: %s", algorithm);
+        isTrue(ivAndCipherText.length > IV_LENGTH && ivAndCipherText.length % IV_LENGTH == 0, "Invalid length of encrypted value");
+        try {
+            final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(ivAndCipherText, 0, IV_LENGTH));
+            return cipher.doFinal(ivAndCipherText, IV_LENGTH, ivAndCipherText.length - IV_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Could not decrypt value", e);
+        }
+    }
+
+    byte[] encrypt(final byte[] plainText) {
+        final byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        try {
+            final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+            final byte[] result = Arrays.copyOf(iv, IV_LENGTH + cipher.getOutputSize(plainText.length));
+            cipher.doFinal(plainText, 0, plainText.length, result, IV_LENGTH);
+            return result;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not encrypt value", e);
+        }
+    }
+
+    static byte[] newMacKey() {
+        final byte[] macKey = new byte[32];
+        RANDOM.nextBytes(macKey);
+        return macKey;
+    }
+
+    static byte[] mac(final String algorithm, final byte[] macKey, final byte[] value) {
+        final String jcaName;
+        if (HMAC_SHA1.equals(algorithm)) {
+            jcaName = "HmacSHA1";
+        }
+        else if (HMAC_SHA256.equals(algorithm)) {
+            jcaName = "HmacSHA256";
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported MAC method: " + algorithm);
+        }
+        try {
+            final Mac mac = Mac.getInstance(jcaName);
+            mac.init(new SecretKeySpec(macKey, jcaName));
+            return mac.doFinal(value);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not compute MAC", e);
+        }
+    }
+
+    static void verifyMac(final String algorithm, final byte[] macKey, final byte[] value, final byte[] expectedMac) {
+        isTrue(MessageDigest.isEqual(mac(algorithm, macKey, value), expectedMac), "MAC of encrypted value does not match");
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.pskc;
+
+import se.sawano.java.security.otp.ImportReport;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPConfiguration;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.user.Credential;
+import se.sawano.java.security.otp.user.CredentialId;
+import se.sawano.java.security.otp.user.UserId;
+import se.sawano.java.security.otp.user.persistence.CounterRepository;
+import se.sawano.java.security.otp.user.persistence.CredentialRepository;
+import se.sawano.java.security.otp.user.persistence.SecretRepository;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import static java.util.Comparator.comparingLong;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+import static org.apache.commons.lang3.Validate.validState;
+
+/**
+ * Imports the keys of a PSKC (RFC 6030) container into the repositories of this library. Used when provisioning
+ * hardware tokens from the seed files of the vendor.
+ * <p>
+ * Each key is saved where its parameters are kept:
+ * </p>
+ * <ul>
+ * <li>A TOTP key is saved as a {@link Credential} with its own {@link TOTPConfiguration} if a credential repository is
+ * given. Otherwise its secret is saved in the secret repository, which is only done if its time step and start time
+ * are those of the {@link TOTPConfiguration} the secrets are verified with.</li>
+ * <li>An HOTP key is saved in the secret repository and its counter in the counter repository.</li>
+ * </ul>
+ * <p>
+ * A key that cannot be represented by the given repositories is reported as failed instead of being imported with the
+ * wrong parameters. The {@code Time} of a TOTP key must be absent or 0, i.e. the time steps are counted from the Unix
+ * epoch, since its meaning for other values depends on the vendor.
+ * </p>
+ * <p>
+ * The container is read with a {@link PskcReader} on the calling thread and the keys are saved in batches on the given
+ * executor. At most a fixed number of batches are in flight at once, so a container of any size is imported in
+ * constant memory. A key that cannot be read or saved is reported, by its {@link Position}, in the {@link ImportReport}
+ * and does not stop the import.
+ * </p>
+ */
+public final class PskcImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private Optional<SecretRepository> secretRepository = Optional.empty();
+        private Optional<CounterRepository> counterRepository = Optional.empty();
+        private Optional<CredentialRepository> credentialRepository = Optional.empty();
+        private TOTPConfiguration totpConfiguration = TOTPConfiguration.DEFAULT;
+        private Function<PskcKey, UserId> userIdMapper = PskcImporter::defaultUserIdFor;
+        private Function<PskcKey, CredentialId> credentialIdMapper = PskcImporter::defaultCredentialIdFor;
+        private Executor executor = ForkJoinPool.commonPool();
+        private int batchSize = DEFAULT_BATCH_SIZE;
+
+        private Builder() {}
+
+        /**
+         * Saves the secrets of HOTP keys, and of TOTP keys if no credential repository is given.
+         *
+         * @param secretRepository
+         *         the repository to save the secrets in
+         * @param totpConfiguration
+         *         the configuration that the TOTPs of the secrets are verified with, whose time step and start time a
+         *         TOTP key must have to be saved in the secret repository
+         *
+         * @return this builder
+         */
+        public Builder withSecretRepository(final SecretRepository secretRepository, final TOTPConfiguration totpConfiguration) {
+            this.secretRepository = Optional.of(notNull(secretRepository));
+            this.totpConfiguration = notNull(totpConfiguration);
+            return this;
+        }
+
+        /**
+         * Saves the counters of HOTP keys. Requires a secret repository for their secrets.
+         *
+         * @param counterRepository
+         *         the repository to save the counters in, a key without a counter starts at 0
+         *
+         * @return this builder
+         */
+        public Builder withCounterRepository(final CounterRepository counterRepository) {
+            this.counterRepository = Optional.of(notNull(counterRepository));
+            return this;
+        }
+
+        /**
+         * Saves each TOTP key as a credential with the time step, start time and length of the key.
+         *
+         * @param credentialRepository
+         *         the repository to save the credentials in
+         * @param credentialIdMapper
+         *         maps each key to the id of its credential, e.g. by serial number
+         *
+         * @return this builder
+         */
+        public Builder withCredentialRepository(final CredentialRepository credentialRepository,
+                                                final Function<PskcKey, CredentialId> credentialIdMapper) {
+            this.credentialRepository = Optional.of(notNull(credentialRepository));
+            this.credentialIdMapper = notNull(credentialIdMapper);
+            return this;
+        }
+
+        /**
+         * @param userIdMapper
+         *         maps each key to the user it belongs to, default is {@link #defaultUserIdFor(PskcKey)}
+         *
+         * @return this builder
+         */
+        public Builder withUserIdMapper(final Function<PskcKey, UserId> userIdMapper) {
+            this.userIdMapper = notNull(userIdMapper);
+            return this;
+        }
+
+        /**
+         * @param executor
+         *         the executor to save on, default is the common fork join pool
+         *
+         * @return this builder
+         */
+        public Builder withExecutor(final Executor executor) {
+            this.executor = notNull(executor);
+            return this;
+        }
+
+        public Builder withBatchSize(final int batchSize) {
+            isTrue(batchSize > 0, "Batch size must be positive");
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public PskcImporter create() {
+            validState(secretRepository.isPresent() || credentialRepository.isPresent(), "A secret or a credential repository is required");
+            validState(!counterRepository.isPresent() || secretRepository.isPresent(), "A counter repository requires a secret repository");
+
+            return new PskcImporter(this);
+        }
+    }
+
+    private final Optional<SecretRepository> secretRepository;
+    private final Optional<CounterRepository> counterRepository;
+    private final Optional<CredentialRepository> credentialRepository;
+    private final TOTPConfiguration totpConfiguration;
+    private final Function<PskcKey, UserId> userIdMapper;
+    private final Function<PskcKey, CredentialId> credentialIdMapper;
+    private final Executor executor;
+    private final int batchSize;
+    private final int maxBatchesInFlight;
+
+    /**
+     * Creates an importer of TOTP keys with the {@link TOTPConfiguration#DEFAULT default} time step that runs on the
+     * common fork join pool and saves each key for its user id, or for the serial number of its device if it has no
+     * user id.
+     *
+     * @param secretRepository
+     *         the repository to save the secrets in
+     */
+    public PskcImporter(final SecretRepository secretRepository) {
+        this(builder().withSecretRepository(secretRepository, TOTPConfiguration.DEFAULT));
+    }
+
+    /**
+     * Creates an importer of TOTP keys with the {@link TOTPConfiguration#DEFAULT default} time step that runs on the
+     * common fork join pool.
+     *
+     * @param secretRepository
+     *         the repository to save the secrets in
+     * @param userIdMapper
+     *         maps each key to the user it belongs to, e.g. by serial number
+     */
+    public PskcImporter(final SecretRepository secretRepository, final Function<PskcKey, UserId> userIdMapper) {
+        this(builder().withSecretRepository(secretRepository, TOTPConfiguration.DEFAULT)
+                      .withUserIdMapper(userIdMapper));
+    }
+
+    /**
+     * Creates an importer of TOTP keys with the {@link TOTPConfiguration#DEFAULT default} time step.
+     *
+     * @param secretRepository
+     *         the repository to save the secrets in
+     * @param userIdMapper
+     *         maps each key to the user it belongs to, e.g. by serial number
+     * @param executor
+     *         the executor to save on
+     * @param batchSize
+     *         the number of keys per batch
+     */
+    public PskcImporter(final SecretRepository secretRepository,
+                        final Function<PskcKey, UserId> userIdMapper,
+                        final Executor executor,
+                        final int batchSize) {
+        this(builder().withSecretRepository(secretRepository, TOTPConfiguration.DEFAULT)
+                      .withUserIdMapper(userIdMapper)
+                      .withExecutor(executor)
+                      .withBatchSize(batchSize));
+    }
+
+    private PskcImporter(final Builder builder) {
+        this.secretRepository = builder.secretRepository;
+        this.counterRepository = builder.counterRepository;
+        this.credentialRepository = builder.credentialRepository;
+        this.totpConfiguration = builder.totpConfiguration;
+        this.userIdMapper = builder.userIdMapper;
+        this.credentialIdMapper = builder.credentialIdMapper;
+        this.executor = builder.executor;
+        this.batchSize = builder.batchSize;
+        this.maxBatchesInFlight = 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Imports the keys of a container with plain text secrets. The stream is not closed.
+     *
+     * @param in
+     *         the container
+     *
+     * @return the result of the import
+     */
+    public ImportReport<Position> importFrom(final InputStream in) {
+        notNull(in);
+        return importFrom(new PskcReader(in));
+    }
+
+    /**
+     * Imports the keys of a container with encrypted secrets. The stream is not closed.
+     *
+     * @param in
+     *         the container
+     * @param encryption
+     *         the key the secrets are encrypted with
+     *
+     * @return the result of the import
+     */
+    public ImportReport<Position> importFrom(final InputStream in, final PskcEncryption encryption) {
+        notNull(in);
+        return importFrom(new PskcReader(in, encryption));
+    }
+
+    private ImportReport<Position> importFrom(final PskcReader reader) {
+        final ImportReport.Collector<Position> results = new ImportReport.Collector<>(comparingLong(Position::keyNumber));
+        final Semaphore batchesInFlight = new Semaphore(maxBatchesInFlight);
+        final List<CompletableFuture<Void>> batches = new ArrayList<>();
+
+        try (PskcReader keys = reader) {
+            long keyNumber = 0;
+            List<PskcKey> batch = new ArrayList<>(batchSize);
+            long[] keyNumbers = new long[batchSize];
+            while (true) {
+                final Optional<PskcKey> key;
+                try {
+                    key = keys.next();
+                } catch (PskcKeyException e) {
+                    results.failed(new Position(++keyNumber, e.keyId()), e);
+                    continue;
+                }
+                if (!key.isPresent()) {
+                    break;
+                }
+                keyNumbers[batch.size()] = ++keyNumber;
+                batch.add(key.get());
+                if (batch.size() == batchSize) {
+                    batches.add(submit(batch, keyNumbers, batchesInFlight, results));
+                    batch = new ArrayList<>(batchSize);
+                    keyNumbers = new long[batchSize];
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.add(submit(batch, keyNumbers, batchesInFlight, results));
+            }
+        } finally {
+            CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).join();
+        }
+        return results.report();
+    }
+
+    private CompletableFuture<Void> submit(final List<PskcKey> keys,
+                                           final long[] keyNumbers,
+                                           final Semaphore batchesInFlight,
+                                           final ImportReport.Collector<Position> results) {
+        try {
+            batchesInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a batch to complete", e);
+        }
+        return CompletableFuture.runAsync(() -> importBatch(keys, keyNumbers, results), executor)
+                                .whenComplete((r, t) -> batchesInFlight.release());
+    }
+
+    private void importBatch(final List<PskcKey> keys,
+                             final long[] keyNumbers,
+                             final ImportReport.Collector<Position> results) {
+        for (int i = 0; i < keys.size(); ++i) {
+            final PskcKey key = keys.get(i);
+            try {
+                final UserId userId = userIdMapper.apply(key);
+                notNull(userId, "No user id for key");
+                if (key.type() == PskcKey.Type.HOTP) {
+                    saveHotp(key, userId);
+                }
+                else {
+                    saveTotp(key, userId);
+                }
+                results.imported();
+            } catch (RuntimeException e) {
+                results.failed(new Position(keyNumbers[i], key.id()), e);
+            }
+        }
+    }
+
+    private void saveHotp(final PskcKey key, final UserId userId) {
+        isTrue(secretRepository.isPresent() && counterRepository.isPresent(), "HOTP keys require a secret and a counter repository");
+
+        counterRepository.get().save(key.counter().orElse(0), userId);
+        secretRepository.get().save(key.secret(), userId);
+    }
+
+    private void saveTotp(final PskcKey key, final UserId userId) {
+        final long time = key.time().orElse(0);
+        isTrue(time == 0, "Unsupported time: %d", time);
+        final TOTPConfiguration configuration = TOTPConfiguration.configuration(TOTPService.T0_UTC,
+                                                                                key.timeInterval().orElse(TOTPService.STEP_SIZE),
+                                                                                TOTP.Length.values()[key.digits() - 1]);
+
+        if (credentialRepository.isPresent()) {
+            final CredentialId credentialId = credentialIdMapper.apply(key);
+            notNull(credentialId, "No credential id for key");
+            credentialRepository.get().save(Credential.credential(credentialId, key.secret(), configuration), userId);
+            return;
+        }
+        isTrue(configuration.stepSize().equals(totpConfiguration.stepSize()), "Time step of %ss differs from the %ss of the repository",
+               configuration.stepSize().getSeconds(), totpConfiguration.stepSize().getSeconds());
+        isTrue(configuration.t0().equals(totpConfiguration.t0()), "Start time differs from that of the repository");
+        secretRepository.get().save(key.secret(), userId);
+    }
+
+    /**
+     * Maps a key to its user id, or to the serial number of its device if it has no user id.
+     *
+     * @param key
+     *         the key
+     *
+     * @return the user the key belongs to
+     */
+    public static UserId defaultUserIdFor(final PskcKey key) {
+        final String id = key.userId().orElseGet(() -> key.serialNumber().orElse(null));
+        notNull(id, "Key has neither a user id nor a serial number");
+        return UserId.userId(id);
+    }
+
+    /**
+     * Maps a key to a credential id, its serial number or else its id.
+     *
+     * @param key
+     *         the key
+     *
+     * @return the id of the credential of the key
+     */
+    public static CredentialId defaultCredentialIdFor(final PskcKey key) {
+        return CredentialId.credentialId(key.serialNumber().orElse(key.id()));
+    }
+
+    /**
+     * The position of a key in the container.
+     */
+    public static final class Position {
+        private final long keyNumber;
+        private final String keyId;
+
+        private Position(final long keyNumber, final String keyId) {
+            this.keyNumber = keyNumber;
+            this.keyId = keyId;
+        }
+
+        /**
+         * @return the position of the key in the container, starting at 1
+         */
+        public long keyNumber() {
+            return keyNumber;
+        }
+
+        public String keyId() {
+            return keyId;
+        }
+
+        @Override
+        public String toString() {
+            return "Position{" +
+                    "keyNumber=" + keyNumber +
+                    ", keyId='" + keyId + '\'' +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.pskc;
+
+import se.sawano.java.security.otp.SharedSecret;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static org.apache.commons.lang3.Validate.inclusiveBetween;
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notBlank;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * One key of a PSKC (RFC 6030) key container, together with the parameters of the key package it belongs to.
+ * <p>
+ * The secret is a {@link SharedSecret} and can therefore only be read once.
+ * </p>
+ */
+public final class PskcKey {
+
+    /**
+     * The OTP algorithms of RFC 6030 that this library supports.
+     */
+    public enum Type {
+        HOTP("urn:ietf:params:xml:ns:keyprov:pskc:hotp"),
+        TOTP("urn:ietf:params:xml:ns:keyprov:pskc:totp");
+
+        private final String uri;
+
+        Type(final String uri) {
+            this.uri = uri;
+        }
+
+        public String uri() {
+            return uri;
+        }
+
+        static Type fromUri(final String uri) {
+            for (final Type type : values()) {
+                if (type.uri.equals(uri)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported key algorithm: " + uri);
+        }
+    }
+
+    public static final int DEFAULT_DIGITS = 6;
+
+    public static Builder builder(final String id, final Type type, final SharedSecret secret) {
+        return new Builder(id, type, secret);
+    }
+
+    public static final class Builder {
+        private final String id;
+        private final Type type;
+        private final SharedSecret secret;
+        private int digits = DEFAULT_DIGITS;
+        private String issuer;
+        private String userId;
+        private String serialNumber;
+        private Long counter;
+        private Duration timeInterval;
+        private Long time;
+
+        private Builder(final String id, final Type type, final SharedSecret secret) {
+            this.id = id;
+            this.type = type;
+            this.secret = secret;
+        }
+
+        public Builder withDigits(final int digits) {
+            this.digits = digits;
+            return this;
+        }
+
+        public Builder withIssuer(final String issuer) {
+            this.issuer = issuer;
+            return this;
+        }
+
+        public Builder withUserId(final String userId) {
+            this.userId = userId;
+            return this;
+        }
+
+        public Builder withSerialNumber(final String serialNumber) {
+            this.serialNumber = serialNumber;
+            return this;
+        }
+
+        public Builder withCounter(final long counter) {
+            this.counter = counter;
+            return this;
+        }
+
+        public Builder withTimeInterval(final Duration timeInterval) {
+            this.timeInterval = timeInterval;
+            return this;
+        }
+
+        public Builder withTime(final long time) {
+            this.time = time;
+            return this;
+        }
+
+        public PskcKey create() {
+            return new PskcKey(this);
+        }
+    }
+
+    private final String id;
+    private final Type type;
+    private final SharedSecret secret;
+    private final int digits;
+    private final Optional<String> issuer;
+    private final Optional<String> userId;
+    private final Optional<String> serialNumber;
+    private final OptionalLong counter;
+    private final Optional<Duration> timeInterval;
+    private final OptionalLong time;
+
+    private PskcKey(final Builder builder) {
+        notBlank(builder.id, "A key must have an id");
+        notNull(builder.type);
+        notNull(builder.secret);
+        inclusiveBetween(1, 9, builder.digits, "Number of digits must be between 1 and 9");
+        isTrue(builder.counter == null || builder.counter >= 0, "Counter must not be negative");
+        isTrue(builder.timeInterval == null || !builder.timeInterval.isNegative() && !builder.timeInterval.isZero(), "Time interval must be positive");
+
+        this.id = builder.id;
+        this.type = builder.type;
+        this.secret = builder.secret;
+        this.digits = builder.digits;
+        this.issuer = Optional.ofNullable(builder.issuer);
+        this.userId = Optional.ofNullable(builder.userId);
+        this.serialNumber = Optional.ofNullable(builder.serialNumber);
+        this.counter = builder.counter == null ? OptionalLong.empty() : OptionalLong.of(builder.counter);
+        this.timeInterval = Optional.ofNullable(builder.timeInterval);
+        this.time = builder.time == null ? OptionalLong.empty() : OptionalLong.of(builder.time);
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    public SharedSecret secret() {
+        return secret;
+    }
+
+    /**
+     * @return the length of the OTPs, from the {@code ResponseFormat} of the key
+     */
+    public int digits() {
+        return digits;
+    }
+
+    public Optional<String> issuer() {
+        return issuer;
+    }
+
+    /**
+     * @return the user of the key, from the {@code UserId} of the key or of its device
+     */
+    public Optional<String> userId() {
+        return userId;
+    }
+
+    /**
+     * @return the serial number of the device the key belongs to
+     */
+    public Optional<String> serialNumber() {
+        return serialNumber;
+    }
+
+    public OptionalLong counter() {
+        return counter;
+    }
+
+    public Optional<Duration> timeInterval() {
+        return timeInterval;
+    }
+
+    /**
+     * @return the {@code Time} of the key, as given in the file
+     */
+    public OptionalLong time() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return "PskcKey{" +
+                "id='" + id + '\'' +
+                ", type=" + type +
+                ", secret=" + secret +
+                ", digits=" + digits +
+                ", issuer=" + issuer +
+                ", userId=" + userId +
+                ", serialNumber=" + serialNumber +
+                '}';
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.pskc;
+
+/**
+ * Thrown when a key of a PSKC container could not be read. The rest of the container can still be read.
+ */
+public class PskcKeyException extends IllegalArgumentException {
+
+    private final String keyId;
+
+    public PskcKeyException(final String keyId, final String message, final Throwable cause) {
+        super("Key '" + keyId + "': " + message, cause);
+        this.keyId = keyId;
+    }
+
+    public String keyId() {
+        return keyId;
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.pskc;
+
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+import static org.apache.commons.lang3.Validate.validState;
+
+/**
+ * Reads the keys of a PSKC (RFC 6030) key container one at a time with a streaming XML parser, so files of any size can
+ * be read in constant memory.
+ * <p>
+ * HOTP and TOTP keys are supported, with secrets either in plain text or encrypted with a pre-shared key, see
+ * {@link PskcEncryption}. The HMAC algorithm is taken from the {@code Suite} parameter of the key, e.g. {@code
+ * HMAC-SHA256}, and is SHA1 if absent. A key that cannot be read, e.g. since its MAC does not match, is skipped and
+ * reported as a {@link PskcKeyException}, after which reading can continue with the next key. A container that is not
+ * well-formed XML fails with an {@link IllegalArgumentException}.
+ * </p>
+ * <p>
+ * DTDs and external entities are not processed. A reader is not thread safe.
+ * </p>
+ */
+public final class PskcReader implements AutoCloseable {
+
+    private static final XMLInputFactory FACTORY = inputFactory();
+
+    private final XMLStreamReader xml;
+    private final Optional<PskcEncryption> encryption;
+    private String macAlgorithm;
+    private byte[] macKey;
+    private String serialNumber;
+    private String deviceUserId;
+
+    public PskcReader(final InputStream in) {
+        this(in, Optional.empty());
+    }
+
+    public PskcReader(final InputStream in, final PskcEncryption encryption) {
+        this(in, Optional.of(notNull(encryption)));
+    }
+
+    private PskcReader(final InputStream in, final Optional<PskcEncryption> encryption) {
+        notNull(in);
+        try {
+            this.xml = FACTORY.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Could not read PSKC container", e);
+        }
+        this.encryption = encryption;
+    }
+
+    /**
+     * Reads the next key.
+     *
+     * @return the next key, or empty if there are no more keys
+     *
+     * @throws PskcKeyException
+     *         if the next key could not be read, reading can continue with the key after it
+     * @throws IllegalArgumentException
+     *         if the container is invalid
+     */
+    public Optional<PskcKey> next() {
+        try {
+            while (xml.hasNext()) {
+                if (xml.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (xml.getLocalName()) {
+                    case "KeyContainer":
+                        isTrue("1.0".equals(attribute("Version")), "Unsupported PSKC version: %s", attribute("Version"));
+                        break;
+                    case "EncryptionKey":
+                        readEncryptionKey();
+                        break;
+                    case "MACMethod":
+                        macAlgorithm = attribute("Algorithm");
+                        break;
+                    case "MACKey":
+                        macKey = decrypt(readEncryptedValue("MACKey"));
+                        break;
+                    case "KeyPackage":
+                        serialNumber = null;
+                        deviceUserId = null;
+                        break;
+                    case "SerialNo":
+                        serialNumber = xml.getElementText().trim();
+                        break;
+                    case "UserId":
+                        deviceUserId = xml.getElementText().trim();
+                        break;
+                    case "Key":
+                        return Optional.of(readKey());
+                    default:
+                        break;
+                }
+            }
+            return Optional.empty();
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Invalid PSKC container", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (macKey != null) {
+            Arrays.fill(macKey, (byte) 0);
+        }
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void readEncryptionKey() throws XMLStreamException {
+        while (!isEnd("EncryptionKey")) {
+            if (xml.next() == XMLStreamConstants.START_ELEMENT && "KeyName".equals(xml.getLocalName())) {
+                final String keyName = xml.getElementText().trim();
+                validState(encryption.isPresent(), "Container is encrypted with key '%s' but no key was given", keyName);
+                isTrue(encryption.get().keyName().equals(keyName), "Container is encrypted with unknown key '%s'", keyName);
+            }
+        }
+    }
+
+    private PskcKey readKey() throws XMLStreamException {
+        final KeyFields key = new KeyFields(attribute("Id"), attribute("Algorithm"));
+        while (!isEnd("Key")) {
+            if (xml.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            switch (xml.getLocalName()) {
+                case "Issuer":
+                    key.issuer = xml.getElementText().trim();
+                    break;
+                case "Suite":
+                    key.suite = xml.getElementText().trim();
+                    break;
+                case "ResponseFormat":
+                    key.length = attribute("Length");
+                    break;
+                case "Secret":
+                    readSecret(key);
+                    break;
+                case "Counter":
+                    key.counter = plainValue("Counter");
+                    break;
+                case "Time":
+                    key.time = plainValue("Time");
+                    break;
+                case "TimeInterval":
+                    key.timeInterval = plainValue("TimeInterval");
+                    break;
+                case "UserId":
+                    key.userId = xml.getElementText().trim();
+                    break;
+                default:
+                    break;
+            }
+        }
+        try {
+            return key.create();
+        } catch (RuntimeException e) {
+            throw new PskcKeyException(key.id, e.getMessage(), e);
+        } finally {
+            key.clear();
+        }
+    }
+
+    /**
+     * Reads the secret, but leaves any failure to decrypt or verify it to when the key is created, so the rest of the
+     * key is still consumed.
+     */
+    private void readSecret(final KeyFields key) throws XMLStreamException {
+        EncryptedValue encrypted = null;
+        String plainValue = null;
+        String valueMac = null;
+        while (!isEnd("Secret")) {
+            if (xml.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            switch (xml.getLocalName()) {
+                case "PlainValue":
+                    plainValue = xml.getElementText();
+                    break;
+                case "EncryptedValue":
+                    encrypted = readEncryptedValue("EncryptedValue");
+                    break;
+                case "ValueMAC":
+                    valueMac = xml.getElementText();
+                    break;
+                default:
+                    break;
+            }
+        }
+        try {
+            if (plainValue != null) {
+                key.secret = decodeBase64(plainValue);
+            }
+            else {
+                isTrue(encrypted != null, "Key has no secret");
+                if (macAlgorithm != null) {
+                    isTrue(valueMac != null, "Encrypted secret has no MAC");
+                    validState(macKey != null, "Container has a MAC method but no MAC key");
+                    PskcEncryption.verifyMac(macAlgorithm, macKey, encrypted.value, decodeBase64(valueMac));
+                }
+                key.secret = decrypt(encrypted);
+            }
+        } catch (RuntimeException e) {
+            key.failure = e;
+        }
+    }
+
+    private EncryptedValue readEncryptedValue(final String element) throws XMLStreamException {
+        String algorithm = null;
+        byte[] value = null;
+        while (!isEnd(element)) {
+            if (xml.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if ("EncryptionMethod".equals(xml.getLocalName())) {
+                algorithm = attribute("Algorithm");
+            }
+            else if ("CipherValue".equals(xml.getLocalName())) {
+                value = decodeBase64(xml.getElementText());
+            }
+        }
+        isTrue(algorithm != null && value != null, "Incomplete encrypted value in %s", element);
+        return new EncryptedValue(algorithm, value);
+    }
+
+    private byte[] decrypt(final EncryptedValue value) {
+        validState(encryption.isPresent(), "Container has encrypted values but no key was given");
+        return encryption.get().decrypt(value.algorithm, value.value);
+    }
+
+    private String plainValue(final String element) throws XMLStreamException {
+        String value = null;
+        while (!isEnd(element)) {
+            if (xml.next() == XMLStreamConstants.START_ELEMENT && "PlainValue".equals(xml.getLocalName())) {
+                value = xml.getElementText().trim();
+            }
+        }
+        return value;
+    }
+
+    private boolean isEnd(final String element) {
+        return xml.getEventType() == XMLStreamConstants.END_ELEMENT && element.equals(xml.getLocalName());
+    }
+
+    private String attribute(final String name) {
+        return xml.getAttributeValue(null, name);
+    }
+
+    private static byte[] decodeBase64(final String value) {
+        return Base64.getMimeDecoder().decode(value.trim());
+    }
+
+    private static XMLInputFactory inputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+
+    private static final class EncryptedValue {
+        final String algorithm;
+        final byte[] value;
+
+        EncryptedValue(final String algorithm, final byte[] value) {
+            this.algorithm = algorithm;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The raw values of a key as read from the container.
+     */
+    private final class KeyFields {
+        final String id;
+        final String algorithm;
+        String issuer;
+        String suite;
+        String length;
+        String counter;
+        String time;
+        String timeInterval;
+        String userId;
+        byte[] secret;
+        RuntimeException failure;
+
+        KeyFields(final String id, final String algorithm) {
+            this.id = id;
+            this.algorithm = algorithm;
+        }
+
+        PskcKey create() {
+            if (failure != null) {
+                throw failure;
+            }
+            isTrue(secret != null, "Key has no secret");
+            final PskcKey.Builder builder = PskcKey.builder(id, PskcKey.Type.fromUri(algorithm), SharedSecret.from(secret, shaAlgorithm()))
+                                                   .withIssuer(issuer)
+                                                   .withUserId(userId != null ? userId : deviceUserId)
+                                                   .withSerialNumber(serialNumber);
+            if (length != null) {
+                builder.withDigits(Integer.parseInt(length));
+            }
+            if (counter != null) {
+                builder.withCounter(Long.parseLong(counter));
+            }
+            if (time != null) {
+                builder.withTime(Long.parseLong(time));
+            }
+            if (timeInterval != null) {
+                builder.withTimeInterval(Duration.ofSeconds(Long.parseLong(timeInterval)));
+            }
+            return builder.create();
+        }
+
+        private ShaAlgorithm shaAlgorithm() {
+            if (suite == null) {
+                return ShaAlgorithm.SHA1;
+            }
+            final String normalized = suite.toUpperCase().replace("-", "");
+            if (normalized.contains("SHA256")) {
+                return ShaAlgorithm.SHA256;
+            }
+            if (normalized.contains("SHA512")) {
+                return ShaAlgorithm.SHA512;
+            }
+            isTrue(normalized.contains("SHA1"), "Unsupported suite: %s", suite);
+            return ShaAlgorithm.SHA1;
+        }
+
+        void clear() {
+            if (secret != null) {
+                Arrays.fill(secret, (byte) 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.pskc;
+
+import se.sawano.java.security.otp.ShaAlgorithm;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+
+import static org.apache.commons.lang3.Validate.notNull;
+import static org.apache.commons.lang3.Validate.validState;
+
+/**
+ * Writes keys to a PSKC (RFC 6030) key container one at a time, so any number of keys can be written in constant
+ * memory. Each key is written in a key package of its own.
+ * <p>
+ * If a {@link PskcEncryption} is given the secrets are encrypted with it and protected by an HMAC-SHA256 MAC under a
+ * random MAC key, which is itself encrypted and written in the container header. Otherwise the secrets are written in
+ * plain text.
+ * </p>
+ * <p>
+ * The secrets of the written keys are read from copies, so the keys can still be used after they have been written.
+ * The output stream is not closed by {@link #close()}. A writer is not thread safe.
+ * </p>
+ */
+public final class PskcWriter implements AutoCloseable {
+
+    static final String PSKC_NS = "urn:ietf:params:xml:ns:keyprov:pskc";
+    static final String DS_NS = "http://www.w3.org/2000/09/xmldsig#";
+    static final String XENC_NS = "http://www.w3.org/2001/04/xmlenc#";
+
+    private static final XMLOutputFactory FACTORY = XMLOutputFactory.newInstance();
+
+    private final XMLStreamWriter xml;
+    private final Optional<PskcEncryption> encryption;
+    private final byte[] macKey;
+    private long written;
+    private boolean closed;
+
+    public PskcWriter(final OutputStream out) {
+        this(out, Optional.empty());
+    }
+
+    public PskcWriter(final OutputStream out, final PskcEncryption encryption) {
+        this(out, Optional.of(notNull(encryption)));
+    }
+
+    private PskcWriter(final OutputStream out, final Optional<PskcEncryption> encryption) {
+        notNull(out);
+        this.encryption = encryption;
+        this.macKey = encryption.isPresent() ? PskcEncryption.newMacKey() : null;
+        try {
+            this.xml = FACTORY.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+            writeHeader();
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Could not write PSKC container", e);
+        }
+    }
+
+    /**
+     * Writes a key.
+     *
+     * @param key
+     *         the key to write
+     *
+     * @return this writer
+     */
+    public PskcWriter write(final PskcKey key) {
+        notNull(key);
+        validState(!closed, "Writer is closed");
+
+        final byte[] secret = key.secret().copy().value();
+        try {
+            xml.writeStartElement(PSKC_NS, "KeyPackage");
+            if (key.serialNumber().isPresent()) {
+                xml.writeStartElement(PSKC_NS, "DeviceInfo");
+                element("SerialNo", key.serialNumber().get());
+                xml.writeEndElement();
+            }
+            xml.writeStartElement(PSKC_NS, "Key");
+            xml.writeAttribute("Id", key.id());
+            xml.writeAttribute("Algorithm", key.type().uri());
+            if (key.issuer().isPresent()) {
+                element("Issuer", key.issuer().get());
+            }
+            writeAlgorithmParameters(key);
+            writeData(key, secret);
+            if (key.userId().isPresent()) {
+                element("UserId", key.userId().get());
+            }
+            xml.writeEndElement();
+            xml.writeEndElement();
+            ++written;
+            return this;
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Could not write key " + key.id(), e);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    /**
+     * @return the number of keys written
+     */
+    public long written() {
+        return written;
+    }
+
+    /**
+     * Ends the container and flushes it to the output stream, which is left open.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (macKey != null) {
+            Arrays.fill(macKey, (byte) 0);
+        }
+        try {
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.flush();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Could not write PSKC container", e);
+        }
+    }
+
+    private void writeHeader() throws XMLStreamException {
+        xml.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+        xml.setDefaultNamespace(PSKC_NS);
+        xml.writeStartElement(PSKC_NS, "KeyContainer");
+        xml.writeDefaultNamespace(PSKC_NS);
+        xml.writeAttribute("Version", "1.0");
+        if (!encryption.isPresent()) {
+            return;
+        }
+        xml.setPrefix("ds", DS_NS);
+        xml.setPrefix("xenc", XENC_NS);
+        xml.writeNamespace("ds", DS_NS);
+        xml.writeNamespace("xenc", XENC_NS);
+
+        xml.writeStartElement(PSKC_NS, "EncryptionKey");
+        xml.writeStartElement(DS_NS, "KeyName");
+        xml.writeCharacters(encryption.get().keyName());
+        xml.writeEndElement();
+        xml.writeEndElement();
+
+        xml.writeStartElement(PSKC_NS, "MACMethod");
+        xml.writeAttribute("Algorithm", PskcEncryption.HMAC_SHA256);
+        xml.writeStartElement(PSKC_NS, "MACKey");
+        writeEncryptedValue(encryption.get().encrypt(macKey));
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+
+    private void writeAlgorithmParameters(final PskcKey key) throws XMLStreamException {
+        xml.writeStartElement(PSKC_NS, "AlgorithmParameters");
+        element("Suite", suite(key.secret().algorithm()));
+        xml.writeEmptyElement(PSKC_NS, "ResponseFormat");
+        xml.writeAttribute("Length", Integer.toString(key.digits()));
+        xml.writeAttribute("Encoding", "DECIMAL");
+        xml.writeEndElement();
+    }
+
+    private void writeData(final PskcKey key, final byte[] secret) throws XMLStreamException {
+        xml.writeStartElement(PSKC_NS, "Data");
+        xml.writeStartElement(PSKC_NS, "Secret");
+        if (encryption.isPresent()) {
+            final byte[] encrypted = encryption.get().encrypt(secret);
+            xml.writeStartElement(PSKC_NS, "EncryptedValue");
+            writeEncryptedValue(encrypted);
+            xml.writeEndElement();
+            element("ValueMAC", base64(PskcEncryption.mac(PskcEncryption.HMAC_SHA256, macKey, encrypted)));
+        }
+        else {
+            element("PlainValue", base64(secret));
+        }
+        xml.writeEndElement();
+        if (key.counter().isPresent()) {
+            plainValue("Counter", key.counter().getAsLong());
+        }
+        if (key.time().isPresent()) {
+            plainValue("Time", key.time().getAsLong());
+        }
+        if (key.timeInterval().isPresent()) {
+            plainValue("TimeInterval", key.timeInterval().get().getSeconds());
+        }
+        xml.writeEndElement();
+    }
+
+    private void writeEncryptedValue(final byte[] ivAndCipherText) throws XMLStreamException {
+        xml.writeEmptyElement(XENC_NS, "EncryptionMethod");
+        xml.writeAttribute("Algorithm", encryption.get().algorithm());
+        xml.writeStartElement(XENC_NS, "CipherData");
+        xml.writeStartElement(XENC_NS, "CipherValue");
+        xml.writeCharacters(base64(ivAndCipherText));
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+
+    private void plainValue(final String name, final long value) throws XMLStreamException {
+        xml.writeStartElement(PSKC_NS, name);
+        element("PlainValue", Long.toString(value));
+        xml.writeEndElement();
+    }
+
+    private void element(final String name, final String value) throws XMLStreamException {
+        xml.writeStartElement(PSKC_NS, name);
+        xml.writeCharacters(value);
+        xml.writeEndElement();
+    }
+
+    private static String suite(final ShaAlgorithm algorithm) {
+        switch (algorithm) {
+            case SHA256:
+                return "HMAC-SHA256";
+            case SHA512:
+                return "HMAC-SHA512";
+            default:
+                return "HMAC-SHA1";
+        }
+    }
+
+    private static String base64(final byte[] value) {
+        return Base64.getEncoder().encodeToString(value);
+    }
+}
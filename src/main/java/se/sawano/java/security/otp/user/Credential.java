@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTPConfiguration;
+
+import java.util.OptionalLong;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * One of a user's TOTP credentials, e.g. a phone or a hardware token, with its own secret, algorithm and
+ * {@link TOTPConfiguration}. Each credential also has its own state: the estimated clock drift of its device, and the
+ * last time step it was used for, which prevents the same TOTP from being accepted twice (RFC 6238 section 5.2).
+ */
+public final class Credential {
+
+    /**
+     * Creates a credential with the default configuration that has not been used yet.
+     *
+     * @param id
+     *         the id of the credential, unique for the user
+     * @param secret
+     *         the secret of the credential
+     *
+     * @return the credential
+     *
+     * @see TOTPConfiguration#DEFAULT
+     */
+    public static Credential credential(final CredentialId id, final SharedSecret secret) {
+        return credential(id, secret, TOTPConfiguration.DEFAULT);
+    }
+
+    /**
+     * Creates a credential that has not been used yet.
+     *
+     * @param id
+     *         the id of the credential, unique for the user
+     * @param secret
+     *         the secret of the credential
+     * @param configuration
+     *         the TOTP parameters of the credential
+     *
+     * @return the credential
+     */
+    public static Credential credential(final CredentialId id, final SharedSecret secret, final TOTPConfiguration configuration) {
+        return new Credential(id, secret, configuration, 0, OptionalLong.empty());
+    }
+
+    private final CredentialId id;
+    private final SharedSecret secret;
+    private final TOTPConfiguration configuration;
+    private final int drift;
+    private final OptionalLong lastTimeStep;
+
+    private Credential(final CredentialId id,
+                       final SharedSecret secret,
+                       final TOTPConfiguration configuration,
+                       final int drift,
+                       final OptionalLong lastTimeStep) {
+        notNull(id);
+        notNull(secret);
+        notNull(configuration);
+        notNull(lastTimeStep);
+
+        this.id = id;
+        this.secret = secret;
+        this.configuration = configuration;
+        this.drift = drift;
+        this.lastTimeStep = lastTimeStep;
+    }
+
+    /**
+     * Returns a copy of this credential with the state of its last use, e.g. for a repository to hand out.
+     *
+     * @param drift
+     *         the drift, in time steps, found when the credential was last used
+     * @param lastTimeStep
+     *         the time step the credential was last used for
+     *
+     * @return a copy of this credential with the given state
+     */
+    public Credential withUse(final int drift, final long lastTimeStep) {
+        isTrue(lastTimeStep >= 0, "Time step must not be negative");
+
+        return new Credential(id, secret, configuration, drift, OptionalLong.of(lastTimeStep));
+    }
+
+    public CredentialId id() {
+        return id;
+    }
+
+    public SharedSecret secret() {
+        return secret;
+    }
+
+    public TOTPConfiguration configuration() {
+        return configuration;
+    }
+
+    /**
+     * @return the estimated clock drift of the credential's device, in time steps of its configuration, at most half of
+     * the resynchronization window away from zero
+     */
+    public int drift() {
+        return drift;
+    }
+
+    /**
+     * @return the time step the credential was last used for, or empty if it has not been used
+     */
+    public OptionalLong lastTimeStep() {
+        return lastTimeStep;
+    }
+
+    @Override
+    public String toString() {
+        return "Credential{" +
+                "id=" + id +
+                ", secret=" + secret +
+                ", configuration=" + configuration +
+                ", drift=" + drift +
+                ", lastTimeStep=" + lastTimeStep +
+                '}';
+    }
+}
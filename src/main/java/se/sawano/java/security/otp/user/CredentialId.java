@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import static org.apache.commons.lang3.Validate.inclusiveBetween;
+import static org.apache.commons.lang3.Validate.notBlank;
+
+/**
+ * Identifies one of a user's credentials, e.g. {@code "phone"} or the serial number of a hardware token. Unique per
+ * user only.
+ */
+public final class CredentialId {
+
+    public static CredentialId credentialId(final String value) {
+        return new CredentialId(value);
+    }
+
+    public static final int MAX_LENGTH = 100;
+    private final String value;
+
+    private CredentialId(final String value) {
+        notBlank(value);
+        final String trimmed = value.trim();
+        inclusiveBetween(0, MAX_LENGTH, trimmed.length(), "Credential id must be at most %d characters", MAX_LENGTH);
+
+        this.value = trimmed;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialId{" +
+                "value='" + value + '\'' +
+                '}';
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final CredentialId that = (CredentialId) o;
+
+        return value.equals(that.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+}
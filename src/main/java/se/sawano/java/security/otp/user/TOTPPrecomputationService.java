@@ -0,0 +1,313 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.user.persistence.SecretRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Precomputes the TOTPs of the next time step for recently active users, so that the HMAC work does not all land at
+ * the start of each time step. Shortly before each time step boundary the TOTPs of the upcoming time step are computed
+ * on a background executor into a table keyed by time step. Time steps that have fallen out of the window are dropped
+ * as time advances.
+ * <p>
+ * Use with {@link UserTOTPService.Builder#withPrecomputation(TOTPPrecomputationService)}, which checks the table first
+ * and only falls back to computing the TOTP on a miss. Only the TOTPs themselves are kept in memory, not the secrets.
+ * </p>
+ * <p>
+ * A precomputed TOTP stays valid until its time step falls out of the window, even if the secret it was computed from
+ * is replaced or deleted. Secrets must therefore be saved and deleted through {@link #secretRepository()}, or the
+ * user must be {@link #invalidate(UserId) invalidated} whenever the secret changes.
+ * </p>
+ */
+public class TOTPPrecomputationService {
+
+    /**
+     * Default time before a time step boundary to start precomputing (2s).
+     */
+    public static final Duration DEFAULT_LEAD_TIME = Duration.ofSeconds(2);
+
+    private static final int BATCH_SIZE = 256;
+
+    private final SecretRepository secretRepository;
+    private final TOTPService totpService;
+    private final TOTP.Length length;
+    private final long activeTimeSteps;
+    private final Duration leadTime;
+    private final Executor backgroundExecutor;
+    private final ConcurrentHashMap<UserId, Long> lastActiveTimeStep = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Map<UserId, Integer>> codesByTimeStep = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final ConcurrentHashMap<UserId, Long> lastInvalidation = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Long> runningRounds = new ConcurrentLinkedQueue<>();
+    private final SecretRepository invalidatingRepository = new InvalidatingSecretRepository();
+
+    public TOTPPrecomputationService(final SecretRepository secretRepository,
+                                     final TOTPService totpService,
+                                     final TOTP.Length length,
+                                     final Duration activeFor,
+                                     final Executor backgroundExecutor) {
+        this(secretRepository, totpService, length, activeFor, DEFAULT_LEAD_TIME, backgroundExecutor);
+    }
+
+    /**
+     * Creates a precomputation service.
+     *
+     * @param secretRepository
+     *         the repository to get the secrets of the active users from
+     * @param totpService
+     *         the service used for creating the TOTPs
+     * @param length
+     *         the length of the TOTPs to precompute
+     * @param activeFor
+     *         how long a user is considered active after the last verification
+     * @param leadTime
+     *         the time before each time step boundary to start precomputing
+     * @param backgroundExecutor
+     *         the executor to compute the TOTPs on
+     */
+    public TOTPPrecomputationService(final SecretRepository secretRepository,
+                                     final TOTPService totpService,
+                                     final TOTP.Length length,
+                                     final Duration activeFor,
+                                     final Duration leadTime,
+                                     final Executor backgroundExecutor) {
+        notNull(secretRepository);
+        notNull(totpService);
+        notNull(length);
+        notNull(activeFor);
+        notNull(leadTime);
+        notNull(backgroundExecutor);
+        isTrue(leadTime.compareTo(totpService.stepSize()) < 0, "Lead time must be shorter than the time step");
+
+        this.secretRepository = secretRepository;
+        this.totpService = totpService;
+        this.length = length;
+        this.activeTimeSteps = Math.max(1, activeFor.toMillis() / totpService.stepSize().toMillis());
+        this.leadTime = leadTime;
+        this.backgroundExecutor = backgroundExecutor;
+    }
+
+    /**
+     * Marks the user as active, so that the user's TOTPs are precomputed.
+     *
+     * @param userId
+     *         the user
+     */
+    public void recordActivity(final UserId userId) {
+        notNull(userId);
+
+        lastActiveTimeStep.put(userId, totpService.currentTimeStep());
+    }
+
+    /**
+     * Drops all precomputed TOTPs of the user, e.g. because the user's secret has been replaced or deleted. The user is
+     * no longer considered active until the next verification.
+     *
+     * @param userId
+     *         the user
+     */
+    public void invalidate(final UserId userId) {
+        notNull(userId);
+
+        // Numbered so that a precomputation that started before the invalidation can tell that it read an old secret
+        lastInvalidation.merge(userId, invalidations.incrementAndGet(), Math::max);
+        lastActiveTimeStep.remove(userId);
+        codesByTimeStep.values().forEach(codes -> codes.remove(userId));
+    }
+
+    /**
+     * Returns a view of the secret repository that {@link #invalidate(UserId) invalidates} the precomputed TOTPs of a
+     * user whenever the user's secret is saved or deleted.
+     *
+     * @return the secret repository to save and delete secrets through
+     */
+    public SecretRepository secretRepository() {
+        return invalidatingRepository;
+    }
+
+    /**
+     * Looks up the TOTP in the precomputed table. The time steps of the {@link TOTPService}'s window, centered on the
+     * expected offset, are checked from the center outwards.
+     *
+     * @param totp
+     *         the TOTP to look up
+     * @param userId
+     *         the user the TOTP belongs to
+     * @param expectedOffset
+     *         the offset, in time steps from the current time step, to center the window on
+     *
+     * @return the offset of the matching time step relative to the current time step, or empty if the TOTP was not
+     * found, in which case it must be verified by computing it
+     */
+    public OptionalInt matchingOffset(final TOTP totp, final UserId userId, final int expectedOffset) {
+        notNull(totp);
+        notNull(userId);
+
+        if (totp.length() != length) {
+            return OptionalInt.empty();
+        }
+
+        final int code = Integer.parseInt(totp.value());
+        final long currentTimeStep = totpService.currentTimeStep();
+        final int windowSize = totpService.windowSize().value();
+        for (int i = 0; i < windowSize; ++i) {
+            final int offset = expectedOffset + (i % 2 == 1 ? (i + 1) / 2 : -(i / 2));
+            final Map<UserId, Integer> codes = codesByTimeStep.get(currentTimeStep + offset);
+            final Integer precomputed = codes == null ? null : codes.get(userId);
+            if (precomputed != null && precomputed == code) {
+                return OptionalInt.of(offset);
+            }
+        }
+        return OptionalInt.empty();
+    }
+
+    /**
+     * Precomputes the TOTPs of the next time step for the active users, and drops the users that are no longer active
+     * and the time steps that have fallen out of the window.
+     *
+     * @return a future that completes when all TOTPs have been computed
+     */
+    public CompletableFuture<Void> precomputeNextTimeStep() {
+        final long currentTimeStep = totpService.currentTimeStep();
+        final long nextTimeStep = currentTimeStep + 1;
+        final long round = startRound();
+
+        codesByTimeStep.keySet().removeIf(timeStep -> timeStep < currentTimeStep - totpService.windowSize().value() / 2);
+        lastActiveTimeStep.values().removeIf(timeStep -> timeStep < currentTimeStep - activeTimeSteps);
+
+        final Map<UserId, Integer> codes = codesByTimeStep.computeIfAbsent(nextTimeStep, timeStep -> new ConcurrentHashMap<>());
+        final List<CompletableFuture<Void>> batches = new ArrayList<>();
+        List<UserId> batch = new ArrayList<>(BATCH_SIZE);
+        for (final UserId userId : lastActiveTimeStep.keySet()) {
+            batch.add(userId);
+            if (batch.size() == BATCH_SIZE) {
+                batches.add(precompute(batch, nextTimeStep, codes, round));
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(precompute(batch, nextTimeStep, codes, round));
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0]))
+                                .whenComplete((r, t) -> runningRounds.remove(round));
+    }
+
+    /**
+     * Registers a precomputation round and forgets the invalidations that no running round can have missed.
+     *
+     * @return the number of invalidations before the round started
+     */
+    private synchronized long startRound() {
+        final long round = invalidations.get();
+        runningRounds.add(round);
+        final long oldestRound = runningRounds.stream().mapToLong(Long::longValue).min().orElse(round);
+        lastInvalidation.values().removeIf(invalidation -> invalidation <= oldestRound);
+        return round;
+    }
+
+    private CompletableFuture<Void> precompute(final List<UserId> userIds, final long timeStep, final Map<UserId, Integer> codes, final long round) {
+        return CompletableFuture.runAsync(() -> userIds.forEach(userId -> precompute(userId, timeStep, codes, round)), backgroundExecutor);
+    }
+
+    private void precompute(final UserId userId, final long timeStep, final Map<UserId, Integer> codes, final long round) {
+        secretRepository.secretFor(userId)
+                        .map(secret -> totpService.create(secret, length, timeStep))
+                        .ifPresent(totp -> publish(userId, Integer.parseInt(totp.value()), codes, round));
+    }
+
+    /**
+     * Publishes a TOTP unless the user has been invalidated since the round started, in which case it may have been
+     * computed from a replaced secret. The TOTP is published before the check, so an invalidation that is not seen here
+     * runs later and drops the TOTP itself.
+     */
+    private void publish(final UserId userId, final Integer code, final Map<UserId, Integer> codes, final long round) {
+        codes.put(userId, code);
+        final Long invalidation = lastInvalidation.get(userId);
+        if (invalidation != null && invalidation > round) {
+            codes.remove(userId, code);
+        }
+    }
+
+    /**
+     * Schedules the precomputation to run the lead time before each time step boundary.
+     *
+     * @param scheduler
+     *         the scheduler that triggers the precomputation, the TOTPs are computed on the background executor
+     *
+     * @return the scheduled task, which can be used to stop the precomputation
+     */
+    public ScheduledFuture<?> schedule(final ScheduledExecutorService scheduler) {
+        notNull(scheduler);
+
+        final long stepMillis = totpService.stepSize().toMillis();
+        final long nextBoundary = totpService.startOf(totpService.currentTimeStep() + 1).toEpochMilli();
+        final long now = totpService.clock().now().toEpochMilli();
+        final long initialDelay = Math.floorMod(nextBoundary - leadTime.toMillis() - now, stepMillis);
+
+        return scheduler.scheduleAtFixedRate(this::precomputeNextTimeStep, initialDelay, stepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of users currently considered active.
+     *
+     * @return the number of active users
+     */
+    public int numberOfActiveUsers() {
+        return lastActiveTimeStep.size();
+    }
+
+    private final class InvalidatingSecretRepository implements SecretRepository {
+
+        @Override
+        public void save(final SharedSecret sharedSecret, final UserId userId) {
+            secretRepository.save(sharedSecret, userId);
+            invalidate(userId);
+        }
+
+        @Override
+        public Optional<SharedSecret> secretFor(final UserId userId) {
+            return secretRepository.secretFor(userId);
+        }
+
+        @Override
+        public void deleteFor(final UserId userId) {
+            secretRepository.deleteFor(userId);
+            invalidate(userId);
+        }
+    }
+}
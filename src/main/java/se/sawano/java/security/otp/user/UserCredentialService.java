@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import se.sawano.java.security.otp.PreparedKey;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.WindowSize;
+import se.sawano.java.security.otp.user.persistence.CredentialRepository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.util.stream.Collectors.toList;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Verifies TOTPs against all credentials of a user, e.g. a phone and a backup hardware token. Each credential is
+ * checked in the time steps of its own {@link se.sawano.java.security.otp.TOTPConfiguration}, and only if the TOTP has
+ * the length of that configuration. The window of each credential is centered on that credential's drift, with the
+ * resynchronization window as fallback, and each credential is checked with a {@link PreparedKey}. The window sizes and
+ * the clock are those of the {@link TOTPService}. Users with {@link #CONCURRENT_THRESHOLD} or more credentials have
+ * their credentials checked concurrently on the compute executor.
+ * <p>
+ * A TOTP is accepted for a credential only for a later time step than the one the credential was last used for, and
+ * the matching credential is reported so that e.g. the use of a backup token can be audited.
+ * </p>
+ */
+public class UserCredentialService {
+
+    /**
+     * Smallest number of credentials that are checked concurrently (3). Fewer credentials are checked faster on the
+     * calling thread.
+     */
+    public static final int CONCURRENT_THRESHOLD = 3;
+
+    private final CredentialRepository credentialRepository;
+    private final TOTPService totpService;
+    private final WindowSize resynchronizationWindowSize;
+    private final Executor computeExecutor;
+
+    public UserCredentialService(final CredentialRepository credentialRepository,
+                                 final TOTPService totpService,
+                                 final WindowSize resynchronizationWindowSize) {
+        this(credentialRepository, totpService, resynchronizationWindowSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a service.
+     *
+     * @param credentialRepository
+     *         the repository of the users' credentials
+     * @param totpService
+     *         the service used for verifying TOTPs
+     * @param resynchronizationWindowSize
+     *         the window to check around the current time step when the TOTP does not match around the drift of a
+     *         credential
+     * @param computeExecutor
+     *         the executor to check the credentials of users with many credentials on
+     */
+    public UserCredentialService(final CredentialRepository credentialRepository,
+                                 final TOTPService totpService,
+                                 final WindowSize resynchronizationWindowSize,
+                                 final Executor computeExecutor) {
+        notNull(credentialRepository);
+        notNull(totpService);
+        notNull(resynchronizationWindowSize);
+        notNull(computeExecutor);
+
+        this.credentialRepository = credentialRepository;
+        this.totpService = totpService;
+        this.resynchronizationWindowSize = resynchronizationWindowSize;
+        this.computeExecutor = computeExecutor;
+    }
+
+    /**
+     * Verifies the TOTP against the user's credentials. If several credentials match, the first one in the order of
+     * the repository is used.
+     *
+     * @param totp
+     *         the TOTP to verify
+     * @param userId
+     *         the user the TOTP belongs to
+     *
+     * @return the id of the credential that the TOTP was valid for, or empty if it was not valid for any credential
+     */
+    public Optional<CredentialId> verify(final TOTP totp, final UserId userId) {
+        notNull(totp);
+        notNull(userId);
+
+        final List<Credential> credentials = credentialRepository.credentialsFor(userId)
+                                                                  .stream()
+                                                                  .filter(credential -> credential.configuration().length() == totp.length())
+                                                                  .collect(toList());
+        final Instant now = totpService.clock().now();
+
+        final List<Match> matches = credentials.size() < CONCURRENT_THRESHOLD
+                                    ? matchSequentially(totp, credentials, now)
+                                    : matchConcurrently(totp, credentials, now);
+
+        for (final Match match : matches) {
+            if (match != null && credentialRepository.recordUse(userId, match.credentialId, match.timeStep, match.drift)) {
+                return Optional.of(match.credentialId);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private List<Match> matchSequentially(final TOTP totp, final List<Credential> credentials, final Instant now) {
+        final List<Match> matches = new ArrayList<>(credentials.size());
+        for (final Credential credential : credentials) {
+            matches.add(match(totp, credential, now));
+        }
+        return matches;
+    }
+
+    private List<Match> matchConcurrently(final TOTP totp, final List<Credential> credentials, final Instant now) {
+        final List<CompletableFuture<Match>> futures = new ArrayList<>(credentials.size());
+        for (final Credential credential : credentials) {
+            futures.add(CompletableFuture.supplyAsync(() -> match(totp, credential, now), computeExecutor));
+        }
+
+        final List<Match> matches = new ArrayList<>(futures.size());
+        for (final CompletableFuture<Match> future : futures) {
+            matches.add(future.join());
+        }
+        return matches;
+    }
+
+    /**
+     * @return the match, or {@code null} if the TOTP is not valid for the credential or has already been used
+     */
+    private Match match(final TOTP totp, final Credential credential, final Instant now) {
+        final long timeStep = credential.configuration().timeStep(now);
+        final PreparedKey key = PreparedKey.prepare(credential.secret());
+        final OptionalInt offset = totpService.matchingOffset(totp, key, timeStep, credential.drift(), resynchronizationWindowSize);
+        if (!offset.isPresent()) {
+            return null;
+        }
+
+        final long matchingTimeStep = timeStep + offset.getAsInt();
+        final boolean isReplayed = credential.lastTimeStep().isPresent() && credential.lastTimeStep().getAsLong() >= matchingTimeStep;
+        // The drift is limited to the resynchronization window, see UserTOTPService
+        return isReplayed ? null : new Match(credential.id(), matchingTimeStep, resynchronizationWindowSize.clamp(offset.getAsInt()));
+    }
+
+    private static final class Match {
+        private final CredentialId credentialId;
+        private final long timeStep;
+        private final int drift;
+
+        private Match(final CredentialId credentialId, final long timeStep, final int drift) {
+            this.credentialId = credentialId;
+            this.timeStep = timeStep;
+            this.drift = drift;
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import se.sawano.java.security.otp.HOTP;
+import se.sawano.java.security.otp.HOTPCodeIndex;
+import se.sawano.java.security.otp.HOTPService;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.user.persistence.CounterRepository;
+import se.sawano.java.security.otp.user.persistence.SecretRepository;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+import static org.apache.commons.lang3.Validate.validState;
+
+/**
+ * Verifies the HOTPs of users, keeping track of each user's counter. A successful verification advances the counter
+ * past the matching counter in one compare-and-advance, which also resynchronizes the counter when the HOTP matched in
+ * the look-ahead window. An HOTP is therefore accepted at most once, and of two concurrent verifications of the same
+ * HOTP only one succeeds.
+ */
+public class UserHOTPService {
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builder for a {@link UserHOTPService}. A secret repository, a counter repository and an HOTP service are
+     * required.
+     */
+    public static final class Builder {
+
+        private SecretRepository secretRepository;
+        private CounterRepository counterRepository;
+        private HOTPService hotpService;
+        private TOTP.Length codeIndexLength;
+        private int codeIndexSize;
+
+        private Builder() {}
+
+        public Builder withSecretRepository(final SecretRepository secretRepository) {
+            this.secretRepository = secretRepository;
+            return this;
+        }
+
+        public Builder withCounterRepository(final CounterRepository counterRepository) {
+            this.counterRepository = counterRepository;
+            return this;
+        }
+
+        public Builder withHotpService(final HOTPService hotpService) {
+            this.hotpService = hotpService;
+            return this;
+        }
+
+        /**
+         * Keeps an {@link HOTPCodeIndex} of the look-ahead window of each verified user, so that verifications are a
+         * binary search instead of one HMAC per counter in the window. Only the codes of the counters that enter the
+         * window as the counter advances are computed, and the secret repository is only called the first time a user
+         * is verified. This is intended for look-ahead windows of tens to hundreds of counters.
+         * <p>
+         * All indexes are of the given length, and HOTPs of any other length are rejected without being computed. At
+         * most the given number of users are indexed, and the least recently verified user is dropped beyond that. The
+         * index of a user must be discarded with {@link #invalidate(UserId)} when the user's secret is replaced or
+         * deleted.
+         * </p>
+         *
+         * @param length
+         *         the length of the users' HOTPs
+         * @param maximumSize
+         *         the maximum number of users to keep an index for
+         *
+         * @return this builder
+         */
+        public Builder withCodeIndex(final TOTP.Length length, final int maximumSize) {
+            notNull(length);
+            isTrue(maximumSize > 0, "Maximum size must be positive");
+
+            this.codeIndexLength = length;
+            this.codeIndexSize = maximumSize;
+            return this;
+        }
+
+        public UserHOTPService create() {
+            validState(secretRepository != null, "A secret repository is required");
+            validState(counterRepository != null, "A counter repository is required");
+            validState(hotpService != null, "An HOTP service is required");
+
+            return new UserHOTPService(this);
+        }
+    }
+
+    private final SecretRepository secretRepository;
+    private final CounterRepository counterRepository;
+    private final HOTPService hotpService;
+    private final Optional<Map<UserId, HOTPCodeIndex>> codeIndexes;
+    private final TOTP.Length codeIndexLength;
+
+    public UserHOTPService(final SecretRepository secretRepository,
+                           final CounterRepository counterRepository,
+                           final HOTPService hotpService) {
+        this(builder().withSecretRepository(secretRepository)
+                      .withCounterRepository(counterRepository)
+                      .withHotpService(hotpService));
+    }
+
+    private UserHOTPService(final Builder builder) {
+        notNull(builder.secretRepository);
+        notNull(builder.counterRepository);
+        notNull(builder.hotpService);
+
+        this.secretRepository = builder.secretRepository;
+        this.counterRepository = builder.counterRepository;
+        this.hotpService = builder.hotpService;
+        this.codeIndexes = builder.codeIndexLength != null ? Optional.of(lruMap(builder.codeIndexSize)) : Optional.empty();
+        this.codeIndexLength = builder.codeIndexLength;
+    }
+
+    private static <K, V> Map<K, V> lruMap(final int maximumSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+                return size() > maximumSize;
+            }
+        });
+    }
+
+    public boolean verify(final HOTP hotp, final UserId userId) {
+        notNull(hotp);
+        notNull(userId);
+
+        final long counter = counterRepository.counterFor(userId);
+        final OptionalLong matchingCounter = matchingCounter(hotp, userId, counter);
+
+        return matchingCounter.isPresent() && matchingCounter.getAsLong() < Long.MAX_VALUE &&
+                counterRepository.compareAndAdvance(userId, counter, matchingCounter.getAsLong() + 1);
+    }
+
+    /**
+     * Discards the code index of the user, if any. This must be called when the user's secret is replaced or deleted
+     * if the service was built {@link Builder#withCodeIndex(TOTP.Length, int) with a code index}.
+     *
+     * @param userId
+     *         the user
+     */
+    public void invalidate(final UserId userId) {
+        notNull(userId);
+
+        codeIndexes.ifPresent(indexes -> indexes.remove(userId));
+    }
+
+    private OptionalLong matchingCounter(final HOTP hotp, final UserId userId, final long counter) {
+        if (!codeIndexes.isPresent()) {
+            return secretRepository.secretFor(userId)
+                                   .map(secret -> hotpService.matchingCounter(hotp, secret, counter))
+                                   .orElse(OptionalLong.empty());
+        }
+
+        if (hotp.length() != codeIndexLength) {
+            return OptionalLong.empty();
+        }
+
+        final Map<UserId, HOTPCodeIndex> indexes = codeIndexes.get();
+        final HOTPCodeIndex index = indexes.get(userId);
+        if (index != null) {
+            return index.matchingCounter(hotp, counter);
+        }
+
+        return secretRepository.secretFor(userId)
+                               .map(secret -> hotpService.index(secret, codeIndexLength, counter))
+                               .map(created -> {
+                                   indexes.put(userId, created);
+                                   return created.matchingCounter(hotp, counter);
+                               })
+                               .orElse(OptionalLong.empty());
+    }
+
+}
@@ -16,28 +16,244 @@
 
 package se.sawano.java.security.otp.user;
 
+import se.sawano.java.security.otp.KeyHandle;
+import se.sawano.java.security.otp.KeyVault;
+import se.sawano.java.security.otp.SharedSecret;
 import se.sawano.java.security.otp.TOTP;
 import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.WindowSize;
+import se.sawano.java.security.otp.user.persistence.AsyncSecretRepository;
+import se.sawano.java.security.otp.user.persistence.AsyncTOTPRegistry;
+import se.sawano.java.security.otp.user.persistence.DriftRepository;
+import se.sawano.java.security.otp.user.persistence.KeyHandleRepository;
 import se.sawano.java.security.otp.user.persistence.SecretRepository;
+import se.sawano.java.security.otp.user.persistence.SecretSource;
 import se.sawano.java.security.otp.user.persistence.TOTPRegistry;
 
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.apache.commons.lang3.Validate.notNull;
+import static org.apache.commons.lang3.Validate.validState;
 
 // TODO javadoc
 public class UserTOTPService {
 
-    private final SecretRepository secretRepository;
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builder for a {@link UserTOTPService} with optional features, such as drift tracking or precomputation. A secret
+     * repository, a read-only secret source or a key vault, a TOTP service and a TOTP registry are required. The
+     * repository and registry may be either blocking or asynchronous.
+     */
+    public static final class Builder {
+
+        private SecretSource secretSource;
+        private Function<UserId, CompletableFuture<Optional<SharedSecret>>> asyncSecretLookup;
+        private TOTPService totpService;
+        private TOTPRegistry totpRegistry;
+        private AsyncTOTPRegistry asyncTotpRegistry;
+        private Executor computeExecutor = ForkJoinPool.commonPool();
+        private DriftRepository driftRepository;
+        private WindowSize resynchronizationWindowSize;
+        private TOTPPrecomputationService precomputation;
+        private KeyVault keyVault;
+        private KeyHandleRepository keyHandleRepository;
+
+        private Builder() {}
+
+        public Builder withSecretRepository(final SecretRepository secretRepository) {
+            return withSecretSource(secretRepository);
+        }
+
+        public Builder withSecretRepository(final AsyncSecretRepository secretRepository) {
+            notNull(secretRepository);
+
+            this.secretSource = AsyncSecretRepository.toBlocking(secretRepository);
+            this.asyncSecretLookup = secretRepository::secretFor;
+            return this;
+        }
+
+        /**
+         * Gets the secrets from a source that is only read from, e.g. one that derives the secrets instead of storing
+         * them.
+         *
+         * @param secretSource
+         *         the source of the users' secrets
+         *
+         * @return this builder
+         */
+        public Builder withSecretSource(final SecretSource secretSource) {
+            notNull(secretSource);
+
+            this.secretSource = secretSource;
+            this.asyncSecretLookup = userId -> CompletableFuture.supplyAsync(() -> secretSource.secretFor(userId), Runnable::run);
+            return this;
+        }
+
+        public Builder withTotpService(final TOTPService totpService) {
+            this.totpService = notNull(totpService);
+            return this;
+        }
+
+        public Builder withTotpRegistry(final TOTPRegistry totpRegistry) {
+            this.totpRegistry = notNull(totpRegistry);
+            this.asyncTotpRegistry = AsyncTOTPRegistry.fromBlocking(totpRegistry, Runnable::run);
+            return this;
+        }
+
+        public Builder withTotpRegistry(final AsyncTOTPRegistry totpRegistry) {
+            notNull(totpRegistry);
+
+            this.totpRegistry = AsyncTOTPRegistry.toBlocking(totpRegistry);
+            this.asyncTotpRegistry = totpRegistry;
+            return this;
+        }
+
+        /**
+         * Sets the executor that the TOTP computations of {@link #verifyAsync(TOTP, UserId)} run on. This should be a
+         * bounded pool separate from the threads completing the repository futures. Default is the common fork-join
+         * pool.
+         *
+         * @param computeExecutor
+         *         the executor to compute TOTPs on
+         *
+         * @return this builder
+         */
+        public Builder withComputeExecutor(final Executor computeExecutor) {
+            this.computeExecutor = notNull(computeExecutor);
+            return this;
+        }
+
+        /**
+         * Tracks the clock drift of each user's device. The window of the {@link TOTPService} is centered on the user's
+         * estimated drift, which allows for a small window for most users. If the TOTP does not match there, the
+         * resynchronization window centered on the current time step is checked and the drift is updated on success.
+         * The drift repository is called on the compute executor by {@link #verifyAsync(TOTP, UserId)} and is
+         * expected to be fast, e.g. in-memory.
+         *
+         * @param driftRepository
+         *         the repository of estimated drifts
+         * @param resynchronizationWindowSize
+         *         the window to check around the current time step when the TOTP does not match around the drift
+         *
+         * @return this builder
+         */
+        public Builder withDriftTracking(final DriftRepository driftRepository, final WindowSize resynchronizationWindowSize) {
+            this.driftRepository = notNull(driftRepository);
+            this.resynchronizationWindowSize = notNull(resynchronizationWindowSize);
+            return this;
+        }
+
+        /**
+         * Checks the TOTPs precomputed by the given service before falling back to computing them. Each verification
+         * marks the user as active in the precomputation service. Secrets must be changed through
+         * {@link TOTPPrecomputationService#secretRepository()} so that TOTPs of replaced secrets are not accepted.
+         *
+         * @param precomputation
+         *         the precomputation service
+         *
+         * @return this builder
+         */
+        public Builder withPrecomputation(final TOTPPrecomputationService precomputation) {
+            this.precomputation = notNull(precomputation);
+            return this;
+        }
+
+        /**
+         * Verifies the TOTPs with secrets kept in a {@link KeyVault} instead of those of a secret repository, so that
+         * the secrets never enter this process. The vault is called on the compute executor by
+         * {@link #verifyAsync(TOTP, UserId)}. A key vault cannot be combined with a secret repository or with
+         * precomputation, which both need the secrets in this process.
+         *
+         * @param keyVault
+         *         the vault that computes the codes
+         * @param keyHandleRepository
+         *         the repository of the handles of the users' secrets in the vault
+         *
+         * @return this builder
+         */
+        public Builder withKeyVault(final KeyVault keyVault, final KeyHandleRepository keyHandleRepository) {
+            this.keyVault = notNull(keyVault);
+            this.keyHandleRepository = notNull(keyHandleRepository);
+            return this;
+        }
+
+        public UserTOTPService create() {
+            validState(secretSource != null || keyVault != null, "A secret source or a key vault is required");
+            validState(secretSource == null || keyVault == null, "A key vault cannot be combined with a secret source");
+            validState(precomputation == null || keyVault == null, "A key vault cannot be combined with precomputation");
+            validState(totpService != null, "A TOTP service is required");
+            validState(totpRegistry != null, "A TOTP registry is required");
+
+            return new UserTOTPService(this);
+        }
+    }
+
+    private final SecretSource secretSource;
     private final TOTPService totpService;
     private final TOTPRegistry totpRegistry;
+    private final Function<UserId, CompletableFuture<Optional<SharedSecret>>> asyncSecretLookup;
+    private final AsyncTOTPRegistry asyncTotpRegistry;
+    private final Executor computeExecutor;
+    private final Optional<DriftRepository> driftRepository;
+    private final WindowSize resynchronizationWindowSize;
+    private final Optional<TOTPPrecomputationService> precomputation;
+    private final Optional<KeyVault> keyVault;
+    private final KeyHandleRepository keyHandleRepository;
 
     public UserTOTPService(final SecretRepository secretRepository, final TOTPService totpService, final TOTPRegistry totpRegistry) {
-        notNull(secretRepository);
-        notNull(totpService);
-        notNull(totpRegistry);
+        this(builder().withSecretRepository(secretRepository)
+                      .withTotpService(totpService)
+                      .withTotpRegistry(totpRegistry));
+    }
 
-        this.secretRepository = secretRepository;
-        this.totpService = totpService;
-        this.totpRegistry = totpRegistry;
+    /**
+     * Creates a service backed by non-blocking persistence. The TOTP computations are run on the given compute
+     * executor, which should be a bounded pool separate from the threads completing the repository futures.
+     *
+     * @param secretRepository
+     *         the secret repository
+     * @param totpService
+     *         the service used for verifying TOTPs
+     * @param totpRegistry
+     *         the registry of consumed TOTPs
+     * @param computeExecutor
+     *         the executor to compute TOTPs on
+     */
+    public UserTOTPService(final AsyncSecretRepository secretRepository,
+                           final TOTPService totpService,
+                           final AsyncTOTPRegistry totpRegistry,
+                           final Executor computeExecutor) {
+        this(builder().withSecretRepository(secretRepository)
+                      .withTotpService(totpService)
+                      .withTotpRegistry(totpRegistry)
+                      .withComputeExecutor(computeExecutor));
+    }
+
+    private UserTOTPService(final Builder builder) {
+        notNull(builder.totpService);
+        notNull(builder.totpRegistry);
+        notNull(builder.computeExecutor);
+
+        this.secretSource = builder.secretSource;
+        this.totpService = builder.totpService;
+        this.totpRegistry = builder.totpRegistry;
+        this.asyncSecretLookup = builder.asyncSecretLookup;
+        this.asyncTotpRegistry = builder.asyncTotpRegistry;
+        this.computeExecutor = builder.computeExecutor;
+        this.driftRepository = Optional.ofNullable(builder.driftRepository);
+        this.resynchronizationWindowSize = builder.resynchronizationWindowSize;
+        this.precomputation = Optional.ofNullable(builder.precomputation);
+        this.keyVault = Optional.ofNullable(builder.keyVault);
+        this.keyHandleRepository = builder.keyHandleRepository;
     }
 
     public TOTP create(UserId userId, TOTP.Length length) {
@@ -54,17 +270,118 @@ public class UserTOTPService {
             return false;
         }
 
-        final Boolean isOk = secretRepository.secretFor(userId)
-                                             .map(secret -> totpService.verify(totp, secret))
-                                             .orElse(false);
+        final boolean isOk = isPrecomputed(totp, userId) ||
+                (keyVault.isPresent() ? verifyInVault(totp, userId) : verifyWithSecret(totp, userId));
         if (isOk) {
             totpRegistry.markConsumed(totp, userId);
         }
 
-        // TODO resynchronization may take place here
         return isOk;
     }
 
+    /**
+     * Non-blocking variant of {@link #verify(TOTP, UserId)}. The repository and registry calls complete on their own
+     * threads while the TOTP computation is handed over to the compute executor.
+     *
+     * @param totp
+     *         the TOTP to verify
+     * @param userId
+     *         the user the TOTP belongs to
+     *
+     * @return a future completed with {@code true} if the TOTP was valid and has now been marked as consumed
+     */
+    public CompletableFuture<Boolean> verifyAsync(final TOTP totp, final UserId userId) {
+        notNull(totp);
+        notNull(userId);
+
+        return asyncTotpRegistry.isConsumed(totp, userId)
+                                .thenCompose(isConsumed -> isConsumed ? completedFuture(false) : verifyNotConsumedAsync(totp, userId))
+                                .thenCompose(isOk -> isOk ? markConsumedAsync(totp, userId) : completedFuture(false));
+    }
+
+    private CompletableFuture<Boolean> verifyNotConsumedAsync(final TOTP totp, final UserId userId) {
+        if (isPrecomputed(totp, userId)) {
+            return completedFuture(true);
+        }
+        if (keyVault.isPresent()) {
+            return CompletableFuture.supplyAsync(() -> verifyInVault(totp, userId), computeExecutor);
+        }
+        return asyncSecretLookup.apply(userId)
+                                .thenApplyAsync(secret -> secret.map(s -> verify(totp, s, userId))
+                                                                .orElse(false), computeExecutor);
+    }
+
+    private CompletableFuture<Boolean> markConsumedAsync(final TOTP totp, final UserId userId) {
+        return asyncTotpRegistry.markConsumed(totp, userId)
+                                .thenApply(ignored -> true);
+    }
+
+    private boolean isPrecomputed(final TOTP totp, final UserId userId) {
+        if (!precomputation.isPresent()) {
+            return false;
+        }
+
+        final TOTPPrecomputationService precomputed = precomputation.get();
+        precomputed.recordActivity(userId);
+        final int drift = drift(userId);
+        final OptionalInt offset = precomputed.matchingOffset(totp, userId, drift);
+        offset.ifPresent(o -> updateDrift(drift, o, userId));
+        return offset.isPresent();
+    }
+
+    private boolean verifyWithSecret(final TOTP totp, final UserId userId) {
+        return secretSource.secretFor(userId)
+                               .map(secret -> verify(totp, secret, userId))
+                               .orElse(false);
+    }
+
+    private boolean verifyInVault(final TOTP totp, final UserId userId) {
+        return keyHandleRepository.keyHandleFor(userId)
+                                  .map(key -> verify(totp, key, userId))
+                                  .orElse(false);
+    }
+
+    private boolean verify(final TOTP totp, final KeyHandle key, final UserId userId) {
+        final KeyVault vault = keyVault.get();
+        if (!driftRepository.isPresent()) {
+            return totpService.verify(totp, vault, key);
+        }
+
+        final int drift = drift(userId);
+        final OptionalInt offset = totpService.matchingOffset(totp, vault, key, drift, resynchronizationWindowSize);
+        offset.ifPresent(o -> updateDrift(drift, o, userId));
+        return offset.isPresent();
+    }
+
+    private boolean verify(final TOTP totp, final SharedSecret secret, final UserId userId) {
+        if (!driftRepository.isPresent()) {
+            return totpService.verify(totp, secret);
+        }
+
+        // Resynchronization as per RFC 6238 section 6
+        final int drift = drift(userId);
+        final OptionalInt offset = totpService.matchingOffset(totp, secret, drift, resynchronizationWindowSize);
+        offset.ifPresent(o -> updateDrift(drift, o, userId));
+        return offset.isPresent();
+    }
+
+    private int drift(final UserId userId) {
+        return driftRepository.map(drifts -> drifts.driftFor(userId)).orElse(0);
+    }
+
+    /**
+     * Saves the matching offset as the new drift, limited to the resynchronization window so that the window cannot
+     * move further away from the current time step with every accepted TOTP.
+     */
+    private void updateDrift(final int drift, final int offset, final UserId userId) {
+        driftRepository.ifPresent(drifts -> {
+            final int newDrift = resynchronizationWindowSize.clamp(offset);
+            if (newDrift != drift) {
+                drifts.save(newDrift, userId);
+            }
+        });
+    }
+
     private boolean isConsumed(final TOTP totp, final UserId userId) {
         return totpRegistry.isConsumed(totp, userId);
     }
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.user.persistence.SecretRepository;
+import se.sawano.java.security.otp.user.persistence.TOTPRegistry;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Executor based front end for {@link UserTOTPService} with blocking repository backends. Each verification runs as
+ * its own task and the number of concurrent calls to the {@link SecretRepository} and {@link TOTPRegistry} is capped by
+ * a semaphore.
+ * <p>
+ * On Java 21 and later each verification runs on a virtual thread, so a verification waiting for the backend does not
+ * hold an OS thread. The verification path does not use {@code synchronized}, so the virtual threads are never pinned
+ * to their carrier. On earlier versions a fixed pool of platform threads, sized to the backend limit, is used instead.
+ * </p>
+ */
+public class VerificationExecutor implements AutoCloseable {
+
+    private final UserTOTPService service;
+    private final ExecutorService executor;
+
+    public VerificationExecutor(final SecretRepository secretRepository,
+                                final TOTPService totpService,
+                                final TOTPRegistry totpRegistry,
+                                final int maxConcurrentBackendCalls) {
+        this(secretRepository, totpService, totpRegistry, maxConcurrentBackendCalls, newExecutor(maxConcurrentBackendCalls));
+    }
+
+    /**
+     * Creates an executor that runs the verifications on the given executor service. The executor service is shut down
+     * when this executor is closed.
+     *
+     * @param secretRepository
+     *         the secret repository
+     * @param totpService
+     *         the service used for verifying TOTPs
+     * @param totpRegistry
+     *         the registry of consumed TOTPs
+     * @param maxConcurrentBackendCalls
+     *         the maximum number of concurrent calls to the repository and registry
+     * @param executor
+     *         the executor service to run the verifications on
+     */
+    public VerificationExecutor(final SecretRepository secretRepository,
+                                final TOTPService totpService,
+                                final TOTPRegistry totpRegistry,
+                                final int maxConcurrentBackendCalls,
+                                final ExecutorService executor) {
+        notNull(secretRepository);
+        notNull(totpService);
+        notNull(totpRegistry);
+        notNull(executor);
+        isTrue(maxConcurrentBackendCalls > 0, "Max number of concurrent backend calls must be greater than 0");
+
+        final Semaphore backendPermits = new Semaphore(maxConcurrentBackendCalls);
+        this.service = new UserTOTPService(new ThrottledSecretRepository(secretRepository, backendPermits),
+                                           totpService,
+                                           new ThrottledTOTPRegistry(totpRegistry, backendPermits));
+        this.executor = executor;
+    }
+
+    private static ExecutorService newExecutor(final int maxConcurrentBackendCalls) {
+        isTrue(maxConcurrentBackendCalls > 0, "Max number of concurrent backend calls must be greater than 0");
+
+        return VerificationThreads.newExecutor(maxConcurrentBackendCalls);
+    }
+
+    /**
+     * Returns whether this runtime runs the verifications on virtual threads by default.
+     *
+     * @return {@code true} if virtual threads are used by default
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return VerificationThreads.isVirtual();
+    }
+
+    /**
+     * Verifies the TOTP for the given user.
+     *
+     * @param totp
+     *         the TOTP to verify
+     * @param userId
+     *         the user the TOTP belongs to
+     *
+     * @return a future completed with the result of {@link UserTOTPService#verify(TOTP, UserId)}
+     */
+    public CompletableFuture<Boolean> verify(final TOTP totp, final UserId userId) {
+        notNull(totp);
+        notNull(userId);
+
+        return CompletableFuture.supplyAsync(() -> service.verify(totp, userId), executor);
+    }
+
+    /**
+     * Stops accepting new verifications and waits for the running ones to complete.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting for the submitted verifications
+            }
+        } catch (final InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> T withPermit(final Semaphore permits, final Supplier<T> call) {
+        try {
+            permits.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for backend", e);
+        }
+        try {
+            return call.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static final class ThrottledSecretRepository implements SecretRepository {
+
+        private final SecretRepository repository;
+        private final Semaphore permits;
+
+        private ThrottledSecretRepository(final SecretRepository repository, final Semaphore permits) {
+            this.repository = repository;
+            this.permits = permits;
+        }
+
+        @Override
+        public void save(final SharedSecret sharedSecret, final UserId userId) {
+            withPermit(permits, () -> {
+                repository.save(sharedSecret, userId);
+                return null;
+            });
+        }
+
+        @Override
+        public Optional<SharedSecret> secretFor(final UserId userId) {
+            return withPermit(permits, () -> repository.secretFor(userId));
+        }
+
+        @Override
+        public void deleteFor(final UserId userId) {
+            withPermit(permits, () -> {
+                repository.deleteFor(userId);
+                return null;
+            });
+        }
+    }
+
+    private static final class ThrottledTOTPRegistry implements TOTPRegistry {
+
+        private final TOTPRegistry registry;
+        private final Semaphore permits;
+
+        private ThrottledTOTPRegistry(final TOTPRegistry registry, final Semaphore permits) {
+            this.registry = registry;
+            this.permits = permits;
+        }
+
+        @Override
+        public void markConsumed(final TOTP totp, final UserId userId) {
+            withPermit(permits, () -> {
+                registry.markConsumed(totp, userId);
+                return null;
+            });
+        }
+
+        @Override
+        public boolean isConsumed(final TOTP totp, final UserId userId) {
+            return withPermit(permits, () -> registry.isConsumed(totp, userId));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads used by {@link VerificationExecutor}. This is the Java 8 version, which uses a fixed pool of
+ * platform threads. On Java 21 and later this class is replaced, through the multi-release jar, by a version that runs
+ * each verification on its own virtual thread.
+ */
+final class VerificationThreads {
+
+    private VerificationThreads() {}
+
+    static ExecutorService newExecutor(final int maxConcurrentBackendCalls) {
+        return Executors.newFixedThreadPool(maxConcurrentBackendCalls, new DaemonThreadFactory());
+    }
+
+    static boolean isVirtual() {
+        return false;
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "otp-verification-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
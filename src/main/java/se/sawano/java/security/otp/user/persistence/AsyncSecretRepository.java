@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user.persistence;
+
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.user.UserId;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking counterpart of {@link SecretRepository}. Implementations should complete the returned futures from
+ * their own I/O completion threads and must not block the calling thread.
+ */
+public interface AsyncSecretRepository {
+
+    /**
+     * Adapts a blocking {@link SecretRepository} to an {@link AsyncSecretRepository}. The blocking calls are run on the
+     * given executor, which should be an I/O executor and not the executor used for computing TOTPs.
+     *
+     * @param repository
+     *         the blocking repository to adapt
+     * @param ioExecutor
+     *         the executor to run the blocking calls on
+     *
+     * @return the asynchronous repository
+     */
+    static AsyncSecretRepository fromBlocking(final SecretRepository repository, final Executor ioExecutor) {
+        return new RepositoryAdapters.AsyncSecretRepositoryAdapter(repository, ioExecutor);
+    }
+
+    /**
+     * Adapts an {@link AsyncSecretRepository} to a blocking {@link SecretRepository}. Each call blocks until the
+     * returned future completes.
+     *
+     * @param repository
+     *         the asynchronous repository to adapt
+     *
+     * @return the blocking repository
+     */
+    static SecretRepository toBlocking(final AsyncSecretRepository repository) {
+        return new RepositoryAdapters.BlockingSecretRepositoryAdapter(repository);
+    }
+
+    CompletableFuture<Void> save(SharedSecret sharedSecret, UserId userId);
+
+    CompletableFuture<Optional<SharedSecret>> secretFor(UserId userId);
+
+    CompletableFuture<Void> deleteFor(UserId userId);
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user.persistence;
+
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.user.UserId;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking counterpart of {@link TOTPRegistry}. Implementations should complete the returned futures from their own
+ * I/O completion threads and must not block the calling thread.
+ */
+public interface AsyncTOTPRegistry {
+
+    /**
+     * Adapts a blocking {@link TOTPRegistry} to an {@link AsyncTOTPRegistry}. The blocking calls are run on the given
+     * executor, which should be an I/O executor and not the executor used for computing TOTPs.
+     *
+     * @param registry
+     *         the blocking registry to adapt
+     * @param ioExecutor
+     *         the executor to run the blocking calls on
+     *
+     * @return the asynchronous registry
+     */
+    static AsyncTOTPRegistry fromBlocking(final TOTPRegistry registry, final Executor ioExecutor) {
+        return new RepositoryAdapters.AsyncTOTPRegistryAdapter(registry, ioExecutor);
+    }
+
+    /**
+     * Adapts an {@link AsyncTOTPRegistry} to a blocking {@link TOTPRegistry}. Each call blocks until the returned
+     * future completes.
+     *
+     * @param registry
+     *         the asynchronous registry to adapt
+     *
+     * @return the blocking registry
+     */
+    static TOTPRegistry toBlocking(final AsyncTOTPRegistry registry) {
+        return new RepositoryAdapters.BlockingTOTPRegistryAdapter(registry);
+    }
+
+    CompletableFuture<Void> markConsumed(TOTP totp, UserId userId);
+
+    CompletableFuture<Boolean> isConsumed(TOTP totp, UserId userId);
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user.persistence;
+
+import se.sawano.java.security.otp.user.UserId;
+
+/**
+ * Stores the HOTP counter of each user, i.e. the counter expected in the next verification. Verifications advance the
+ * counter with {@link #compareAndAdvance(UserId, long, long)}, so that an HOTP is accepted at most once even when the
+ * same HOTP is verified concurrently.
+ */
+public interface CounterRepository {
+
+    /**
+     * Sets the counter of the user, e.g. the initial counter when provisioning a token.
+     *
+     * @param counter
+     *         the counter expected in the next verification
+     * @param userId
+     *         the user
+     */
+    void save(long counter, UserId userId);
+
+    /**
+     * Returns the counter expected in the next verification of the given user.
+     *
+     * @param userId
+     *         the user
+     *
+     * @return the counter, or {@code 0} if no counter has been recorded
+     */
+    long counterFor(UserId userId);
+
+    /**
+     * Atomically sets the counter of the user to the next counter, if the current counter is the expected one.
+     *
+     * @param userId
+     *         the user
+     * @param expected
+     *         the counter that was used in the verification
+     * @param next
+     *         the new counter, which must be greater than the expected counter
+     *
+     * @return {@code true} if the counter was advanced, {@code false} if it had been changed by someone else
+     */
+    boolean compareAndAdvance(UserId userId, long expected, long next);
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user.persistence;
+
+import se.sawano.java.security.otp.user.Credential;
+import se.sawano.java.security.otp.user.CredentialId;
+import se.sawano.java.security.otp.user.UserId;
+
+import java.util.List;
+
+/**
+ * Stores the credentials of each user, e.g. a phone and a backup hardware token, together with the drift and replay
+ * state of each credential.
+ */
+public interface CredentialRepository {
+
+    /**
+     * Saves the credential, replacing any credential of the user with the same id. The state of a replaced credential
+     * is kept unless the saved credential was used for a later time step, so that its last TOTP cannot be replayed.
+     *
+     * @param credential
+     *         the credential
+     * @param userId
+     *         the user
+     */
+    void save(Credential credential, UserId userId);
+
+    /**
+     * Returns the credentials of the user, in the order they were first saved, with their current state. The secrets
+     * are read-once and must be independent of the stored ones.
+     *
+     * @param userId
+     *         the user
+     *
+     * @return the credentials, or an empty list if the user has none
+     */
+    List<Credential> credentialsFor(UserId userId);
+
+    void deleteFor(UserId userId, CredentialId credentialId);
+
+    /**
+     * Atomically records that the credential was used for the given time step, if that time step is later than the
+     * one the credential was last used for.
+     *
+     * @param userId
+     *         the user
+     * @param credentialId
+     *         the credential
+     * @param timeStep
+     *         the time step that matched
+     * @param drift
+     *         the drift, in time steps, to store for the credential
+     *
+     * @return {@code true} if the use was recorded, {@code false} if the credential has already been used for the time
+     * step or a later one, or no longer exists
+     */
+    boolean recordUse(UserId userId, CredentialId credentialId, long timeStep, int drift);
+
+}
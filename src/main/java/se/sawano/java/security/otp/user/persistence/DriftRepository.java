@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user.persistence;
+
+import se.sawano.java.security.otp.user.UserId;
+
+/**
+ * Stores the estimated clock drift of each user's device, as the number of time steps the device is ahead of (positive)
+ * or behind (negative) the server. See RFC 6238 section 6.
+ */
+public interface DriftRepository {
+
+    void save(int drift, UserId userId);
+
+    /**
+     * Returns the estimated drift for the given user.
+     *
+     * @param userId
+     *         the user
+     *
+     * @return the drift in number of time steps, or {@code 0} if no drift has been recorded
+     */
+    int driftFor(UserId userId);
+
+}
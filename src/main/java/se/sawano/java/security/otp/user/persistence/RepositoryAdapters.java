@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user.persistence;
+
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.user.UserId;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static org.apache.commons.lang3.Validate.notNull;
+
+/**
+ * Adapters between the blocking and the asynchronous persistence interfaces.
+ */
+final class RepositoryAdapters {
+
+    private RepositoryAdapters() {}
+
+    static final class AsyncSecretRepositoryAdapter implements AsyncSecretRepository {
+
+        private final SecretRepository repository;
+        private final Executor ioExecutor;
+
+        AsyncSecretRepositoryAdapter(final SecretRepository repository, final Executor ioExecutor) {
+            notNull(repository);
+            notNull(ioExecutor);
+
+            this.repository = repository;
+            this.ioExecutor = ioExecutor;
+        }
+
+        @Override
+        public CompletableFuture<Void> save(final SharedSecret sharedSecret, final UserId userId) {
+            return runAsync(() -> repository.save(sharedSecret, userId), ioExecutor);
+        }
+
+        @Override
+        public CompletableFuture<Optional<SharedSecret>> secretFor(final UserId userId) {
+            return supplyAsync(() -> repository.secretFor(userId), ioExecutor);
+        }
+
+        @Override
+        public CompletableFuture<Void> deleteFor(final UserId userId) {
+            return runAsync(() -> repository.deleteFor(userId), ioExecutor);
+        }
+    }
+
+    static final class BlockingSecretRepositoryAdapter implements SecretRepository {
+
+        private final AsyncSecretRepository repository;
+
+        BlockingSecretRepositoryAdapter(final AsyncSecretRepository repository) {
+            notNull(repository);
+
+            this.repository = repository;
+        }
+
+        @Override
+        public void save(final SharedSecret sharedSecret, final UserId userId) {
+            await(repository.save(sharedSecret, userId));
+        }
+
+        @Override
+        public Optional<SharedSecret> secretFor(final UserId userId) {
+            return await(repository.secretFor(userId));
+        }
+
+        @Override
+        public void deleteFor(final UserId userId) {
+            await(repository.deleteFor(userId));
+        }
+    }
+
+    static final class AsyncTOTPRegistryAdapter implements AsyncTOTPRegistry {
+
+        private final TOTPRegistry registry;
+        private final Executor ioExecutor;
+
+        AsyncTOTPRegistryAdapter(final TOTPRegistry registry, final Executor ioExecutor) {
+            notNull(registry);
+            notNull(ioExecutor);
+
+            this.registry = registry;
+            this.ioExecutor = ioExecutor;
+        }
+
+        @Override
+        public CompletableFuture<Void> markConsumed(final TOTP totp, final UserId userId) {
+            return runAsync(() -> registry.markConsumed(totp, userId), ioExecutor);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> isConsumed(final TOTP totp, final UserId userId) {
+            return supplyAsync(() -> registry.isConsumed(totp, userId), ioExecutor);
+        }
+    }
+
+    static final class BlockingTOTPRegistryAdapter implements TOTPRegistry {
+
+        private final AsyncTOTPRegistry registry;
+
+        BlockingTOTPRegistryAdapter(final AsyncTOTPRegistry registry) {
+            notNull(registry);
+
+            this.registry = registry;
+        }
+
+        @Override
+        public void markConsumed(final TOTP totp, final UserId userId) {
+            await(registry.markConsumed(totp, userId));
+        }
+
+        @Override
+        public boolean isConsumed(final TOTP totp, final UserId userId) {
+            return await(registry.isConsumed(totp, userId));
+        }
+    }
+
+    /**
+     * Waits for the future and rethrows unchecked failures as is, so that callers of the blocking interfaces see the
+     * same exceptions as they would from a blocking implementation.
+     */
+    private static <T> T await(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
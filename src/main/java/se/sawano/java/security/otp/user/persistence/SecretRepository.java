@@ -19,14 +19,10 @@ package se.sawano.java.security.otp.user.persistence;
 import se.sawano.java.security.otp.SharedSecret;
 import se.sawano.java.security.otp.user.UserId;
 
-import java.util.Optional;
-
-public interface SecretRepository {
+public interface SecretRepository extends SecretSource {
 
     void save(SharedSecret sharedSecret, UserId userId);
 
-    Optional<SharedSecret> secretFor(UserId userId);
-
     void deleteFor(UserId userId);
 
 }
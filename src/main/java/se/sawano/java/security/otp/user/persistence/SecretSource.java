@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user.persistence;
+
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.user.UserId;
+
+import java.util.Optional;
+
+/**
+ * A read-only source of the users' secrets, e.g. one that derives the secrets instead of storing them. See
+ * {@link SecretRepository} for a source that the secrets can also be saved to.
+ */
+public interface SecretSource {
+
+    Optional<SharedSecret> secretFor(UserId userId);
+
+}
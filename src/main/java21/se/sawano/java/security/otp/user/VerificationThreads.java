@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the threads used by {@link VerificationExecutor}. This is the Java 21 version, which runs each verification
+ * on its own virtual thread. The number of concurrent backend calls is bounded by the executor's semaphore, not by the
+ * number of threads.
+ */
+final class VerificationThreads {
+
+    private VerificationThreads() {}
+
+    static ExecutorService newExecutor(final int maxConcurrentBackendCalls) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("otp-verification-", 1).factory());
+    }
+
+    static boolean isVirtual() {
+        return true;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.TOTP.totp;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.WindowSize.windowSize;
+
+public class AdaptiveWindowSizeTests {
+
+    // Example data from RFC6238
+    private static final TOTP TOTP_1 = totp(14050471, TOTP.Length.EIGHT);
+    private static final Instant TIME_1 = Instant.ofEpochSecond(1111111111);
+    private static final String SECRET_STR = "12345678901234567890";
+
+    @Test
+    public void should_shrink_to_minimum_when_all_matches_are_centered() throws Exception {
+        final AdaptiveWindowSize adaptive = adaptiveWindowSize(windowSize(1), windowSize(5), windowSize(3), 10);
+
+        record(adaptive, 0, 100);
+
+        assertEquals(windowSize(1), adaptive.adjust());
+        assertEquals(windowSize(1), adaptive.current());
+    }
+
+    @Test
+    public void should_cover_given_fraction_of_matches() throws Exception {
+        final AdaptiveWindowSize adaptive = adaptiveWindowSize(windowSize(1), windowSize(7), windowSize(1), 10);
+
+        record(adaptive, 0, 900);
+        record(adaptive, 1, 40);
+        record(adaptive, -2, 60);
+
+        assertEquals(windowSize(5), adaptive.adjust());
+    }
+
+    @Test
+    public void should_not_adjust_before_minimum_number_of_samples() throws Exception {
+        final AdaptiveWindowSize adaptive = adaptiveWindowSize(windowSize(1), windowSize(5), windowSize(3), 1000);
+
+        record(adaptive, 0, 999);
+
+        assertEquals(windowSize(3), adaptive.adjust());
+        assertEquals(999, adaptive.histogram().matches(0));
+    }
+
+    @Test
+    public void should_never_go_below_minimum() throws Exception {
+        final AdaptiveWindowSize adaptive = adaptiveWindowSize(windowSize(3), windowSize(5), windowSize(5), 10);
+
+        record(adaptive, 0, 100);
+
+        assertEquals(windowSize(3), adaptive.adjust());
+    }
+
+    @Test
+    public void should_record_offsets_of_verifications() throws Exception {
+        final AdaptiveWindowSize adaptive = adaptiveWindowSize(windowSize(1), windowSize(5), windowSize(3), 10);
+
+        assertTrue(totpServiceWithClockAt(-1, adaptive).verify(TOTP_1, secret()));
+
+        assertEquals(1, adaptive.histogram().matches(1));
+        assertEquals(1, adaptive.histogram().numberOfSamples());
+    }
+
+    @Test
+    public void should_grow_window_from_probed_failures() throws Exception {
+        final AdaptiveWindowSize adaptive = adaptiveWindowSize(windowSize(1), windowSize(5), windowSize(1), 1);
+        final TOTPService service = totpServiceWithClockAt(2, adaptive);
+
+        assertFalse(service.verify(TOTP_1, secret()));
+        assertEquals(1, adaptive.histogram().probedMatches(-2));
+
+        assertEquals(windowSize(5), adaptive.adjust());
+        assertTrue(service.verify(TOTP_1, secret()));
+    }
+
+    private static void record(final AdaptiveWindowSize adaptive, final int offset, final int times) {
+        for (int i = 0; i < times; ++i) {
+            adaptive.recordMatch(offset);
+        }
+    }
+
+    private static AdaptiveWindowSize adaptiveWindowSize(final WindowSize minimum,
+                                                         final WindowSize maximum,
+                                                         final WindowSize initial,
+                                                         final long minimumSamples) {
+        return new AdaptiveWindowSize(minimum, maximum, initial, 0.95, minimumSamples, 1);
+    }
+
+    private static SharedSecret secret() {
+        return from(SECRET_STR, ShaAlgorithm.SHA1);
+    }
+
+    private static TOTPService totpServiceWithClockAt(final int stepsFromTotp, final AdaptiveWindowSize adaptive) {
+        final Clock clock = () -> TIME_1.plus(TOTPService.STEP_SIZE.multipliedBy(stepsFromTotp));
+        return new TOTPService(clock, TOTPService.T0_UTC, TOTPService.STEP_SIZE, adaptive);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import org.junit.Test;
+
+import java.util.OptionalLong;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static se.sawano.java.security.otp.HOTP.hotp;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+
+public class HOTPCodeIndexTests {
+
+    // Example data from RFC4226 appendix D
+    static final String SECRET_STR = "12345678901234567890";
+    static final int[] HOTPS = {755224, 287082, 359152, 969429, 338314, 254676, 287922, 162583, 399871, 520489};
+
+    @Test
+    public void should_find_counters_of_window() throws Exception {
+        final HOTPCodeIndex index = new HOTPService(9).index(secret(), TOTP.Length.SIX, 0);
+
+        for (int counter = 0; counter < HOTPS.length; ++counter) {
+            assertEquals(OptionalLong.of(counter), index.matchingCounter(hotp(HOTPS[counter], TOTP.Length.SIX), 0));
+        }
+    }
+
+    @Test
+    public void should_not_find_counters_outside_of_window() throws Exception {
+        final HOTPCodeIndex index = new HOTPService(4).index(secret(), TOTP.Length.SIX, 2);
+
+        assertFalse(index.matchingCounter(hotp(HOTPS[1], TOTP.Length.SIX), 2).isPresent());
+        assertFalse(index.matchingCounter(hotp(HOTPS[7], TOTP.Length.SIX), 2).isPresent());
+        assertEquals(OptionalLong.of(6), index.matchingCounter(hotp(HOTPS[6], TOTP.Length.SIX), 2));
+    }
+
+    @Test
+    public void should_not_find_hotp_of_other_length() throws Exception {
+        final HOTPCodeIndex index = new HOTPService(9).index(secret(), TOTP.Length.SIX, 0);
+
+        assertFalse(index.matchingCounter(hotp(HOTPS[0], TOTP.Length.EIGHT), 0).isPresent());
+    }
+
+    @Test
+    public void should_move_window_with_counter() throws Exception {
+        final HOTPCodeIndex index = new HOTPService(4).index(secret(), TOTP.Length.SIX, 0);
+
+        assertEquals(OptionalLong.of(9), index.matchingCounter(hotp(HOTPS[9], TOTP.Length.SIX), 5));
+        assertFalse(index.matchingCounter(hotp(HOTPS[4], TOTP.Length.SIX), 5).isPresent());
+        assertEquals(5, index.counter());
+
+        assertEquals(OptionalLong.of(1), index.matchingCounter(hotp(HOTPS[1], TOTP.Length.SIX), 1));
+    }
+
+    @Test
+    public void should_match_look_ahead_verification_as_counter_advances() throws Exception {
+        final HOTPService service = new HOTPService(99);
+        final byte[] secretBytes = new byte[20];
+        final Random random = new Random(42);
+        random.nextBytes(secretBytes);
+        final HOTPCodeIndex index = service.index(SharedSecret.from(secretBytes, ShaAlgorithm.SHA1), TOTP.Length.TWO, 0);
+
+        long counter = 0;
+        for (int i = 0; i < 500; ++i) {
+            counter += random.nextInt(10) == 0 ? random.nextInt(300) : random.nextInt(5);
+            final HOTP hotp = hotp(random.nextInt(100), TOTP.Length.TWO);
+
+            assertEquals(service.matchingCounter(hotp, SharedSecret.from(secretBytes, ShaAlgorithm.SHA1), counter),
+                         index.matchingCounter(hotp, counter));
+        }
+    }
+
+    private static SharedSecret secret() {
+        return from(SECRET_STR, ShaAlgorithm.SHA1);
+    }
+}
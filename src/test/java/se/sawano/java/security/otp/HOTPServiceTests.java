@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import org.junit.Test;
+
+import java.util.OptionalLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.HOTP.hotp;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+
+public class HOTPServiceTests {
+
+    // Example data from RFC4226 appendix D
+    static final String SECRET_STR = "12345678901234567890";
+    static final int[] HOTPS = {755224, 287082, 359152, 969429, 338314, 254676, 287922, 162583, 399871, 520489};
+
+    @Test
+    public void should_create_hotps_of_rfc_4226() throws Exception {
+        final HOTPService service = new HOTPService();
+
+        for (int counter = 0; counter < HOTPS.length; ++counter) {
+            assertEquals(hotp(HOTPS[counter], TOTP.Length.SIX), service.create(secret(), TOTP.Length.SIX, counter));
+        }
+    }
+
+    @Test
+    public void should_verify_expected_counter() throws Exception {
+        final HOTPService service = new HOTPService(0);
+
+        assertTrue(service.verify(hotp(HOTPS[3], TOTP.Length.SIX), secret(), 3));
+        assertFalse(service.verify(hotp(HOTPS[3], TOTP.Length.SIX), secret(), 2));
+    }
+
+    @Test
+    public void should_return_matching_counter_within_look_ahead() throws Exception {
+        final HOTPService service = new HOTPService(5);
+
+        assertEquals(OptionalLong.of(7), service.matchingCounter(hotp(HOTPS[7], TOTP.Length.SIX), secret(), 2));
+        assertEquals(OptionalLong.of(2), service.matchingCounter(hotp(HOTPS[2], TOTP.Length.SIX), secret(), 2));
+    }
+
+    @Test
+    public void should_not_match_outside_of_look_ahead() throws Exception {
+        final HOTPService service = new HOTPService(5);
+
+        assertFalse(service.matchingCounter(hotp(HOTPS[8], TOTP.Length.SIX), secret(), 2).isPresent());
+        assertFalse(service.matchingCounter(hotp(HOTPS[1], TOTP.Length.SIX), secret(), 2).isPresent());
+    }
+
+    @Test
+    public void should_verify_with_prepared_key_more_than_once() throws Exception {
+        final HOTPService service = new HOTPService(9);
+        final PreparedKey key = PreparedKey.prepare(secret());
+
+        for (int counter = 0; counter < HOTPS.length; ++counter) {
+            assertEquals(OptionalLong.of(counter), service.matchingCounter(hotp(HOTPS[counter], TOTP.Length.SIX), key, 0));
+        }
+    }
+
+    @Test
+    public void should_support_all_algorithms() throws Exception {
+        // Counter 1 of the RFC6238 reference data, i.e. 59 seconds
+        assertEquals(hotp(94287082, TOTP.Length.EIGHT), new HOTPService().create(secret(), TOTP.Length.EIGHT, 1));
+        assertEquals(hotp(46119246, TOTP.Length.EIGHT),
+                     new HOTPService().create(from("12345678901234567890123456789012", ShaAlgorithm.SHA256), TOTP.Length.EIGHT, 1));
+        assertEquals(hotp(90693936, TOTP.Length.EIGHT),
+                     new HOTPService().create(from("1234567890123456789012345678901234567890123456789012345678901234", ShaAlgorithm.SHA512),
+                                              TOTP.Length.EIGHT, 1));
+    }
+
+    @Test
+    public void should_not_look_past_last_counter() throws Exception {
+        assertFalse(new HOTPService().matchingCounter(hotp(HOTPS[0], TOTP.Length.SIX), secret(), Long.MAX_VALUE).isPresent());
+    }
+
+    private static SharedSecret secret() {
+        return from(SECRET_STR, ShaAlgorithm.SHA1);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import org.junit.Test;
+
+import static org.apache.commons.codec.binary.Hex.decodeHex;
+import static org.apache.commons.codec.binary.Hex.encodeHexString;
+import static org.junit.Assert.assertEquals;
+
+public class HkdfTests {
+
+    @Test
+    public void should_derive_rfc_5869_sha256_test_vector() throws Exception {
+        final byte[] key = Hkdf.derive(ShaAlgorithm.SHA256,
+                                       bytes("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b"),
+                                       bytes("000102030405060708090a0b0c"),
+                                       bytes("f0f1f2f3f4f5f6f7f8f9"),
+                                       42);
+
+        assertEquals("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865", encodeHexString(key));
+    }
+
+    @Test
+    public void should_derive_rfc_5869_sha256_test_vector_without_salt_and_info() throws Exception {
+        final byte[] key = Hkdf.derive(ShaAlgorithm.SHA256, bytes("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b"), new byte[0], new byte[0], 42);
+
+        assertEquals("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d9d201395faa4b61a96c8", encodeHexString(key));
+    }
+
+    @Test
+    public void should_derive_rfc_5869_sha1_test_vector() throws Exception {
+        final byte[] key = Hkdf.derive(ShaAlgorithm.SHA1,
+                                       bytes("0b0b0b0b0b0b0b0b0b0b0b"),
+                                       bytes("000102030405060708090a0b0c"),
+                                       bytes("f0f1f2f3f4f5f6f7f8f9"),
+                                       42);
+
+        assertEquals("085a01ea1b10f36933068b56efa5ad81a4f14b822f5b091568a9cdd4f155fda2c22e422478d305f3f896", encodeHexString(key));
+    }
+
+    @Test
+    public void should_derive_requested_length() throws Exception {
+        assertEquals(64 * 3 + 1, Hkdf.derive(ShaAlgorithm.SHA512, new byte[32], new byte[0], new byte[0], 64 * 3 + 1).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_not_derive_more_than_255_blocks() throws Exception {
+        Hkdf.derive(ShaAlgorithm.SHA1, new byte[32], new byte[0], new byte[0], 255 * 20 + 1);
+    }
+
+    private static byte[] bytes(final String hex) throws Exception {
+        return decodeHex(hex.toCharArray());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Comparator.naturalOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImportReportTests {
+
+    @Test
+    public void should_order_failures_by_location() {
+        final ImportReport.Collector<Long> results = new ImportReport.Collector<>(naturalOrder());
+        results.failed(7L, "seven");
+        results.imported();
+        results.failed(3L, "three");
+
+        final ImportReport<Long> report = results.report();
+
+        assertEquals(1, report.imported());
+        assertEquals(2, report.failures().size());
+        assertEquals(3L, (long) report.failures().get(0).location());
+        assertEquals("three", report.failures().get(0).reason());
+        assertEquals(7L, (long) report.failures().get(1).location());
+    }
+
+    @Test
+    public void should_use_exception_type_as_reason_when_it_has_no_message() {
+        final ImportReport.Collector<Integer> results = new ImportReport.Collector<>(naturalOrder());
+        results.failed(0, new IllegalStateException());
+
+        assertEquals("IllegalStateException", results.report().failures().get(0).reason());
+    }
+
+    @Test
+    public void should_collect_concurrently() throws Exception {
+        final ImportReport.Collector<Integer> results = new ImportReport.Collector<>(naturalOrder());
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 1000; ++i) {
+                final int item = i;
+                executor.execute(() -> {
+                    if (item % 10 == 0) {
+                        results.failed(item, "failed");
+                    }
+                    else {
+                        results.imported();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        final ImportReport<Integer> report = results.report();
+
+        assertEquals(900, report.imported());
+        assertEquals(100, report.failures().size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(10 * i, (int) report.failures().get(i).location());
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void should_not_allow_failures_to_be_modified() {
+        final ImportReport.Collector<Long> results = new ImportReport.Collector<>(naturalOrder());
+        results.failed(1L, "one");
+
+        results.report().failures().clear();
+    }
+}
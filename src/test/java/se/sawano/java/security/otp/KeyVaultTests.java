@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.KeyHandle.keyHandle;
+import static se.sawano.java.security.otp.KeyVault.CodeRequest.codeRequest;
+import static se.sawano.java.security.otp.TOTP.totp;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.WindowSize.windowSize;
+
+public class KeyVaultTests {
+
+    // Example data from RFC4226 and RFC6238
+    private static final String SECRET_STR = "12345678901234567890";
+    private static final TOTP TOTP_1 = totp(14050471, TOTP.Length.EIGHT);
+    private static final Instant TIME_1 = Instant.ofEpochSecond(1111111111);
+    private static final KeyHandle KEY = keyHandle("john");
+
+    @Test
+    public void should_compute_rfc_4226_codes() throws Exception {
+        final SoftwareKeyVault vault = vaultWithKey();
+
+        assertArrayEquals(new int[]{755224, 287082, 359152, 969429}, vault.codes(KEY, new long[]{0, 1, 2, 3}, TOTP.Length.SIX));
+    }
+
+    @Test
+    public void should_compute_batch_of_requests() throws Exception {
+        final SoftwareKeyVault vault = vaultWithKey();
+        vault.store(keyHandle("jane"), from(SECRET_STR, ShaAlgorithm.SHA1));
+
+        final int[][] codes = vault.codes(asList(codeRequest(KEY, new long[]{9}, TOTP.Length.SIX),
+                                                 codeRequest(keyHandle("jane"), new long[]{4, 5}, TOTP.Length.SIX)));
+
+        assertArrayEquals(new int[]{520489}, codes[0]);
+        assertArrayEquals(new int[]{338314, 254676}, codes[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_not_compute_codes_of_unknown_key() throws Exception {
+        vaultWithKey().codes(keyHandle("jane"), new long[]{0}, TOTP.Length.SIX);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_not_compute_codes_of_deleted_key() throws Exception {
+        final SoftwareKeyVault vault = vaultWithKey();
+
+        vault.delete(KEY);
+
+        vault.codes(KEY, new long[]{0}, TOTP.Length.SIX);
+    }
+
+    @Test
+    public void should_match_same_offsets_as_secret() throws Exception {
+        final SoftwareKeyVault vault = vaultWithKey();
+
+        for (int steps = -4; steps <= 4; ++steps) {
+            final TOTPService service = totpServiceWithClockAt(steps, windowSize(3));
+            assertEquals(service.matchingOffset(TOTP_1, secret(), 2, windowSize(5)),
+                         service.matchingOffset(TOTP_1, vault, KEY, 2, windowSize(5)));
+        }
+        assertTrue(totpServiceWithClockAt(1, windowSize(3)).verify(TOTP_1, vault, KEY));
+        assertFalse(totpServiceWithClockAt(2, windowSize(3)).verify(TOTP_1, vault, KEY));
+    }
+
+    @Test
+    public void should_compute_windows_in_one_call() throws Exception {
+        final RecordingKeyVault vault = new RecordingKeyVault(vaultWithKey());
+
+        final OptionalInt offset = totpServiceWithClockAt(-3, windowSize(3)).matchingOffset(TOTP_1, vault, KEY, 0, windowSize(7));
+
+        assertEquals(OptionalInt.of(3), offset);
+        assertEquals(1, vault.requests.size());
+        assertEquals(3 + 4, vault.requests.get(0).numberOfCounters());
+    }
+
+    private static SoftwareKeyVault vaultWithKey() {
+        final SoftwareKeyVault vault = new SoftwareKeyVault();
+        vault.store(KEY, secret());
+        return vault;
+    }
+
+    private static SharedSecret secret() {
+        return from(SECRET_STR, ShaAlgorithm.SHA1);
+    }
+
+    private static TOTPService totpServiceWithClockAt(final int stepsFromTotp, final WindowSize windowSize) {
+        final Clock clock = () -> TIME_1.plus(TOTPService.STEP_SIZE.multipliedBy(stepsFromTotp));
+        return new TOTPService(clock, TOTPService.T0_UTC, TOTPService.STEP_SIZE, windowSize);
+    }
+
+    private static final class RecordingKeyVault implements KeyVault {
+
+        private final KeyVault vault;
+        private final List<CodeRequest> requests = new ArrayList<>();
+
+        private RecordingKeyVault(final KeyVault vault) {
+            this.vault = vault;
+        }
+
+        @Override
+        public int[][] codes(final List<CodeRequest> requests) {
+            this.requests.addAll(requests);
+            return vault.codes(requests);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static se.sawano.java.security.otp.TOTPConfiguration.configuration;
+
+public class TOTPConfigurationTests {
+
+    @Test
+    public void should_intern_equal_configurations() throws Exception {
+        final TOTPConfiguration configuration = configuration(Instant.EPOCH, Duration.ofSeconds(60), TOTP.Length.EIGHT);
+
+        assertSame(configuration, configuration(Instant.EPOCH, Duration.ofMillis(60_000), TOTP.Length.EIGHT));
+        assertSame(TOTPConfiguration.DEFAULT, configuration(TOTPService.T0_UTC, TOTPService.STEP_SIZE, TOTP.Length.SIX));
+        assertNotSame(configuration, configuration(Instant.EPOCH, Duration.ofSeconds(60), TOTP.Length.SIX));
+    }
+
+    @Test
+    public void should_compute_time_step_like_totp_service() throws Exception {
+        final Instant now = Instant.ofEpochSecond(1111111111);
+        final TOTPService service = new TOTPService(() -> now, Instant.ofEpochSecond(100), Duration.ofSeconds(60), WindowSize.windowSize(1));
+
+        assertEquals(service.currentTimeStep(), configuration(Instant.ofEpochSecond(100), Duration.ofSeconds(60), TOTP.Length.SIX).timeStep(now));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_not_allow_zero_time_step() throws Exception {
+        configuration(Instant.EPOCH, Duration.ZERO, TOTP.Length.SIX);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_not_allow_time_step_below_milliseconds() throws Exception {
+        configuration(Instant.EPOCH, Duration.ofNanos(1_500_000), TOTP.Length.SIX);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.OptionalInt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static se.sawano.java.security.otp.TOTP.totp;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.WindowSize.windowSize;
+
+public class TOTPServiceMatchingOffsetTests {
+
+    // Example data from RFC6238
+    static final TOTP TOTP_1 = totp(14050471, TOTP.Length.EIGHT);
+    static final Instant TIME_1 = Instant.ofEpochSecond(1111111111);
+    static final String SECRET_STR = "12345678901234567890";
+
+    @Test
+    public void should_return_offset_of_matching_step() throws Exception {
+        assertEquals(OptionalInt.of(0), totpServiceWithClockAt(0, windowSize(3)).matchingOffset(TOTP_1, secret()));
+        assertEquals(OptionalInt.of(1), totpServiceWithClockAt(-1, windowSize(3)).matchingOffset(TOTP_1, secret()));
+        assertEquals(OptionalInt.of(-1), totpServiceWithClockAt(1, windowSize(3)).matchingOffset(TOTP_1, secret()));
+    }
+
+    @Test
+    public void should_not_match_outside_of_window() throws Exception {
+        assertFalse(totpServiceWithClockAt(-2, windowSize(3)).matchingOffset(TOTP_1, secret()).isPresent());
+    }
+
+    @Test
+    public void should_center_window_on_expected_offset() throws Exception {
+        final TOTPService service = totpServiceWithClockAt(-4, windowSize(3));
+
+        assertEquals(OptionalInt.of(4), service.matchingOffset(TOTP_1, secret(), 3, windowSize(1)));
+        assertEquals(OptionalInt.of(4), service.matchingOffset(TOTP_1, secret(), 5, windowSize(1)));
+        assertFalse(service.matchingOffset(TOTP_1, secret(), 2, windowSize(1)).isPresent());
+    }
+
+    @Test
+    public void should_fall_back_to_window_around_current_step() throws Exception {
+        final TOTPService service = totpServiceWithClockAt(-2, windowSize(1));
+
+        assertEquals(OptionalInt.of(2), service.matchingOffset(TOTP_1, secret(), 7, windowSize(5)));
+        assertFalse(service.matchingOffset(TOTP_1, secret(), 7, windowSize(3)).isPresent());
+    }
+
+    private static SharedSecret secret() {
+        return from(SECRET_STR, ShaAlgorithm.SHA1);
+    }
+
+    private static TOTPService totpServiceWithClockAt(final int stepsFromTotp, final WindowSize windowSize) {
+        final Clock clock = () -> TIME_1.plus(TOTPService.STEP_SIZE.multipliedBy(stepsFromTotp));
+        return new TOTPService(clock, TOTPService.T0_UTC, TOTPService.STEP_SIZE, windowSize);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.OptionalInt;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static se.sawano.java.security.otp.TOTP.totp;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.WindowSize.windowSize;
+
+public class TOTPServiceParallelWindowTests {
+
+    // Example data from RFC6238
+    static final TOTP TOTP_1 = totp(14050471, TOTP.Length.EIGHT);
+    static final Instant TIME_1 = Instant.ofEpochSecond(1111111111);
+    static final String SECRET_STR = "12345678901234567890";
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterClass
+    public static void shutDownPool() {
+        POOL.shutdownNow();
+    }
+
+    @Test
+    public void should_return_same_offset_as_sequential_evaluation() throws Exception {
+        for (int stepsFromTotp = -25; stepsFromTotp <= 25; ++stepsFromTotp) {
+            final OptionalInt expected = sequentialWithClockAt(stepsFromTotp, windowSize(41)).matchingOffset(TOTP_1, secret(), 3, windowSize(1));
+
+            assertEquals(expected, parallelWithClockAt(stepsFromTotp, windowSize(41)).matchingOffset(TOTP_1, secret(), 3, windowSize(1)));
+        }
+    }
+
+    @Test
+    public void should_return_same_offset_as_sequential_evaluation_of_fallback_window() throws Exception {
+        for (int stepsFromTotp = -25; stepsFromTotp <= 25; ++stepsFromTotp) {
+            final OptionalInt expected = sequentialWithClockAt(stepsFromTotp, windowSize(3)).matchingOffset(TOTP_1, secret(), 5, windowSize(41));
+
+            assertEquals(expected, parallelWithClockAt(stepsFromTotp, windowSize(3)).matchingOffset(TOTP_1, secret(), 5, windowSize(41)));
+        }
+    }
+
+    @Test
+    public void should_return_closest_offset_when_several_match() throws Exception {
+        // Two-digit codes repeat within a window of a few hundred time steps
+        final TOTPService sequential = sequentialWithClockAt(0, windowSize(301));
+        final TOTPService parallel = parallelWithClockAt(0, windowSize(301));
+
+        for (int code = 0; code < 100; ++code) {
+            final TOTP totp = totp(code, TOTP.Length.TWO);
+            assertEquals(sequential.matchingOffset(totp, secret()), parallel.matchingOffset(totp, secret()));
+        }
+    }
+
+    @Test
+    public void should_evaluate_windows_from_threshold_in_parallel_mode() throws Exception {
+        final Clock clock = clockAt(-(TOTPService.PARALLEL_THRESHOLD / 2));
+        final TOTPService service = new TOTPService(clock, TOTPService.T0_UTC, TOTPService.STEP_SIZE, windowSize(TOTPService.PARALLEL_THRESHOLD), POOL);
+
+        assertEquals(OptionalInt.of(TOTPService.PARALLEL_THRESHOLD / 2), service.matchingOffset(TOTP_1, secret()));
+        assertFalse(service.verify(totp(14050472, TOTP.Length.EIGHT), secret()));
+    }
+
+    private static SharedSecret secret() {
+        return from(SECRET_STR, ShaAlgorithm.SHA1);
+    }
+
+    private static TOTPService sequentialWithClockAt(final int stepsFromTotp, final WindowSize windowSize) {
+        return new TOTPService(clockAt(stepsFromTotp), TOTPService.T0_UTC, TOTPService.STEP_SIZE, windowSize);
+    }
+
+    private static TOTPService parallelWithClockAt(final int stepsFromTotp, final WindowSize windowSize) {
+        return new TOTPService(clockAt(stepsFromTotp), TOTPService.T0_UTC, TOTPService.STEP_SIZE, windowSize, POOL, 1);
+    }
+
+    private static Clock clockAt(final int stepsFromTotp) {
+        return () -> TIME_1.plus(TOTPService.STEP_SIZE.multipliedBy(stepsFromTotp));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.application;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import se.sawano.java.security.otp.SecretService;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.TestObjectFactory;
+import se.sawano.java.security.otp.google.keyuri.KeyUriTemplate;
+import se.sawano.java.security.otp.google.keyuri.Label;
+import se.sawano.java.security.otp.google.keyuri.parameters.Digits;
+import se.sawano.java.security.otp.google.keyuri.qr.ErrorCorrectionLevel;
+import se.sawano.java.security.otp.google.keyuri.qr.QrCodeRenderer;
+import se.sawano.java.security.otp.infrastructure.InMemSecretRepository;
+
+import javax.imageio.ImageIO;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.google.keyuri.parameters.Period.period;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class ProvisioningPipelineTests {
+
+    private final InMemSecretRepository repository = new InMemSecretRepository();
+
+    @Test
+    public void should_provision_accounts_and_write_qr_codes_to_archive() throws Exception {
+        repository.save(TestObjectFactory.fromHex("3132333435363738393031323334353637383930", ShaAlgorithm.SHA1), userId("carol"));
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+        final ProvisioningPipeline.Report report = pipeline().run(accounts("alice\nbob\n\nbad:name\ncarol\ndave@example.com\n"), archive);
+
+        assertEquals(3, report.provisioned());
+        assertEquals(2, report.failures().size());
+        assertEquals(4L, (long) report.failures().get(0).location());
+        assertEquals(5L, (long) report.failures().get(1).location());
+        assertEquals("STORE: Secret already exists", report.failures().get(1).reason());
+        assertEquals(asList(4L, 3L, 3L, 3L, 3L), stageItems(report));
+        assertTrue(repository.secretFor(userId("alice")).isPresent());
+        assertTrue(repository.secretFor(userId("dave@example.com")).isPresent());
+
+        final List<String> entries = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                entries.add(entry.getName());
+                assertNotNull(ImageIO.read(new NonClosingInputStream(zip)));
+            }
+        }
+        entries.sort(String::compareTo);
+        assertEquals(asList("1_alice.png", "2_bob.png", "6_dave@example.com.png"), entries);
+    }
+
+    @Test
+    public void should_provision_repeated_account_once() throws Exception {
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+        final ProvisioningPipeline.Report report = pipeline().run(accounts("alice\n  alice \nbob\nalice\n"), archive);
+
+        assertEquals(2, report.provisioned());
+        assertEquals(2, report.failures().size());
+        assertEquals(2L, (long) report.failures().get(0).location());
+        assertEquals(4L, (long) report.failures().get(1).location());
+        assertEquals("Duplicate account", report.failures().get(1).reason());
+        assertTrue(repository.secretFor(userId("alice")).isPresent());
+
+        final List<String> entries = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                entries.add(entry.getName());
+            }
+        }
+        entries.sort(String::compareTo);
+        assertEquals(asList("1_alice.png", "3_bob.png"), entries);
+    }
+
+    @Test
+    public void should_remove_secret_of_account_that_fails_after_it_was_stored() throws Exception {
+        // Percent-encoded, the account name does not fit in a QR code with the highest error correction level
+        final String tooLongForQrCode = StringUtils.repeat('\u20AC', Label.AccountName.MAX_LENGTH);
+        final ProvisioningPipeline pipeline = builder().withQrCodeRenderer(new QrCodeRenderer(ErrorCorrectionLevel.H, 1, 4)).create();
+
+        final ProvisioningPipeline.Report report = pipeline.run(accounts("alice\n" + tooLongForQrCode + "\nbob\n"), new ByteArrayOutputStream());
+
+        assertEquals(2, report.provisioned());
+        assertEquals(1, report.failures().size());
+        assertEquals(2L, (long) report.failures().get(0).location());
+        assertTrue(report.failures().get(0).reason().startsWith("RENDER: "));
+        assertFalse(repository.secretFor(userId(tooLongForQrCode)).isPresent());
+        assertTrue(repository.secretFor(userId("alice")).isPresent());
+        assertTrue(repository.secretFor(userId("bob")).isPresent());
+    }
+
+    private ProvisioningPipeline pipeline() {
+        return builder().create();
+    }
+
+    private ProvisioningPipeline.Builder builder() {
+        return ProvisioningPipeline.builder()
+                                   .withSecretService(new SecretService())
+                                   .withSecretRepository(repository)
+                                   .withKeyUriTemplate(KeyUriTemplate.totpTemplate(Label.Issuer.issuer("Acme"), ShaAlgorithm.SHA1,
+                                                                                   Digits.SIX, period(Duration.ofSeconds(30))))
+                                   .withBatchSize(2)
+                                   .withMaxBatchesInFlight(2);
+    }
+
+    private static List<Long> stageItems(final ProvisioningPipeline.Report report) {
+        final List<Long> items = new ArrayList<>();
+        report.stages().forEach(s -> items.add(s.items()));
+        return items;
+    }
+
+    private static BufferedReader accounts(final String value) {
+        return new BufferedReader(new StringReader(value));
+    }
+
+    private static final class NonClosingInputStream extends FilterInputStream {
+        NonClosingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Base32Tests {
+
+    @Test
+    public void should_encode_rfc_4648_test_vectors_without_padding() {
+        assertEquals("", encode(""));
+        assertEquals("MY", encode("f"));
+        assertEquals("MZXQ", encode("fo"));
+        assertEquals("MZXW6", encode("foo"));
+        assertEquals("MZXW6YQ", encode("foob"));
+        assertEquals("MZXW6YTB", encode("fooba"));
+        assertEquals("MZXW6YTBOI", encode("foobar"));
+    }
+
+    @Test
+    public void should_decode_with_or_without_padding_in_any_case() {
+        assertEquals("foobar", decode("MZXW6YTBOI"));
+        assertEquals("foobar", decode("MZXW6YTBOI======"));
+        assertEquals("foobar", decode("mzxw6ytboi"));
+        assertEquals("foob", decode("MZXW6YQ="));
+    }
+
+    @Test
+    public void should_be_same_as_commons_codec() {
+        final Random random = new Random(1);
+        for (int length = 0; length < 70; ++length) {
+            final byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            final String expected = new org.apache.commons.codec.binary.Base32().encodeAsString(bytes).replace("=", "");
+
+            final char[] chars = new char[Base32.encodedLength(length) + 2];
+            final int written = Base32.encode(bytes, 0, length, chars, 1);
+
+            assertEquals(expected, new String(chars, 1, written));
+            assertArrayEquals(bytes, Base32.decode(expected));
+        }
+    }
+
+    @Test
+    public void should_encode_and_decode_between_buffers() {
+        final byte[] bytes = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+        final char[] chars = new char[32];
+
+        assertEquals(32, Base32.encode(ByteBuffer.wrap(bytes), chars, 0));
+        assertEquals("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", new String(chars));
+
+        final ByteBuffer decoded = ByteBuffer.allocate(24);
+        assertEquals(20, Base32.decode(new String(chars), 0, 32, decoded));
+        assertArrayEquals(bytes, Arrays.copyOf(decoded.array(), decoded.position()));
+
+        final byte[] fromChars = new byte[20];
+        assertEquals(20, Base32.decode(chars, 0, 32, fromChars, 0));
+        assertArrayEquals(bytes, fromChars);
+
+        final byte[] fromAscii = new byte[20];
+        assertEquals(20, Base32.decode("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ====".getBytes(StandardCharsets.US_ASCII), 0, 36, fromAscii, 0));
+        assertArrayEquals(bytes, fromAscii);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_invalid_character() {
+        Base32.decode("MZXW6YT1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_invalid_length() {
+        Base32.decode("MZXW6YTBO");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_too_small_target() {
+        Base32.encode(new byte[5], 0, 5, new char[7], 0);
+    }
+
+    private static String encode(final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        final char[] chars = new char[Base32.encodedLength(bytes.length)];
+        return new String(chars, 0, Base32.encode(bytes, 0, bytes.length, chars, 0));
+    }
+
+    private static String decode(final String value) {
+        return new String(Base32.decode(value), StandardCharsets.US_ASCII);
+    }
+}
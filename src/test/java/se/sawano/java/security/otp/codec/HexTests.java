@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.codec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HexTests {
+
+    @Test
+    public void should_encode_to_lower_case() {
+        assertEquals("00017f80ff", new String(Hex.encode(new byte[]{0, 1, 127, -128, -1})));
+    }
+
+    @Test
+    public void should_decode_either_case() {
+        assertArrayEquals(new byte[]{0, 1, 127, -128, -1}, Hex.decode("00017F80fF"));
+    }
+
+    @Test
+    public void should_encode_and_decode_regions() {
+        final char[] chars = new char[6];
+        assertEquals(4, Hex.encode(new byte[]{9, 10, 11, 12}, 1, 2, chars, 1));
+        assertEquals("0a0b", new String(chars, 1, 4));
+
+        final byte[] bytes = new byte[3];
+        assertEquals(2, Hex.decode("xx0a0b", 2, 6, bytes, 1));
+        assertArrayEquals(new byte[]{0, 10, 11}, bytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_odd_length() {
+        Hex.decode("abc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_invalid_character() {
+        Hex.decode("0g");
+    }
+}
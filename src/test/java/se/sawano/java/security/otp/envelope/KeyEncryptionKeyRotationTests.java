@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.envelope;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.sawano.java.security.otp.ImportReport;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.infrastructure.InMemSecretRepository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class KeyEncryptionKeyRotationTests {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final KeyEncryptionKey key1 = KeyEncryptionKey.generate(1);
+    private final KeyEncryptionKey key2 = KeyEncryptionKey.generate(2);
+
+    @Test
+    public void should_rewrap_data_keys() throws Exception {
+        final Path file = fileWithRecords(key1, key1, key1);
+        final long size = Files.size(file);
+
+        final long rewrapped = KeyEncryptionKeyRotation.rewrap(file, singletonList(key1), key2);
+
+        assertEquals(3, rewrapped);
+        assertEquals(size, Files.size(file));
+        assertAllLoadWith(file, key2);
+        assertEquals(3, new SecretRecordLoader(singletonList(key1)).load(file, new InMemSecretRepository()).failures().size());
+    }
+
+    @Test
+    public void should_skip_records_already_wrapped_by_next_key() throws Exception {
+        final Path file = fileWithRecords(key1, key2, key1);
+
+        assertEquals(2, KeyEncryptionKeyRotation.rewrap(file, singletonList(key1), key2));
+        assertEquals(0, KeyEncryptionKeyRotation.rewrap(file, singletonList(key1), key2));
+        assertAllLoadWith(file, key2);
+    }
+
+    @Test
+    public void should_not_change_file_if_a_key_is_missing() throws Exception {
+        final KeyEncryptionKey key3 = KeyEncryptionKey.generate(3);
+        final Path file = fileWithRecords(key1, key2);
+        final byte[] before = Files.readAllBytes(file);
+
+        try {
+            KeyEncryptionKeyRotation.rewrap(file, singletonList(key1), key3);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            assertArrayEquals(before, Files.readAllBytes(file));
+        }
+    }
+
+    @Test
+    public void should_not_change_file_if_writing_is_interrupted() throws Exception {
+        final Path file = fileWithRecords(key1, key1);
+        final byte[] before = Files.readAllBytes(file);
+        // A directory in place of the temporary file makes writing it fail
+        Files.createDirectories(KeyEncryptionKeyRotation.temporaryFileOf(file).resolve("blocker"));
+
+        try {
+            KeyEncryptionKeyRotation.rewrap(file, singletonList(key1), key2);
+            fail();
+        } catch (final IOException e) {
+            assertArrayEquals(before, Files.readAllBytes(file));
+            assertAllLoadWith(file, key1);
+        }
+    }
+
+    @Test
+    public void should_rerun_rotation_over_partially_written_temporary_file() throws Exception {
+        final Path file = fileWithRecords(key1, key1);
+        final Path temporary = KeyEncryptionKeyRotation.temporaryFileOf(file);
+        Files.write(temporary, Arrays.copyOf(Files.readAllBytes(file), 10));
+
+        assertEquals(2, KeyEncryptionKeyRotation.rewrap(file, singletonList(key1), key2));
+
+        assertAllLoadWith(file, key2);
+        assertFalse(Files.exists(temporary));
+    }
+
+    @Test
+    public void should_rotate_with_key_files() throws Exception {
+        final byte[] oldKey = new byte[32];
+        final byte[] newKey = new byte[32];
+        newKey[0] = 1;
+        final Path oldKeyFile = folder.newFile("old.key").toPath();
+        final Path newKeyFile = folder.newFile("new.key").toPath();
+        Files.write(oldKeyFile, oldKey);
+        Files.write(newKeyFile, newKey);
+        final Path file = fileWithRecords(KeyEncryptionKey.keyEncryptionKey(7, oldKey));
+
+        KeyEncryptionKeyRotation.main(new String[]{file.toString(), "8", newKeyFile.toString(), "7=" + oldKeyFile});
+
+        assertAllLoadWith(file, KeyEncryptionKey.keyEncryptionKey(8, newKey));
+    }
+
+    private Path fileWithRecords(final KeyEncryptionKey... keys) throws Exception {
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (int i = 0; i < keys.length; ++i) {
+            records.write(SecretRecord.seal(userId("user-" + i), secret(i), keys[i]));
+        }
+        final Path file = folder.newFile().toPath();
+        Files.write(file, records.toByteArray());
+        return file;
+    }
+
+    private static void assertAllLoadWith(final Path file, final KeyEncryptionKey key) throws Exception {
+        final InMemSecretRepository repository = new InMemSecretRepository();
+        final ImportReport<Integer> report = new SecretRecordLoader(asList(key)).load(file, repository);
+
+        assertEquals(0, report.failures().size());
+        for (int i = 0; i < report.imported(); ++i) {
+            assertArrayEquals(secret(i).value(), repository.secretFor(userId("user-" + i)).get().value());
+        }
+    }
+
+    private static SharedSecret secret(final int i) {
+        return from(StringUtils.leftPad(Integer.toString(i), 32, 's'), ShaAlgorithm.SHA256);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.envelope;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.sawano.java.security.otp.ImportReport;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPConfiguration;
+import se.sawano.java.security.otp.infrastructure.InMemCredentialRepository;
+import se.sawano.java.security.otp.infrastructure.InMemSecretRepository;
+import se.sawano.java.security.otp.user.Credential;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.user.CredentialId.credentialId;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class SecretRecordLoaderTests {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final TOTPConfiguration EIGHT_DIGITS = TOTPConfiguration.configuration(TOTPConfiguration.DEFAULT.t0(), Duration.ofSeconds(60), TOTP.Length.EIGHT);
+
+    private final KeyEncryptionKey key1 = KeyEncryptionKey.generate(1);
+    private final KeyEncryptionKey key2 = KeyEncryptionKey.generate(2);
+
+    @Test
+    public void should_load_records_in_parallel_batches() throws Exception {
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (int i = 0; i < 500; ++i) {
+            records.write(SecretRecord.seal(userId("user-" + i), secret(i), i % 2 == 0 ? key1 : key2));
+        }
+        final Path file = folder.newFile("secrets.bin").toPath();
+        Files.write(file, records.toByteArray());
+        final InMemSecretRepository repository = new InMemSecretRepository();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            final ImportReport<Integer> report = new SecretRecordLoader(asList(key1, key2), pool).load(file, repository);
+
+            assertEquals(500, report.imported());
+            assertTrue(report.failures().isEmpty());
+            for (int i = 0; i < 500; ++i) {
+                assertArrayEquals(secret(i).value(), repository.secretFor(userId("user-" + i)).get().value());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void should_report_records_that_cannot_be_decrypted() throws Exception {
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        records.write(SecretRecord.seal(userId("john"), secret(1), key1));
+        records.write(SecretRecord.seal(userId("jane"), secret(2), key2));
+        records.write(SecretRecord.seal(userId("joe"), secret(3), KeyEncryptionKey.generate(1)));
+        final InMemSecretRepository repository = new InMemSecretRepository();
+
+        final ImportReport<Integer> report = new SecretRecordLoader(singletonList(key1)).load(records.toByteArray(), repository);
+
+        assertEquals(1, report.imported());
+        assertEquals(2, report.failures().size());
+        assertEquals(1, (int) report.failures().get(0).location());
+        assertEquals("Unknown key-encryption key id: 2", report.failures().get(0).reason());
+        assertEquals(2, (int) report.failures().get(1).location());
+        assertTrue(repository.secretFor(userId("john")).isPresent());
+        assertFalse(repository.secretFor(userId("joe")).isPresent());
+    }
+
+    @Test
+    public void should_report_records_of_other_totp_configuration_than_that_of_secret_repository() throws Exception {
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        records.write(SecretRecord.seal(userId("john"), secret(1), key1));
+        records.write(SecretRecord.seal(userId("jane"), secret(2), EIGHT_DIGITS, key1));
+        final InMemSecretRepository repository = new InMemSecretRepository();
+
+        final ImportReport<Integer> report = new SecretRecordLoader(singletonList(key1)).load(records.toByteArray(), repository);
+
+        assertEquals(1, report.imported());
+        assertEquals(1, report.failures().size());
+        assertEquals(1, (int) report.failures().get(0).location());
+        assertTrue(report.failures().get(0).reason().startsWith("TOTP configuration"));
+        assertFalse(repository.secretFor(userId("jane")).isPresent());
+    }
+
+    @Test
+    public void should_load_records_of_the_totp_configuration_of_secret_repository() throws Exception {
+        final byte[] records = SecretRecord.seal(userId("jane"), secret(2), EIGHT_DIGITS, key1);
+        final InMemSecretRepository repository = new InMemSecretRepository();
+
+        final ImportReport<Integer> report = new SecretRecordLoader(singletonList(key1)).load(records, repository, EIGHT_DIGITS);
+
+        assertEquals(1, report.imported());
+        assertTrue(repository.secretFor(userId("jane")).isPresent());
+    }
+
+    @Test
+    public void should_load_records_into_credential_repository_with_their_totp_configuration() throws Exception {
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        records.write(SecretRecord.seal(userId("john"), secret(1), key1));
+        records.write(SecretRecord.seal(userId("jane"), secret(2), EIGHT_DIGITS, key1));
+        final InMemCredentialRepository repository = new InMemCredentialRepository();
+
+        final ImportReport<Integer> report = new SecretRecordLoader(singletonList(key1)).load(records.toByteArray(), repository, userId -> credentialId("totp"));
+
+        assertEquals(2, report.imported());
+        assertEquals(TOTPConfiguration.DEFAULT, repository.credentialsFor(userId("john")).get(0).configuration());
+        final Credential credential = repository.credentialsFor(userId("jane")).get(0);
+        assertEquals(credentialId("totp"), credential.id());
+        assertEquals(EIGHT_DIGITS, credential.configuration());
+        assertArrayEquals(secret(2).value(), credential.secret().value());
+    }
+
+    @Test
+    public void should_load_empty_file() throws Exception {
+        assertEquals(0, new SecretRecordLoader(singletonList(key1)).load(new byte[0], new InMemSecretRepository()).imported());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_broken_file_before_loading() throws Exception {
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        records.write(SecretRecord.seal(userId("john"), secret(1), key1));
+        records.write(new byte[]{'O', 'T', 'P'});
+        final InMemSecretRepository repository = new InMemSecretRepository();
+
+        try {
+            new SecretRecordLoader(singletonList(key1)).load(records.toByteArray(), repository);
+        } finally {
+            assertFalse(repository.secretFor(userId("john")).isPresent());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_not_accept_duplicate_key_ids() throws Exception {
+        new SecretRecordLoader(asList(key1, KeyEncryptionKey.generate(1)));
+    }
+
+    private static SharedSecret secret(final int i) {
+        return from(StringUtils.leftPad(Integer.toString(i), 20, 's'), ShaAlgorithm.SHA1);
+    }
+}
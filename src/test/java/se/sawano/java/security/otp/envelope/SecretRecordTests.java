@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.envelope;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPConfiguration;
+
+import javax.crypto.AEADBadTagException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class SecretRecordTests {
+
+    private final KeyEncryptionKey key = KeyEncryptionKey.generate(1);
+
+    @Test
+    public void should_open_sealed_record() throws Exception {
+        for (final ShaAlgorithm algorithm : ShaAlgorithm.values()) {
+            final byte[] record = SecretRecord.seal(userId("john"), secret(algorithm), key);
+
+            final SharedSecret opened = SecretRecord.open(record, 0, key);
+
+            assertEquals(algorithm, opened.algorithm());
+            assertArrayEquals(secret(algorithm).value(), opened.value());
+            assertEquals(userId("john"), SecretRecord.userIdOf(record, 0));
+            assertEquals(1, SecretRecord.keyEncryptionKeyId(record, 0));
+            assertEquals(record.length, SecretRecord.recordLength(record, 0));
+            assertEquals(TOTPConfiguration.DEFAULT, SecretRecord.configurationOf(record, 0));
+        }
+    }
+
+    @Test
+    public void should_keep_totp_configuration() throws Exception {
+        final TOTPConfiguration configuration = TOTPConfiguration.configuration(Instant.ofEpochSecond(1000), Duration.ofSeconds(60), TOTP.Length.EIGHT);
+        final byte[] record = SecretRecord.seal(userId("john"), secret(ShaAlgorithm.SHA1), configuration, key);
+
+        assertEquals(configuration, SecretRecord.configurationOf(record, 0));
+        assertArrayEquals(secret(ShaAlgorithm.SHA1).value(), SecretRecord.open(record, 0, key).value());
+    }
+
+    @Test(expected = AEADBadTagException.class)
+    public void should_not_open_record_with_other_totp_configuration() throws Exception {
+        final byte[] record = SecretRecord.seal(userId("john"), secret(ShaAlgorithm.SHA1), key);
+        record[23] = 8;
+
+        SecretRecord.open(record, 0, key);
+    }
+
+    @Test
+    public void should_not_contain_secret_in_plain_text() throws Exception {
+        final byte[] record = SecretRecord.seal(userId("john"), secret(ShaAlgorithm.SHA1), key);
+
+        assertFalse(new String(record, "ISO-8859-1").contains(StringUtils.repeat("s", 20)));
+    }
+
+    @Test
+    public void should_use_new_data_key_for_every_record() throws Exception {
+        final byte[] first = SecretRecord.seal(userId("john"), secret(ShaAlgorithm.SHA1), key);
+        final byte[] second = SecretRecord.seal(userId("john"), secret(ShaAlgorithm.SHA1), key);
+
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    @Test(expected = AEADBadTagException.class)
+    public void should_not_open_record_with_other_key() throws Exception {
+        final byte[] record = SecretRecord.seal(userId("john"), secret(ShaAlgorithm.SHA1), key);
+
+        SecretRecord.open(record, 0, KeyEncryptionKey.generate(1));
+    }
+
+    @Test(expected = AEADBadTagException.class)
+    public void should_not_open_record_of_other_user() throws Exception {
+        final byte[] record = SecretRecord.seal(userId("john"), secret(ShaAlgorithm.SHA1), key);
+        record[record.length - 2 - 20 - 16 - 1] = 'x';
+
+        SecretRecord.open(record, 0, key);
+    }
+
+    @Test(expected = AEADBadTagException.class)
+    public void should_not_open_record_with_other_algorithm() throws Exception {
+        final byte[] record = SecretRecord.seal(userId("john"), secret(ShaAlgorithm.SHA1), key);
+        record[6] = 2;
+
+        SecretRecord.open(record, 0, key);
+    }
+
+    @Test
+    public void should_open_rewrapped_record_with_next_key() throws Exception {
+        final byte[] record = SecretRecord.seal(userId("john"), secret(ShaAlgorithm.SHA256), key);
+        final KeyEncryptionKey next = KeyEncryptionKey.generate(2);
+
+        SecretRecord.rewrap(record, 0, key, next);
+
+        assertEquals(2, SecretRecord.keyEncryptionKeyId(record, 0));
+        assertArrayEquals(secret(ShaAlgorithm.SHA256).value(), SecretRecord.open(record, 0, next).value());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_unsupported_format_version() throws Exception {
+        final byte[] record = SecretRecord.seal(userId("john"), secret(ShaAlgorithm.SHA1), key);
+        record[4] = 2;
+
+        SecretRecord.recordLength(record, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_truncated_record() throws Exception {
+        final byte[] record = SecretRecord.seal(userId("john"), secret(ShaAlgorithm.SHA1), key);
+
+        SecretRecord.recordLength(Arrays.copyOf(record, record.length - 1), 0);
+    }
+
+    private static SharedSecret secret(final ShaAlgorithm algorithm) {
+        return from(StringUtils.repeat("s", algorithm == ShaAlgorithm.SHA1 ? 20 : algorithm == ShaAlgorithm.SHA256 ? 32 : 64), algorithm);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.sawano.java.security.otp.ImportReport;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.infrastructure.InMemSecretRepository;
+import se.sawano.java.security.otp.user.UserId;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class KeyUriImporterTests {
+
+    private static final String SECRET = "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final InMemSecretRepository repository = new InMemSecretRepository();
+
+    @Test
+    public void should_import_all_lines_of_file_in_batches() throws Exception {
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            lines.add("otpauth://totp/Acme:user" + i + "?secret=" + SECRET + "&issuer=Acme&algorithm=SHA256");
+        }
+        final Path file = folder.newFile().toPath();
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            final ImportReport<Long> report = new KeyUriImporter(repository, byAccountName(), executor, 64).importFrom(file);
+
+            assertEquals(1000, report.imported());
+            assertEquals(0, report.failures().size());
+        } finally {
+            executor.shutdown();
+        }
+        final SharedSecret secret = repository.secretFor(userId("user999")).get();
+        assertEquals(ShaAlgorithm.SHA256, secret.algorithm());
+        assertArrayEquals("12345678901234567890".getBytes(StandardCharsets.US_ASCII), secret.value());
+    }
+
+    @Test
+    public void should_report_lines_that_could_not_be_imported() throws Exception {
+        final String input = "# exported 2017-01-01\n" +
+                "otpauth://totp/Acme:alice?secret=" + SECRET + "\n" +
+                "\n" +
+                "otpauth://totp/Acme:bob?secret=invalid!\n" +
+                "otpauth://totp/Acme:carol?secret=GEZDGNBVGY3TQOJQ\n" +
+                "otpauth://totp/Acme:dave?secret=" + SECRET + "\n";
+
+        final ImportReport<Long> report = new KeyUriImporter(repository, byAccountName()).importFrom(new BufferedReader(new StringReader(input)));
+
+        assertEquals(2, report.imported());
+        assertEquals(2, report.failures().size());
+        assertEquals(4L, (long) report.failures().get(0).location());
+        assertEquals(5L, (long) report.failures().get(1).location());
+        assertEquals("Minimum length of secret is 20 bytes", report.failures().get(1).reason());
+        assertFalse(repository.secretFor(userId("bob")).isPresent());
+    }
+
+    private static Function<KeyUri, UserId> byAccountName() {
+        return keyUri -> userId(keyUri.label().accountName().value());
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri;
+
+import org.junit.Test;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.TestObjectFactory;
+import se.sawano.java.security.otp.google.keyuri.parameters.Algorithm;
+import se.sawano.java.security.otp.google.keyuri.parameters.Digits;
+import se.sawano.java.security.otp.google.keyuri.parameters.HOTPParameters;
+import se.sawano.java.security.otp.google.keyuri.parameters.TOTPParameters;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static se.sawano.java.security.otp.google.keyuri.parameters.Counter.counter;
+import static se.sawano.java.security.otp.google.keyuri.parameters.Period.period;
+
+public class KeyUriParserTests {
+
+    private static final String SECRET = "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ";
+
+    @Test
+    public void should_parse_totp_uri_in_key_uri_format() {
+        final KeyUri keyUri = KeyUriParser.parse("otpauth://totp/Example%20Co:alice%40google.com?secret=" + SECRET +
+                                                         "&issuer=Example%20Co&algorithm=SHA256&digits=8&period=60");
+
+        final TOTPParameters parameters = keyUri.totpParameters().get();
+        assertEquals(Type.TOTP, keyUri.type());
+        assertEquals("alice@google.com", keyUri.label().accountName().value());
+        assertEquals("Example Co", keyUri.label().issuer().get().value());
+        assertEquals("Example Co", parameters.issuer().get().value());
+        assertEquals(Algorithm.SHA256, parameters.algorithm().get());
+        assertEquals(Digits.EIGHT, parameters.digits().get());
+        assertEquals(60, parameters.period().get().value());
+        assertEquals(SECRET, parameters.secret().value());
+    }
+
+    @Test
+    public void should_parse_uri_created_by_factory() {
+        final String uri = KeyUriFactory.totpKeyUriFrom(TestObjectFactory.fromHex("3132333435363738393031323334353637383930", ShaAlgorithm.SHA1),
+                                                        Digits.SIX, period(Duration.ofSeconds(30)),
+                                                        Label.AccountName.accountName("jörg@example.com"),
+                                                        Label.Issuer.issuer("Example Company"))
+                                        .toURI()
+                                        .toString();
+
+        final KeyUri keyUri = KeyUriParser.parse(uri);
+
+        assertEquals("jörg@example.com", keyUri.label().accountName().value());
+        assertEquals("Example Company", keyUri.label().issuer().get().value());
+        assertEquals(uri, keyUri.toURI().toString());
+    }
+
+    @Test
+    public void should_parse_hotp_uri() {
+        final String uri = KeyUriFactory.hotpKeyUriFrom(TestObjectFactory.fromHex("3132333435363738393031323334353637383930", ShaAlgorithm.SHA512),
+                                                        Digits.EIGHT, counter(42), Label.AccountName.accountName("bob"),
+                                                        Label.Issuer.issuer("Acme"))
+                                        .toURI()
+                                        .toString();
+
+        final KeyUri keyUri = KeyUriParser.parse(uri);
+
+        final HOTPParameters parameters = keyUri.hotpParameters().get();
+        assertEquals(Type.HOTP, keyUri.type());
+        assertEquals(42, parameters.counter().get().value());
+        assertEquals(Algorithm.SHA512, parameters.algorithm().get());
+        assertEquals(uri, keyUri.toURI().toString());
+    }
+
+    @Test
+    public void should_use_defaults_and_ignore_unknown_parameters() {
+        final KeyUri keyUri = KeyUriParser.parse("otpauth://totp/alice?secret=gezdgnbvgy3tqojqgezdgnbvgy3tqojq&image=x");
+
+        final TOTPParameters parameters = keyUri.totpParameters().get();
+        assertEquals("alice", keyUri.label().accountName().value());
+        assertFalse(keyUri.label().issuer().isPresent());
+        assertEquals(30, parameters.period().get().value());
+        assertFalse(parameters.algorithm().isPresent());
+        assertEquals(SECRET, parameters.secret().value());
+    }
+
+    @Test
+    public void should_decode_padded_secret() {
+        final KeyUriParser.Parsed parsed = KeyUriParser.parseWithSecret("otpauth://totp/a?secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQGE======");
+
+        assertEquals(21, parsed.secret.length);
+        assertEquals('1', parsed.secret[20]);
+        assertEquals(ShaAlgorithm.SHA1, parsed.algorithm);
+    }
+
+    @Test
+    public void should_reject_invalid_uris() {
+        final String valid = "otpauth://totp/Acme:alice?secret=" + SECRET;
+        assertInvalid("http://totp/Acme:alice?secret=" + SECRET);
+        assertInvalid("otpauth://motp/Acme:alice?secret=" + SECRET);
+        assertInvalid("otpauth://totp/Acme:alice");
+        assertInvalid("otpauth://totp/Acme:alice?issuer=Acme");
+        assertInvalid(valid + "&secret=" + SECRET);
+        assertInvalid(valid + "&issuer=Other");
+        assertInvalid(valid + "&digits=7");
+        assertInvalid(valid + "&period=0");
+        assertInvalid(valid + "&period=abc");
+        assertInvalid(valid + "&counter=1");
+        assertInvalid(valid + "&algorithm=MD5");
+        assertInvalid(valid + "&issuer=%E2%82");
+        assertInvalid(valid + "&issuer=%G1");
+        assertInvalid(valid + "&noequals");
+        assertInvalid(valid.replace("alice", "al ice"));
+        assertInvalid(valid.replace("alice", "alïce"));
+        assertInvalid("otpauth://totp/Acme:alice?secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJ1");
+        assertInvalid("otpauth://totp/Acme:alice?secret=GEZDGNBVG");
+        assertInvalid("otpauth://totp/Acme:a:b?secret=" + SECRET);
+        assertInvalid("otpauth://hotp/Acme:alice?secret=" + SECRET);
+        assertInvalid("otpauth://hotp/Acme:alice?counter=1&period=30&secret=" + SECRET);
+    }
+
+    private static void assertInvalid(final String uri) {
+        try {
+            KeyUriParser.parse(uri);
+            fail("Expected " + uri + " to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri;
+
+import org.junit.Test;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TestObjectFactory;
+import se.sawano.java.security.otp.google.keyuri.parameters.Digits;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static se.sawano.java.security.otp.google.keyuri.parameters.Period.period;
+
+public class KeyUriTemplateTests {
+
+    private static final String HEX_SECRET = "3132333435363738393031323334353637383930";
+
+    @Test
+    public void should_create_same_uri_as_factory() {
+        final KeyUriTemplate template = KeyUriTemplate.totpTemplate(issuer("Example Company"), ShaAlgorithm.SHA1, Digits.SIX,
+                                                                    period(Duration.ofSeconds(30)));
+
+        final String result = template.uriStringFor(secret(HEX_SECRET, ShaAlgorithm.SHA1), accountName("jane.doe@example.com"));
+
+        assertEquals(factoryUri(HEX_SECRET, ShaAlgorithm.SHA1, "jane.doe@example.com", "Example Company", Digits.SIX, 30), result);
+        assertEquals("otpauth://totp/jane.doe%40example.com%3AExample%20Company?algorithm=SHA1&digits=6" +
+                             "&issuer=Example%20Company&period=30&secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", result);
+    }
+
+    @Test
+    public void should_create_same_uri_as_factory_for_secrets_of_any_length() {
+        final KeyUriTemplate template = KeyUriTemplate.totpTemplate(issuer("Acme Åb"), ShaAlgorithm.SHA256, Digits.EIGHT,
+                                                                    period(Duration.ofSeconds(60)));
+        String hex = HEX_SECRET;
+        for (int i = 1; i <= 20; ++i) {
+            hex += String.format("%02x", i * 37 & 0xFF);
+
+            final String result = template.uriStringFor(secret(hex, ShaAlgorithm.SHA256), accountName("Jörg " + i));
+
+            assertEquals(factoryUri(hex, ShaAlgorithm.SHA256, "Jörg " + i, "Acme Åb", Digits.EIGHT, 60), result);
+        }
+    }
+
+    @Test
+    public void should_append_several_uris_to_same_builder() {
+        final KeyUriTemplate template = KeyUriTemplate.totpTemplate(issuer("Acme"), ShaAlgorithm.SHA1, Digits.SIX,
+                                                                    period(Duration.ofSeconds(30)));
+        final StringBuilder builder = new StringBuilder();
+
+        template.appendTo(builder, secret(HEX_SECRET, ShaAlgorithm.SHA1), accountName("a")).append('\n');
+        template.appendTo(builder, secret(HEX_SECRET, ShaAlgorithm.SHA1), accountName("b"));
+
+        assertEquals("otpauth://totp/a%3AAcme?algorithm=SHA1&digits=6&issuer=Acme&period=30&secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ\n" +
+                             "otpauth://totp/b%3AAcme?algorithm=SHA1&digits=6&issuer=Acme&period=30&secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", builder.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_not_accept_secret_with_other_algorithm() {
+        final KeyUriTemplate template = KeyUriTemplate.totpTemplate(issuer("Acme"), ShaAlgorithm.SHA1, Digits.SIX,
+                                                                    period(Duration.ofSeconds(30)));
+
+        template.uriStringFor(secret(HEX_SECRET, ShaAlgorithm.SHA512), accountName("a"));
+    }
+
+    private static String factoryUri(final String hexSecret, final ShaAlgorithm algorithm, final String accountName,
+                                     final String issuer, final Digits digits, final long periodSeconds) {
+        return KeyUriFactory.totpKeyUriFrom(secret(hexSecret, algorithm), digits, period(Duration.ofSeconds(periodSeconds)),
+                                            accountName(accountName), issuer(issuer))
+                            .toURI()
+                            .toString();
+    }
+
+    private static SharedSecret secret(final String hex, final ShaAlgorithm algorithm) {
+        return TestObjectFactory.fromHex(hex, algorithm);
+    }
+
+    private static Label.AccountName accountName(final String value) {
+        return Label.AccountName.accountName(value);
+    }
+
+    private static Label.Issuer issuer(final String value) {
+        return Label.Issuer.issuer(value);
+    }
+}
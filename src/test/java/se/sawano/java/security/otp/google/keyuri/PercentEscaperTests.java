@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PercentEscaperTests {
+
+    private final PercentEscaper escaper = new PercentEscaper("-._~", false);
+
+    @Test
+    public void should_return_same_instance_when_nothing_needs_escaping() {
+        final String value = "alice-01_example.com~";
+
+        assertSame(value, escaper.escape(value));
+    }
+
+    @Test
+    public void should_escape_every_code_point_like_the_generic_escaper() {
+        for (int cp = 0; cp <= 0x10FFFF; cp += cp < 0x800 ? 1 : 97) {
+            if (Character.getType(cp) == Character.SURROGATE) {
+                continue;
+            }
+            final String value = "a" + new String(Character.toChars(cp)) + "b";
+
+            assertEquals("Code point " + cp, escaper.escapeSlow(value, 0), escaper.escape(value));
+        }
+    }
+
+    @Test
+    public void should_replace_space_with_plus_when_configured() {
+        final PercentEscaper plusForSpace = new PercentEscaper("", true);
+
+        assertEquals("a+b%C3%A5", plusForSpace.escape("a bå"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_trailing_high_surrogate() {
+        escaper.escape("a\ud83d");
+    }
+}
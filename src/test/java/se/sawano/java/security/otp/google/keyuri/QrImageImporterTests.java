@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.sawano.java.security.otp.ImportReport;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.google.keyuri.qr.QrCodeRenderer;
+import se.sawano.java.security.otp.infrastructure.InMemSecretRepository;
+import se.sawano.java.security.otp.user.UserId;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class QrImageImporterTests {
+
+    private static final String SECRET = "GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final InMemSecretRepository repository = new InMemSecretRepository();
+    private final QrCodeRenderer renderer = new QrCodeRenderer();
+
+    @Test
+    public void should_import_all_images_of_directory_in_parallel() throws Exception {
+        final Path directory = folder.newFolder().toPath();
+        for (int i = 0; i < 50; ++i) {
+            writePng("otpauth://totp/Acme:user" + i + "?secret=" + SECRET + "&issuer=Acme&algorithm=SHA512", directory.resolve("user" + i + ".png"));
+        }
+        Files.write(directory.resolve("README.txt"), "not an image".getBytes(StandardCharsets.US_ASCII));
+        final ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            final ImportReport<Path> report = new QrImageImporter(repository, byAccountName(), pool).importFrom(directory);
+
+            assertEquals(50, report.imported());
+            assertEquals(0, report.failures().size());
+        } finally {
+            pool.shutdown();
+        }
+        final SharedSecret secret = repository.secretFor(userId("user49")).get();
+        assertEquals(ShaAlgorithm.SHA512, secret.algorithm());
+        assertArrayEquals("12345678901234567890".getBytes(StandardCharsets.US_ASCII), secret.value());
+    }
+
+    @Test
+    public void should_report_images_that_could_not_be_imported() throws Exception {
+        final Path directory = folder.newFolder().toPath();
+        writePng("otpauth://totp/Acme:alice?secret=" + SECRET, directory.resolve("a.png"));
+        writePng("https://example.com", directory.resolve("b.png"));
+        Files.write(directory.resolve("c.png"), "not an image".getBytes(StandardCharsets.US_ASCII));
+
+        final ImportReport<Path> report = new QrImageImporter(repository, byAccountName()).importFrom(directory);
+
+        assertEquals(1, report.imported());
+        assertEquals(2, report.failures().size());
+        assertEquals(directory.resolve("b.png"), report.failures().get(0).location());
+        assertEquals("Not an otpauth URI", report.failures().get(0).reason());
+        assertEquals(directory.resolve("c.png"), report.failures().get(1).location());
+    }
+
+    private void writePng(final String text, final Path file) throws Exception {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            renderer.writePng(text, out);
+        }
+    }
+
+    private static Function<KeyUri, UserId> byAccountName() {
+        return keyUri -> userId(keyUri.label().accountName().value());
+    }
+}
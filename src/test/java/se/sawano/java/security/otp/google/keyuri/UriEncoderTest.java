@@ -36,7 +36,12 @@ public class UriEncoderTest {
                 {whenEncoding("+"), thenResultShouldBe("%2B")},
                 {whenEncoding("@"), thenResultShouldBe("%40")},
                 {whenEncoding(":"), thenResultShouldBe("%3A")},
-                {whenEncoding("abcdABCD"), thenResultShouldBe("abcdABCD")}
+                {whenEncoding("abcdABCD"), thenResultShouldBe("abcdABCD")},
+                {whenEncoding("-._~"), thenResultShouldBe("-._~")},
+                {whenEncoding("\u00f6"), thenResultShouldBe("%C3%B6")},
+                {whenEncoding("\u20ac"), thenResultShouldBe("%E2%82%AC")},
+                {whenEncoding("\ud83d\ude00"), thenResultShouldBe("%F0%9F%98%80")},
+                {whenEncoding("J\u00f6rg Svensson@acme"), thenResultShouldBe("J%C3%B6rg%20Svensson%40acme")}
         });
 
     }
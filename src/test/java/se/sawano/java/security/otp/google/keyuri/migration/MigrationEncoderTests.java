@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.migration;
+
+import org.junit.Test;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.google.keyuri.KeyUri;
+import se.sawano.java.security.otp.google.keyuri.KeyUriFactory;
+import se.sawano.java.security.otp.google.keyuri.Label;
+import se.sawano.java.security.otp.google.keyuri.parameters.Counter;
+import se.sawano.java.security.otp.google.keyuri.parameters.Digits;
+import se.sawano.java.security.otp.google.keyuri.parameters.Period;
+import se.sawano.java.security.otp.google.keyuri.qr.QrCodeRenderer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MigrationEncoderTests {
+
+    // Exported by Google Authenticator, without batch fields
+    private static final String GOOGLE_EXAMPLE = "otpauth-migration://offline?data=CjEKCkhlbGxvId6tvu8SGEV4YW1wbGU6YWxpY2VAZ29vZ2xlLmNvbRoHRXhhbXBsZTAC";
+
+    @Test
+    public void should_decode_google_authenticator_export() {
+        final MigrationBatch batch = MigrationDecoder.decode(GOOGLE_EXAMPLE);
+
+        assertEquals(1, batch.keyUris().size());
+        assertEquals(0, batch.batchIndex());
+        assertEquals(1, batch.batchSize());
+        assertEquals("otpauth://totp/alice%40google.com%3AExample?algorithm=SHA1&digits=6&issuer=Example&period=30&secret=JBSWY3DPEHPK3PXP",
+                     batch.keyUris().get(0).toURI().toString());
+    }
+
+    @Test
+    public void should_round_trip_many_accounts_in_few_batches() {
+        final List<KeyUri> keyUris = new ArrayList<>();
+        for (int i = 0; i < 30; ++i) {
+            keyUris.add(i % 3 == 0 ? hotp("user" + i) : totp("användare" + i));
+        }
+
+        final List<String> uris = new MigrationEncoder().encode(keyUris, 4711);
+
+        assertTrue(uris.size() > 1);
+        assertTrue(uris.size() < 10);
+        final List<KeyUri> decoded = new ArrayList<>();
+        for (int i = 0; i < uris.size(); ++i) {
+            assertTrue(uris.get(i).length() < 800);
+            final MigrationBatch batch = MigrationDecoder.decode(uris.get(i));
+            assertEquals(4711, batch.batchId());
+            assertEquals(i, batch.batchIndex());
+            assertEquals(uris.size(), batch.batchSize());
+            decoded.addAll(batch.keyUris());
+        }
+        assertEquals(keyUris.size(), decoded.size());
+        for (int i = 0; i < keyUris.size(); ++i) {
+            assertEquals(keyUris.get(i).toURI(), decoded.get(i).toURI());
+        }
+    }
+
+    @Test
+    public void should_produce_uris_that_fit_in_qr_codes() {
+        final List<KeyUri> keyUris = new ArrayList<>();
+        for (int i = 0; i < 12; ++i) {
+            keyUris.add(totp("user" + i));
+        }
+
+        for (final String uri : new MigrationEncoder().encode(keyUris)) {
+            assertFalse(uri.contains("+"));
+            assertFalse(uri.indexOf('/', "otpauth-migration://".length()) >= 0);
+            assertTrue(new QrCodeRenderer().png(uri).length > 0);
+        }
+    }
+
+    @Test
+    public void should_put_oversized_entry_in_batch_of_its_own() {
+        final List<KeyUri> keyUris = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            keyUris.add(totp("user" + i));
+        }
+
+        final List<String> uris = new MigrationEncoder(30).encode(keyUris, 1);
+
+        assertEquals(3, uris.size());
+        assertEquals(Collections.singletonList(keyUris.get(2).toURI()), Collections.singletonList(MigrationDecoder.decode(uris.get(2)).keyUris().get(0).toURI()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_period_other_than_30_seconds() {
+        final KeyUri keyUri = KeyUriFactory.totpKeyUriFrom(secret(ShaAlgorithm.SHA1), Digits.SIX, Period.period(Duration.ofSeconds(60)),
+                                                           Label.AccountName.accountName("alice"), Label.Issuer.issuer("Acme"));
+
+        new MigrationEncoder().encode(Collections.singletonList(keyUri));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_truncated_payload() {
+        MigrationDecoder.decode(GOOGLE_EXAMPLE.substring(0, GOOGLE_EXAMPLE.length() - 8));
+    }
+
+    private static KeyUri totp(final String accountName) {
+        return KeyUriFactory.totpKeyUriFrom(secret(ShaAlgorithm.SHA256), Digits.EIGHT, Period.period(Duration.ofSeconds(30)),
+                                            Label.AccountName.accountName(accountName), Label.Issuer.issuer("Acme Corp"));
+    }
+
+    private static KeyUri hotp(final String accountName) {
+        return KeyUriFactory.hotpKeyUriFrom(secret(ShaAlgorithm.SHA1), Digits.SIX, Counter.counter(1234567890123L),
+                                            Label.AccountName.accountName(accountName), Label.Issuer.issuer("Acme"));
+    }
+
+    private static SharedSecret secret(final ShaAlgorithm algorithm) {
+        return SharedSecret.from("12345678901234567890".getBytes(StandardCharsets.US_ASCII), algorithm);
+    }
+}
@@ -20,12 +20,16 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPConfiguration;
+import se.sawano.java.security.otp.TOTPService;
 import se.sawano.java.security.otp.TestObjectFactory;
 
 import static java.time.Duration.ofSeconds;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static se.sawano.java.security.otp.google.keyuri.parameters.Period.period;
 
 public class TOTPParametersTests {
@@ -54,6 +58,22 @@ public class TOTPParametersTests {
         assertEquals("?algorithm=SHA1&digits=6&issuer=Example%20Co&period=30&secret=ENJDVNXVNESP7N2VIOHSQG5RVID77N7P", parameters.asUriString());
     }
 
+    @Test
+    public void should_create_configuration_from_period_and_digits() throws Exception {
+        final TOTPParameters parameters = completeBuilder().withDigits(Digits.EIGHT)
+                                                           .withPeriod(period(ofSeconds(60)))
+                                                           .create();
+
+        assertSame(TOTPConfiguration.configuration(TOTPService.T0_UTC, ofSeconds(60), TOTP.Length.EIGHT), parameters.configuration());
+    }
+
+    @Test
+    public void should_create_default_configuration_without_digits() throws Exception {
+        final TOTPParameters parameters = completeBuilder().withDigits(null).create();
+
+        assertSame(TOTPConfiguration.DEFAULT, parameters.configuration());
+    }
+
     private ParametersBuilder.TotpParametersBuilder parametersWithoutPeriod() {
         return completeBuilder()
                 .withPeriod(null);
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.qr;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class QrCodeReaderTests {
+
+    private static final String KEY_URI = "otpauth://totp/Acme%3Aalice%40example.com?secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ&issuer=Acme&algorithm=SHA1&digits=6&period=30";
+
+    private final QrCodeReader reader = new QrCodeReader();
+
+    @Test
+    public void should_read_rendered_key_uri() {
+        assertEquals(KEY_URI, reader.read(new QrCodeRenderer().png(KEY_URI)));
+    }
+
+    @Test
+    public void should_read_all_versions_and_levels() {
+        for (final ErrorCorrectionLevel level : ErrorCorrectionLevel.values()) {
+            final QrCodeRenderer renderer = new QrCodeRenderer(level, 1, 2);
+            for (int length = 1; length <= 1200; length += 37) {
+                final String text = text(length);
+
+                assertEquals(text, reader.read(renderer.png(text)));
+            }
+        }
+    }
+
+    @Test
+    public void should_read_non_ascii_text() {
+        assertEquals("Jörg ⌘ 😀", reader.read(new QrCodeRenderer().png("Jörg ⌘ 😀")));
+    }
+
+    @Test
+    public void should_read_images_of_other_colour_types_and_scales() throws Exception {
+        final byte[] rendered = new QrCodeRenderer(ErrorCorrectionLevel.M, 1, 4).png(KEY_URI);
+        final BufferedImage original = ImageIO.read(new ByteArrayInputStream(rendered));
+        final int[] types = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_USHORT_GRAY};
+
+        for (final int type : types) {
+            for (final double scale : new double[]{1, 3, 4.5}) {
+                final int side = (int) (original.getWidth() * scale);
+                final BufferedImage image = new BufferedImage(side, side, type);
+                final Graphics2D graphics = image.createGraphics();
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, side, side);
+                graphics.drawImage(original, 0, 0, side, side, null);
+                graphics.dispose();
+
+                assertEquals("type " + type + ", scale " + scale, KEY_URI, reader.read(png(image)));
+            }
+        }
+    }
+
+    @Test
+    public void should_correct_damaged_modules() {
+        final QrEncoder encoder = new QrEncoder();
+        final byte[] data = KEY_URI.getBytes(StandardCharsets.US_ASCII);
+        encoder.encode(data, data.length, ErrorCorrectionLevel.M);
+        final Bitmap bitmap = bitmap(encoder);
+        // Smudge a few modules in the bottom right corner, which only holds data and error correction
+        for (int y = encoder.size() - 4; y < encoder.size(); ++y) {
+            for (int x = encoder.size() - 4; x < encoder.size(); ++x) {
+                if (!encoder.isDark(x, y)) {
+                    bitmap.setDark(x + 1, y + 1);
+                }
+            }
+        }
+        final QrDecoder decoder = new QrDecoder();
+
+        final int length = decoder.decode(bitmap);
+
+        assertEquals(KEY_URI, new String(decoder.text(), 0, length, StandardCharsets.US_ASCII));
+        assertEquals(encoder.version(), decoder.version());
+        assertEquals(encoder.errorCorrectionLevel(), decoder.errorCorrectionLevel());
+        assertEquals(encoder.mask(), decoder.mask());
+    }
+
+    @Test
+    public void should_correct_errors_in_iso_example() {
+        final byte[] block = bytes(32, 91, 11, 120, 209, 114, 220, 77, 67, 64, 236, 17, 236, 17, 236, 17,
+                                   196, 35, 39, 119, 235, 215, 231, 226, 93, 23);
+        final byte[] damaged = block.clone();
+        damaged[0] ^= 0x55;
+        damaged[7] = 0;
+        damaged[15] ^= 0x01;
+        damaged[20] ^= 0xFF;
+        damaged[25] = 42;
+
+        assertEquals(5, ReedSolomon.correct(damaged, 0, damaged.length, 10));
+        assertArrayEquals(block, damaged);
+        assertEquals(0, ReedSolomon.correct(damaged, 0, damaged.length, 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_image_without_qr_code() throws Exception {
+        reader.read(png(new BufferedImage(50, 50, BufferedImage.TYPE_BYTE_BINARY)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_non_png() {
+        reader.read("GIF89a".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_truncated_image_data_without_allocating_its_declared_length() throws Exception {
+        final byte[] rendered = new QrCodeRenderer().png(KEY_URI);
+        final ByteArrayOutputStream image = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(image);
+        out.write(rendered, 0, 8 + 25); // Signature and header chunk
+        out.writeInt(Integer.MAX_VALUE);
+        out.writeBytes("IDAT");
+        out.write(new byte[100]);
+
+        reader.read(image.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_header_of_wrong_length() throws Exception {
+        final ByteArrayOutputStream image = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(image);
+        out.writeLong(0x89504E470D0A1A0AL);
+        out.writeInt(Integer.MAX_VALUE);
+        out.writeBytes("IHDR");
+
+        reader.read(image.toByteArray());
+    }
+
+    private static Bitmap bitmap(final QrEncoder encoder) {
+        final Bitmap bitmap = new Bitmap();
+        bitmap.reset(encoder.size() + 2, encoder.size() + 2);
+        for (int y = 0; y < encoder.size(); ++y) {
+            for (int x = 0; x < encoder.size(); ++x) {
+                if (encoder.isDark(x, y)) {
+                    bitmap.setDark(x + 1, y + 1);
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    private static String text(final int length) {
+        final StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            text.append((char) ('!' + i * 7 % 90));
+        }
+        return text.toString();
+    }
+
+    private static byte[] png(final BufferedImage image) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(final int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.qr;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.TestObjectFactory;
+import se.sawano.java.security.otp.google.keyuri.KeyUri;
+import se.sawano.java.security.otp.google.keyuri.KeyUriFactory;
+import se.sawano.java.security.otp.google.keyuri.Label;
+import se.sawano.java.security.otp.google.keyuri.parameters.Digits;
+
+import javax.imageio.ImageIO;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static se.sawano.java.security.otp.google.keyuri.parameters.Period.period;
+
+public class QrCodeRendererTests {
+
+    @Test
+    public void should_render_key_uri_as_png() throws Exception {
+        final KeyUri keyUri = keyUri();
+        final QrCodeRenderer renderer = new QrCodeRenderer(ErrorCorrectionLevel.M, 3, 4);
+
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(renderer.png(keyUri)));
+
+        final QrEncoder expected = encode(keyUri.toURI().toASCIIString(), ErrorCorrectionLevel.M);
+        assertEquals((expected.size() + 8) * 3, image.getWidth());
+        assertEquals(image.getWidth(), image.getHeight());
+        for (int y = -4; y < expected.size() + 4; ++y) {
+            for (int x = -4; x < expected.size() + 4; ++x) {
+                final boolean dark = x >= 0 && y >= 0 && x < expected.size() && y < expected.size() && expected.isDark(x, y);
+                final int rgb = image.getRGB((x + 4) * 3 + 1, (y + 4) * 3 + 2) & 0xFFFFFF;
+                assertEquals("Module " + x + "," + y, dark ? 0x000000 : 0xFFFFFF, rgb);
+            }
+        }
+    }
+
+    @Test
+    public void should_render_key_uri_as_svg() throws Exception {
+        final QrCodeRenderer renderer = new QrCodeRenderer();
+
+        final String svg = renderer.svg(keyUri());
+
+        final Document document = DocumentBuilderFactory.newInstance()
+                                                        .newDocumentBuilder()
+                                                        .parse(new ByteArrayInputStream(svg.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("svg", document.getDocumentElement().getTagName());
+        assertEquals("244", document.getDocumentElement().getAttribute("width"));
+    }
+
+    @Test
+    public void should_render_same_image_with_reused_buffers() throws Exception {
+        final QrCodeRenderer renderer = new QrCodeRenderer();
+        final String large = repeat("otpauth://totp/", 40);
+        final String small = "otpauth://totp/a?secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ";
+
+        renderer.png(large);
+        renderer.svg(large);
+        final byte[] reused = renderer.png(small);
+
+        final byte[] fresh = CompletableFuture.supplyAsync(() -> renderer.png(small), r -> new Thread(r).start()).get();
+        assertArrayEquals(fresh, reused);
+    }
+
+    @Test
+    public void should_render_non_ascii_text() throws Exception {
+        final String text = "otpauth://totp/Jörg";
+
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(new QrCodeRenderer(ErrorCorrectionLevel.L, 1, 0).png(text)));
+
+        assertEquals(25, image.getWidth());
+    }
+
+    private static QrEncoder encode(final String text, final ErrorCorrectionLevel level) {
+        final QrEncoder encoder = new QrEncoder();
+        final byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        encoder.encode(data, data.length, level);
+        return encoder;
+    }
+
+    private static KeyUri keyUri() {
+        return KeyUriFactory.totpKeyUriFrom(TestObjectFactory.fromHex("3132333435363738393031323334353637383930", ShaAlgorithm.SHA1),
+                                            Digits.SIX, period(Duration.ofSeconds(30)),
+                                            Label.AccountName.accountName("jane.doe@example.com"),
+                                            Label.Issuer.issuer("Example Company"));
+    }
+
+    private static String repeat(final String value, final int times) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; ++i) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.google.keyuri.qr;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QrEncoderTests {
+
+    private final QrEncoder encoder = new QrEncoder();
+
+    @Test
+    public void should_compute_error_correction_of_iso_example() {
+        final byte[] data = bytes(32, 91, 11, 120, 209, 114, 220, 77, 67, 64, 236, 17, 236, 17, 236, 17);
+        final byte[] ecc = new byte[10];
+
+        ReedSolomon.remainder(data, 0, data.length, ecc.length, ecc, 0);
+
+        assertArrayEquals(bytes(196, 35, 39, 119, 235, 215, 231, 226, 93, 23), ecc);
+    }
+
+    @Test
+    public void should_compute_format_and_version_information() {
+        assertEquals(0b101010000010010, QrEncoder.formatBits(ErrorCorrectionLevel.M, 0));
+        assertEquals(0b111011111000100, QrEncoder.formatBits(ErrorCorrectionLevel.L, 0));
+        assertEquals(0x07C94, QrEncoder.versionBits(7));
+        assertEquals(0x28C69, QrEncoder.versionBits(40));
+    }
+
+    @Test
+    public void should_have_capacities_of_standard() {
+        assertEquals(19, QrEncoder.numberOfDataCodewords(1, ErrorCorrectionLevel.L));
+        assertEquals(9, QrEncoder.numberOfDataCodewords(1, ErrorCorrectionLevel.H));
+        assertEquals(2956, QrEncoder.numberOfDataCodewords(40, ErrorCorrectionLevel.L));
+        assertEquals(1276, QrEncoder.numberOfDataCodewords(40, ErrorCorrectionLevel.H));
+    }
+
+    @Test
+    public void should_place_alignment_patterns_as_in_standard() {
+        final int[] positions = new int[7];
+
+        assertEquals(0, QrEncoder.alignmentPatternPositions(1, positions));
+        assertEquals(3, QrEncoder.alignmentPatternPositions(7, positions));
+        assertArrayEquals(new int[]{6, 22, 38}, Arrays.copyOf(positions, 3));
+        assertEquals(6, QrEncoder.alignmentPatternPositions(32, positions));
+        assertArrayEquals(new int[]{6, 34, 60, 86, 112, 138}, Arrays.copyOf(positions, 6));
+        assertEquals(7, QrEncoder.alignmentPatternPositions(40, positions));
+        assertArrayEquals(new int[]{6, 30, 58, 86, 114, 142, 170}, positions);
+    }
+
+    @Test
+    public void should_use_smallest_version_and_raise_error_correction_when_it_fits() {
+        encode("abcdefghijklmn", ErrorCorrectionLevel.L);
+
+        assertEquals(1, encoder.version());
+        assertEquals(21, encoder.size());
+        assertEquals(ErrorCorrectionLevel.M, encoder.errorCorrectionLevel());
+
+        encode("otpauth://totp/jane.doe%40example.com%3AExample%20Company?algorithm=SHA1&digits=6" +
+                       "&issuer=Example%20Company&period=30&secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", ErrorCorrectionLevel.M);
+
+        assertEquals(9, encoder.version());
+        assertEquals(ErrorCorrectionLevel.M, encoder.errorCorrectionLevel());
+    }
+
+    @Test
+    public void should_draw_function_patterns() {
+        encode("hello", ErrorCorrectionLevel.M);
+        final int size = encoder.size();
+
+        for (final int[] corner : new int[][]{{0, 0}, {size - 7, 0}, {0, size - 7}}) {
+            for (int i = 0; i < 7; ++i) {
+                assertTrue(encoder.isDark(corner[0] + i, corner[1]));
+                assertTrue(encoder.isDark(corner[0], corner[1] + i));
+            }
+            assertFalse(encoder.isDark(corner[0] + 1, corner[1] + 1));
+            assertTrue(encoder.isDark(corner[0] + 3, corner[1] + 3));
+        }
+        for (int i = 8; i < size - 8; ++i) {
+            assertEquals(i % 2 == 0, encoder.isDark(i, 6));
+            assertEquals(i % 2 == 0, encoder.isDark(6, i));
+        }
+        assertTrue(encoder.isDark(8, size - 8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_not_encode_too_much_data() {
+        encoder.encode(new byte[2954], 2954, ErrorCorrectionLevel.L);
+    }
+
+    @Test
+    public void should_encode_largest_data() {
+        encoder.encode(new byte[2953], 2953, ErrorCorrectionLevel.L);
+
+        assertEquals(40, encoder.version());
+        assertEquals(177, encoder.size());
+    }
+
+    @Test
+    public void should_clear_matrix_of_encoded_data() {
+        encode("otpauth://totp/Acme:alice?secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", ErrorCorrectionLevel.M);
+
+        encoder.clear();
+
+        for (int y = 0; y < encoder.size(); ++y) {
+            for (int x = 0; x < encoder.size(); ++x) {
+                assertFalse(encoder.isDark(x, y));
+            }
+        }
+    }
+
+    private void encode(final String text, final ErrorCorrectionLevel level) {
+        final byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        encoder.encode(data, data.length, level);
+    }
+
+    private static byte[] bytes(final int... values) {
+        final byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+}
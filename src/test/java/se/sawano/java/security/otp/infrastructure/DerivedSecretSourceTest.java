@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import org.junit.Test;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.user.UserId;
+
+import java.util.Arrays;
+import java.util.OptionalInt;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class DerivedSecretSourceTest {
+
+    private static final byte[] MASTER_KEY_1 = masterKey((byte) 1);
+    private static final byte[] MASTER_KEY_2 = masterKey((byte) 2);
+
+    @Test
+    public void should_derive_same_secret_every_time() throws Exception {
+        final DerivedSecretSource source = source(DerivedSecretSource.builder(ShaAlgorithm.SHA1).withMasterKey(1, MASTER_KEY_1));
+
+        assertArrayEquals(secret(source, "john"), secret(source, "john"));
+    }
+
+    @Test
+    public void should_derive_same_secret_in_every_source_with_same_master_key() throws Exception {
+        final byte[] first = secret(source(DerivedSecretSource.builder(ShaAlgorithm.SHA256).withMasterKey(1, MASTER_KEY_1)), "john");
+        final byte[] second = secret(source(DerivedSecretSource.builder(ShaAlgorithm.SHA256).withMasterKey(1, MASTER_KEY_1)), "john");
+
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    public void should_derive_different_secrets_for_different_users() throws Exception {
+        final DerivedSecretSource source = source(DerivedSecretSource.builder(ShaAlgorithm.SHA1).withMasterKey(1, MASTER_KEY_1));
+
+        assertFalse(Arrays.equals(secret(source, "john"), secret(source, "jane")));
+    }
+
+    @Test
+    public void should_derive_secrets_of_hash_length() throws Exception {
+        assertEquals(20, secretOf(ShaAlgorithm.SHA1).keyLength());
+        assertEquals(32, secretOf(ShaAlgorithm.SHA256).keyLength());
+        assertEquals(64, secretOf(ShaAlgorithm.SHA512).keyLength());
+        assertEquals(ShaAlgorithm.SHA512, secretOf(ShaAlgorithm.SHA512).algorithm());
+    }
+
+    @Test
+    public void should_use_highest_key_id_as_current_by_default() throws Exception {
+        final DerivedSecretSource source = DerivedSecretSource.builder(ShaAlgorithm.SHA1)
+                                                              .withMasterKey(2, MASTER_KEY_2)
+                                                              .withMasterKey(1, MASTER_KEY_1)
+                                                              .withKeyIdResolver(enrolledWith(2))
+                                                              .create();
+
+        assertEquals(2, source.currentKeyId());
+        assertArrayEquals(source.secretFor(userId("john"), 2).get().value(), secret(source, "john"));
+    }
+
+    @Test
+    public void should_derive_different_secrets_for_different_key_ids() throws Exception {
+        final DerivedSecretSource source = source(DerivedSecretSource.builder(ShaAlgorithm.SHA1)
+                                                                     .withMasterKey(1, MASTER_KEY_1)
+                                                                     .withMasterKey(2, MASTER_KEY_1));
+
+        assertFalse(Arrays.equals(source.secretFor(userId("john"), 1).get().value(), source.secretFor(userId("john"), 2).get().value()));
+    }
+
+    @Test
+    public void should_keep_secrets_of_users_enrolled_before_rotation() throws Exception {
+        final DerivedSecretSource beforeRotation = source(DerivedSecretSource.builder(ShaAlgorithm.SHA1).withMasterKey(1, MASTER_KEY_1));
+        final byte[] enrolled = secret(beforeRotation, "john");
+
+        final DerivedSecretSource afterRotation = DerivedSecretSource.builder(ShaAlgorithm.SHA1)
+                                                                     .withMasterKey(1, MASTER_KEY_1)
+                                                                     .withMasterKey(2, MASTER_KEY_2)
+                                                                     .withKeyIdResolver(userId -> OptionalInt.of(userId.value().equals("john") ? 1 : 2))
+                                                                     .create();
+
+        assertEquals(2, afterRotation.currentKeyId());
+        assertArrayEquals(enrolled, secret(afterRotation, "john"));
+        assertFalse(Arrays.equals(secret(beforeRotation, "jane"), secret(afterRotation, "jane")));
+    }
+
+    @Test
+    public void should_not_return_secret_for_unknown_key_id() throws Exception {
+        final DerivedSecretSource source = DerivedSecretSource.builder(ShaAlgorithm.SHA1)
+                                                              .withMasterKey(1, MASTER_KEY_1)
+                                                              .withKeyIdResolver(enrolledWith(0))
+                                                              .create();
+
+        assertFalse(source.secretFor(userId("john")).isPresent());
+    }
+
+    @Test
+    public void should_not_return_secret_for_user_that_is_not_enrolled() throws Exception {
+        final DerivedSecretSource source = DerivedSecretSource.builder(ShaAlgorithm.SHA1)
+                                                              .withMasterKey(1, MASTER_KEY_1)
+                                                              .withKeyIdResolver(userId -> userId.value().equals("john") ? OptionalInt.of(1) : OptionalInt.empty())
+                                                              .create();
+
+        assertTrue(source.secretFor(userId("john")).isPresent());
+        assertFalse(source.secretFor(userId("jane")).isPresent());
+    }
+
+    @Test
+    public void should_return_independent_copies() throws Exception {
+        final DerivedSecretSource source = source(DerivedSecretSource.builder(ShaAlgorithm.SHA1).withMasterKey(1, MASTER_KEY_1));
+        final SharedSecret first = source.secretFor(userId("john")).get();
+
+        first.value();
+
+        assertArrayEquals(secret(source, "john"), secret(source, "john"));
+    }
+
+    @Test
+    public void should_bound_cache() throws Exception {
+        final DerivedSecretSource source = source(DerivedSecretSource.builder(ShaAlgorithm.SHA1)
+                                                                     .withMasterKey(1, MASTER_KEY_1)
+                                                                     .withCacheSize(8));
+        final byte[] first = secret(source, "user-0");
+
+        for (int i = 0; i < 100; ++i) {
+            secret(source, "user-" + i);
+        }
+
+        assertTrue(source.cacheSize() <= 8);
+        assertArrayEquals(first, secret(source, "user-0"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_require_key_id_resolver() throws Exception {
+        DerivedSecretSource.builder(ShaAlgorithm.SHA1).withMasterKey(1, MASTER_KEY_1).create();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_not_accept_short_master_key() throws Exception {
+        DerivedSecretSource.builder(ShaAlgorithm.SHA1).withMasterKey(1, new byte[31]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_require_master_key_for_current_key_id() throws Exception {
+        DerivedSecretSource.builder(ShaAlgorithm.SHA1).withMasterKey(1, MASTER_KEY_1).withCurrentKeyId(2).withKeyIdResolver(enrolledWith(1)).create();
+    }
+
+    /**
+     * Creates a source with all users enrolled with key id 1.
+     */
+    private static DerivedSecretSource source(final DerivedSecretSource.Builder builder) {
+        return builder.withKeyIdResolver(enrolledWith(1)).create();
+    }
+
+    private static Function<UserId, OptionalInt> enrolledWith(final int keyId) {
+        return userId -> OptionalInt.of(keyId);
+    }
+
+    private static byte[] secret(final DerivedSecretSource source, final String user) {
+        return source.secretFor(userId(user)).get().value();
+    }
+
+    private static SharedSecret secretOf(final ShaAlgorithm algorithm) {
+        return source(DerivedSecretSource.builder(algorithm).withMasterKey(1, MASTER_KEY_1)).secretFor(userId("john")).get();
+    }
+
+    private static byte[] masterKey(final byte value) {
+        final byte[] key = new byte[32];
+        Arrays.fill(key, value);
+        return key;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class InMemCounterRepositoryTest {
+
+    private final InMemCounterRepository repository = new InMemCounterRepository();
+
+    @Test
+    public void should_start_at_zero_for_unknown_user() throws Exception {
+        assertEquals(0, repository.counterFor(userId("john")));
+    }
+
+    @Test
+    public void should_store_counter_per_user() throws Exception {
+        repository.save(5, userId("john"));
+        repository.save(7, userId("jane"));
+
+        assertEquals(5, repository.counterFor(userId("john")));
+        assertEquals(7, repository.counterFor(userId("jane")));
+    }
+
+    @Test
+    public void should_advance_from_expected_counter_only() throws Exception {
+        repository.save(5, userId("john"));
+
+        assertTrue(repository.compareAndAdvance(userId("john"), 5, 9));
+        assertFalse(repository.compareAndAdvance(userId("john"), 5, 6));
+
+        assertEquals(9, repository.counterFor(userId("john")));
+    }
+
+    @Test
+    public void should_advance_unknown_user_from_zero() throws Exception {
+        assertTrue(repository.compareAndAdvance(userId("john"), 0, 1));
+
+        assertEquals(1, repository.counterFor(userId("john")));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import org.junit.Test;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.user.Credential;
+
+import java.util.List;
+import java.util.OptionalLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.user.Credential.credential;
+import static se.sawano.java.security.otp.user.CredentialId.credentialId;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class InMemCredentialRepositoryTest {
+
+    private final InMemCredentialRepository repository = new InMemCredentialRepository();
+
+    @Test
+    public void should_keep_credentials_in_order_of_first_save() throws Exception {
+        repository.save(credential(credentialId("phone"), from("12345678901234567890", ShaAlgorithm.SHA1)), userId("john"));
+        repository.save(credential(credentialId("token"), from("abcdefghijklmnopqrst", ShaAlgorithm.SHA1)), userId("john"));
+        repository.save(credential(credentialId("phone"), from("ABCDEFGHIJKLMNOPQRST", ShaAlgorithm.SHA256)), userId("john"));
+
+        final List<Credential> credentials = repository.credentialsFor(userId("john"));
+
+        assertEquals(2, credentials.size());
+        assertEquals(credentialId("phone"), credentials.get(0).id());
+        assertEquals(ShaAlgorithm.SHA256, credentials.get(0).secret().algorithm());
+        assertArrayEquals("ABCDEFGHIJKLMNOPQRST".getBytes("UTF-8"), credentials.get(0).secret().value());
+        assertEquals(credentialId("token"), credentials.get(1).id());
+    }
+
+    @Test
+    public void should_hand_out_secrets_more_than_once() throws Exception {
+        repository.save(credential(credentialId("phone"), from("12345678901234567890", ShaAlgorithm.SHA1)), userId("john"));
+
+        repository.credentialsFor(userId("john")).get(0).secret().value();
+
+        assertArrayEquals("12345678901234567890".getBytes("UTF-8"), repository.credentialsFor(userId("john")).get(0).secret().value());
+    }
+
+    @Test
+    public void should_record_later_time_steps_only() throws Exception {
+        repository.save(credential(credentialId("phone"), from("12345678901234567890", ShaAlgorithm.SHA1)), userId("john"));
+
+        assertTrue(repository.recordUse(userId("john"), credentialId("phone"), 100, 2));
+        assertFalse(repository.recordUse(userId("john"), credentialId("phone"), 100, 0));
+        assertFalse(repository.recordUse(userId("john"), credentialId("phone"), 99, 0));
+        assertFalse(repository.recordUse(userId("john"), credentialId("token"), 101, 0));
+
+        final Credential credential = repository.credentialsFor(userId("john")).get(0);
+        assertEquals(OptionalLong.of(100), credential.lastTimeStep());
+        assertEquals(2, credential.drift());
+    }
+
+    @Test
+    public void should_keep_state_when_credential_is_saved_again() throws Exception {
+        repository.save(credential(credentialId("phone"), from("12345678901234567890", ShaAlgorithm.SHA1)), userId("john"));
+        assertTrue(repository.recordUse(userId("john"), credentialId("phone"), 100, 2));
+
+        repository.save(credential(credentialId("phone"), from("12345678901234567890", ShaAlgorithm.SHA1)), userId("john"));
+
+        assertFalse(repository.recordUse(userId("john"), credentialId("phone"), 100, 0));
+        final Credential credential = repository.credentialsFor(userId("john")).get(0);
+        assertEquals(OptionalLong.of(100), credential.lastTimeStep());
+        assertEquals(2, credential.drift());
+    }
+
+    @Test
+    public void should_seed_state_from_saved_credential() throws Exception {
+        repository.save(credential(credentialId("phone"), from("12345678901234567890", ShaAlgorithm.SHA1)).withUse(-1, 100), userId("john"));
+
+        assertFalse(repository.recordUse(userId("john"), credentialId("phone"), 100, 0));
+        assertEquals(-1, repository.credentialsFor(userId("john")).get(0).drift());
+    }
+
+    @Test
+    public void should_delete_credential() throws Exception {
+        repository.save(credential(credentialId("phone"), from("12345678901234567890", ShaAlgorithm.SHA1)), userId("john"));
+        repository.save(credential(credentialId("token"), from("abcdefghijklmnopqrst", ShaAlgorithm.SHA1)), userId("john"));
+
+        repository.deleteFor(userId("john"), credentialId("phone"));
+        repository.deleteFor(userId("john"), credentialId("token"));
+
+        assertTrue(repository.credentialsFor(userId("john")).isEmpty());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class InMemDriftRepositoryTest {
+
+    private final InMemDriftRepository repository = new InMemDriftRepository();
+
+    @Test
+    public void should_have_no_drift_for_unknown_user() throws Exception {
+        assertEquals(0, repository.driftFor(userId("john")));
+    }
+
+    @Test
+    public void should_store_drift_per_user() throws Exception {
+        repository.save(2, userId("john"));
+        repository.save(-1, userId("jane"));
+
+        assertEquals(2, repository.driftFor(userId("john")));
+        assertEquals(-1, repository.driftFor(userId("jane")));
+    }
+
+    @Test
+    public void should_reset_drift() throws Exception {
+        repository.save(2, userId("john"));
+        repository.save(0, userId("john"));
+
+        assertEquals(0, repository.driftFor(userId("john")));
+    }
+}
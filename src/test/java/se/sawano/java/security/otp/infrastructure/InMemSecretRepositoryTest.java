@@ -41,6 +41,15 @@ public class InMemSecretRepositoryTest {
         thenSecretInRepositoryFor("john.doe").is(secretA());
     }
 
+    @Test
+    public void should_return_secret_more_than_once() throws Exception {
+        givenRepository();
+        givenSharedSecretInRepositoryFor("john").is(secretA());
+
+        thenSecretInRepositoryFor("john").is(secretA());
+        thenSecretInRepositoryFor("john").is(secretA());
+    }
+
     @Test
     public void should_delete_secret() throws Exception {
         givenRepository();
@@ -63,6 +72,38 @@ public class InMemSecretRepositoryTest {
         thenSecretInRepositoryFor("jane").is(secretB());
     }
 
+    @Test
+    public void should_store_sealed_secret() throws Exception {
+        givenSealedRepository();
+        givenSharedSecret(secretA());
+
+        whenStoringSecretFor("john.doe");
+
+        thenSecretInRepositoryFor("john.doe").is(secretA());
+        thenSecretInRepositoryFor("john.doe").is(secretA());
+    }
+
+    @Test
+    public void should_keep_algorithm_of_sealed_secret() throws Exception {
+        givenSealedRepository();
+        givenSharedSecretInRepositoryFor("john").is(from(StringUtils.repeat("c", 64), ShaAlgorithm.SHA512));
+
+        thenSecretInRepositoryFor("john").is(from(StringUtils.repeat("c", 64), ShaAlgorithm.SHA512));
+        assertEquals(ShaAlgorithm.SHA512, repository.secretFor(userId("john")).get().algorithm());
+    }
+
+    @Test
+    public void should_delete_sealed_secret() throws Exception {
+        givenSealedRepository();
+        givenSharedSecretInRepositoryFor("john").is(secretA());
+        givenSharedSecretInRepositoryFor("jane").is(secretB());
+
+        whenDeletingSecretFor("john");
+
+        thenNoSecretExistFor("john");
+        thenSecretInRepositoryFor("jane").is(secretB());
+    }
+
     private SharedSecret secretB() {
         return from(StringUtils.repeat("b", 20), ShaAlgorithm.SHA1);
     }
@@ -87,6 +128,10 @@ public class InMemSecretRepositoryTest {
         repository = new InMemSecretRepository();
     }
 
+    private void givenSealedRepository() {
+        repository = InMemSecretRepository.sealed();
+    }
+
     private void givenSharedSecret(final SharedSecret secret) {
         sharedSecret = secret;
     }
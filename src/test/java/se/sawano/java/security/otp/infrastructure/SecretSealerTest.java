@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.infrastructure;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+import se.sawano.java.security.otp.PreparedKey;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTP;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class SecretSealerTest {
+
+    private final SecretSealer sealer = new SecretSealer(new SecureRandom());
+
+    @Test
+    public void should_open_sealed_secret() throws Exception {
+        final SecretSealer.Sealed sealed = sealer.seal(secret(), userId("john"));
+
+        final SharedSecret opened = sealer.open(sealed, userId("john"));
+
+        assertEquals(ShaAlgorithm.SHA256, opened.algorithm());
+        assertArrayEquals(secret().value(), opened.value());
+    }
+
+    @Test
+    public void should_open_sealed_secret_more_than_once() throws Exception {
+        final SecretSealer.Sealed sealed = sealer.seal(secret(), userId("john"));
+
+        assertArrayEquals(secret().value(), sealer.open(sealed, userId("john")).value());
+        assertArrayEquals(secret().value(), sealer.open(sealed, userId("john")).value());
+    }
+
+    @Test
+    public void should_open_sealed_secret_into_prepared_key() throws Exception {
+        final SecretSealer.Sealed sealed = sealer.seal(secret(), userId("john"));
+
+        final PreparedKey opened = sealer.openPrepared(sealed, userId("john"));
+
+        assertEquals(ShaAlgorithm.SHA256, opened.algorithm());
+        assertEquals(PreparedKey.prepare(secret()).code(1, TOTP.Length.EIGHT), opened.code(1, TOTP.Length.EIGHT));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_not_open_secret_sealed_for_other_user() throws Exception {
+        final SecretSealer.Sealed sealed = sealer.seal(secret(), userId("john"));
+
+        sealer.open(sealed, userId("jane"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_not_open_secret_sealed_with_other_key() throws Exception {
+        final SecretSealer.Sealed sealed = new SecretSealer(new SecureRandom()).seal(secret(), userId("john"));
+
+        sealer.open(sealed, userId("john"));
+    }
+
+    @Test
+    public void should_open_secrets_of_different_lengths_on_same_thread() throws Exception {
+        final SecretSealer.Sealed sealed20 = sealer.seal(from(StringUtils.repeat("a", 20), ShaAlgorithm.SHA1), userId("john"));
+        final SecretSealer.Sealed sealed64 = sealer.seal(from(StringUtils.repeat("b", 64), ShaAlgorithm.SHA512), userId("john"));
+
+        assertEquals(20, sealer.open(sealed20, userId("john")).keyLength());
+        assertEquals(64, sealer.open(sealed64, userId("john")).keyLength());
+        assertEquals(20, sealer.open(sealed20, userId("john")).keyLength());
+    }
+
+    @Test
+    public void should_open_secrets_sealed_on_other_threads() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<SecretSealer.Sealed> sealed = executor.submit(() -> sealer.seal(secret(), userId("john")));
+
+            assertArrayEquals(secret().value(), sealer.open(sealed.get(), userId("john")).value());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static SharedSecret secret() {
+        return from(StringUtils.repeat("s", 32), ShaAlgorithm.SHA256);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.ocra;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+import se.sawano.java.security.otp.HOTP;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTP;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.HOTP.hotp;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+
+public class OcraServiceTests {
+
+    // Example data from RFC6287 appendix C
+    static final String SEED = "12345678901234567890";
+    static final String SEED_32 = "12345678901234567890123456789012";
+    static final String SEED_64 = "1234567890123456789012345678901234567890123456789012345678901234";
+    static final byte[] PIN_1234_SHA1 = DigestUtils.sha1("1234");
+    static final Instant TIME = Instant.ofEpochSecond(0x132d0b6L * 60);
+
+    private final OcraService service = new OcraService();
+
+    @Test
+    public void should_parse_suite() throws Exception {
+        final OcraSuite suite = OcraSuite.parse("OCRA-1:HOTP-SHA256-8:C-QN08-PSHA1-S128-T1M");
+
+        assertEquals(ShaAlgorithm.SHA256, suite.algorithm());
+        assertEquals(TOTP.Length.EIGHT, suite.length());
+        assertTrue(suite.hasCounter());
+        assertEquals(OcraSuite.ChallengeFormat.NUMERIC, suite.challengeFormat());
+        assertEquals(8, suite.challengeLength());
+        assertEquals(Optional.of(ShaAlgorithm.SHA1), suite.passwordAlgorithm());
+        assertEquals(128, suite.sessionInformationLength());
+        assertEquals(Optional.of(Duration.ofMinutes(1)), suite.timeStep());
+    }
+
+    @Test
+    public void should_reject_invalid_suites() throws Exception {
+        for (final String suite : Arrays.asList("OCRA-2:HOTP-SHA1-6:QN08", "OCRA-1:HOTP-MD5-6:QN08", "OCRA-1:HOTP-SHA1-0:QN08",
+                                                "OCRA-1:HOTP-SHA1-10:QN08", "OCRA-1:HOTP-SHA1-6:C", "OCRA-1:HOTP-SHA1-6:QX08",
+                                                "OCRA-1:HOTP-SHA1-6:QN65", "OCRA-1:HOTP-SHA1-6:QN08-T60S", "OCRA-1:HOTP-SHA1-6:T1M-QN08",
+                                                "OCRA-1:HOTP-SHA1-6:QN08-S12", "OCRA-1:HOTP-SHA1-6")) {
+            try {
+                OcraSuite.parse(suite);
+                throw new AssertionError("Expected failure for " + suite);
+            } catch (final IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void should_create_one_way_challenge_responses() throws Exception {
+        final OcraSuite suite = OcraSuite.parse("OCRA-1:HOTP-SHA1-6:QN08");
+        final int[] expected = {237653, 243178, 653583, 740991, 608993, 388898, 816933, 224598, 750600, 294470};
+
+        for (int i = 0; i < expected.length; ++i) {
+            final OcraInput input = OcraInput.builder(repeat(i, 8)).create();
+
+            assertEquals(hotp(expected[i], TOTP.Length.SIX), service.create(secret(SEED, ShaAlgorithm.SHA1), suite, input));
+        }
+    }
+
+    @Test
+    public void should_create_responses_with_counter_and_password() throws Exception {
+        final OcraSuite suite = OcraSuite.parse("OCRA-1:HOTP-SHA256-8:C-QN08-PSHA1");
+        final int[] expected = {65347737, 86775851, 78192410, 71565254, 10104329, 65983500, 70069104, 91771096, 75011558, 8522129};
+
+        for (int counter = 0; counter < expected.length; ++counter) {
+            final OcraInput input = OcraInput.builder("12345678").withCounter(counter).withPasswordHash(PIN_1234_SHA1).create();
+
+            assertEquals(hotp(expected[counter], TOTP.Length.EIGHT), service.create(secret(SEED_32, ShaAlgorithm.SHA256), suite, input));
+        }
+    }
+
+    @Test
+    public void should_create_responses_with_counter() throws Exception {
+        final OcraSuite suite = OcraSuite.parse("OCRA-1:HOTP-SHA512-8:C-QN08");
+        final int[] expected = {7016083, 63947962, 70123924, 25341727, 33203315, 34205738, 44343969, 51946085, 20403879, 31409299};
+
+        for (int counter = 0; counter < expected.length; ++counter) {
+            final OcraInput input = OcraInput.builder(repeat(counter, 8)).withCounter(counter).create();
+
+            assertEquals(hotp(expected[counter], TOTP.Length.EIGHT), service.create(secret(SEED_64, ShaAlgorithm.SHA512), suite, input));
+        }
+    }
+
+    @Test
+    public void should_create_responses_with_time() throws Exception {
+        final OcraSuite suite = OcraSuite.parse("OCRA-1:HOTP-SHA512-8:QN08-T1M");
+        final int[] expected = {95209754, 55907591, 22048402, 24218844, 36209546};
+
+        for (int i = 0; i < expected.length; ++i) {
+            final OcraInput input = OcraInput.builder(repeat(i, 8)).withTime(TIME.plusSeconds(59)).create();
+
+            assertEquals(hotp(expected[i], TOTP.Length.EIGHT), service.create(secret(SEED_64, ShaAlgorithm.SHA512), suite, input));
+        }
+    }
+
+    @Test
+    public void should_create_mutual_challenge_responses() throws Exception {
+        assertEquals(hotp(28247970, TOTP.Length.EIGHT),
+                     service.create(secret(SEED_32, ShaAlgorithm.SHA256), OcraSuite.parse("OCRA-1:HOTP-SHA256-8:QA08"),
+                                    OcraInput.builder("CLI22220SRV11110").create()));
+        assertEquals(hotp(15510767, TOTP.Length.EIGHT),
+                     service.create(secret(SEED_32, ShaAlgorithm.SHA256), OcraSuite.parse("OCRA-1:HOTP-SHA256-8:QA08"),
+                                    OcraInput.builder("SRV11110CLI22220").create()));
+        assertEquals(hotp(18806276, TOTP.Length.EIGHT),
+                     service.create(secret(SEED_64, ShaAlgorithm.SHA512), OcraSuite.parse("OCRA-1:HOTP-SHA512-8:QA08-PSHA1"),
+                                    OcraInput.builder("SRV11110CLI22220").withPasswordHash(PIN_1234_SHA1).create()));
+    }
+
+    @Test
+    public void should_verify_signatures() throws Exception {
+        final OcraSuite suite = OcraSuite.parse("OCRA-1:HOTP-SHA512-8:QA10-T1M");
+        final int[] expected = {77537423, 31970405, 10235557, 95213541, 65360607};
+
+        for (int i = 0; i < expected.length; ++i) {
+            final OcraInput input = OcraInput.builder("SIG1" + i + "00000").withTime(TIME).create();
+
+            assertTrue(service.verify(hotp(expected[i], TOTP.Length.EIGHT), secret(SEED_64, ShaAlgorithm.SHA512), suite, input));
+            assertFalse(service.verify(hotp(expected[i], TOTP.Length.EIGHT), secret(SEED_64, ShaAlgorithm.SHA512), suite,
+                                       OcraInput.builder("SIG1" + i + "00000").withTime(TIME.plusSeconds(60)).create()));
+        }
+    }
+
+    @Test
+    public void should_verify_batch_of_signatures() throws Exception {
+        final OcraSuite suite = OcraSuite.parse("OCRA-1:HOTP-SHA256-8:QA08");
+        final int[] expected = {53095496, 4110475, 31331128, 76028668, 46554205};
+        final List<OcraInput> inputs = new ArrayList<>();
+        final List<HOTP> responses = new ArrayList<>();
+        for (int i = 0; i < expected.length; ++i) {
+            inputs.add(OcraInput.builder("SIG1" + i + "000").create());
+            responses.add(hotp(expected[i], TOTP.Length.EIGHT));
+        }
+        responses.set(2, hotp(expected[2] + 1, TOTP.Length.EIGHT));
+        responses.set(3, hotp(expected[3] % 1_000_000, TOTP.Length.SIX));
+        inputs.set(4, OcraInput.builder("not alphanumeric").create());
+
+        final boolean[] verified = service.verifyAll(secret(SEED_32, ShaAlgorithm.SHA256), suite, inputs, responses);
+
+        assertArrayEquals(new boolean[]{true, true, false, false, false}, verified);
+    }
+
+    @Test
+    public void should_require_values_of_suite() throws Exception {
+        final OcraSuite suite = OcraSuite.parse("OCRA-1:HOTP-SHA256-8:C-QN08-PSHA1");
+
+        try {
+            service.create(secret(SEED_32, ShaAlgorithm.SHA256), suite, OcraInput.builder("12345678").withCounter(0).create());
+            throw new AssertionError("Expected failure without password");
+        } catch (final IllegalArgumentException e) {
+            assertEquals("The suite requires a password hash of 20 bytes", e.getMessage());
+        }
+    }
+
+    private static SharedSecret secret(final String seed, final ShaAlgorithm algorithm) {
+        return from(seed, algorithm);
+    }
+
+    private static String repeat(final int digit, final int times) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; ++i) {
+            builder.append(digit);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.pskc;
+
+import org.junit.Test;
+import se.sawano.java.security.otp.ImportReport;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPConfiguration;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.infrastructure.InMemCounterRepository;
+import se.sawano.java.security.otp.infrastructure.InMemCredentialRepository;
+import se.sawano.java.security.otp.infrastructure.InMemSecretRepository;
+import se.sawano.java.security.otp.user.Credential;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.user.CredentialId.credentialId;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class PskcImporterTests {
+
+    private static final byte[] SECRET = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    private final InMemSecretRepository repository = new InMemSecretRepository();
+
+    @Test
+    public void should_import_encrypted_container_in_batches() {
+        final PskcEncryption encryption = PskcEncryption.preSharedKey("Pre-shared-key", new byte[32]);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PskcWriter writer = new PskcWriter(out, encryption)) {
+            for (int i = 0; i < 500; ++i) {
+                writer.write(PskcKey.builder("key" + i, PskcKey.Type.TOTP, SharedSecret.from(SECRET, ShaAlgorithm.SHA256))
+                                    .withSerialNumber("SN" + i)
+                                    .create());
+            }
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            final ImportReport<PskcImporter.Position> report = new PskcImporter(repository, PskcImporter::defaultUserIdFor, executor, 32)
+                    .importFrom(new ByteArrayInputStream(out.toByteArray()), encryption);
+
+            assertEquals(500, report.imported());
+            assertEquals(0, report.failures().size());
+        } finally {
+            executor.shutdown();
+        }
+        final SharedSecret secret = repository.secretFor(userId("SN499")).get();
+        assertEquals(ShaAlgorithm.SHA256, secret.algorithm());
+        assertArrayEquals(SECRET, secret.value());
+    }
+
+    @Test
+    public void should_report_keys_that_could_not_be_imported() {
+        final String container = "<KeyContainer Version=\"1.0\" xmlns=\"urn:ietf:params:xml:ns:keyprov:pskc\">\n" +
+                key("1", "alice", "MTIzNDU2Nzg5MDEyMzQ1Njc4OTA=") +
+                key("2", "bob", "MTIz") +
+                key("3", null, "MTIzNDU2Nzg5MDEyMzQ1Njc4OTA=") +
+                key("4", "dave", "MTIzNDU2Nzg5MDEyMzQ1Njc4OTA=") +
+                "</KeyContainer>";
+
+        final ImportReport<PskcImporter.Position> report = new PskcImporter(repository).importFrom(new ByteArrayInputStream(container.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, report.imported());
+        assertEquals(2, report.failures().size());
+        assertEquals(2, report.failures().get(0).location().keyNumber());
+        assertEquals("2", report.failures().get(0).location().keyId());
+        assertEquals(3, report.failures().get(1).location().keyNumber());
+        assertEquals("Key has neither a user id nor a serial number", report.failures().get(1).reason());
+        assertArrayEquals(SECRET, repository.secretFor(userId("dave")).get().value());
+    }
+
+    @Test
+    public void should_import_hotp_keys_with_their_counters() {
+        final InMemCounterRepository counters = new InMemCounterRepository();
+        final PskcImporter importer = PskcImporter.builder()
+                                                  .withSecretRepository(repository, TOTPConfiguration.DEFAULT)
+                                                  .withCounterRepository(counters)
+                                                  .create();
+
+        final ImportReport<PskcImporter.Position> report = importer.importFrom(container(hotpKey("alice", 42), hotpKey("bob", -1)));
+
+        assertEquals(2, report.imported());
+        assertEquals(42, counters.counterFor(userId("alice")));
+        assertEquals(0, counters.counterFor(userId("bob")));
+        assertArrayEquals(SECRET, repository.secretFor(userId("alice")).get().value());
+    }
+
+    @Test
+    public void should_not_import_hotp_keys_without_counter_repository() {
+        final ImportReport<PskcImporter.Position> report = new PskcImporter(repository).importFrom(container(hotpKey("alice", 42)));
+
+        assertEquals(0, report.imported());
+        assertEquals("HOTP keys require a secret and a counter repository", report.failures().get(0).reason());
+        assertFalse(repository.secretFor(userId("alice")).isPresent());
+    }
+
+    @Test
+    public void should_import_totp_keys_as_credentials_with_their_parameters() {
+        final InMemCredentialRepository credentials = new InMemCredentialRepository();
+        final PskcImporter importer = PskcImporter.builder()
+                                                  .withCredentialRepository(credentials, PskcImporter::defaultCredentialIdFor)
+                                                  .create();
+
+        final ImportReport<PskcImporter.Position> report = importer.importFrom(container(totpKey("alice", "SN1", 60, 8, 0)));
+
+        assertEquals(1, report.imported());
+        final Credential credential = credentials.credentialsFor(userId("alice")).get(0);
+        assertEquals(credentialId("SN1"), credential.id());
+        assertEquals(TOTPConfiguration.configuration(TOTPService.T0_UTC, Duration.ofSeconds(60), TOTP.Length.EIGHT), credential.configuration());
+        assertArrayEquals(SECRET, credential.secret().value());
+    }
+
+    @Test
+    public void should_not_import_totp_keys_that_the_secret_repository_cannot_represent() {
+        final ImportReport<PskcImporter.Position> report = new PskcImporter(repository).importFrom(container(totpKey("alice", "SN1", 60, 6, 0),
+                                                                                                             totpKey("bob", "SN2", 30, 8, 0),
+                                                                                                             totpKey("carol", "SN3", 30, 6, 1234)));
+
+        assertEquals(1, report.imported());
+        assertEquals(2, report.failures().size());
+        assertEquals("Time step of 60s differs from the 30s of the repository", report.failures().get(0).reason());
+        assertEquals("Unsupported time: 1234", report.failures().get(1).reason());
+        assertFalse(repository.secretFor(userId("alice")).isPresent());
+        assertTrue(repository.secretFor(userId("bob")).isPresent());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_require_secret_repository_for_counter_repository() {
+        PskcImporter.builder()
+                    .withCredentialRepository(new InMemCredentialRepository(), PskcImporter::defaultCredentialIdFor)
+                    .withCounterRepository(new InMemCounterRepository())
+                    .create();
+    }
+
+    private static ByteArrayInputStream container(final PskcKey... keys) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PskcWriter writer = new PskcWriter(out)) {
+            for (final PskcKey key : keys) {
+                writer.write(key);
+            }
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private static PskcKey hotpKey(final String userId, final long counter) {
+        final PskcKey.Builder key = PskcKey.builder(userId, PskcKey.Type.HOTP, SharedSecret.from(SECRET, ShaAlgorithm.SHA1))
+                                           .withUserId(userId);
+        return counter >= 0 ? key.withCounter(counter).create() : key.create();
+    }
+
+    private static PskcKey totpKey(final String userId, final String serialNumber, final int timeInterval, final int digits, final long time) {
+        return PskcKey.builder(userId, PskcKey.Type.TOTP, SharedSecret.from(SECRET, ShaAlgorithm.SHA1))
+                      .withUserId(userId)
+                      .withSerialNumber(serialNumber)
+                      .withTimeInterval(Duration.ofSeconds(timeInterval))
+                      .withDigits(digits)
+                      .withTime(time)
+                      .create();
+    }
+
+    private static String key(final String id, final String userId, final String secret) {
+        return "<KeyPackage><Key Id=\"" + id + "\" Algorithm=\"urn:ietf:params:xml:ns:keyprov:pskc:totp\">" +
+                "<Data><Secret><PlainValue>" + secret + "</PlainValue></Secret></Data>" +
+                (userId != null ? "<UserId>" + userId + "</UserId>" : "") +
+                "</Key></KeyPackage>\n";
+    }
+}
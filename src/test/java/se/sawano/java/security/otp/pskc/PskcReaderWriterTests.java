@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.pskc;
+
+import org.junit.Test;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PskcReaderWriterTests {
+
+    private static final byte[] SECRET = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] AES_KEY = new byte[16];
+
+    // RFC 6030, figure 2
+    private static final String RFC_EXAMPLE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<KeyContainer Version=\"1.0\" Id=\"exampleID1\" xmlns=\"urn:ietf:params:xml:ns:keyprov:pskc\">\n" +
+            "  <KeyPackage>\n" +
+            "    <Key Id=\"12345678\" Algorithm=\"urn:ietf:params:xml:ns:keyprov:pskc:hotp\">\n" +
+            "      <Issuer>Issuer-A</Issuer>\n" +
+            "      <Data>\n" +
+            "        <Secret>\n" +
+            "          <PlainValue>MTIzNDU2Nzg5MDEyMzQ1Njc4OTA=</PlainValue>\n" +
+            "        </Secret>\n" +
+            "        <Counter>\n" +
+            "          <PlainValue>0</PlainValue>\n" +
+            "        </Counter>\n" +
+            "      </Data>\n" +
+            "    </Key>\n" +
+            "  </KeyPackage>\n" +
+            "</KeyContainer>";
+
+    @Test
+    public void should_read_rfc_example() {
+        try (PskcReader reader = new PskcReader(stream(RFC_EXAMPLE))) {
+            final PskcKey key = reader.next().get();
+
+            assertEquals("12345678", key.id());
+            assertEquals(PskcKey.Type.HOTP, key.type());
+            assertEquals(Optional.of("Issuer-A"), key.issuer());
+            assertEquals(0, key.counter().getAsLong());
+            assertEquals(PskcKey.DEFAULT_DIGITS, key.digits());
+            assertEquals(ShaAlgorithm.SHA1, key.secret().algorithm());
+            assertArrayEquals(SECRET, key.secret().value());
+            assertFalse(reader.next().isPresent());
+        }
+    }
+
+    @Test
+    public void should_round_trip_plain_keys() {
+        final byte[] container = write(null, hotpKey("1"), totpKey("2"));
+
+        assertKeysRead(new PskcReader(new ByteArrayInputStream(container)));
+    }
+
+    @Test
+    public void should_round_trip_encrypted_keys() {
+        final PskcEncryption encryption = PskcEncryption.preSharedKey("Pre-shared-key", AES_KEY);
+        final byte[] container = write(encryption, hotpKey("1"), totpKey("2"));
+
+        assertFalse(new String(container, StandardCharsets.UTF_8).contains("PlainValue>MTIz"));
+        assertKeysRead(new PskcReader(new ByteArrayInputStream(container), encryption));
+    }
+
+    @Test
+    public void should_skip_key_with_invalid_mac_and_continue() {
+        final PskcEncryption encryption = PskcEncryption.preSharedKey("Pre-shared-key", AES_KEY);
+        final String container = new String(write(encryption, hotpKey("1"), totpKey("2")), StandardCharsets.UTF_8);
+        final int mac = container.indexOf("<ValueMAC>") + "<ValueMAC>".length();
+        final String tampered = container.substring(0, mac) + (container.charAt(mac) == 'A' ? 'B' : 'A') + container.substring(mac + 1);
+
+        try (PskcReader reader = new PskcReader(stream(tampered), encryption)) {
+            try {
+                reader.next();
+                fail("Expected the MAC to be rejected");
+            } catch (PskcKeyException e) {
+                assertEquals("1", e.keyId());
+            }
+            assertEquals("2", reader.next().get().id());
+            assertFalse(reader.next().isPresent());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_require_key_for_encrypted_container() {
+        final byte[] container = write(PskcEncryption.preSharedKey("Pre-shared-key", AES_KEY), hotpKey("1"));
+
+        new PskcReader(new ByteArrayInputStream(container)).next();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_unknown_pre_shared_key() {
+        final byte[] container = write(PskcEncryption.preSharedKey("Pre-shared-key", AES_KEY), hotpKey("1"));
+
+        new PskcReader(new ByteArrayInputStream(container), PskcEncryption.preSharedKey("Other", AES_KEY)).next();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_not_resolve_external_entities() {
+        final String container = "<?xml version=\"1.0\"?>\n" +
+                "<!DOCTYPE KeyContainer [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>\n" +
+                "<KeyContainer Version=\"1.0\" xmlns=\"urn:ietf:params:xml:ns:keyprov:pskc\"><KeyPackage><Key Id=\"1\">&xxe;</Key></KeyPackage></KeyContainer>";
+
+        new PskcReader(stream(container)).next();
+    }
+
+    private static void assertKeysRead(final PskcReader pskcReader) {
+        try (PskcReader reader = pskcReader) {
+            final PskcKey hotp = reader.next().get();
+            assertEquals("1", hotp.id());
+            assertEquals(PskcKey.Type.HOTP, hotp.type());
+            assertEquals(8, hotp.digits());
+            assertEquals(42, hotp.counter().getAsLong());
+            assertEquals(Optional.of("SN-1"), hotp.serialNumber());
+            assertEquals(Optional.of("Acme"), hotp.issuer());
+            assertEquals(ShaAlgorithm.SHA1, hotp.secret().algorithm());
+            assertArrayEquals(SECRET, hotp.secret().value());
+
+            final PskcKey totp = reader.next().get();
+            assertEquals("2", totp.id());
+            assertEquals(PskcKey.Type.TOTP, totp.type());
+            assertEquals(Optional.of(Duration.ofSeconds(60)), totp.timeInterval());
+            assertEquals(Optional.of("alice"), totp.userId());
+            assertEquals(ShaAlgorithm.SHA512, totp.secret().algorithm());
+            assertTrue(Arrays.equals(SECRET, totp.secret().value()));
+
+            assertFalse(reader.next().isPresent());
+        }
+    }
+
+    private static byte[] write(final PskcEncryption encryption, final PskcKey... keys) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PskcWriter writer = encryption == null ? new PskcWriter(out) : new PskcWriter(out, encryption)) {
+            for (final PskcKey key : keys) {
+                writer.write(key);
+            }
+            assertEquals(keys.length, writer.written());
+        }
+        return out.toByteArray();
+    }
+
+    private static PskcKey hotpKey(final String id) {
+        return PskcKey.builder(id, PskcKey.Type.HOTP, SharedSecret.from(SECRET, ShaAlgorithm.SHA1))
+                      .withDigits(8)
+                      .withCounter(42)
+                      .withSerialNumber("SN-" + id)
+                      .withIssuer("Acme")
+                      .create();
+    }
+
+    private static PskcKey totpKey(final String id) {
+        return PskcKey.builder(id, PskcKey.Type.TOTP, SharedSecret.from(SECRET, ShaAlgorithm.SHA512))
+                      .withTimeInterval(Duration.ofSeconds(60))
+                      .withUserId("alice")
+                      .create();
+    }
+
+    private static ByteArrayInputStream stream(final String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
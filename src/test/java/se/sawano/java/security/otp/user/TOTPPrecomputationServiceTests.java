@@ -0,0 +1,240 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import org.junit.Test;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.infrastructure.InMemSecretRepository;
+import se.sawano.java.security.otp.infrastructure.InMemTOTPRegistry;
+import se.sawano.java.security.otp.user.persistence.SecretRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.WindowSize.windowSize;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class TOTPPrecomputationServiceTests {
+
+    private static final Instant TIME = Instant.ofEpochSecond(1111111111);
+    private static final String SECRET_STR = "12345678901234567890";
+    private static final UserId USER = userId("jane");
+
+    private final CountingSecretRepository secretRepository = new CountingSecretRepository();
+    private Instant now = TIME;
+    private final TOTPService totpService = new TOTPService(() -> now, TOTPService.T0_UTC, TOTPService.STEP_SIZE, windowSize(3));
+    private final TOTPPrecomputationService precomputation = new TOTPPrecomputationService(secretRepository, totpService, TOTP.Length.SIX,
+                                                                                           Duration.ofMinutes(5), Runnable::run);
+
+    @Test
+    public void should_precompute_next_time_step_for_active_users() throws Exception {
+        precomputation.recordActivity(USER);
+
+        precomputation.precomputeNextTimeStep().join();
+        advanceTimeSteps(1);
+
+        assertEquals(OptionalInt.of(0), precomputation.matchingOffset(currentTotp(), USER, 0));
+        assertFalse(precomputation.matchingOffset(currentTotp(), userId("john"), 0).isPresent());
+    }
+
+    @Test
+    public void should_verify_from_precomputed_table_without_secret_lookup() throws Exception {
+        final UserTOTPService service = UserTOTPService.builder()
+                                                       .withSecretRepository(secretRepository)
+                                                       .withTotpService(totpService)
+                                                       .withTotpRegistry(new InMemTOTPRegistry())
+                                                       .withPrecomputation(precomputation)
+                                                       .create();
+        assertFalse(service.verify(TOTP.totp(0, TOTP.Length.SIX), USER));
+        precomputation.precomputeNextTimeStep().join();
+        advanceTimeSteps(1);
+        final int lookups = secretRepository.lookups.get();
+
+        assertTrue(service.verify(currentTotp(), USER));
+        assertEquals(lookups, secretRepository.lookups.get());
+    }
+
+    @Test
+    public void should_not_verify_precomputed_totp_after_secret_is_deleted() throws Exception {
+        final InMemSecretRepository secrets = new InMemSecretRepository();
+        final TOTPPrecomputationService precomputation = new TOTPPrecomputationService(secrets, totpService, TOTP.Length.SIX,
+                                                                                       Duration.ofMinutes(5), Runnable::run);
+        final UserTOTPService service = UserTOTPService.builder()
+                                                       .withSecretRepository(precomputation.secretRepository())
+                                                       .withTotpService(totpService)
+                                                       .withTotpRegistry(new InMemTOTPRegistry())
+                                                       .withPrecomputation(precomputation)
+                                                       .create();
+        precomputation.secretRepository().save(secret(), USER);
+        precomputation.recordActivity(USER);
+        precomputation.precomputeNextTimeStep().join();
+        advanceTimeSteps(1);
+        assertTrue(precomputation.matchingOffset(currentTotp(), USER, 0).isPresent());
+
+        precomputation.secretRepository().deleteFor(USER);
+
+        assertFalse(service.verify(currentTotp(), USER));
+    }
+
+    @Test
+    public void should_drop_precomputed_totps_when_secret_is_replaced() throws Exception {
+        precomputation.recordActivity(USER);
+        precomputation.precomputeNextTimeStep().join();
+        advanceTimeSteps(1);
+
+        precomputation.invalidate(USER);
+
+        assertFalse(precomputation.matchingOffset(currentTotp(), USER, 0).isPresent());
+        assertEquals(0, precomputation.numberOfActiveUsers());
+    }
+
+    @Test
+    public void should_not_publish_totp_of_secret_replaced_during_precomputation() throws Exception {
+        final InMemSecretRepository secrets = new InMemSecretRepository();
+        final ReplacingSecretRepository replacing = new ReplacingSecretRepository(secrets);
+        final TOTPPrecomputationService precomputation = new TOTPPrecomputationService(replacing, totpService, TOTP.Length.SIX,
+                                                                                       Duration.ofMinutes(5), Runnable::run);
+        secrets.save(secret(), USER);
+        precomputation.recordActivity(USER);
+        // The secret is replaced, and the user verifies again, after the old secret has been read
+        replacing.afterLookup = () -> {
+            precomputation.secretRepository().save(from("abcdefghijklmnopqrst", ShaAlgorithm.SHA1), USER);
+            precomputation.recordActivity(USER);
+        };
+
+        precomputation.precomputeNextTimeStep().join();
+        advanceTimeSteps(1);
+
+        assertEquals(1, precomputation.numberOfActiveUsers());
+        assertFalse(precomputation.matchingOffset(currentTotp(), USER, 0).isPresent());
+    }
+
+    @Test
+    public void should_publish_totps_of_secret_replaced_before_precomputation() throws Exception {
+        final InMemSecretRepository secrets = new InMemSecretRepository();
+        final TOTPPrecomputationService precomputation = new TOTPPrecomputationService(secrets, totpService, TOTP.Length.SIX,
+                                                                                       Duration.ofMinutes(5), Runnable::run);
+        precomputation.secretRepository().save(secret(), USER);
+        precomputation.recordActivity(USER);
+
+        precomputation.precomputeNextTimeStep().join();
+        advanceTimeSteps(1);
+
+        assertEquals(OptionalInt.of(0), precomputation.matchingOffset(currentTotp(), USER, 0));
+    }
+
+    @Test
+    public void should_drop_time_steps_outside_of_window() throws Exception {
+        precomputation.recordActivity(USER);
+        precomputation.precomputeNextTimeStep().join();
+        advanceTimeSteps(1);
+        final TOTP totp = currentTotp();
+
+        advanceTimeSteps(1);
+        assertEquals(OptionalInt.of(-1), precomputation.matchingOffset(totp, USER, 0));
+
+        precomputation.precomputeNextTimeStep().join();
+        advanceTimeSteps(1);
+        precomputation.precomputeNextTimeStep().join();
+        assertFalse(precomputation.matchingOffset(totp, USER, 0).isPresent());
+    }
+
+    @Test
+    public void should_drop_inactive_users() throws Exception {
+        precomputation.recordActivity(USER);
+        advanceTimeSteps(11);
+
+        precomputation.precomputeNextTimeStep().join();
+
+        assertEquals(0, precomputation.numberOfActiveUsers());
+    }
+
+    private void advanceTimeSteps(final int steps) {
+        now = now.plus(TOTPService.STEP_SIZE.multipliedBy(steps));
+    }
+
+    private TOTP currentTotp() {
+        return totpService.create(secret(), TOTP.Length.SIX);
+    }
+
+    private static SharedSecret secret() {
+        return from(SECRET_STR, ShaAlgorithm.SHA1);
+    }
+
+    /**
+     * Runs an action after each lookup, before the secret that was read is returned.
+     */
+    private static final class ReplacingSecretRepository implements SecretRepository {
+
+        private final SecretRepository secrets;
+        private Runnable afterLookup = () -> {};
+
+        private ReplacingSecretRepository(final SecretRepository secrets) {
+            this.secrets = secrets;
+        }
+
+        @Override
+        public void save(final SharedSecret sharedSecret, final UserId userId) {
+            secrets.save(sharedSecret, userId);
+        }
+
+        @Override
+        public Optional<SharedSecret> secretFor(final UserId userId) {
+            final Optional<SharedSecret> secret = secrets.secretFor(userId);
+            final Runnable action = afterLookup;
+            afterLookup = () -> {};
+            action.run();
+            return secret;
+        }
+
+        @Override
+        public void deleteFor(final UserId userId) {
+            secrets.deleteFor(userId);
+        }
+    }
+
+    private static final class CountingSecretRepository implements SecretRepository {
+
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        @Override
+        public void save(final SharedSecret sharedSecret, final UserId userId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Optional<SharedSecret> secretFor(final UserId userId) {
+            lookups.incrementAndGet();
+            return Optional.of(secret());
+        }
+
+        @Override
+        public void deleteFor(final UserId userId) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import se.sawano.java.security.otp.Clock;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPConfiguration;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.infrastructure.InMemCredentialRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static se.sawano.java.security.otp.TOTP.totp;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.WindowSize.windowSize;
+import static se.sawano.java.security.otp.user.Credential.credential;
+import static se.sawano.java.security.otp.user.CredentialId.credentialId;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class UserCredentialServiceTests {
+
+    // Example data from RFC6238, at the same time for each algorithm
+    private static final Instant TIME = Instant.ofEpochSecond(1111111111);
+    private static final TOTP SHA1_TOTP = totp(14050471, TOTP.Length.EIGHT);
+    private static final TOTP SHA256_TOTP = totp(67062674, TOTP.Length.EIGHT);
+    private static final TOTP SHA512_TOTP = totp(99943326, TOTP.Length.EIGHT);
+    private static final TOTPConfiguration EIGHT_DIGITS = TOTPConfiguration.configuration(TOTPService.T0_UTC, TOTPService.STEP_SIZE, TOTP.Length.EIGHT);
+    private static final UserId USER = userId("jane");
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(4);
+
+    private final InMemCredentialRepository repository = new InMemCredentialRepository();
+    private Instant serverTime = TIME;
+
+    @AfterClass
+    public static void shutDownExecutor() {
+        EXECUTOR.shutdownNow();
+    }
+
+    @Test
+    public void should_report_matching_credential() throws Exception {
+        givenPhoneAndToken();
+
+        assertEquals(Optional.of(credentialId("phone")), service().verify(SHA1_TOTP, USER));
+        assertEquals(Optional.of(credentialId("token")), service().verify(SHA256_TOTP, USER));
+    }
+
+    @Test
+    public void should_report_matching_credential_when_checking_concurrently() throws Exception {
+        givenPhoneAndToken();
+        repository.save(credential(credentialId("backup"), from("1234567890123456789012345678901234567890123456789012345678901234", ShaAlgorithm.SHA512), EIGHT_DIGITS), USER);
+
+        assertEquals(Optional.of(credentialId("backup")), service().verify(SHA512_TOTP, USER));
+        assertEquals(Optional.of(credentialId("phone")), service().verify(SHA1_TOTP, USER));
+        assertEquals(Optional.empty(), service().verify(totp(12345678, TOTP.Length.EIGHT), USER));
+    }
+
+    @Test
+    public void should_not_accept_totp_twice_per_credential() throws Exception {
+        givenPhoneAndToken();
+
+        assertEquals(Optional.of(credentialId("phone")), service().verify(SHA1_TOTP, USER));
+        assertFalse(service().verify(SHA1_TOTP, USER).isPresent());
+        assertEquals(Optional.of(credentialId("token")), service().verify(SHA256_TOTP, USER));
+    }
+
+    @Test
+    public void should_track_drift_per_credential() throws Exception {
+        givenPhoneAndToken();
+        serverTime = TIME.minus(TOTPService.STEP_SIZE.multipliedBy(3));
+
+        assertEquals(Optional.of(credentialId("token")), service().verify(SHA256_TOTP, USER));
+
+        assertEquals(0, repository.credentialsFor(USER).get(0).drift());
+        assertEquals(3, repository.credentialsFor(USER).get(1).drift());
+    }
+
+    @Test
+    public void should_bound_drift_to_resynchronization_window() throws Exception {
+        repository.save(credential(credentialId("token"), from("12345678901234567890123456789012", ShaAlgorithm.SHA256), EIGHT_DIGITS), USER);
+        repository.recordUse(USER, credentialId("token"), 0, 6);
+        serverTime = TIME.minus(TOTPService.STEP_SIZE.multipliedBy(6));
+
+        assertEquals(Optional.of(credentialId("token")), service().verify(SHA256_TOTP, USER));
+        assertEquals(4, repository.credentialsFor(USER).get(0).drift());
+    }
+
+    @Test
+    public void should_not_verify_user_without_credentials() throws Exception {
+        assertFalse(service().verify(SHA1_TOTP, USER).isPresent());
+    }
+
+    @Test
+    public void should_verify_credential_with_its_own_configuration() throws Exception {
+        givenPhoneAndToken();
+        final Duration period = Duration.ofSeconds(60);
+        final TOTPConfiguration configuration = TOTPConfiguration.configuration(TOTPService.T0_UTC, period, TOTP.Length.EIGHT);
+        repository.save(credential(credentialId("migrated"), from("abcdefghijklmnopqrst", ShaAlgorithm.SHA1), configuration), USER);
+        final TOTPService migratedService = new TOTPService(() -> TIME.plus(period.multipliedBy(2)), TOTPService.T0_UTC, period, windowSize(1));
+        final TOTP totp = migratedService.create(from("abcdefghijklmnopqrst", ShaAlgorithm.SHA1), TOTP.Length.EIGHT);
+
+        assertEquals(Optional.of(credentialId("migrated")), service().verify(totp, USER));
+        assertEquals(2, repository.credentialsFor(USER).get(2).drift());
+    }
+
+    @Test
+    public void should_only_check_credentials_of_same_length() throws Exception {
+        givenPhoneAndToken();
+
+        assertFalse(service().verify(totp(Integer.parseInt(SHA1_TOTP.value()) % 1_000_000, TOTP.Length.SIX), USER).isPresent());
+    }
+
+    private void givenPhoneAndToken() {
+        repository.save(credential(credentialId("phone"), from("12345678901234567890", ShaAlgorithm.SHA1), EIGHT_DIGITS), USER);
+        repository.save(credential(credentialId("token"), from("12345678901234567890123456789012", ShaAlgorithm.SHA256), EIGHT_DIGITS), USER);
+    }
+
+    private UserCredentialService service() {
+        final Clock clock = () -> serverTime;
+        final TOTPService totpService = new TOTPService(clock, TOTPService.T0_UTC, TOTPService.STEP_SIZE, windowSize(1));
+        return new UserCredentialService(repository, totpService, windowSize(9), EXECUTOR);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import org.junit.Test;
+import se.sawano.java.security.otp.HOTP;
+import se.sawano.java.security.otp.HOTPService;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.infrastructure.InMemCounterRepository;
+import se.sawano.java.security.otp.infrastructure.InMemSecretRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.HOTP.hotp;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class UserHOTPServiceTests {
+
+    // Example data from RFC4226 appendix D
+    private static final String SECRET_STR = "12345678901234567890";
+    private static final int[] HOTPS = {755224, 287082, 359152, 969429, 338314, 254676, 287922, 162583, 399871, 520489};
+    private static final UserId USER = userId("jane");
+
+    private final InMemSecretRepository secretRepository = new InMemSecretRepository();
+    private final InMemCounterRepository counterRepository = new InMemCounterRepository();
+
+    @Test
+    public void should_advance_counter_on_success() throws Exception {
+        givenSecret();
+
+        assertTrue(service(0).verify(hotpFor(0), USER));
+        assertEquals(1, counterRepository.counterFor(USER));
+    }
+
+    @Test
+    public void should_resynchronize_counter_within_look_ahead() throws Exception {
+        givenSecret();
+
+        assertTrue(service(5).verify(hotpFor(4), USER));
+        assertEquals(5, counterRepository.counterFor(USER));
+    }
+
+    @Test
+    public void should_not_accept_hotp_twice() throws Exception {
+        givenSecret();
+        final UserHOTPService service = service(5);
+
+        assertTrue(service.verify(hotpFor(2), USER));
+        assertFalse(service.verify(hotpFor(2), USER));
+        assertFalse(service.verify(hotpFor(1), USER));
+    }
+
+    @Test
+    public void should_not_verify_without_secret() throws Exception {
+        assertFalse(service(5).verify(hotpFor(0), USER));
+        assertEquals(0, counterRepository.counterFor(USER));
+    }
+
+    @Test
+    public void should_accept_concurrently_verified_hotp_once() throws Exception {
+        givenSecret();
+        final UserHOTPService service = service(9);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Callable<Boolean>> verifications = new ArrayList<>();
+            for (int i = 0; i < 64; ++i) {
+                verifications.add(() -> service.verify(hotpFor(6), USER));
+            }
+
+            int accepted = 0;
+            for (final Future<Boolean> result : executor.invokeAll(verifications)) {
+                accepted += result.get() ? 1 : 0;
+            }
+
+            assertEquals(1, accepted);
+            assertEquals(7, counterRepository.counterFor(USER));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_verify_with_code_index() throws Exception {
+        givenSecret();
+        final UserHOTPService service = indexedService(3);
+
+        assertTrue(service.verify(hotpFor(2), USER));
+        assertFalse(service.verify(hotpFor(2), USER));
+        assertTrue(service.verify(hotpFor(6), USER));
+        assertFalse(service.verify(hotpFor(4), USER));
+        assertEquals(7, counterRepository.counterFor(USER));
+    }
+
+    @Test
+    public void should_use_new_secret_after_invalidating_code_index() throws Exception {
+        secretRepository.save(from("abcdefghijklmnopqrst", ShaAlgorithm.SHA1), USER);
+        final UserHOTPService service = indexedService(3);
+        assertFalse(service.verify(hotpFor(0), USER));
+
+        givenSecret();
+        service.invalidate(USER);
+
+        assertTrue(service.verify(hotpFor(0), USER));
+    }
+
+    @Test
+    public void should_reject_other_length_than_indexed() throws Exception {
+        givenSecret();
+        final UserHOTPService service = indexedService(3);
+
+        assertFalse(service.verify(hotp(HOTPS[0], TOTP.Length.EIGHT), USER));
+        assertEquals(0, counterRepository.counterFor(USER));
+    }
+
+    @Test
+    public void should_drop_index_of_least_recently_verified_user() throws Exception {
+        givenSecret();
+        secretRepository.save(from(SECRET_STR, ShaAlgorithm.SHA1), userId("john"));
+        secretRepository.save(from(SECRET_STR, ShaAlgorithm.SHA1), userId("joe"));
+        final UserHOTPService service = indexedService(3);
+        assertTrue(service.verify(hotpFor(0), USER));
+        assertTrue(service.verify(hotpFor(0), userId("john")));
+        assertTrue(service.verify(hotpFor(0), userId("joe")));
+
+        secretRepository.deleteFor(USER);
+
+        assertFalse(service.verify(hotpFor(1), USER));
+        assertTrue(service.verify(hotpFor(1), userId("joe")));
+    }
+
+    private void givenSecret() {
+        secretRepository.save(from(SECRET_STR, ShaAlgorithm.SHA1), USER);
+    }
+
+    private UserHOTPService service(final int lookAhead) {
+        return new UserHOTPService(secretRepository, counterRepository, new HOTPService(lookAhead));
+    }
+
+    private UserHOTPService indexedService(final int lookAhead) {
+        return UserHOTPService.builder()
+                              .withSecretRepository(secretRepository)
+                              .withCounterRepository(counterRepository)
+                              .withHotpService(new HOTPService(lookAhead))
+                              .withCodeIndex(TOTP.Length.SIX, 2)
+                              .create();
+    }
+
+    private static HOTP hotpFor(final int counter) {
+        return hotp(HOTPS[counter], TOTP.Length.SIX);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.infrastructure.InMemSecretRepository;
+import se.sawano.java.security.otp.infrastructure.InMemTOTPRegistry;
+import se.sawano.java.security.otp.user.persistence.AsyncSecretRepository;
+import se.sawano.java.security.otp.user.persistence.AsyncTOTPRegistry;
+
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.TOTP.totp;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class UserTOTPServiceAsyncTests {
+
+    // Example data from RFC6238
+    private static final TOTP TOTP_1 = totp(14050471, TOTP.Length.EIGHT);
+    private static final Instant TIME_1 = Instant.ofEpochSecond(1111111111);
+    private static final String SECRET_STR = "12345678901234567890";
+    private static final UserId USER = userId("jane");
+
+    private ExecutorService ioExecutor;
+    private ExecutorService computeExecutor;
+    private InMemSecretRepository secretRepository;
+    private InMemTOTPRegistry totpRegistry;
+    private UserTOTPService service;
+
+    @Before
+    public void setUp() throws Exception {
+        ioExecutor = Executors.newFixedThreadPool(2);
+        computeExecutor = Executors.newFixedThreadPool(1);
+        secretRepository = new InMemSecretRepository();
+        totpRegistry = new InMemTOTPRegistry();
+        service = new UserTOTPService(AsyncSecretRepository.fromBlocking(secretRepository, ioExecutor),
+                                      totpService(),
+                                      AsyncTOTPRegistry.fromBlocking(totpRegistry, ioExecutor),
+                                      computeExecutor);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ioExecutor.shutdownNow();
+        computeExecutor.shutdownNow();
+    }
+
+    @Test
+    public void should_verify_and_consume_totp() throws Exception {
+        secretRepository.save(from(SECRET_STR, ShaAlgorithm.SHA1), USER);
+
+        assertTrue(service.verifyAsync(TOTP_1, USER).get());
+        assertTrue(totpRegistry.isConsumed(TOTP_1, USER));
+    }
+
+    @Test
+    public void should_not_verify_consumed_totp() throws Exception {
+        secretRepository.save(from(SECRET_STR, ShaAlgorithm.SHA1), USER);
+        totpRegistry.markConsumed(TOTP_1, USER);
+
+        assertFalse(service.verifyAsync(TOTP_1, USER).get());
+    }
+
+    @Test
+    public void should_not_verify_unknown_user() throws Exception {
+        assertFalse(service.verifyAsync(TOTP_1, USER).get());
+        assertFalse(totpRegistry.isConsumed(TOTP_1, USER));
+    }
+
+    @Test
+    public void should_verify_blocking_through_async_adapters() throws Exception {
+        secretRepository.save(from(SECRET_STR, ShaAlgorithm.SHA1), USER);
+
+        assertTrue(service.verify(TOTP_1, USER));
+        assertTrue(totpRegistry.isConsumed(TOTP_1, USER));
+    }
+
+    @Test
+    public void should_verify_async_through_blocking_adapters() throws Exception {
+        secretRepository.save(from(SECRET_STR, ShaAlgorithm.SHA1), USER);
+        final UserTOTPService blockingService = new UserTOTPService(secretRepository, totpService(), totpRegistry);
+
+        assertTrue(blockingService.verifyAsync(TOTP_1, USER).get());
+        assertTrue(totpRegistry.isConsumed(TOTP_1, USER));
+    }
+
+    private TOTPService totpService() {
+        return new TOTPService(() -> TIME_1, TOTPService.T0_UTC, TOTPService.STEP_SIZE, TOTPService.DEFAULT_WINDOW_SIZE);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import org.junit.Test;
+import se.sawano.java.security.otp.Clock;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.infrastructure.InMemDriftRepository;
+import se.sawano.java.security.otp.infrastructure.InMemTOTPRegistry;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.WindowSize.windowSize;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class UserTOTPServiceDriftTests {
+
+    private static final Instant TIME = Instant.ofEpochSecond(1111111111);
+    private static final String SECRET_STR = "12345678901234567890";
+    private static final UserId USER = userId("jane");
+
+    private final InMemDriftRepository driftRepository = new InMemDriftRepository();
+    private Instant serverTime = TIME;
+
+    @Test
+    public void should_learn_drift_through_resynchronization() throws Exception {
+        final TOTP totp = codeFromDeviceAheadBy(2);
+
+        assertTrue(service().verify(totp, USER));
+        assertEquals(2, driftRepository.driftFor(USER));
+    }
+
+    @Test
+    public void should_verify_around_learned_drift() throws Exception {
+        driftRepository.save(2, USER);
+        final TOTP totp = codeFromDeviceAheadBy(3);
+
+        assertTrue(service().verify(totp, USER));
+    }
+
+    @Test
+    public void should_bound_drift_to_resynchronization_window() throws Exception {
+        driftRepository.save(2, USER);
+
+        assertTrue(service().verify(codeFromDeviceAheadBy(3), USER));
+        assertEquals(2, driftRepository.driftFor(USER));
+
+        serverTime = serverTime.plus(TOTPService.STEP_SIZE);
+        assertFalse(service().verify(codeFromDeviceAheadBy(4), USER));
+    }
+
+    @Test
+    public void should_not_verify_outside_of_windows() throws Exception {
+        final TOTP totp = codeFromDeviceAheadBy(3);
+
+        assertFalse(service().verify(totp, USER));
+        assertEquals(0, driftRepository.driftFor(USER));
+    }
+
+    @Test
+    public void should_keep_drift_when_matching_predicted_step() throws Exception {
+        driftRepository.save(-2, USER);
+        final TOTP totp = codeFromDeviceAheadBy(-2);
+
+        assertTrue(service().verify(totp, USER));
+        assertEquals(-2, driftRepository.driftFor(USER));
+    }
+
+    private TOTP codeFromDeviceAheadBy(final int steps) {
+        final Instant deviceTime = serverTime.plus(TOTPService.STEP_SIZE.multipliedBy(steps));
+        return totpService(() -> deviceTime).create(secret(), TOTP.Length.SIX);
+    }
+
+    private UserTOTPService service() {
+        return UserTOTPService.builder()
+                              .withSecretSource(userId -> Optional.of(secret()))
+                              .withTotpService(totpService(() -> serverTime))
+                              .withTotpRegistry(new InMemTOTPRegistry())
+                              .withDriftTracking(driftRepository, windowSize(5))
+                              .create();
+    }
+
+    private static TOTPService totpService(final Clock clock) {
+        return new TOTPService(clock, TOTPService.T0_UTC, TOTPService.STEP_SIZE, windowSize(3));
+    }
+
+    private static SharedSecret secret() {
+        return from(SECRET_STR, ShaAlgorithm.SHA1);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import org.junit.Test;
+import se.sawano.java.security.otp.Clock;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.SoftwareKeyVault;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.infrastructure.InMemDriftRepository;
+import se.sawano.java.security.otp.infrastructure.InMemKeyHandleRepository;
+import se.sawano.java.security.otp.infrastructure.InMemSecretRepository;
+import se.sawano.java.security.otp.infrastructure.InMemTOTPRegistry;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.KeyHandle.keyHandle;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.WindowSize.windowSize;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class UserTOTPServiceKeyVaultTests {
+
+    private static final Instant TIME = Instant.ofEpochSecond(1111111111);
+    private static final String SECRET_STR = "12345678901234567890";
+    private static final UserId USER = userId("jane");
+
+    private final SoftwareKeyVault vault = new SoftwareKeyVault();
+    private final InMemKeyHandleRepository keyHandleRepository = new InMemKeyHandleRepository();
+    private final InMemDriftRepository driftRepository = new InMemDriftRepository();
+
+    @Test
+    public void should_verify_with_key_in_vault() throws Exception {
+        givenKeyInVault();
+        final UserTOTPService service = service();
+        final TOTP totp = codeFromDeviceAheadBy(1);
+
+        assertTrue(service.verify(totp, USER));
+        assertFalse(service.verify(totp, USER));
+    }
+
+    @Test
+    public void should_not_verify_user_without_key_handle() throws Exception {
+        assertFalse(service().verify(codeFromDeviceAheadBy(0), USER));
+    }
+
+    @Test
+    public void should_learn_drift_with_key_in_vault() throws Exception {
+        givenKeyInVault();
+        final UserTOTPService service = UserTOTPService.builder()
+                                                       .withKeyVault(vault, keyHandleRepository)
+                                                       .withTotpService(totpService(() -> TIME))
+                                                       .withTotpRegistry(new InMemTOTPRegistry())
+                                                       .withDriftTracking(driftRepository, windowSize(5))
+                                                       .create();
+
+        assertTrue(service.verify(codeFromDeviceAheadBy(2), USER));
+        assertEquals(2, driftRepository.driftFor(USER));
+    }
+
+    @Test
+    public void should_verify_asynchronously_with_key_in_vault() throws Exception {
+        givenKeyInVault();
+
+        assertTrue(service().verifyAsync(codeFromDeviceAheadBy(-1), USER).get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_require_secret_repository_or_key_vault() throws Exception {
+        UserTOTPService.builder()
+                       .withTotpService(totpService(() -> TIME))
+                       .withTotpRegistry(new InMemTOTPRegistry())
+                       .create();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_not_combine_key_vault_with_secret_repository() throws Exception {
+        UserTOTPService.builder()
+                       .withKeyVault(vault, keyHandleRepository)
+                       .withSecretRepository(new InMemSecretRepository())
+                       .withTotpService(totpService(() -> TIME))
+                       .withTotpRegistry(new InMemTOTPRegistry())
+                       .create();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_not_combine_key_vault_with_precomputation() throws Exception {
+        final TOTPService totpService = totpService(() -> TIME);
+        UserTOTPService.builder()
+                       .withKeyVault(vault, keyHandleRepository)
+                       .withTotpService(totpService)
+                       .withTotpRegistry(new InMemTOTPRegistry())
+                       .withPrecomputation(new TOTPPrecomputationService(new InMemSecretRepository(), totpService, TOTP.Length.SIX,
+                                                                         Duration.ofMinutes(5), Runnable::run))
+                       .create();
+    }
+
+    private void givenKeyInVault() {
+        vault.store(keyHandle("otp/jane"), secret());
+        keyHandleRepository.save(keyHandle("otp/jane"), USER);
+    }
+
+    private UserTOTPService service() {
+        return UserTOTPService.builder()
+                              .withKeyVault(vault, keyHandleRepository)
+                              .withTotpService(totpService(() -> TIME))
+                              .withTotpRegistry(new InMemTOTPRegistry())
+                              .create();
+    }
+
+    private static TOTP codeFromDeviceAheadBy(final int steps) {
+        final Instant deviceTime = TIME.plus(TOTPService.STEP_SIZE.multipliedBy(steps));
+        return totpService(() -> deviceTime).create(secret(), TOTP.Length.SIX);
+    }
+
+    private static TOTPService totpService(final Clock clock) {
+        return new TOTPService(clock, TOTPService.T0_UTC, TOTPService.STEP_SIZE, windowSize(3));
+    }
+
+    private static SharedSecret secret() {
+        return from(SECRET_STR, ShaAlgorithm.SHA1);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Daniel Sawano
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.sawano.java.security.otp.user;
+
+import org.junit.Test;
+import se.sawano.java.security.otp.SharedSecret;
+import se.sawano.java.security.otp.ShaAlgorithm;
+import se.sawano.java.security.otp.TOTP;
+import se.sawano.java.security.otp.TOTPService;
+import se.sawano.java.security.otp.infrastructure.InMemTOTPRegistry;
+import se.sawano.java.security.otp.user.persistence.SecretRepository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static se.sawano.java.security.otp.TOTP.totp;
+import static se.sawano.java.security.otp.TestObjectFactory.from;
+import static se.sawano.java.security.otp.user.UserId.userId;
+
+public class VerificationExecutorTests {
+
+    // Example data from RFC6238
+    private static final TOTP TOTP_1 = totp(14050471, TOTP.Length.EIGHT);
+    private static final Instant TIME_1 = Instant.ofEpochSecond(1111111111);
+    private static final String SECRET_STR = "12345678901234567890";
+
+    @Test
+    public void should_verify_totp() throws Exception {
+        try (VerificationExecutor executor = new VerificationExecutor(new SlowSecretRepository(0), totpService(), new InMemTOTPRegistry(), 2)) {
+
+            assertTrue(executor.verify(TOTP_1, userId("jane")).get());
+            assertFalse(executor.verify(TOTP_1, userId("jane")).get());
+        }
+    }
+
+    @Test
+    public void should_cap_concurrent_backend_calls() throws Exception {
+        final SlowSecretRepository repository = new SlowSecretRepository(20);
+
+        try (VerificationExecutor executor = new VerificationExecutor(repository, totpService(), new InMemTOTPRegistry(), 3,
+                                                                      Executors.newFixedThreadPool(16))) {
+            final List<CompletableFuture<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 32; ++i) {
+                results.add(executor.verify(TOTP_1, userId("user" + i)));
+            }
+
+            for (final CompletableFuture<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        }
+
+        assertTrue(repository.maxConcurrentCalls.get() <= 3);
+        assertEquals(32, repository.calls.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_not_allow_zero_backend_calls() throws Exception {
+        new VerificationExecutor(new SlowSecretRepository(0), totpService(), new InMemTOTPRegistry(), 0);
+    }
+
+    private TOTPService totpService() {
+        return new TOTPService(() -> TIME_1, TOTPService.T0_UTC, TOTPService.STEP_SIZE, TOTPService.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Hands out a new secret for every user and records how many lookups are in progress at the same time.
+     */
+    static final class SlowSecretRepository implements SecretRepository {
+
+        private final long latencyMillis;
+        private final AtomicInteger concurrentCalls = new AtomicInteger();
+        final AtomicInteger maxConcurrentCalls = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+
+        SlowSecretRepository(final long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public void save(final SharedSecret sharedSecret, final UserId userId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Optional<SharedSecret> secretFor(final UserId userId) {
+            final int current = concurrentCalls.incrementAndGet();
+            maxConcurrentCalls.accumulateAndGet(current, Math::max);
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrentCalls.decrementAndGet();
+            }
+            return Optional.of(from(SECRET_STR, ShaAlgorithm.SHA1));
+        }
+
+        @Override
+        public void deleteFor(final UserId userId) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}